@@ -0,0 +1,142 @@
+package com.vernu.sms.database.local
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import kotlinx.coroutines.runBlocking
+import org.junit.runner.RunWith
+import java.util.Date
+
+@RunWith(AndroidJUnit4::class)
+class SmsDaoTest {
+    private lateinit var db: AppDatabase
+    private lateinit var dao: SmsDao
+
+    @Before
+    fun open() {
+        db = Room.inMemoryDatabaseBuilder(
+            InstrumentationRegistry.getInstrumentation().targetContext, AppDatabase::class.java
+        ).build()
+        dao = db.smsDao()
+    }
+
+    @After
+    fun close() = db.close()
+
+    private fun outgoing(smsId: String, recipient: String, at: Long) = Sms(
+        serverId = smsId, recipient = recipient, message = "hi",
+        type = Sms.TYPE_OUTGOING, status = Sms.STATUS_PENDING, requestedAt = Date(at)
+    )
+
+    private fun firstPage(source: PagingSource<Int, Sms>): List<Sms> = runBlocking {
+        (source.load(PagingSource.LoadParams.Refresh(null, 50, false)) as PagingSource.LoadResult.Page).data
+    }
+
+    private fun search(input: String, type: String? = null): List<Sms> {
+        val match = SmsSearch.matchQuery(input)!!
+        return firstPage(if (type == null) dao.search(match) else dao.search(match, type))
+    }
+
+    @Test
+    fun aRedeliveredBatchInsertsNothing() {
+        val batch = (0 until 100).map { outgoing("sms$it", "+1555000$it", 1_000) }
+        assertEquals(100, dao.insertAll(batch).count { it > 0 })
+        assertEquals(0, dao.insertAll(batch).count { it > 0 })
+    }
+
+    @Test
+    fun statusUpdatesKeepEarlierTimestamps() {
+        dao.insertAll(listOf(outgoing("sms1", "+15550001", 1_000)))
+        dao.updateStatus("sms1", "SENT", 2_000, null, null, null, null, 2_000)
+        dao.updateStatus("sms1", "DELIVERED", null, 3_000, null, null, null, 3_000)
+
+        val row = dao.findByServerId("sms1").single()
+        assertEquals("DELIVERED", row.status)
+        assertEquals(2_000L, row.sentAt?.time)
+        assertEquals(3_000L, row.deliveredAt?.time)
+    }
+
+    @Test
+    fun aLateSentReportDoesNotMoveTheStatusBack() {
+        dao.insertAll(listOf(outgoing("sms1", "+15550001", 1_000), outgoing("sms2", "+15550002", 1_000)))
+        dao.updateStatus("sms1", "DELIVERED", null, 3_000, null, null, null, 3_000)
+        dao.updateStatus("sms2", "FAILED", null, null, 3_000, "1", "Generic failure", 3_000)
+        dao.updateStatus("sms1", "SENT", 2_000, null, null, null, null, 4_000)
+        dao.updateStatus("sms2", "SENT", 2_000, null, null, null, null, 4_000)
+
+        val delivered = dao.findByServerId("sms1").single()
+        assertEquals("DELIVERED", delivered.status)
+        assertEquals(2_000L, delivered.sentAt?.time)
+        val failed = dao.findByServerId("sms2").single()
+        assertEquals("FAILED", failed.status)
+        assertEquals("Generic failure", failed.errorMessage)
+    }
+
+    @Test
+    fun syncedRowsMergeIntoTheDevicesOwn() {
+        dao.insertAll(listOf(outgoing("sms1", "+15550001", 1_000)))
+        dao.updateStatus("sms1", "DELIVERED", 2_000, 3_000, null, null, null, 3_000)
+        val incoming = Sms(
+            fingerprint = "fp1", sender = "+15550009", message = "yo",
+            type = Sms.TYPE_INCOMING, status = Sms.STATUS_RECEIVED, requestedAt = Date(4_000)
+        )
+        dao.insertAll(listOf(incoming))
+
+        // the server still has the outgoing one as sent, its status upload is pending
+        val inserted = dao.mergeRemote(
+            listOf(
+                outgoing("sms1", "+15550001", 900).copy(status = "SENT", serverAcknowledgedAt = Date(5_000)),
+                incoming.copy(serverId = "srv1", serverAcknowledgedAt = Date(5_000)),
+                outgoing("sms2", "+15550002", 800).copy(status = "SENT")
+            )
+        )
+
+        assertEquals(1, inserted)
+        val sent = dao.findByServerId("sms1").single()
+        assertEquals("DELIVERED", sent.status)
+        assertEquals(1_000L, sent.requestedAt?.time)
+        assertEquals(5_000L, sent.serverAcknowledgedAt?.time)
+        assertEquals("fp1", dao.findByServerId("srv1").single().fingerprint)
+    }
+
+    @Test
+    fun pruningKeepsPendingAndNewestRows() {
+        dao.insertAll((0 until 10).map { outgoing("sms$it", "+1555", it * 1_000L) })
+        (0 until 5).forEach { dao.updateStatus("sms$it", "SENT", 1, null, null, null, null, 1) }
+
+        // sms0..sms4 are settled and old; the rest are still pending
+        assertEquals(3, dao.deleteOlderThan(3_000))
+        assertEquals(4, dao.deleteBeyond(3))
+        assertEquals(listOf("sms7", "sms8", "sms9"), dao.findByStatus(Sms.STATUS_PENDING, 10).map { it.serverId })
+    }
+
+    @Test
+    fun searchFollowsInsertsUpdatesAndDeletes() {
+        dao.insertAll(listOf(outgoing("sms1", "+15550001", 1_000).copy(message = "Your code is 4821")))
+        dao.insertAll(
+            listOf(
+                Sms(
+                    fingerprint = "fp1", sender = "+15550009", message = "Lunch tomorrow?",
+                    type = Sms.TYPE_INCOMING, status = Sms.STATUS_RECEIVED, requestedAt = Date(2_000)
+                )
+            )
+        )
+
+        assertEquals(listOf("sms1"), search("CODE").map { it.serverId })
+        assertEquals(listOf("fp1", null), search("+1555000").map { it.fingerprint })
+        assertEquals(listOf("fp1"), search("1555000", Sms.TYPE_INCOMING).map { it.fingerprint })
+
+        val lunch = search("lunch").single()
+        dao.update(lunch.copy(message = "Lunch today"))
+        assertEquals(emptyList<Sms>(), search("tomorrow"))
+        assertEquals(1, search("today").size)
+
+        dao.deleteOlderThan(3_000)
+        assertEquals(listOf("sms1"), search("your").map { it.serverId })
+    }
+}
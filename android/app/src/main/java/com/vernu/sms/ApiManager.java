@@ -1,33 +1,91 @@
 package com.vernu.sms;
 
+import com.vernu.sms.network.ApiLatencyInterceptor;
+import com.vernu.sms.network.GzipRequestInterceptor;
 import com.vernu.sms.services.GatewayApiService;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+/**
+ * Owns the single {@link OkHttpClient} and {@link Retrofit} instance every API
+ * interface is created from, so all calls share one connection pool and one
+ * HTTP/2 connection to the backend.
+ */
 public class ApiManager {
-    private static GatewayApiService apiService;
+    // WorkManager runs at most 4 workers at once; the UI adds a few suspending calls on top
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static final ApiLatencyInterceptor latencyInterceptor = new ApiLatencyInterceptor();
+    private static volatile Retrofit retrofit;
+    private static volatile GatewayApiService apiService;
 
     public static GatewayApiService getApiService() {
-        if (apiService == null) {
-            apiService = createApiService();
+        GatewayApiService service = apiService;
+        if (service == null) {
+            synchronized (ApiManager.class) {
+                service = apiService;
+                if (service == null) {
+                    service = getRetrofit().create(GatewayApiService.class);
+                    apiService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    public static Retrofit getRetrofit() {
+        Retrofit instance = retrofit;
+        if (instance == null) {
+            synchronized (ApiManager.class) {
+                instance = retrofit;
+                if (instance == null) {
+                    instance = new Retrofit.Builder()
+                            .baseUrl(AppConstants.API_BASE_URL)
+                            .client(createHttpClient())
+                            .addConverterFactory(GsonConverterFactory.create())
+                            .build();
+                    retrofit = instance;
+                }
+            }
         }
-        return apiService;
+        return instance;
     }
 
-    private static GatewayApiService createApiService() {
-//        OkHttpClient.Builder httpClient = new OkHttpClient.Builder();
+    /** Per-endpoint latency of every call made through {@link #getRetrofit()}. */
+    public static ApiLatencyInterceptor getLatencyInterceptor() {
+        return latencyInterceptor;
+    }
+
+    private static OkHttpClient createHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        OkHttpClient.Builder httpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, 5, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .callTimeout(60, TimeUnit.SECONDS)
+                .addInterceptor(latencyInterceptor)
+                .addInterceptor(new GzipRequestInterceptor());
+
 //        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
 //        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
 //        httpClient.addInterceptor(loggingInterceptor);
 
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(AppConstants.API_BASE_URL)
-//                .client(httpClient.build())
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
-        apiService = retrofit.create(GatewayApiService.class);
-
-        return retrofit.create(GatewayApiService.class);
+        return httpClient.build();
     }
 }
@@ -13,6 +13,11 @@ public class AppConstants {
     public static final String SHARED_PREFS_API_KEY_KEY = "API_KEY";
     public static final String SHARED_PREFS_GATEWAY_ENABLED_KEY = "GATEWAY_ENABLED";
     public static final String SHARED_PREFS_PREFERRED_SIM_KEY = "PREFERRED_SIM";
+    public static final String SHARED_PREFS_SIM_STRATEGY_KEY = "SIM_STRATEGY";
+    /** Send everything on the backend-pinned or preferred SIM. */
+    public static final String SIM_STRATEGY_PREFERRED = "PREFERRED";
+    /** Spread messages that are not pinned to a SIM over all active SIMs. */
+    public static final String SIM_STRATEGY_BALANCED = "BALANCED";
     public static final String SHARED_PREFS_RECEIVE_SMS_ENABLED_KEY = "RECEIVE_SMS_ENABLED";
     public static final String SHARED_PREFS_TRACK_SENT_SMS_STATUS_KEY = "TRACK_SENT_SMS_STATUS";
     public static final String SHARED_PREFS_LAST_VERSION_CODE_KEY = "LAST_VERSION_CODE";
@@ -26,6 +31,28 @@ public class AppConstants {
     public static final String SHARED_PREFS_SMS_SEND_DELAY_SECONDS_KEY = "SMS_SEND_DELAY_SECONDS";
     /** Default delay between SMS sends (seconds). 5s helps avoid carrier/device throttling. */
     public static final int DEFAULT_SMS_SEND_DELAY_SECONDS = 5;
+    public static final String SHARED_PREFS_SMS_SEND_BURST_KEY = "SMS_SEND_BURST";
+    /** Default number of SMS a SIM may send back to back before the send delay applies. */
+    public static final int DEFAULT_SMS_SEND_BURST = 1;
+    public static final String SHARED_PREFS_SMS_SEND_WINDOW_KEY = "SMS_SEND_WINDOW";
+    /** Default number of SMS per SIM that may be waiting for their SMS_SENT result at once. */
+    public static final int DEFAULT_SMS_SEND_WINDOW = 2;
+    public static final String SHARED_PREFS_SMS_SENT_TIMEOUT_SECONDS_KEY = "SMS_SENT_TIMEOUT_SECONDS";
+    /** Default time after which an SMS without an SMS_SENT result stops holding its SIM's send window. */
+    public static final int DEFAULT_SMS_SENT_TIMEOUT_SECONDS = 30;
+    public static final String SHARED_PREFS_RECEIVED_SMS_BATCH_SIZE_KEY = "RECEIVED_SMS_BATCH_SIZE";
+    /** Default number of received SMS forwarded to the backend per request. */
+    public static final int DEFAULT_RECEIVED_SMS_BATCH_SIZE = 50;
+    public static final String SHARED_PREFS_RECEIVED_SMS_DEDUP_WINDOW_HOURS_KEY = "RECEIVED_SMS_DEDUP_WINDOW_HOURS";
+    /** Default time a received SMS is remembered, so a repeated broadcast of it is dropped. */
+    public static final int DEFAULT_RECEIVED_SMS_DEDUP_WINDOW_HOURS = 24;
+    public static final String SHARED_PREFS_SMS_HISTORY_RETENTION_DAYS_KEY = "SMS_HISTORY_RETENTION_DAYS";
+    /** Default number of days sent and received SMS are kept in the local message store. */
+    public static final int DEFAULT_SMS_HISTORY_RETENTION_DAYS = 30;
     public static final String SHARED_PREFS_USE_NEW_UI_KEY = "USE_NEW_UI";
     public static final String SHARED_PREFS_LAST_HEARTBEAT_MS_KEY = "LAST_HEARTBEAT_MS";
+    /** createdAt of the newest message synced from the server into the local message store. */
+    public static final String SHARED_PREFS_MESSAGES_SYNCED_UNTIL_MS_KEY = "MESSAGES_SYNCED_UNTIL_MS";
+    /** Server cursor for older messages to sync when the message list scrolls past the local ones; empty once all are synced. */
+    public static final String SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY = "MESSAGES_OLDER_CURSOR";
 }
@@ -15,6 +15,7 @@ import androidx.core.content.ContextCompat;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import com.vernu.sms.services.StickyNotificationService;
 import com.vernu.sms.helpers.SharedPreferenceHelper;
+import com.vernu.sms.helpers.SimRegistry;
 import com.vernu.sms.dtos.SimInfoDTO;
 
 import java.util.ArrayList;
@@ -29,14 +30,7 @@ public class TextBeeUtils {
     }
 
     public static List<SubscriptionInfo> getAvailableSimSlots(Context context) {
-
-        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
-            return new ArrayList<>();
-        }
-
-        SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-        return subscriptionManager.getActiveSubscriptionInfoList();
-
+        return SimRegistry.getActiveSubscriptions(context);
     }
 
     public static void startStickyNotificationService(Context context) {
@@ -126,22 +120,21 @@ public class TextBeeUtils {
      * @return List of SimInfoDTO objects containing SIM information, or empty list if permission not granted
      */
     public static List<SimInfoDTO> collectSimInfo(Context context) {
-        List<SimInfoDTO> simInfoList = new ArrayList<>();
-
         if (ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
             Log.w(TAG, "READ_PHONE_STATE permission not granted, cannot collect SIM info");
-            return simInfoList;
+            return new ArrayList<>();
         }
+        return SimRegistry.getSimInfo(context);
+    }
 
-        try {
-            SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-            List<SubscriptionInfo> subscriptionInfoList = subscriptionManager.getActiveSubscriptionInfoList();
-
-            if (subscriptionInfoList == null) {
-                Log.d(TAG, "No active subscriptions found");
-                return simInfoList;
-            }
+    /**
+     * Builds the SimInfoDTOs for a list of active subscriptions. Used by
+     * {@link SimRegistry}, which caches the result per subscription snapshot.
+     */
+    public static List<SimInfoDTO> buildSimInfo(List<SubscriptionInfo> subscriptionInfoList) {
+        List<SimInfoDTO> simInfoList = new ArrayList<>();
 
+        try {
             for (SubscriptionInfo subscriptionInfo : subscriptionInfoList) {
                 SimInfoDTO simInfo = new SimInfoDTO();
                 simInfo.setSubscriptionId(subscriptionInfo.getSubscriptionId());
@@ -279,27 +272,6 @@ public class TextBeeUtils {
      * @return true if the subscription ID exists, false otherwise
      */
     public static boolean isValidSubscriptionId(Context context, int subscriptionId) {
-        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
-            return false;
-        }
-
-        try {
-            SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-            List<SubscriptionInfo> subscriptionInfoList = subscriptionManager.getActiveSubscriptionInfoList();
-
-            if (subscriptionInfoList == null) {
-                return false;
-            }
-
-            for (SubscriptionInfo subscriptionInfo : subscriptionInfoList) {
-                if (subscriptionInfo.getSubscriptionId() == subscriptionId) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error validating subscription ID: " + e.getMessage(), e);
-        }
-
-        return false;
+        return SimRegistry.isActiveSubscription(context, subscriptionId);
     }
 }
@@ -116,7 +116,7 @@ public class SMSFilterActivity extends AppCompatActivity {
         filterTargetSpinner.setAdapter(targetAdapter);
 
         // Setup match type spinner
-        String[] matchTypes = {"Exact Match", "Starts With", "Ends With", "Contains"};
+        String[] matchTypes = {"Exact Match", "Starts With", "Ends With", "Contains", "Regex", "Phone Number"};
         ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, matchTypes);
         spinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         matchTypeSpinner.setAdapter(spinnerAdapter);
@@ -152,6 +152,11 @@ public class SMSFilterActivity extends AppCompatActivity {
             SMSFilterRule.FilterTarget filterTarget = SMSFilterRule.FilterTarget.values()[filterTargetSpinner.getSelectedItemPosition()];
             SMSFilterRule.MatchType matchType = SMSFilterRule.MatchType.values()[matchTypeSpinner.getSelectedItemPosition()];
             boolean caseSensitive = caseSensitiveSwitch.isChecked();
+            if (!new SMSFilterRule(pattern, matchType, filterTarget, caseSensitive).isValidPattern()) {
+                Toast.makeText(this, matchType == SMSFilterRule.MatchType.REGEX
+                        ? "Invalid regular expression" : "Please enter a phone number", Toast.LENGTH_SHORT).show();
+                return;
+            }
             
             if (isEdit) {
                 SMSFilterRule rule = filterConfig.getRules().get(position);
@@ -220,6 +225,12 @@ public class SMSFilterActivity extends AppCompatActivity {
                 case CONTAINS:
                     matchTypeText = "Contains";
                     break;
+                case REGEX:
+                    matchTypeText = "Regex";
+                    break;
+                case PHONE_NUMBER:
+                    matchTypeText = "Phone Number";
+                    break;
             }
             holder.matchTypeText.setText(matchTypeText);
 
@@ -1,16 +1,45 @@
 package com.vernu.sms.database.local
 
-/*
 import android.content.Context
 import androidx.room.*
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 
-@Database(entities = [Sms::class], version = 2)
+@Database(entities = [Sms::class, SmsFts::class], version = 2, exportSchema = false)
 @TypeConverters(DateConverter::class)
 abstract class AppDatabase : RoomDatabase() {
 
-    abstract fun localReceivedSMSDao(): SmsDao
+    abstract fun smsDao(): SmsDao
 
     companion object {
+        private const val DATABASE_NAME = "textbee.db"
+
+        /** Adds the full-text index, with the triggers Room would create for it, and fills it from the rows already stored. */
+        @JvmField
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS `sms_fts` USING FTS4(" +
+                        "`message` TEXT NOT NULL, `sender` TEXT, `recipient` TEXT, " +
+                        "tokenize=unicode61, content=`sms`)"
+                )
+                listOf("UPDATE", "DELETE").forEach { event ->
+                    db.execSQL(
+                        "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_sms_fts_BEFORE_$event " +
+                            "BEFORE $event ON `sms` BEGIN DELETE FROM `sms_fts` WHERE `docid`=OLD.`rowid`; END"
+                    )
+                }
+                listOf("UPDATE", "INSERT").forEach { event ->
+                    db.execSQL(
+                        "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_sms_fts_AFTER_$event " +
+                            "AFTER $event ON `sms` BEGIN INSERT INTO `sms_fts`(`docid`, `message`, `sender`, `recipient`) " +
+                            "VALUES (NEW.`rowid`, NEW.`message`, NEW.`sender`, NEW.`recipient`); END"
+                    )
+                }
+                db.execSQL("INSERT INTO `sms_fts`(`sms_fts`) VALUES ('rebuild')")
+            }
+        }
+
         @Volatile
         private var INSTANCE: AppDatabase? = null
 
@@ -19,10 +48,14 @@ abstract class AppDatabase : RoomDatabase() {
                 INSTANCE ?: Room.databaseBuilder(
                     context.applicationContext,
                     AppDatabase::class.java,
-                    "db1"
-                ).build().also { INSTANCE = it }
+                    DATABASE_NAME
+                )
+                    // status writes from receivers must not block the UI reading the table
+                    .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                    .addMigrations(MIGRATION_1_2)
+                    .build()
+                    .also { INSTANCE = it }
             }
         }
     }
 }
-*/
@@ -1,14 +1,14 @@
 package com.vernu.sms.database.local
 
-/*
 import androidx.room.TypeConverter
 import java.util.Date
 
 object DateConverter {
     @TypeConverter
+    @JvmStatic
     fun toDate(value: Long?): Date? = value?.let { Date(it) }
 
     @TypeConverter
+    @JvmStatic
     fun fromDate(date: Date?): Long? = date?.time
 }
-*/
@@ -1,29 +1,86 @@
 package com.vernu.sms.database.local
 
-/*
 import androidx.annotation.NonNull
 import androidx.room.*
 import java.util.Date
 
-@Entity(tableName = "sms")
+/**
+ * One SMS the device sent or received. Outgoing rows are keyed by the server's
+ * smsId and recipient, incoming rows by the fingerprint the inbox dedups on,
+ * so a redelivered push or a repeated broadcast inserts nothing.
+ * [requestedAt] is when the row was written on the device, or created on the
+ * server for rows only synced from it; lists are ordered by it.
+ */
+@Entity(
+    tableName = "sms",
+    indices = [
+        Index(value = ["status", "requested_at"]),
+        Index(value = ["requested_at"]),
+        Index(value = ["type", "requested_at"]),
+        Index(value = ["_id", "recipient"], unique = true),
+        Index(value = ["fingerprint"], unique = true)
+    ]
+)
 @TypeConverters(DateConverter::class)
 data class Sms(
-    @PrimaryKey(autoGenerate = true) val id: Int = 0,
+    @PrimaryKey(autoGenerate = true) val id: Long = 0,
     @ColumnInfo(name = "_id") val serverId: String? = null,
+    @ColumnInfo(name = "batch_id") val batchId: String? = null,
+    @ColumnInfo(name = "fingerprint") val fingerprint: String? = null,
     @ColumnInfo(name = "message") val message: String = "",
-    @ColumnInfo(name = "encrypted_message") val encryptedMessage: String = "",
-    @ColumnInfo(name = "is_encrypted", defaultValue = "0") val isEncrypted: Boolean = false,
     @ColumnInfo(name = "sender") val sender: String? = null,
     @ColumnInfo(name = "recipient") val recipient: String? = null,
+    @ColumnInfo(name = "sim_subscription_id") val simSubscriptionId: Int? = null,
+    @ColumnInfo(name = "type") @field:NonNull val type: String = "",
+    @ColumnInfo(name = "status") @field:NonNull val status: String = "",
     @ColumnInfo(name = "requested_at") val requestedAt: Date? = null,
     @ColumnInfo(name = "sent_at") val sentAt: Date? = null,
     @ColumnInfo(name = "delivered_at") val deliveredAt: Date? = null,
+    @ColumnInfo(name = "failed_at") val failedAt: Date? = null,
     @ColumnInfo(name = "received_at") val receivedAt: Date? = null,
-    @ColumnInfo(name = "type") @field:NonNull val type: String = "",
+    @ColumnInfo(name = "error_code") val errorCode: String? = null,
+    @ColumnInfo(name = "error_message") val errorMessage: String? = null,
     @ColumnInfo(name = "server_acknowledged_at") val serverAcknowledgedAt: Date? = null,
-    @ColumnInfo(name = "last_acknowledged_request_at") val lastAcknowledgedRequestAt: Date? = null,
-    @ColumnInfo(name = "retry_count", defaultValue = "0") val retryCount: Int = 0
+    @ColumnInfo(name = "updated_at") val updatedAt: Date? = null
 ) {
+    companion object {
+        const val TYPE_OUTGOING = "OUTGOING"
+        const val TYPE_INCOMING = "INCOMING"
+
+        /** Outgoing and waiting to be sent; later statuses are the ones reported to the server. */
+        const val STATUS_PENDING = "PENDING"
+        const val STATUS_RECEIVED = "RECEIVED"
+
+        /** How far along a status is; a status never moves back to a lower rank. */
+        @JvmStatic
+        fun statusRank(status: String): Int = when (status) {
+            STATUS_PENDING -> 0
+            "DISPATCHED" -> 1
+            "SENT" -> 2
+            else -> 3
+        }
+    }
+
     fun hasServerAcknowledged(): Boolean = serverAcknowledgedAt != null
+
+    /**
+     * This row updated with what the server has for it. The device may be
+     * ahead of the server while its status uploads are pending, so the
+     * further status wins and timestamps already known are kept.
+     */
+    fun mergedWith(remote: Sms): Sms {
+        val remoteAhead = statusRank(remote.status) > statusRank(status)
+        return copy(
+            serverId = serverId ?: remote.serverId,
+            batchId = batchId ?: remote.batchId,
+            status = if (remoteAhead) remote.status else status,
+            sentAt = sentAt ?: remote.sentAt,
+            deliveredAt = deliveredAt ?: remote.deliveredAt,
+            failedAt = failedAt ?: remote.failedAt,
+            receivedAt = receivedAt ?: remote.receivedAt,
+            errorCode = if (remoteAhead) remote.errorCode else errorCode,
+            errorMessage = if (remoteAhead) remote.errorMessage else errorMessage,
+            serverAcknowledgedAt = serverAcknowledgedAt ?: remote.serverAcknowledgedAt
+        )
+    }
 }
-*/
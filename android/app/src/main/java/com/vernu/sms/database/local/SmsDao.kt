@@ -1,20 +1,127 @@
 package com.vernu.sms.database.local
 
-/*
+import androidx.paging.PagingSource
 import androidx.room.*
 
 @Dao
-interface SmsDao {
-    @Query("SELECT * FROM sms")
-    suspend fun getAll(): List<Sms>
+abstract class SmsDao {
+    companion object {
+        // Sms.statusRank of the reported status and of the stored one
+        private const val NEW_RANK =
+            "(CASE :status WHEN 'PENDING' THEN 0 WHEN 'DISPATCHED' THEN 1 WHEN 'SENT' THEN 2 ELSE 3 END)"
+        private const val RANK =
+            "(CASE status WHEN 'PENDING' THEN 0 WHEN 'DISPATCHED' THEN 1 WHEN 'SENT' THEN 2 ELSE 3 END)"
+    }
 
-    @Query("SELECT * FROM sms WHERE id IN (:smsIds)")
-    suspend fun loadAllByIds(smsIds: IntArray): List<Sms>
+    data class StatusCount(
+        @ColumnInfo(name = "status") val status: String,
+        @ColumnInfo(name = "count") val count: Int
+    )
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    suspend fun insertAll(vararg sms: Sms)
+    /** Inserts in one transaction; rows already stored are skipped and come back as -1. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract fun insertAll(sms: List<Sms>): List<Long>
 
-    @Delete
-    suspend fun delete(sms: Sms)
+    @Update
+    abstract fun update(sms: Sms): Int
+
+    /**
+     * Applies a status report. A report that arrives late never moves the
+     * status back: SENT does not replace DELIVERED or FAILED, as in
+     * [Sms.statusRank]. Its timestamps are kept either way.
+     */
+    @Query(
+        "UPDATE sms SET " +
+            "status = CASE WHEN $NEW_RANK >= $RANK THEN :status ELSE status END, " +
+            "error_code = CASE WHEN $NEW_RANK >= $RANK THEN :errorCode ELSE error_code END, " +
+            "error_message = CASE WHEN $NEW_RANK >= $RANK THEN :errorMessage ELSE error_message END, " +
+            "sent_at = COALESCE(:sentAt, sent_at), " +
+            "delivered_at = COALESCE(:deliveredAt, delivered_at), " +
+            "failed_at = COALESCE(:failedAt, failed_at), " +
+            "updated_at = :updatedAt " +
+            "WHERE _id = :serverId AND type = 'OUTGOING'"
+    )
+    abstract fun updateStatus(
+        serverId: String,
+        status: String,
+        sentAt: Long?,
+        deliveredAt: Long?,
+        failedAt: Long?,
+        errorCode: String?,
+        errorMessage: String?,
+        updatedAt: Long
+    ): Int
+
+    @Query("UPDATE sms SET server_acknowledged_at = :at WHERE type = 'OUTGOING' AND _id IN (:serverIds)")
+    abstract fun acknowledgeOutgoing(serverIds: List<String>, at: Long): Int
+
+    @Query("UPDATE sms SET server_acknowledged_at = :at WHERE type = 'INCOMING' AND fingerprint IN (:fingerprints)")
+    abstract fun acknowledgeIncoming(fingerprints: List<String>, at: Long): Int
+
+    @Query("SELECT status, COUNT(*) AS count FROM sms WHERE type = :type GROUP BY status")
+    abstract fun countByStatus(type: String): List<StatusCount>
+
+    @Query("SELECT * FROM sms WHERE status = :status ORDER BY requested_at LIMIT :limit")
+    abstract fun findByStatus(status: String, limit: Int): List<Sms>
+
+    @Query("SELECT * FROM sms WHERE _id = :serverId")
+    abstract fun findByServerId(serverId: String): List<Sms>
+
+    @Query("SELECT * FROM sms WHERE type = 'OUTGOING' AND _id = :serverId AND recipient IS :recipient")
+    abstract fun findOutgoing(serverId: String, recipient: String?): Sms?
+
+    @Query("SELECT * FROM sms WHERE type = 'INCOMING' AND fingerprint = :fingerprint")
+    abstract fun findIncoming(fingerprint: String): Sms?
+
+    /** Newest first; the id breaks ties so the order, and each row's place in it, is stable. */
+    @Query("SELECT * FROM sms ORDER BY requested_at DESC, id DESC")
+    abstract fun pagingSource(): PagingSource<Int, Sms>
+
+    @Query("SELECT * FROM sms WHERE type = :type ORDER BY requested_at DESC, id DESC")
+    abstract fun pagingSource(type: String): PagingSource<Int, Sms>
+
+    /** Rows matching [match], an expression from [SmsSearch.matchQuery], in list order. */
+    @Query(
+        "SELECT sms.* FROM sms JOIN sms_fts ON sms.id = sms_fts.rowid " +
+            "WHERE sms_fts MATCH :match ORDER BY sms.requested_at DESC, sms.id DESC"
+    )
+    abstract fun search(match: String): PagingSource<Int, Sms>
+
+    @Query(
+        "SELECT sms.* FROM sms JOIN sms_fts ON sms.id = sms_fts.rowid " +
+            "WHERE sms_fts MATCH :match AND sms.type = :type ORDER BY sms.requested_at DESC, sms.id DESC"
+    )
+    abstract fun search(match: String, type: String): PagingSource<Int, Sms>
+
+    /**
+     * Stores SMS fetched from the server, merging each into the row the
+     * device already has for it. Returns how many were new to the device.
+     */
+    @Transaction
+    open fun mergeRemote(remote: List<Sms>): Int {
+        var inserted = 0
+        for (sms in remote) {
+            val existing = when {
+                sms.type == Sms.TYPE_OUTGOING && sms.serverId != null -> findOutgoing(sms.serverId, sms.recipient)
+                sms.type == Sms.TYPE_INCOMING && sms.fingerprint != null -> findIncoming(sms.fingerprint)
+                else -> null
+            }
+            if (existing == null) {
+                if (insertAll(listOf(sms)).first() > 0) inserted++
+            } else {
+                val merged = existing.mergedWith(sms)
+                // unchanged rows are not written, so the lists reading the table are not invalidated
+                if (merged != existing) update(merged.copy(updatedAt = sms.updatedAt ?: merged.updatedAt))
+            }
+        }
+        return inserted
+    }
+
+    /** Deletes settled rows written before [cutoff]; outgoing rows still pending are kept. */
+    @Query("DELETE FROM sms WHERE requested_at < :cutoff AND status != 'PENDING'")
+    abstract fun deleteOlderThan(cutoff: Long): Int
+
+    /** Deletes all but the newest [keep] rows. */
+    @Query("DELETE FROM sms WHERE id <= (SELECT id FROM sms ORDER BY id DESC LIMIT 1 OFFSET :keep)")
+    abstract fun deleteBeyond(keep: Int): Int
 }
-*/
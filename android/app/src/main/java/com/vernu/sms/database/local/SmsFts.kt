@@ -0,0 +1,17 @@
+package com.vernu.sms.database.local
+
+import androidx.room.*
+
+/**
+ * Full-text index over the body and both parties of each [Sms]. It stores no
+ * text of its own: Room keeps it in step with the sms table through triggers,
+ * so every insert, status update and prune reindexes just the rows it touched.
+ */
+@Entity(tableName = "sms_fts")
+@Fts4(contentEntity = Sms::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+data class SmsFts(
+    @PrimaryKey @ColumnInfo(name = "rowid") val rowId: Long,
+    @ColumnInfo(name = "message") val message: String,
+    @ColumnInfo(name = "sender") val sender: String?,
+    @ColumnInfo(name = "recipient") val recipient: String?
+)
@@ -0,0 +1,21 @@
+package com.vernu.sms.database.local
+
+import java.util.Locale
+
+object SmsSearch {
+    private val SEPARATORS = Regex("[^\\p{L}\\p{N}]+")
+
+    /**
+     * The sms_fts MATCH expression for what the user typed: every word must
+     * appear, each as a prefix so results narrow while typing. Words are
+     * lowercased letters and digits only, which the index folds to anyway, so
+     * input can never form an FTS operator or a syntax error. Null when
+     * nothing searchable is left.
+     */
+    @JvmStatic
+    fun matchQuery(input: String): String? {
+        val words = input.lowercase(Locale.ROOT).split(SEPARATORS).filter { it.isNotEmpty() }
+        if (words.isEmpty()) return null
+        return words.joinToString(" ") { "$it*" }
+    }
+}
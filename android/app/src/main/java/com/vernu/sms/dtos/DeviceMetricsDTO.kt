@@ -0,0 +1,6 @@
+package com.vernu.sms.dtos
+
+class DeviceMetricsDTO {
+    var trackedMessages: Int = 0
+    var lifecycleStages: MutableList<LifecycleStageDTO>? = null
+}
@@ -0,0 +1,24 @@
+package com.vernu.sms.dtos
+
+class FilterListChangesResponseDTO {
+    var data: Data? = null
+
+    class Data {
+        /** The committed list version; no entry of a later change is served. */
+        var listVersion: Long = 0
+        var entries: List<Entry> = emptyList()
+        /** Pass back to fetch the next page; null on the last page. */
+        var nextCursor: String? = null
+    }
+
+    class Entry {
+        var id: String? = null
+        var pattern: String? = null
+        var matchType: String? = null
+        var filterTarget: String? = null
+        var caseSensitive: Boolean = false
+        /** List version of the change that added or removed the entry. */
+        var version: Long = 0
+        var deleted: Boolean = false
+    }
+}
@@ -0,0 +1,14 @@
+package com.vernu.sms.dtos
+
+class FilterListsResponseDTO {
+    var data: List<FilterList> = emptyList()
+
+    class FilterList {
+        var id: String? = null
+        var name: String? = null
+        var version: Long = 0
+        // BLOCK_LIST or ALLOW_LIST; older backends send none, meaning BLOCK_LIST
+        var mode: String? = null
+        var entryCount: Int = 0
+    }
+}
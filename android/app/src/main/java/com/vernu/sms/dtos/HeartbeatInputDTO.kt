@@ -18,4 +18,7 @@ class HeartbeatInputDTO {
     var receiveSMSEnabled: Boolean? = null
     var smsSendDelaySeconds: Int? = null
     var simInfo: SimInfoCollectionDTO? = null
+    var sendRateLimits: MutableList<SendRateLimitDTO>? = null
+    var sendQueueLanes: MutableList<SendQueueLaneDTO>? = null
+    var metrics: DeviceMetricsDTO? = null
 }
@@ -5,4 +5,5 @@ class HeartbeatResponseDTO {
     @JvmField var fcmTokenUpdated: Boolean = false
     @JvmField var lastHeartbeat: Long = 0
     @JvmField var name: String? = null
+    @JvmField var hasPendingSms: Boolean = false
 }
@@ -0,0 +1,14 @@
+package com.vernu.sms.dtos
+
+class LifecycleStageDTO {
+    var stage: String? = null
+    var count: Long = 0
+    var failures: Long = 0
+    var lastMinuteCount: Int = 0
+    var p50Millis: Long = 0
+    var p95Millis: Long = 0
+    var p99Millis: Long = 0
+    var maxMillis: Long = 0
+    var sinceStartP50Millis: Long = 0
+    var sinceStartP95Millis: Long = 0
+}
@@ -16,6 +16,11 @@ data class SmsMessage(
     @SerializedName("requestedAt") val requestedAt: String? = null,
     @SerializedName("receivedAt") val receivedAt: String? = null,
     @SerializedName("createdAt") val createdAt: String? = null,
+    @SerializedName("type") val type: String? = null,
+    @SerializedName("smsBatch") val smsBatch: String? = null,
+    @SerializedName("sentAt") val sentAt: String? = null,
+    @SerializedName("deliveredAt") val deliveredAt: String? = null,
+    @SerializedName("failedAt") val failedAt: String? = null,
     @SerializedName("status") val status: String? = null,
     @SerializedName("errorCode") val errorCode: String? = null,
     @SerializedName("errorMessage") val errorMessage: String? = null
@@ -29,7 +34,9 @@ data class PaginationMeta(
     @SerializedName("page") val page: Int? = null,
     @SerializedName("limit") val limit: Int? = null,
     @SerializedName("total") val total: Int? = null,
-    @SerializedName("totalPages") val totalPages: Int? = null
+    @SerializedName("totalPages") val totalPages: Int? = null,
+    @SerializedName("hasMore") val hasMore: Boolean? = null,
+    @SerializedName("nextCursor") val nextCursor: String? = null
 )
 
 data class SendSmsRequest(
@@ -0,0 +1,5 @@
+package com.vernu.sms.dtos
+
+class PendingSMSAckDTO {
+    var smsIds: List<String> = emptyList()
+}
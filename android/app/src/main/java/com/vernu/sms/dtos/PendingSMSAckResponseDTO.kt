@@ -0,0 +1,10 @@
+package com.vernu.sms.dtos
+
+class PendingSMSAckResponseDTO {
+    var data: Data? = null
+
+    class Data {
+        var success: Boolean = false
+        var acknowledgedCount: Int = 0
+    }
+}
@@ -0,0 +1,21 @@
+package com.vernu.sms.dtos
+
+class PendingSMSResponseDTO {
+    var data: Data? = null
+
+    class Data {
+        var items: List<Item> = emptyList()
+        /** Pass back to fetch the next page; null on the last page. */
+        var nextCursor: String? = null
+    }
+
+    class Item {
+        var smsId: String? = null
+        var smsBatchId: String? = null
+        var recipient: String? = null
+        var message: String? = null
+        var simSubscriptionId: Int? = null
+        var priority: String? = null
+        var sendAt: Long? = null
+    }
+}
@@ -0,0 +1,5 @@
+package com.vernu.sms.dtos
+
+class ReceivedSMSBatchDTO {
+    var messages: List<SMSDTO> = emptyList()
+}
@@ -0,0 +1,18 @@
+package com.vernu.sms.dtos
+
+class ReceivedSMSBatchResponseDTO {
+    var data: Data? = null
+
+    class Data {
+        var success: Boolean = false
+        /** One result per message, in request order. */
+        var results: List<ItemResult> = emptyList()
+    }
+
+    class ItemResult {
+        var success: Boolean = false
+        var retryable: Boolean = false
+        var smsId: String? = null
+        var error: String? = null
+    }
+}
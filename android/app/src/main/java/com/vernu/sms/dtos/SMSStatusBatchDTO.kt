@@ -0,0 +1,5 @@
+package com.vernu.sms.dtos
+
+class SMSStatusBatchDTO {
+    var updates: List<SMSDTO> = emptyList()
+}
@@ -0,0 +1,16 @@
+package com.vernu.sms.dtos
+
+class SMSStatusBatchResponseDTO {
+    var data: Data? = null
+
+    class Data {
+        var success: Boolean = false
+        var results: List<ItemResult> = emptyList()
+    }
+
+    class ItemResult {
+        var smsId: String? = null
+        var success: Boolean = false
+        var error: String? = null
+    }
+}
@@ -0,0 +1,11 @@
+package com.vernu.sms.dtos
+
+class SendQueueLaneDTO {
+    var priority: String? = null
+    var depth: Int = 0
+    var oldestWaitMillis: Long = 0
+    var dispatchedCount: Long = 0
+    var waitP50Millis: Long = 0
+    var waitP95Millis: Long = 0
+    var waitMaxMillis: Long = 0
+}
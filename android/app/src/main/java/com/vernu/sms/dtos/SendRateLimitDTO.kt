@@ -0,0 +1,10 @@
+package com.vernu.sms.dtos
+
+class SendRateLimitDTO {
+    var simSubscriptionId: Int = -1
+    var tokens: Double = 0.0
+    var burst: Int = 0
+    var ratePerMinute: Double? = null
+    var nextAllowedAtMillis: Long = 0
+    var adaptiveRatePerMinute: Double? = null
+}
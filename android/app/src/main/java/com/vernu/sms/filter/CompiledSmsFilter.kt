@@ -0,0 +1,123 @@
+package com.vernu.sms.filter
+
+import com.vernu.sms.models.SMSFilterRule
+import com.vernu.sms.models.SMSFilterRule.FilterTarget
+import com.vernu.sms.models.SMSFilterRule.MatchType
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * The filter rules compiled for matching: rules are grouped by the text they
+ * look at and by case mode, case-insensitive patterns are lowercased once at
+ * compile time, and each group is a [PatternSet]. A message costs one
+ * lowercase per field and a pass over each field per group, however many
+ * rules there are. REGEX rules are precompiled into a [RegexSet] per field and
+ * only run when no other rule matched, each within [regexTimeoutMillis].
+ *
+ * Matches exactly what [SMSFilterRule.matches] would for each rule, except
+ * that a regex cut off by the timeout counts as not matching.
+ *
+ * Rules can be added and removed with [update] without compiling the rest
+ * again; messages are matched against the rules before or after an update,
+ * never in between.
+ */
+class CompiledSmsFilter private constructor(
+    private val regexTimeoutMillis: Long,
+    onRegexAbandoned: ((String) -> Unit)?
+) {
+    private val senderCased = PatternSet()
+    private val senderFolded = PatternSet()
+    private val messageCased = PatternSet()
+    private val messageFolded = PatternSet()
+    private val senderRegex = RegexSet(onRegexAbandoned)
+    private val messageRegex = RegexSet(onRegexAbandoned)
+    private val lock = ReentrantReadWriteLock()
+
+    @Volatile
+    var ruleCount = 0
+        private set
+
+    /** True if any rule matches the sender or message. */
+    fun matchesAny(sender: String?, message: String?): Boolean = lock.read {
+        if (matchesField(sender, senderCased, senderFolded)) return@read true
+        if (matchesField(message, messageCased, messageFolded)) return@read true
+        if (senderRegex.isEmpty && messageRegex.isEmpty) return@read false
+        (sender != null && !senderRegex.isEmpty && senderRegex.matches(sender, regexTimeoutMillis)) ||
+            (message != null && !messageRegex.isEmpty && messageRegex.matches(message, regexTimeoutMillis))
+    }
+
+    /**
+     * Removes one occurrence of each rule in [removed], then adds [added].
+     * Costs time in proportion to the rules changed, plus relinking the
+     * CONTAINS automata the change touched.
+     */
+    fun update(added: List<SMSFilterRule>, removed: List<SMSFilterRule>) {
+        if (this === EMPTY) throw UnsupportedOperationException("EMPTY is shared and cannot be updated")
+        lock.write {
+            var count = ruleCount
+            for (rule in removed) if (change(rule, add = false)) count--
+            for (rule in added) if (change(rule, add = true)) count++
+            build()
+            ruleCount = count
+        }
+    }
+
+    private fun matchesField(text: String?, caseSensitive: PatternSet, folded: PatternSet): Boolean {
+        if (text == null) return false
+        if (!caseSensitive.isEmpty && caseSensitive.matches(text)) return true
+        return !folded.isEmpty && folded.matches(text.lowercase())
+    }
+
+    /** False if the rule is incomplete or its pattern cannot match, as [compile] describes. */
+    private fun change(rule: SMSFilterRule, add: Boolean): Boolean {
+        val pattern = rule.pattern ?: return false
+        val matchType = rule.matchType ?: return false
+        val onSender = rule.filterTarget != FilterTarget.MESSAGE
+        val onMessage = rule.filterTarget != FilterTarget.SENDER
+        if (matchType == MatchType.REGEX) {
+            val apply = { set: RegexSet -> if (add) set.add(pattern, rule.caseSensitive) else set.remove(pattern, rule.caseSensitive) }
+            return (!onSender || apply(senderRegex)) and (!onMessage || apply(messageRegex))
+        }
+        val folded = if (rule.caseSensitive) pattern else pattern.lowercase()
+        val apply = { set: PatternSet -> if (add) set.add(folded, matchType) else set.remove(folded, matchType) }
+        return (!onSender || apply(if (rule.caseSensitive) senderCased else senderFolded)) and
+            (!onMessage || apply(if (rule.caseSensitive) messageCased else messageFolded))
+    }
+
+    private fun build() {
+        senderCased.build()
+        senderFolded.build()
+        messageCased.build()
+        messageFolded.build()
+    }
+
+    companion object {
+        /**
+         * How long one REGEX rule may take on one field of a message; far
+         * beyond what a pattern that does not backtrack needs on an SMS.
+         */
+        const val DEFAULT_REGEX_TIMEOUT_MILLIS = 200L
+
+        @JvmField
+        val EMPTY = compile(emptyList())
+
+        /**
+         * Rules without a pattern or match type, with a regex that does not
+         * compile, or with a phone number without digits are left out.
+         * [onRegexAbandoned] is told about patterns that overran the timeout.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun compile(
+            rules: List<SMSFilterRule>,
+            regexTimeoutMillis: Long = DEFAULT_REGEX_TIMEOUT_MILLIS,
+            onRegexAbandoned: ((String) -> Unit)? = null
+        ): CompiledSmsFilter {
+            val filter = CompiledSmsFilter(regexTimeoutMillis, onRegexAbandoned)
+            filter.ruleCount = rules.count { filter.change(it, add = true) }
+            filter.build()
+            return filter
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.vernu.sms.filter
+
+import com.vernu.sms.models.SMSFilterRule.MatchType
+
+/**
+ * All patterns of one filter target and case mode, compiled so a text is
+ * checked against every pattern in time proportional to the text rather than
+ * the number of patterns: a hash set for EXACT, a trie of prefixes for
+ * STARTS_WITH, a trie of reversed suffixes for ENDS_WITH, an Aho-Corasick
+ * automaton for CONTAINS and normalized numbers indexed by their last digits
+ * for PHONE_NUMBER. REGEX rules are kept in a [RegexSet].
+ *
+ * Patterns are counted, so adding one twice and removing it once keeps it.
+ * Adding or removing CONTAINS patterns leaves the automaton unlinked until
+ * [build] is called again; [matches] must not run in between.
+ */
+internal class PatternSet {
+    private val exact = HashMap<String, Int>()
+    private val prefixes = TrieNode()
+    private val suffixes = TrieNode()
+    private val contains = TrieNode()
+    private val phoneNumbers = HashMap<String, MutableList<PhoneNumbers.Normalized>>()
+    private var prefixCount = 0
+    private var suffixCount = 0
+    private var containsCount = 0
+    private var dirty = false
+
+    val isEmpty: Boolean
+        get() = exact.isEmpty() && prefixCount == 0 && suffixCount == 0 && containsCount == 0 && phoneNumbers.isEmpty()
+
+    /** False if the pattern cannot match anything, such as a PHONE_NUMBER pattern without digits. */
+    fun add(pattern: String, matchType: MatchType): Boolean {
+        when (matchType) {
+            MatchType.EXACT -> exact[pattern] = (exact[pattern] ?: 0) + 1
+            MatchType.STARTS_WITH -> {
+                prefixes.insert(pattern, reversed = false)
+                prefixCount++
+            }
+            MatchType.ENDS_WITH -> {
+                suffixes.insert(pattern, reversed = true)
+                suffixCount++
+            }
+            MatchType.CONTAINS -> {
+                contains.insert(pattern, reversed = false)
+                containsCount++
+                dirty = true
+            }
+            MatchType.PHONE_NUMBER -> {
+                val number = PhoneNumbers.normalize(pattern) ?: return false
+                phoneNumbers.getOrPut(PhoneNumbers.indexKey(number)) { ArrayList(1) }.add(number)
+            }
+            MatchType.REGEX -> throw IllegalArgumentException("REGEX rules belong in a RegexSet")
+        }
+        return true
+    }
+
+    /** Removes one occurrence of a pattern [add] accepted; false if there is none. */
+    fun remove(pattern: String, matchType: MatchType): Boolean {
+        when (matchType) {
+            MatchType.EXACT -> {
+                val count = exact[pattern] ?: return false
+                if (count == 1) exact.remove(pattern) else exact[pattern] = count - 1
+            }
+            MatchType.STARTS_WITH -> {
+                if (!prefixes.delete(pattern, reversed = false)) return false
+                prefixCount--
+            }
+            MatchType.ENDS_WITH -> {
+                if (!suffixes.delete(pattern, reversed = true)) return false
+                suffixCount--
+            }
+            MatchType.CONTAINS -> {
+                if (!contains.delete(pattern, reversed = false)) return false
+                containsCount--
+                dirty = true
+            }
+            MatchType.PHONE_NUMBER -> {
+                val number = PhoneNumbers.normalize(pattern) ?: return false
+                val key = PhoneNumbers.indexKey(number)
+                val candidates = phoneNumbers[key] ?: return false
+                if (!candidates.remove(number)) return false
+                if (candidates.isEmpty()) phoneNumbers.remove(key)
+            }
+            MatchType.REGEX -> throw IllegalArgumentException("REGEX rules belong in a RegexSet")
+        }
+        return true
+    }
+
+    /** Links the CONTAINS automaton after patterns were added or removed. */
+    fun build(): PatternSet {
+        if (dirty) linkFailures(contains)
+        dirty = false
+        return this
+    }
+
+    fun matches(text: String): Boolean =
+        exact.containsKey(text) ||
+            (prefixCount > 0 && matchesPrefix(text)) ||
+            (suffixCount > 0 && matchesSuffix(text)) ||
+            (containsCount > 0 && matchesInfix(text)) ||
+            (phoneNumbers.isNotEmpty() && matchesPhoneNumber(text))
+
+    private fun matchesPhoneNumber(text: String): Boolean {
+        val number = PhoneNumbers.normalize(text) ?: return false
+        val candidates = phoneNumbers[PhoneNumbers.indexKey(number)] ?: return false
+        return candidates.any { PhoneNumbers.sameNumber(it, number) }
+    }
+
+    private fun matchesPrefix(text: String): Boolean {
+        var node = prefixes
+        if (node.ends > 0) return true
+        for (c in text) {
+            node = node.next[c] ?: return false
+            if (node.ends > 0) return true
+        }
+        return false
+    }
+
+    private fun matchesSuffix(text: String): Boolean {
+        var node = suffixes
+        if (node.ends > 0) return true
+        for (i in text.indices.reversed()) {
+            node = node.next[text[i]] ?: return false
+            if (node.ends > 0) return true
+        }
+        return false
+    }
+
+    private fun matchesInfix(text: String): Boolean {
+        val root = contains
+        if (root.terminal) return true
+        var node = root
+        for (c in text) {
+            while (true) {
+                val child = node.next[c]
+                if (child != null) {
+                    node = child
+                    break
+                }
+                if (node === root) break
+                node = node.fail!!
+            }
+            if (node.terminal) return true
+        }
+        return false
+    }
+
+    /** Breadth-first failure links; a node is terminal if any pattern ends at one of its suffixes. */
+    private fun linkFailures(root: TrieNode) {
+        root.terminal = root.ends > 0
+        val queue = ArrayDeque<TrieNode>()
+        for (child in root.next.values) {
+            child.fail = root
+            child.terminal = child.ends > 0
+            queue.addLast(child)
+        }
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            for ((c, child) in node.next) {
+                var fail = node.fail!!
+                while (fail !== root && fail.next[c] == null) fail = fail.fail!!
+                child.fail = fail.next[c]?.takeIf { it !== child } ?: root
+                child.terminal = child.ends > 0 || child.fail!!.terminal
+                queue.addLast(child)
+            }
+        }
+    }
+
+    private class TrieNode {
+        val next = HashMap<Char, TrieNode>(4)
+        /** Patterns ending at this node. */
+        var ends = 0
+        /** CONTAINS automaton only: a pattern ends here or at a failure link. */
+        var terminal = false
+        var fail: TrieNode? = null
+
+        fun insert(pattern: String, reversed: Boolean) {
+            var node = this
+            for (i in pattern.indices) {
+                node = node.next.getOrPut(charAt(pattern, i, reversed)) { TrieNode() }
+            }
+            node.ends++
+        }
+
+        /** Removes one occurrence of [pattern] and prunes branches left without patterns. */
+        fun delete(pattern: String, reversed: Boolean): Boolean {
+            val path = ArrayList<TrieNode>(pattern.length + 1)
+            var node = this
+            path.add(node)
+            for (i in pattern.indices) {
+                node = node.next[charAt(pattern, i, reversed)] ?: return false
+                path.add(node)
+            }
+            if (node.ends == 0) return false
+            node.ends--
+            for (i in pattern.length downTo 1) {
+                val child = path[i]
+                if (child.ends > 0 || child.next.isNotEmpty()) break
+                path[i - 1].next.remove(charAt(pattern, i - 1, reversed))
+            }
+            return true
+        }
+
+        private fun charAt(pattern: String, i: Int, reversed: Boolean): Char =
+            if (reversed) pattern[pattern.length - 1 - i] else pattern[i]
+    }
+}
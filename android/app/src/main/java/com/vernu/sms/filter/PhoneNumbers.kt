@@ -0,0 +1,60 @@
+package com.vernu.sms.filter
+
+/**
+ * Loose E.164 normalization for matching sender numbers without a phone
+ * number library: separators are dropped, a `00` international prefix is
+ * treated like `+`, and a national trunk prefix (leading zeros) is removed.
+ *
+ * Two numbers are the same if both are international and equal, or if at
+ * least one is national and the longer ends with the shorter's
+ * [MIN_NATIONAL_DIGITS] or more digits. So "+1 555-123-4567", "5551234567" and
+ * "0015551234567" all match one rule.
+ */
+object PhoneNumbers {
+    /** Shortest national number matched against the tail of an international one. */
+    const val MIN_NATIONAL_DIGITS = 7
+
+    /** A normalized number: its digits, and whether they start with a country code. */
+    data class Normalized(val digits: String, val international: Boolean)
+
+    /** Null for text that is not a phone number, such as alphanumeric sender IDs. */
+    @JvmStatic
+    fun normalize(text: String): Normalized? {
+        val trimmed = text.trim()
+        if (trimmed.isEmpty()) return null
+        val digits = StringBuilder(trimmed.length)
+        for ((i, c) in trimmed.withIndex()) {
+            when {
+                c in '0'..'9' -> digits.append(c)
+                c == '+' && i == 0 -> {}
+                c == ' ' || c == '-' || c == '.' || c == '(' || c == ')' || c == '/' -> {}
+                else -> return null
+            }
+        }
+        if (digits.isEmpty()) return null
+        return when {
+            trimmed[0] == '+' -> Normalized(digits.toString(), international = true)
+            digits.startsWith("00") -> Normalized(digits.substring(2), international = true)
+            else -> Normalized(digits.toString().trimStart('0'), international = false)
+        }.takeIf { it.digits.isNotEmpty() }
+    }
+
+    @JvmStatic
+    fun sameNumber(a: Normalized, b: Normalized): Boolean {
+        if (a.digits == b.digits) return true
+        if (a.international && b.international) return false
+        val (shorter, longer) = if (a.digits.length <= b.digits.length) a to b else b to a
+        return shorter.digits.length >= MIN_NATIONAL_DIGITS && longer.digits.endsWith(shorter.digits)
+    }
+
+    @JvmStatic
+    fun sameNumber(a: String, b: String): Boolean {
+        val na = normalize(a) ?: return false
+        val nb = normalize(b) ?: return false
+        return sameNumber(na, nb)
+    }
+
+    /** The digits two numbers share whenever [sameNumber] holds, for indexing. */
+    internal fun indexKey(number: Normalized): String =
+        number.digits.takeLast(MIN_NATIONAL_DIGITS)
+}
@@ -0,0 +1,203 @@
+package com.vernu.sms.filter
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.regex.Pattern
+
+/**
+ * REGEX rules of one filter target, compiled once, with two guards against
+ * catastrophic backtracking:
+ *
+ * - patterns that repeat a group which itself contains unbounded repetition,
+ *   like `(a+)+` or `(.*,){10}`, are refused when the rule is saved or
+ *   compiled. This catches the common shapes only; `(a|aa)+$` or
+ *   `\d*\d*\d*x` still backtrack exponentially or polynomially;
+ * - each pattern runs on a worker thread and the caller waits for it at most
+ *   the timeout it passes to [matches]. A pattern that overruns counts as not
+ *   matching and is not run again until the rules are recompiled. The worker
+ *   is interrupted, which stops the match on runtimes whose Matcher reads the
+ *   CharSequence it is given; ART copies the input into its native matcher
+ *   and cannot be stopped, so there the abandoned match finishes on its own,
+ *   at low priority, once per pattern.
+ */
+internal class RegexSet(private val onAbandoned: ((String) -> Unit)?) {
+    private class Entry(val pattern: Pattern) {
+        @Volatile
+        var abandoned = false
+    }
+
+    private val entries = ArrayList<Entry>()
+
+    val isEmpty: Boolean
+        get() = entries.isEmpty()
+
+    /** False if [regex] does not compile; the rule is then ignored. */
+    fun add(regex: String, caseSensitive: Boolean): Boolean {
+        if (hasNestedRepetition(regex)) return false
+        val pattern = compileOrNull(regex, flags(caseSensitive)) ?: return false
+        entries.add(Entry(pattern))
+        return true
+    }
+
+    /** Removes one occurrence of a pattern [add] accepted; false if there is none. */
+    fun remove(regex: String, caseSensitive: Boolean): Boolean {
+        val flags = flags(caseSensitive)
+        val index = entries.indexOfFirst { it.pattern.pattern() == regex && it.pattern.flags() == flags }
+        if (index < 0) return false
+        entries.removeAt(index)
+        return true
+    }
+
+    /**
+     * True if any pattern is found in [text]. Each pattern may take up to
+     * [timeoutMillis]; one that takes longer counts as not matching and is
+     * abandoned.
+     */
+    fun matches(text: String, timeoutMillis: Long): Boolean {
+        for (entry in entries) {
+            if (entry.abandoned) continue
+            val match = worker.submit<Boolean> { entry.pattern.matcher(InterruptibleText(text)).find() }
+            try {
+                if (match.get(timeoutMillis, TimeUnit.MILLISECONDS)) return true
+            } catch (e: TimeoutException) {
+                match.cancel(true)
+                abandon(entry)
+            } catch (e: ExecutionException) {
+                // deeply nested groups on a long text overflow the worker's stack
+                if (e.cause is StackOverflowError) abandon(entry) else throw e
+            } catch (e: InterruptedException) {
+                match.cancel(true)
+                Thread.currentThread().interrupt()
+                return false
+            }
+        }
+        return false
+    }
+
+    private fun abandon(entry: Entry) {
+        if (entry.abandoned) return
+        entry.abandoned = true
+        onAbandoned?.invoke(entry.pattern.pattern())
+    }
+
+    private fun flags(caseSensitive: Boolean): Int =
+        if (caseSensitive) 0 else Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE
+
+    /** The message text, ending the match with [Interrupted] once the worker is interrupted. */
+    private class InterruptibleText(private val text: String) : CharSequence {
+        override val length: Int
+            get() = text.length
+
+        override fun get(index: Int): Char {
+            if (Thread.currentThread().isInterrupted) throw Interrupted
+            return text[index]
+        }
+
+        override fun subSequence(startIndex: Int, endIndex: Int): CharSequence =
+            InterruptibleText(text.substring(startIndex, endIndex))
+
+        override fun toString(): String = text
+    }
+
+    /** Thrown out of the matcher of an abandoned pattern; stackless, as it is thrown under load. */
+    private object Interrupted : RuntimeException("Regex evaluation abandoned", null, false, false)
+
+    companion object {
+        /**
+         * Runs the matches, a thread per match in flight, so that a match
+         * ART cannot stop does not hold up the next message.
+         */
+        private val worker: ExecutorService = Executors.newCachedThreadPool { task ->
+            Thread(task, "RegexSet").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+
+        @JvmStatic
+        fun isValid(regex: String): Boolean = !hasNestedRepetition(regex) && compileOrNull(regex, 0) != null
+
+        /**
+         * True if a group repeated more than once contains an unbounded
+         * quantifier (`*`, `+` or `{n,}`), directly or in a nested group.
+         */
+        @JvmStatic
+        fun hasNestedRepetition(regex: String): Boolean {
+            // per open group: whether it contains unbounded repetition
+            val groups = ArrayList<Boolean>()
+            var i = 0
+            while (i < regex.length) {
+                when (regex[i]) {
+                    '\\' -> {
+                        if (regex.startsWith("Q", i + 1)) {
+                            val end = regex.indexOf("\\E", i + 2)
+                            i = if (end < 0) regex.length else end + 1
+                        } else {
+                            i++
+                        }
+                    }
+                    '[' -> i = classEnd(regex, i)
+                    '(' -> groups.add(false)
+                    ')' -> {
+                        val inner = groups.removeLastOrNull() ?: false
+                        val repeat = quantifierAt(regex, i + 1)
+                        if (inner && repeat > 1) return true
+                        if (groups.isNotEmpty() && (inner || repeat == UNBOUNDED)) groups[groups.size - 1] = true
+                    }
+                    '*', '+', '{' -> if (groups.isNotEmpty() && quantifierAt(regex, i) == UNBOUNDED) {
+                        groups[groups.size - 1] = true
+                    }
+                }
+                i++
+            }
+            return false
+        }
+
+        private const val UNBOUNDED = Int.MAX_VALUE
+
+        /** Maximum repetitions of the quantifier starting at [index]; 1 if there is none. */
+        private fun quantifierAt(regex: String, index: Int): Int {
+            if (index >= regex.length) return 1
+            return when (regex[index]) {
+                '*', '+' -> UNBOUNDED
+                '{' -> {
+                    val close = regex.indexOf('}', index)
+                    if (close < 0) return 1
+                    val bounds = regex.substring(index + 1, close).split(',')
+                    if (bounds[0].toIntOrNull() == null) return 1
+                    when {
+                        bounds.size == 1 -> bounds[0].toInt()
+                        bounds[1].isEmpty() -> UNBOUNDED
+                        else -> bounds[1].toIntOrNull() ?: 1
+                    }
+                }
+                else -> 1
+            }
+        }
+
+        /** Index of the `]` closing the character class opened at [start]. */
+        private fun classEnd(regex: String, start: Int): Int {
+            var depth = 0
+            var i = start
+            while (i < regex.length) {
+                when (regex[i]) {
+                    '\\' -> i++
+                    '[' -> depth++
+                    ']' -> if (--depth == 0) return i
+                }
+                i++
+            }
+            return regex.length
+        }
+
+        private fun compileOrNull(regex: String, flags: Int): Pattern? =
+            try {
+                Pattern.compile(regex, flags)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+    }
+}
@@ -0,0 +1,309 @@
+package com.vernu.sms.filter
+
+import com.vernu.sms.models.SMSFilterRule
+import com.vernu.sms.models.SMSFilterRule.FilterTarget
+import com.vernu.sms.models.SMSFilterRule.MatchType
+import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Local copies of the account's shared filter lists, kept up to date from the
+ * backend's per-list deltas. Each list is one append-only file in [dir]:
+ *
+ *   'A' entryId(12 bytes) flags(1 byte) pattern(modified UTF-8)   entry added
+ *   'R' entryId(12 bytes)                                          entry removed
+ *   'M' allowList(1 byte)                                          the list's mode changed
+ *   'V' version(8 bytes)                                           the records before it are complete
+ *
+ * A change is only taken into account once its 'V' record is written, so a
+ * file cut short by a crash loses at most the change being written. A file
+ * is rewritten with only its live entries once removals make up most of it.
+ *
+ * A list is a block list unless the backend marks it as an allow list; the
+ * two kinds are kept apart so each is matched in its own mode.
+ */
+class SharedRuleStore(private val dir: File) {
+    /** What [apply] changed in a list of the given mode, to pass on to [CompiledSmsFilter.update]. */
+    class Delta(
+        val added: List<SMSFilterRule>,
+        val removed: List<SMSFilterRule>,
+        val allowList: Boolean = false
+    ) {
+        val isEmpty: Boolean
+            get() = added.isEmpty() && removed.isEmpty()
+    }
+
+    /** One entry of a delta; [rule] is null for an entry that was removed. */
+    class Change(val entryId: String, val rule: SMSFilterRule?)
+
+    private class SharedList(val file: File) {
+        val entries = HashMap<EntryId, SMSFilterRule>()
+        var version = 0L
+        var records = 0
+        var allowList = false
+    }
+
+    /** An ObjectId held as 12 bytes rather than 24 hex characters. */
+    private data class EntryId(val high: Long, val low: Int) {
+        fun write(out: DataOutputStream) {
+            out.writeLong(high)
+            out.writeInt(low)
+        }
+
+        companion object {
+            fun parse(hex: String): EntryId? {
+                if (hex.length != 24) return null
+                val high = hex.substring(0, 16).toULongOrNull(16) ?: return null
+                val low = hex.substring(16).toUIntOrNull(16) ?: return null
+                return EntryId(high.toLong(), low.toInt())
+            }
+
+            fun read(input: DataInputStream) = EntryId(input.readLong(), input.readInt())
+        }
+    }
+
+    private val lists = HashMap<String, SharedList>()
+
+    @Volatile
+    var ruleCount = 0
+        private set
+
+    init {
+        dir.mkdirs()
+        dir.listFiles { file -> file.name.endsWith(SUFFIX) }?.forEach { file ->
+            val list = load(file)
+            lists[file.name.removeSuffix(SUFFIX)] = list
+            ruleCount += list.entries.size
+        }
+    }
+
+    /** Version of each list held, by list ID. */
+    @Synchronized
+    fun versions(): Map<String, Long> = lists.mapValues { it.value.version }
+
+    /** The rules of all lists. */
+    @Synchronized
+    fun rules(): List<SMSFilterRule> = lists.values.flatMap { it.entries.values }
+
+    /** The rules of the allow lists, or of the block lists. */
+    @Synchronized
+    fun rules(allowList: Boolean): List<SMSFilterRule> =
+        lists.values.filter { it.allowList == allowList }.flatMap { it.entries.values }
+
+    @Synchronized
+    fun isAllowList(listId: String): Boolean = lists[listId]?.allowList ?: false
+
+    /**
+     * Records whether [listId] is an allow list. Returns true if that changed
+     * the mode its rules are matched in.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun setAllowList(listId: String, allowList: Boolean): Boolean {
+        val list = lists[listId]
+        // an unknown list is a block list until it is stored
+        if ((list?.allowList ?: false) == allowList) return false
+        val target = list ?: SharedList(File(dir, listId + SUFFIX))
+        val buffer = ByteArrayOutputStream()
+        val out = DataOutputStream(buffer)
+        out.writeByte(MODE.code)
+        out.writeByte(if (allowList) 1 else 0)
+        out.writeByte(VERSION.code)
+        out.writeLong(target.version)
+        append(target, buffer.toByteArray())
+        target.allowList = allowList
+        target.records += 2
+        lists[listId] = target
+        return target.entries.isNotEmpty()
+    }
+
+    /**
+     * Applies one page of changes to [listId], then records it as holding
+     * [version]. Changes already applied are skipped, so a page can be
+     * applied again after an interrupted sync.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun apply(listId: String, changes: List<Change>, version: Long): Delta {
+        val list = lists[listId] ?: SharedList(File(dir, listId + SUFFIX))
+        val added = ArrayList<SMSFilterRule>()
+        val removed = ArrayList<SMSFilterRule>()
+        val pending = HashMap<EntryId, SMSFilterRule?>()
+
+        val buffer = ByteArrayOutputStream()
+        val out = DataOutputStream(buffer)
+        var records = 0
+        for (change in changes) {
+            val id = EntryId.parse(change.entryId) ?: continue
+            val current = if (pending.containsKey(id)) pending[id] else list.entries[id]
+            val rule = change.rule?.takeIf { flagsOf(it) != null }
+            if (rule == null) {
+                if (current == null) continue
+                out.writeByte(REMOVE.code)
+                id.write(out)
+                removed.add(current)
+            } else {
+                if (current != null && sameRule(current, rule)) continue
+                // entries do not change once added, but a replaced one is handled as remove plus add
+                if (current != null) removed.add(current)
+                out.writeByte(ADD.code)
+                id.write(out)
+                out.writeByte(flagsOf(rule)!!)
+                out.writeUTF(rule.pattern!!)
+                added.add(rule)
+            }
+            pending[id] = rule
+            records++
+        }
+        if (records == 0 && version == list.version) return Delta(added, removed, list.allowList)
+        out.writeByte(VERSION.code)
+        out.writeLong(version)
+        records++
+
+        append(list, buffer.toByteArray())
+        for ((id, rule) in pending) {
+            if (rule == null) list.entries.remove(id) else list.entries[id] = rule
+        }
+        list.version = version
+        list.records += records
+        lists[listId] = list
+        ruleCount = ruleCount + added.size - removed.size
+        if (list.records > COMPACT_MIN_RECORDS && list.records > 2 * list.entries.size) compact(list)
+        return Delta(added, removed, list.allowList)
+    }
+
+    private fun append(list: SharedList, bytes: ByteArray) {
+        val committedBytes = list.file.length()
+        try {
+            FileOutputStream(list.file, true).use {
+                it.write(bytes)
+                it.fd.sync()
+            }
+        } catch (e: IOException) {
+            // drop the partial change so the next one is not appended after it
+            runCatching { RandomAccessFile(list.file, "rw").use { it.setLength(committedBytes) } }
+            throw e
+        }
+    }
+
+    /** Forgets [listId]; returns its rules so they can be taken out of the filter. */
+    @Synchronized
+    fun remove(listId: String): List<SMSFilterRule> {
+        val list = lists.remove(listId) ?: return emptyList()
+        list.file.delete()
+        ruleCount -= list.entries.size
+        return list.entries.values.toList()
+    }
+
+    private fun compact(list: SharedList) {
+        val tmp = File(list.file.path + ".tmp")
+        try {
+            FileOutputStream(tmp).use { file ->
+                val out = DataOutputStream(BufferedOutputStream(file))
+                for ((id, rule) in list.entries) {
+                    out.writeByte(ADD.code)
+                    id.write(out)
+                    out.writeByte(flagsOf(rule)!!)
+                    out.writeUTF(rule.pattern!!)
+                }
+                if (list.allowList) {
+                    out.writeByte(MODE.code)
+                    out.writeByte(1)
+                }
+                out.writeByte(VERSION.code)
+                out.writeLong(list.version)
+                out.flush()
+                file.fd.sync()
+            }
+            if (tmp.renameTo(list.file)) list.records = list.entries.size + (if (list.allowList) 2 else 1)
+        } catch (e: IOException) {
+            // the uncompacted file is still complete
+            tmp.delete()
+        }
+    }
+
+    private fun load(file: File): SharedList {
+        val list = SharedList(file)
+        val bytes = try {
+            file.readBytes()
+        } catch (e: IOException) {
+            return list
+        }
+        val stream = ByteArrayInputStream(bytes)
+        val input = DataInputStream(stream)
+        val pending = ArrayList<Pair<EntryId, SMSFilterRule?>>()
+        var pendingMode: Boolean? = null
+        var committedBytes = 0
+        try {
+            while (stream.available() > 0) {
+                when (input.readUnsignedByte().toChar()) {
+                    ADD -> {
+                        val id = EntryId.read(input)
+                        pending.add(id to ruleOf(input.readUnsignedByte(), input.readUTF()))
+                    }
+                    REMOVE -> pending.add(EntryId.read(input) to null)
+                    MODE -> pendingMode = input.readUnsignedByte() != 0
+                    VERSION -> {
+                        list.version = input.readLong()
+                        for ((id, rule) in pending) {
+                            if (rule == null) list.entries.remove(id) else list.entries[id] = rule
+                        }
+                        list.records += pending.size + 1 + (if (pendingMode != null) 1 else 0)
+                        pendingMode?.let { list.allowList = it }
+                        pending.clear()
+                        pendingMode = null
+                        committedBytes = bytes.size - stream.available()
+                    }
+                    else -> break
+                }
+            }
+        } catch (e: IOException) {
+            // torn tail: keep what was committed before it
+        }
+        if (bytes.size > committedBytes) {
+            try {
+                RandomAccessFile(file, "rw").use { it.setLength(committedBytes.toLong()) }
+            } catch (e: IOException) {
+                // appending after the torn tail would hide the next change, so start over
+                file.delete()
+                return SharedList(file)
+            }
+        }
+        return list
+    }
+
+    companion object {
+        private const val SUFFIX = ".rules"
+        private const val ADD = 'A'
+        private const val REMOVE = 'R'
+        private const val MODE = 'M'
+        private const val VERSION = 'V'
+        private const val COMPACT_MIN_RECORDS = 1024
+        private const val CASE_SENSITIVE = 0x40
+
+        /** Match type in the low 3 bits, target in the next 2, then the case flag; null for an incomplete rule. */
+        private fun flagsOf(rule: SMSFilterRule): Int? {
+            val matchType = rule.matchType ?: return null
+            if (rule.pattern == null) return null
+            return matchType.ordinal or (rule.filterTarget.ordinal shl 3) or
+                (if (rule.caseSensitive) CASE_SENSITIVE else 0)
+        }
+
+        private fun ruleOf(flags: Int, pattern: String): SMSFilterRule? {
+            val matchType = MatchType.values().getOrNull(flags and 0x07) ?: return null
+            val target = FilterTarget.values().getOrNull((flags shr 3) and 0x03) ?: return null
+            return SMSFilterRule(pattern, matchType, target, flags and CASE_SENSITIVE != 0)
+        }
+
+        private fun sameRule(a: SMSFilterRule, b: SMSFilterRule): Boolean =
+            a.pattern == b.pattern && a.matchType == b.matchType &&
+                a.filterTarget == b.filterTarget && a.caseSensitive == b.caseSensitive
+    }
+}
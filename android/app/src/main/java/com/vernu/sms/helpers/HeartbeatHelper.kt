@@ -13,8 +13,16 @@ import com.vernu.sms.ApiManager
 import com.vernu.sms.AppConstants
 import com.vernu.sms.BuildConfig
 import com.vernu.sms.TextBeeUtils
+import com.vernu.sms.dtos.DeviceMetricsDTO
 import com.vernu.sms.dtos.HeartbeatInputDTO
+import com.vernu.sms.dtos.LifecycleStageDTO
+import com.vernu.sms.dtos.SendQueueLaneDTO
+import com.vernu.sms.dtos.SendRateLimitDTO
 import com.vernu.sms.dtos.SimInfoCollectionDTO
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.workers.FilterListSyncWorker
+import com.vernu.sms.workers.PendingSmsFetchWorker
+import com.vernu.sms.workers.SmsSendWorker
 import java.io.IOException
 import java.util.Locale
 import java.util.TimeZone
@@ -112,12 +120,80 @@ object HeartbeatHelper {
                 lastUpdated = System.currentTimeMillis()
                 sims = TextBeeUtils.collectSimInfo(context)
             }
+            val simStats = SimRegistry.stats()
+            Log.d(TAG, "SIM registry - lookups: ${simStats.lookups}, subscription IPC calls: ${simStats.ipcCalls}, saved: ${simStats.ipcCallsSaved}")
+            for ((endpoint, latency) in ApiManager.getLatencyInterceptor().snapshot()) {
+                Log.d(TAG, "API latency - $endpoint: calls: ${latency.count}, failed: ${latency.failures}, " +
+                    "p50: ${latency.percentileMillis(0.5)}ms, p99: ${latency.percentileMillis(0.99)}ms, max: ${latency.maxMillis}ms")
+            }
+
+            // Send rate limiter state per SIM
+            val now = System.currentTimeMillis()
+            val adaptivePacer = SmsSendWorker.getPacer(context)
+            heartbeatInput.sendRateLimits = SmsSendWorker.getRateLimiter(context)
+                .snapshot(now)
+                .map { state ->
+                    SendRateLimitDTO().apply {
+                        simSubscriptionId = state.simKey
+                        tokens = state.tokens
+                        burst = state.burst
+                        ratePerMinute = state.ratePerMinute
+                        nextAllowedAtMillis = state.nextAllowedAtMillis
+                        adaptiveRatePerMinute = adaptivePacer.ratePerMinute(state.simKey, now)
+                    }
+                }
+                .toMutableList()
+
+            // Send queue depth and wait times per priority lane
+            heartbeatInput.sendQueueLanes = SmsSendWorker.getQueue(context)
+                .laneStats(now)
+                .map { lane ->
+                    SendQueueLaneDTO().apply {
+                        priority = lane.priority.wireName
+                        depth = lane.depth
+                        oldestWaitMillis = lane.oldestWaitMillis
+                        dispatchedCount = lane.waits.count
+                        waitP50Millis = lane.waits.percentileMillis(0.5)
+                        waitP95Millis = lane.waits.percentileMillis(0.95)
+                        waitMaxMillis = lane.waits.maxMillis
+                    }
+                }
+                .toMutableList()
+
+            // Per-stage message lifecycle latencies
+            val lifecycle = MessageLifecycle.SHARED
+            heartbeatInput.metrics = DeviceMetricsDTO().apply {
+                trackedMessages = lifecycle.tracked()
+                lifecycleStages = lifecycle.snapshot(now)
+                    .map { stats ->
+                        LifecycleStageDTO().apply {
+                            stage = stats.stage.wireName
+                            count = stats.count
+                            failures = stats.sincePrevious.failures
+                            lastMinuteCount = stats.lastMinute
+                            p50Millis = stats.sincePrevious.percentileMillis(0.5)
+                            p95Millis = stats.sincePrevious.percentileMillis(0.95)
+                            p99Millis = stats.sincePrevious.percentileMillis(0.99)
+                            maxMillis = stats.sincePrevious.maxMillis
+                            sinceStartP50Millis = stats.sinceStart.percentileMillis(0.5)
+                            sinceStartP95Millis = stats.sinceStart.percentileMillis(0.95)
+                        }
+                    }
+                    .toMutableList()
+            }
 
             // Send heartbeat (blocking)
             val response = ApiManager.getApiService().heartbeat(deviceId, apiKey, heartbeatInput).execute()
             if (response.isSuccessful && response.body() != null) {
                 val body = response.body()!!
                 if (body.fcmTokenUpdated) Log.d(TAG, "FCM token was updated during heartbeat")
+                if (body.hasPendingSms) {
+                    // the doorbell push for these was missed
+                    Log.d(TAG, "Backend has pending SMS, scheduling fetch")
+                    PendingSmsFetchWorker.enqueue(context)
+                }
+                // picks up shared filter list changes; a list already up to date costs one request
+                FilterListSyncWorker.enqueue(context)
                 if (!body.name.isNullOrBlank()) {
                     SharedPreferenceHelper.setSharedPreferenceString(
                         context, AppConstants.SHARED_PREFS_DEVICE_NAME_KEY, body.name!!
@@ -0,0 +1,168 @@
+package com.vernu.sms.helpers
+
+import android.content.Context
+import android.util.Log
+import com.vernu.sms.AppConstants
+import com.vernu.sms.database.local.AppDatabase
+import com.vernu.sms.database.local.Sms
+import com.vernu.sms.dtos.SMSDTO
+import com.vernu.sms.queue.SendJob
+import java.util.Date
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Writes sent and received SMS and their status changes to the local
+ * [AppDatabase], all on one background thread. New messages are written
+ * before they are appended to the send journal or the received inbox, and
+ * the caller waits for that write, so every message those journals hold is
+ * also in the store, even if the process dies right after. Status changes and
+ * acknowledgements are queued without waiting. A failed write is logged
+ * without touching the send.
+ */
+object MessageStore {
+    private const val TAG = "MessageStore"
+
+    /** The newest rows kept whatever their age, so a busy gateway cannot fill the disk. */
+    private const val MAX_ROWS = 100_000
+
+    /** SQLite limits the number of bound parameters in one statement. */
+    private const val MAX_PARAMS = 500
+
+    private val PRUNE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6)
+
+    /** Longest wait for a new message's row; a broadcast receiver has about 10 s in all. */
+    private const val RECORD_TIMEOUT_SECONDS = 5L
+
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor { r ->
+        Thread(r, "message-store").apply { isDaemon = true }
+    }
+
+    /** Touched only on the executor thread. */
+    private var lastPrunedAt = 0L
+
+    /**
+     * Records outgoing jobs as pending; jobs already stored are skipped.
+     * Returns once they are written; call it before the jobs are queued.
+     */
+    @JvmStatic
+    fun recordOutgoing(context: Context, jobs: List<SendJob>) {
+        if (jobs.isEmpty()) return
+        val now = Date()
+        val rows = jobs.map { job ->
+            Sms(
+                serverId = job.smsId,
+                batchId = job.smsBatchId,
+                message = job.message,
+                recipient = job.phone,
+                simSubscriptionId = job.simSubscriptionId,
+                type = Sms.TYPE_OUTGOING,
+                status = Sms.STATUS_PENDING,
+                requestedAt = now,
+                updatedAt = now
+            )
+        }
+        writeNow(context) { db -> db.smsDao().insertAll(rows) }
+    }
+
+    /** Applies a status update on its way to the server to the stored outgoing SMS. */
+    @JvmStatic
+    fun recordStatus(context: Context, smsDTO: SMSDTO) {
+        val smsId = smsDTO.smsId ?: return
+        val status = smsDTO.status ?: return
+        // a dropped duplicate says nothing about the send that went out
+        if (status == "DUPLICATE") return
+        write(context) { db ->
+            db.smsDao().updateStatus(
+                smsId, status,
+                smsDTO.sentAtInMillis.takeIf { it > 0 },
+                smsDTO.deliveredAtInMillis.takeIf { it > 0 },
+                smsDTO.failedAtInMillis.takeIf { it > 0 },
+                smsDTO.errorCode, smsDTO.errorMessage,
+                System.currentTimeMillis()
+            )
+        }
+    }
+
+    /**
+     * Records a received SMS; a repeated broadcast of it is skipped by its
+     * fingerprint. Returns once it is written; call it before the SMS goes in
+     * the inbox.
+     */
+    @JvmStatic
+    fun recordReceived(context: Context, smsDTO: SMSDTO) {
+        val now = Date()
+        val row = Sms(
+            fingerprint = smsDTO.fingerprint,
+            message = smsDTO.message,
+            sender = smsDTO.sender,
+            type = Sms.TYPE_INCOMING,
+            status = Sms.STATUS_RECEIVED,
+            requestedAt = now,
+            receivedAt = smsDTO.receivedAtInMillis.takeIf { it > 0 }?.let { Date(it) } ?: now,
+            updatedAt = now
+        )
+        writeNow(context) { db -> db.smsDao().insertAll(listOf(row)) }
+    }
+
+    /** Marks outgoing SMS whose status the server accepted. */
+    @JvmStatic
+    fun acknowledgeOutgoing(context: Context, smsIds: List<String>) {
+        if (smsIds.isEmpty()) return
+        val now = System.currentTimeMillis()
+        write(context) { db ->
+            smsIds.distinct().chunked(MAX_PARAMS).forEach { db.smsDao().acknowledgeOutgoing(it, now) }
+        }
+    }
+
+    /** Marks received SMS the server accepted. */
+    @JvmStatic
+    fun acknowledgeIncoming(context: Context, fingerprints: List<String>) {
+        if (fingerprints.isEmpty()) return
+        val now = System.currentTimeMillis()
+        write(context) { db ->
+            fingerprints.chunked(MAX_PARAMS).forEach { db.smsDao().acknowledgeIncoming(it, now) }
+        }
+    }
+
+    private fun write(context: Context, block: (AppDatabase) -> Unit) {
+        val appContext = context.applicationContext
+        executor.execute { runWrite(appContext, block) }
+    }
+
+    /** Runs [block] behind the writes already queued and waits for it; Room may not run on the main thread. */
+    private fun writeNow(context: Context, block: (AppDatabase) -> Unit) {
+        val appContext = context.applicationContext
+        try {
+            executor.submit { runWrite(appContext, block) }.get(RECORD_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        } catch (e: Exception) {
+            // the message still goes out or up; only its row may be late or missing
+            Log.e(TAG, "Message store write did not complete: ${e.message}")
+        }
+    }
+
+    private fun runWrite(context: Context, block: (AppDatabase) -> Unit) {
+        try {
+            val db = AppDatabase.getInstance(context)
+            block(db)
+            pruneIfDue(context, db)
+        } catch (e: Exception) {
+            Log.e(TAG, "Message store write failed: ${e.message}")
+        }
+    }
+
+    private fun pruneIfDue(context: Context, db: AppDatabase) {
+        val now = System.currentTimeMillis()
+        if (now - lastPrunedAt < PRUNE_INTERVAL_MILLIS) return
+        lastPrunedAt = now
+        val retentionDays = SharedPreferenceHelper.getSharedPreferenceInt(
+            context, AppConstants.SHARED_PREFS_SMS_HISTORY_RETENTION_DAYS_KEY,
+            AppConstants.DEFAULT_SMS_HISTORY_RETENTION_DAYS
+        ).coerceAtLeast(1)
+        val dao = db.smsDao()
+        val expired = dao.deleteOlderThan(now - TimeUnit.DAYS.toMillis(retentionDays.toLong()))
+        val overflow = dao.deleteBeyond(MAX_ROWS)
+        if (expired + overflow > 0) Log.d(TAG, "Pruned message store - expired: $expired, overflow: $overflow")
+    }
+}
@@ -0,0 +1,68 @@
+package com.vernu.sms.helpers
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import com.vernu.sms.queue.MultipartTracker
+import com.vernu.sms.receivers.SMSStatusReceiver
+
+/**
+ * Process-wide [MultipartTracker] for the send path. Parts are registered at
+ * dispatch and their status broadcasts are folded into one outcome per phase;
+ * a periodic sweep on the main looper resolves messages whose remaining parts
+ * never reported.
+ */
+object MultipartStatusHelper {
+    private const val SENT_TIMEOUT_MILLIS = 2 * 60 * 1000L
+    private const val DELIVERY_TIMEOUT_MILLIS = 30 * 60 * 1000L
+    private const val SWEEP_INTERVAL_MILLIS = 60 * 1000L
+
+    private val tracker = MultipartTracker(SENT_TIMEOUT_MILLIS, DELIVERY_TIMEOUT_MILLIS)
+    private val handler by lazy { Handler(Looper.getMainLooper()) }
+    private var sweepScheduled = false
+
+    @JvmStatic
+    fun register(context: Context, smsId: String, smsBatchId: String?, partCount: Int, requestCode: Int) {
+        tracker.register(smsId, smsBatchId, partCount, requestCode, System.currentTimeMillis())
+        scheduleSweep(context)
+    }
+
+    @JvmStatic
+    fun forget(smsId: String) = tracker.forget(smsId)
+
+    /** Records one part's result; returns the message outcome once all parts of the phase are in. */
+    @JvmStatic
+    fun onPartResult(
+        context: Context,
+        smsId: String,
+        smsBatchId: String?,
+        phase: MultipartTracker.Phase,
+        partIndex: Int,
+        partCount: Int,
+        requestCode: Int,
+        resultCode: Int
+    ): MultipartTracker.Outcome? {
+        val outcome = tracker.onPartResult(
+            smsId, smsBatchId, phase, partIndex, partCount, requestCode, resultCode, System.currentTimeMillis()
+        )
+        scheduleSweep(context)
+        return outcome
+    }
+
+    private fun scheduleSweep(context: Context) {
+        synchronized(this) {
+            if (sweepScheduled) return
+            sweepScheduled = true
+        }
+        val appContext = context.applicationContext
+        handler.postDelayed({ sweep(appContext) }, SWEEP_INTERVAL_MILLIS)
+    }
+
+    private fun sweep(context: Context) {
+        synchronized(this) { sweepScheduled = false }
+        tracker.expire(System.currentTimeMillis()).forEach {
+            SMSStatusReceiver.reportMultipartOutcome(context, it)
+        }
+        if (tracker.tracked() > 0) scheduleSweep(context)
+    }
+}
@@ -3,12 +3,18 @@ package com.vernu.sms.helpers
 import android.content.Context
 import android.util.Log
 import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
 import com.vernu.sms.AppConstants
+import com.vernu.sms.filter.CompiledSmsFilter
+import com.vernu.sms.filter.SharedRuleStore
 import com.vernu.sms.models.SMSFilterRule
+import java.io.File
+import java.io.IOException
 
 object SMSFilterHelper {
     private const val TAG = "SMSFilterHelper"
+    private const val SHARED_LISTS_DIR = "sms_filter_lists"
+
+    private val gson = Gson()
 
     enum class FilterMode { ALLOW_LIST, BLOCK_LIST }
 
@@ -18,6 +24,82 @@ object SMSFilterHelper {
         var rules: MutableList<SMSFilterRule> = mutableListOf()
     }
 
+    /**
+     * The saved config and the shared lists as the receiver uses them,
+     * compiled once and replaced by [saveFilterConfig]. The device's own rules
+     * follow its configured mode; shared lists carry their own mode and are
+     * matched apart from them. Shared list changes are applied to
+     * [sharedBlock] and [sharedAllow] in place.
+     */
+    private class ActiveFilter(
+        val enabled: Boolean,
+        val mode: FilterMode,
+        val local: CompiledSmsFilter,
+        val sharedBlock: CompiledSmsFilter,
+        val sharedAllow: CompiledSmsFilter
+    )
+
+    @Volatile
+    private var activeFilter: ActiveFilter? = null
+
+    @Volatile
+    private var sharedRules: SharedRuleStore? = null
+
+    /** The account's shared filter lists held on this device, each matched in its own mode. */
+    @JvmStatic
+    fun getSharedRules(context: Context): SharedRuleStore =
+        sharedRules ?: synchronized(this) {
+            sharedRules ?: SharedRuleStore(
+                File(context.applicationContext.filesDir, SHARED_LISTS_DIR)
+            ).also { sharedRules = it }
+        }
+
+    /**
+     * Stores a page of changes to a shared list and applies them to the
+     * active filter without compiling the other rules again.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun applySharedListChanges(context: Context, listId: String, changes: List<SharedRuleStore.Change>, version: Long) {
+        val store = getSharedRules(context)
+        synchronized(this) {
+            val delta = store.apply(listId, changes, version)
+            if (!delta.isEmpty) updateActiveFilter(delta.allowList, delta.added, delta.removed)
+        }
+    }
+
+    /**
+     * Records whether a shared list is an allow list or a block list, as the
+     * backend reports it. Its rules move to the other matcher on the next
+     * message if that changed.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun setSharedListMode(context: Context, listId: String, allowList: Boolean) {
+        val store = getSharedRules(context)
+        synchronized(this) {
+            if (store.setAllowList(listId, allowList)) activeFilter = null
+        }
+    }
+
+    /** Drops a shared list that no longer exists on the account. */
+    @JvmStatic
+    fun removeSharedList(context: Context, listId: String) {
+        val store = getSharedRules(context)
+        synchronized(this) {
+            val allowList = store.isAllowList(listId)
+            val removed = store.remove(listId)
+            if (removed.isNotEmpty()) updateActiveFilter(allowList, emptyList(), removed)
+        }
+    }
+
+    private fun updateActiveFilter(allowList: Boolean, added: List<SMSFilterRule>, removed: List<SMSFilterRule>) {
+        val filter = activeFilter ?: return
+        // a disabled filter has nothing compiled; enabling it compiles the store as it is then
+        if (!filter.enabled) return
+        (if (allowList) filter.sharedAllow else filter.sharedBlock).update(added, removed)
+    }
+
     @JvmStatic
     fun loadFilterConfig(context: Context): FilterConfig {
         val json = SharedPreferenceHelper.getSharedPreferenceString(
@@ -25,8 +107,7 @@ object SMSFilterHelper {
         )
         if (json.isNullOrEmpty()) return FilterConfig()
         return try {
-            val type = object : TypeToken<FilterConfig>() {}.type
-            Gson().fromJson<FilterConfig>(json, type) ?: FilterConfig()
+            gson.fromJson(json, FilterConfig::class.java) ?: FilterConfig()
         } catch (e: Exception) {
             Log.e(TAG, "Error loading filter config: ${e.message}")
             FilterConfig()
@@ -39,23 +120,53 @@ object SMSFilterHelper {
             SharedPreferenceHelper.setSharedPreferenceString(
                 context,
                 AppConstants.SHARED_PREFS_SMS_FILTER_CONFIG_KEY,
-                Gson().toJson(config)
+                gson.toJson(config)
             )
+            synchronized(this) { activeFilter = compile(context, config) }
         } catch (e: Exception) {
             Log.e(TAG, "Error saving filter config: ${e.message}")
+            activeFilter = null
         }
     }
 
     @JvmStatic
     fun shouldProcessSMS(sender: String?, message: String?, context: Context): Boolean {
-        val config = loadFilterConfig(context)
-        if (!config.enabled) return true
-        if (config.rules.isEmpty()) return true
-        val matchesAnyRule = config.rules.any { it.matches(sender, message) }
-        return if (config.mode == FilterMode.ALLOW_LIST) matchesAnyRule else !matchesAnyRule
+        val filter = activeFilter(context)
+        if (!filter.enabled) return true
+        if (filter.sharedBlock.ruleCount > 0 && filter.sharedBlock.matchesAny(sender, message)) return false
+        if (filter.sharedAllow.ruleCount > 0 && !filter.sharedAllow.matchesAny(sender, message)) return false
+        if (filter.local.ruleCount == 0) return true
+        val matchesAnyRule = filter.local.matchesAny(sender, message)
+        return if (filter.mode == FilterMode.ALLOW_LIST) matchesAnyRule else !matchesAnyRule
     }
 
     @JvmStatic
     fun shouldProcessSMS(sender: String?, context: Context): Boolean =
         shouldProcessSMS(sender, null, context)
+
+    private fun activeFilter(context: Context): ActiveFilter =
+        activeFilter ?: synchronized(this) {
+            activeFilter ?: compile(context, loadFilterConfig(context)).also { activeFilter = it }
+        }
+
+    private fun compile(context: Context, config: FilterConfig): ActiveFilter {
+        // a disabled filter is never consulted, so its rules need no compiling
+        if (!config.enabled) {
+            val empty = CompiledSmsFilter.EMPTY
+            return ActiveFilter(false, config.mode, empty, empty, empty)
+        }
+        val shared = getSharedRules(context)
+        return ActiveFilter(
+            true,
+            config.mode,
+            compileRules(config.rules),
+            compileRules(shared.rules(allowList = false)),
+            compileRules(shared.rules(allowList = true))
+        )
+    }
+
+    private fun compileRules(rules: List<SMSFilterRule>): CompiledSmsFilter =
+        CompiledSmsFilter.compile(rules, CompiledSmsFilter.DEFAULT_REGEX_TIMEOUT_MILLIS) { pattern ->
+            Log.w(TAG, "Regex filter rule overran its time limit and is skipped: $pattern")
+        }
 }
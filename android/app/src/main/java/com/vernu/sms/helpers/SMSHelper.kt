@@ -1,20 +1,51 @@
 package com.vernu.sms.helpers
 
 import android.Manifest
-import android.app.PendingIntent
 import android.content.Context
-import android.content.Intent
 import android.os.Build
 import android.telephony.SmsManager
 import android.util.Log
 import com.vernu.sms.AppConstants
 import com.vernu.sms.TextBeeUtils
 import com.vernu.sms.dtos.SMSDTO
-import com.vernu.sms.receivers.SMSStatusReceiver
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.RecentKeyIndex
 import com.vernu.sms.workers.SMSStatusUpdateWorker
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
 
 object SMSHelper {
     private const val TAG = "SMSHelper"
+    private const val SENT_LEDGER_FILE = "sms_sent_ledger.index"
+    private const val SENT_LEDGER_CAPACITY = 1 shl 16
+
+    /** FCM redelivers within hours; days cover a device that was offline meanwhile. */
+    private val SENT_LEDGER_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(3)
+
+    @Volatile
+    private var sentLedger: RecentKeyIndex? = null
+
+    /** smsIds already handed to SmsManager; null if the ledger file cannot be opened. */
+    private fun getSentLedger(context: Context): RecentKeyIndex? =
+        sentLedger ?: synchronized(this) {
+            sentLedger ?: try {
+                RecentKeyIndex(
+                    File(context.applicationContext.filesDir, SENT_LEDGER_FILE),
+                    SENT_LEDGER_WINDOW_MILLIS,
+                    SENT_LEDGER_CAPACITY
+                ).also { sentLedger = it }
+            } catch (e: IOException) {
+                Log.e(TAG, "Could not open sent SMS ledger: ${e.message}")
+                null
+            }
+        }
+
+    /** Lets [smsId] be sent again, after the carrier rejected it without sending it. */
+    @JvmStatic
+    fun forgetSent(context: Context, smsId: String) {
+        if (smsId.isNotEmpty()) getSentLedger(context)?.forget(smsId)
+    }
 
     @JvmStatic
     fun sendSMS(
@@ -29,28 +60,7 @@ object SMSHelper {
             reportPermissionError(context, smsId, smsBatchId)
             return false
         }
-        return try {
-            val smsManager = SmsManager.getDefault()
-            val sentIntent = createSentPendingIntent(context, smsId, smsBatchId)
-            val deliveredIntent = createDeliveredPendingIntent(context, smsId, smsBatchId)
-            val parts = smsManager.divideMessage(message)
-            if (parts.size > 1) {
-                val sentIntents = ArrayList<PendingIntent>(parts.size).also { list ->
-                    repeat(parts.size) { list.add(sentIntent) }
-                }
-                val deliveredIntents = ArrayList<PendingIntent>(parts.size).also { list ->
-                    repeat(parts.size) { list.add(deliveredIntent) }
-                }
-                smsManager.sendMultipartTextMessage(phoneNo, null, parts, sentIntents, deliveredIntents)
-            } else {
-                smsManager.sendTextMessage(phoneNo, null, message, sentIntent, deliveredIntent)
-            }
-            true
-        } catch (e: Exception) {
-            Log.e(TAG, "Exception when sending SMS: ${e.message}")
-            reportSendingError(context, smsId, smsBatchId, e.message)
-            false
-        }
+        return dispatch(context, SendContextPool.smsManager(null), phoneNo, message, smsId, smsBatchId)
     }
 
     @JvmStatic
@@ -69,31 +79,46 @@ object SMSHelper {
             reportPermissionError(context, smsId, smsBatchId)
             return false
         }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+            Log.w(TAG, "Using default SIM as specific SIM selection not supported on this Android version")
+        }
+        return dispatch(context, SendContextPool.smsManager(simSubscriptionId), phoneNo, message, smsId, smsBatchId)
+    }
+
+    private fun dispatch(
+        context: Context,
+        smsManager: SmsManager,
+        phoneNo: String,
+        message: String,
+        smsId: String,
+        smsBatchId: String
+    ): Boolean {
+        // a redelivered push or a replayed queue entry must not text the recipient again
+        if (smsId.isNotEmpty() && getSentLedger(context)?.markSeen(smsId) == false) {
+            Log.w(TAG, "SMS $smsId was already sent, dropping duplicate")
+            reportDuplicate(context, smsId, smsBatchId)
+            return false
+        }
+        var intents: SendContextPool.SendIntents? = null
         return try {
-            @Suppress("DEPRECATION")
-            val smsManager = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
-                SmsManager.getSmsManagerForSubscriptionId(simSubscriptionId)
-            } else {
-                Log.w(TAG, "Using default SIM as specific SIM selection not supported on this Android version")
-                SmsManager.getDefault()
-            }
-            val sentIntent = createSentPendingIntent(context, smsId, smsBatchId)
-            val deliveredIntent = createDeliveredPendingIntent(context, smsId, smsBatchId)
             val parts = smsManager.divideMessage(message)
+            val sendIntents = SendContextPool.acquire(context, smsId, smsBatchId, parts.size)
+            intents = sendIntents
             if (parts.size > 1) {
-                val sentIntents = ArrayList<PendingIntent>(parts.size).also { list ->
-                    repeat(parts.size) { list.add(sentIntent) }
-                }
-                val deliveredIntents = ArrayList<PendingIntent>(parts.size).also { list ->
-                    repeat(parts.size) { list.add(deliveredIntent) }
-                }
-                smsManager.sendMultipartTextMessage(phoneNo, null, parts, sentIntents, deliveredIntents)
+                MultipartStatusHelper.register(context, smsId, smsBatchId, parts.size, sendIntents.requestCode)
+                smsManager.sendMultipartTextMessage(phoneNo, null, parts, sendIntents.sent, sendIntents.delivered)
             } else {
-                smsManager.sendTextMessage(phoneNo, null, message, sentIntent, deliveredIntent)
+                smsManager.sendTextMessage(phoneNo, null, message, sendIntents.sent[0], sendIntents.delivered[0])
             }
+            MessageLifecycle.SHARED.mark(smsId, MessageLifecycle.Stage.SUBMITTED)
             true
         } catch (e: Exception) {
-            Log.e(TAG, "Exception when sending SMS from specific SIM: ${e.message}")
+            Log.e(TAG, "Exception when sending SMS: ${e.message}")
+            MessageLifecycle.SHARED.mark(smsId, MessageLifecycle.Stage.SUBMITTED, failed = true)
+            intents?.let { SendContextPool.release(it.requestCode, smsId) }
+            MultipartStatusHelper.forget(smsId)
+            // nothing reached the radio, so a retry of this smsId may send it
+            if (smsId.isNotEmpty()) sentLedger?.forget(smsId)
             reportSendingError(context, smsId, smsBatchId, e.message)
             false
         }
@@ -123,6 +148,16 @@ object SMSHelper {
         updateSMSStatus(context, smsDTO)
     }
 
+    private fun reportDuplicate(context: Context, smsId: String, smsBatchId: String) {
+        val smsDTO = SMSDTO().apply {
+            this.smsId = smsId
+            this.smsBatchId = smsBatchId
+            // never replaces the status of the send that went out
+            status = "DUPLICATE"
+        }
+        updateSMSStatus(context, smsDTO)
+    }
+
     private fun updateSMSStatus(context: Context, smsDTO: SMSDTO) {
         val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
             context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
@@ -134,28 +169,6 @@ object SMSHelper {
             Log.e(TAG, "Device ID or API key not found")
             return
         }
-        SMSStatusUpdateWorker.enqueueWork(context, deviceId, apiKey, smsDTO)
-    }
-
-    private fun createSentPendingIntent(context: Context, smsId: String, smsBatchId: String): PendingIntent {
-        val intent = Intent(context, SMSStatusReceiver::class.java).apply {
-            action = SMSStatusReceiver.SMS_SENT
-            putExtra("sms_id", smsId)
-            putExtra("sms_batch_id", smsBatchId)
-        }
-        var flags = PendingIntent.FLAG_UPDATE_CURRENT
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) flags = flags or PendingIntent.FLAG_MUTABLE
-        return PendingIntent.getBroadcast(context, (smsId + "_sent").hashCode(), intent, flags)
-    }
-
-    private fun createDeliveredPendingIntent(context: Context, smsId: String, smsBatchId: String): PendingIntent {
-        val intent = Intent(context, SMSStatusReceiver::class.java).apply {
-            action = SMSStatusReceiver.SMS_DELIVERED
-            putExtra("sms_id", smsId)
-            putExtra("sms_batch_id", smsBatchId)
-        }
-        var flags = PendingIntent.FLAG_UPDATE_CURRENT
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) flags = flags or PendingIntent.FLAG_MUTABLE
-        return PendingIntent.getBroadcast(context, (smsId + "_delivered").hashCode(), intent, flags)
+        SMSStatusUpdateWorker.enqueueWork(context, smsDTO)
     }
 }
@@ -0,0 +1,90 @@
+package com.vernu.sms.helpers
+
+import android.app.AlarmManager
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import android.os.Build
+import android.util.Log
+import com.vernu.sms.queue.ScheduledSends
+import com.vernu.sms.queue.SendJob
+import com.vernu.sms.queue.SendJournal
+import com.vernu.sms.receivers.ScheduledSendReceiver
+import com.vernu.sms.workers.SmsSendWorker
+import java.io.File
+
+/**
+ * Holds SMS the backend handed over ahead of their send time and wakes the
+ * device when they are due. There is only ever one alarm, set for the
+ * earliest pending bucket of [ScheduledSends]; when it fires the bucket goes
+ * to the send queue and the alarm moves on to the next bucket.
+ */
+object ScheduledSendHelper {
+    private const val TAG = "ScheduledSendHelper"
+    private const val JOURNAL_FILE = "sms_scheduled.journal"
+    private const val REQUEST_CODE = 0x5C4ED
+
+    /** Jobs due within this long of each other share one wakeup. */
+    const val BUCKET_MILLIS = 60_000L
+
+    @Volatile
+    private var scheduled: ScheduledSends? = null
+
+    private fun getScheduled(context: Context): ScheduledSends =
+        scheduled ?: synchronized(this) {
+            scheduled ?: ScheduledSends(
+                SendJournal(File(context.applicationContext.filesDir, JOURNAL_FILE)),
+                BUCKET_MILLIS
+            ).also { scheduled = it }
+        }
+
+    /** True if [job] is due later than the bucket in progress and has to wait for an alarm. */
+    @JvmStatic
+    fun isScheduled(job: SendJob, nowMillis: Long): Boolean = job.sendAtMillis - nowMillis > BUCKET_MILLIS
+
+    @JvmStatic
+    fun schedule(context: Context, jobs: List<SendJob>) {
+        if (jobs.isEmpty()) return
+        val store = getScheduled(context)
+        store.schedule(jobs)
+        Log.d(TAG, "Scheduled ${jobs.size} SMS (pending: ${store.size()})")
+        arm(context)
+    }
+
+    /** Hands the due buckets to the send queue and sets the alarm for the next one. */
+    @JvmStatic
+    fun onAlarm(context: Context) {
+        val due = getScheduled(context).takeDue(System.currentTimeMillis())
+        if (due.isNotEmpty()) {
+            Log.d(TAG, "Releasing ${due.size} scheduled SMS")
+            SmsSendWorker.enqueue(context, due)
+        }
+        arm(context)
+    }
+
+    /** Sets the alarm for the earliest pending bucket; alarms do not survive a reboot. */
+    @JvmStatic
+    fun arm(context: Context) {
+        val appContext = context.applicationContext
+        val alarmManager = appContext.getSystemService(Context.ALARM_SERVICE) as AlarmManager
+        val intent = Intent(appContext, ScheduledSendReceiver::class.java)
+            .setAction(ScheduledSendReceiver.ACTION_SEND_SCHEDULED)
+        val pendingIntent = PendingIntent.getBroadcast(
+            appContext, REQUEST_CODE, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
+        )
+
+        val wakeupAt = getScheduled(appContext).nextWakeupAt()
+        if (wakeupAt == null) {
+            alarmManager.cancel(pendingIntent)
+            return
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, wakeupAt, pendingIntent)
+        } else {
+            // without the exact alarm permission the system may defer the wakeup
+            Log.w(TAG, "Exact alarms not allowed, scheduled SMS may go out late")
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, wakeupAt, pendingIntent)
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.vernu.sms.helpers
+
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import android.net.Uri
+import android.os.Build
+import android.telephony.SmsManager
+import android.util.Log
+import com.vernu.sms.queue.RequestCodeRing
+import com.vernu.sms.receivers.SMSStatusReceiver
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Per-process state reused across sends: one [SmsManager] per subscription and
+ * a ring of request codes for the sent/delivered PendingIntents.
+ *
+ * Each message holds one request code (shared by its sent and delivered
+ * intents, which differ by action) from dispatch until its final status
+ * broadcast. Every intent also carries a data URI naming the message and the
+ * part, so the parts of a multipart message are told apart, and two messages
+ * never share a PendingIntent even when a full ring hands out a code that is
+ * still held. A message whose delivery report never comes gives its code back
+ * after [REQUEST_CODE_MAX_HOLD_MILLIS].
+ */
+object SendContextPool {
+    private const val TAG = "SendContextPool"
+    private const val REQUEST_CODE_BASE = 0x10000
+    private const val REQUEST_CODE_CAPACITY = 4096
+
+    /** Longer than [MultipartStatusHelper]'s send and delivery timeouts together. */
+    private val REQUEST_CODE_MAX_HOLD_MILLIS = TimeUnit.MINUTES.toMillis(35)
+    const val EXTRA_REQUEST_CODE = "request_code"
+    const val EXTRA_PART_INDEX = "part_index"
+    const val EXTRA_PART_COUNT = "part_count"
+
+    /** Per-part PendingIntents of one message and the request code backing them. */
+    class SendIntents(
+        val requestCode: Int,
+        val sent: ArrayList<PendingIntent>,
+        val delivered: ArrayList<PendingIntent>
+    )
+
+    // random start so a restarted process is unlikely to reuse codes whose
+    // intents from before the restart are still waiting for a delivery report
+    private val requestCodes = RequestCodeRing(
+        REQUEST_CODE_BASE, REQUEST_CODE_CAPACITY, Random.nextInt(REQUEST_CODE_CAPACITY), REQUEST_CODE_MAX_HOLD_MILLIS
+    )
+    private val smsManagers = ConcurrentHashMap<Int, SmsManager>()
+
+    /** SmsManager for [subscriptionId], or the default one when it is null. */
+    @JvmStatic
+    @Suppress("DEPRECATION")
+    fun smsManager(subscriptionId: Int?): SmsManager {
+        if (subscriptionId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+            return SmsManager.getDefault()
+        }
+        return smsManagers.getOrPut(subscriptionId) { SmsManager.getSmsManagerForSubscriptionId(subscriptionId) }
+    }
+
+    @JvmStatic
+    fun acquire(context: Context, smsId: String, smsBatchId: String, partCount: Int): SendIntents {
+        val evictions = requestCodes.evictions
+        val requestCode = requestCodes.acquire(smsId)
+        if (requestCodes.evictions != evictions) {
+            Log.w(TAG, "All $REQUEST_CODE_CAPACITY status request codes taken within the last " +
+                "${REQUEST_CODE_MAX_HOLD_MILLIS / 60_000} minutes, sharing the oldest")
+        }
+        val sent = ArrayList<PendingIntent>(partCount)
+        val delivered = ArrayList<PendingIntent>(partCount)
+        for (part in 0 until partCount) {
+            sent.add(createPendingIntent(context, SMSStatusReceiver.SMS_SENT, requestCode, smsId, smsBatchId, part, partCount))
+            delivered.add(createPendingIntent(context, SMSStatusReceiver.SMS_DELIVERED, requestCode, smsId, smsBatchId, part, partCount))
+        }
+        return SendIntents(requestCode, sent, delivered)
+    }
+
+    /** Returns the request code of [smsId] to the ring once no more status broadcasts are expected. */
+    @JvmStatic
+    fun release(requestCode: Int, smsId: String?) {
+        if (requestCode < 0 || smsId == null) return
+        requestCodes.release(requestCode, smsId)
+    }
+
+    private fun createPendingIntent(
+        context: Context,
+        action: String,
+        requestCode: Int,
+        smsId: String,
+        smsBatchId: String,
+        partIndex: Int,
+        partCount: Int
+    ): PendingIntent {
+        val intent = Intent(context, SMSStatusReceiver::class.java).apply {
+            this.action = action
+            putExtra("sms_id", smsId)
+            putExtra("sms_batch_id", smsBatchId)
+            putExtra(EXTRA_REQUEST_CODE, requestCode)
+            data = Uri.parse(RequestCodeRing.statusUri(requestCode, smsId, partIndex))
+            if (partCount > 1) {
+                putExtra(EXTRA_PART_INDEX, partIndex)
+                putExtra(EXTRA_PART_COUNT, partCount)
+            }
+        }
+        var flags = PendingIntent.FLAG_UPDATE_CURRENT
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) flags = flags or PendingIntent.FLAG_MUTABLE
+        return PendingIntent.getBroadcast(context, requestCode, intent, flags)
+    }
+}
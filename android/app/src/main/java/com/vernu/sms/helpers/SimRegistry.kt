@@ -0,0 +1,133 @@
+package com.vernu.sms.helpers
+
+import android.Manifest
+import android.content.Context
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.telephony.SubscriptionInfo
+import android.telephony.SubscriptionManager
+import android.util.Log
+import com.vernu.sms.TextBeeUtils
+import com.vernu.sms.dtos.SimInfoDTO
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Process-wide cache of the active SIM subscriptions.
+ *
+ * `getActiveSubscriptionInfoList()` is a binder call; the send path used to make
+ * it up to twice per message and every heartbeat rebuilt the SIM info from it.
+ * The registry queries it once, keeps the result until an
+ * [SubscriptionManager.OnSubscriptionsChangedListener] callback says the
+ * subscriptions changed, and answers lookups by subscription id from a map.
+ */
+object SimRegistry {
+    private const val TAG = "SimRegistry"
+
+    private class Snapshot(val subscriptions: List<SubscriptionInfo>) {
+        val byId: Map<Int, SubscriptionInfo> = subscriptions.associateBy { it.subscriptionId }
+        val ids: List<Int> = subscriptions.map { it.subscriptionId }
+        val simInfo: List<SimInfoDTO> by lazy { TextBeeUtils.buildSimInfo(subscriptions) }
+    }
+
+    /**
+     * [cacheHits] are the lookups answered from the cached snapshot, each an
+     * IPC call saved; lookups made without the phone state permission are in
+     * neither count.
+     */
+    data class Stats(val lookups: Long, val ipcCalls: Long, val cacheHits: Long) {
+        val ipcCallsSaved: Long get() = cacheHits
+    }
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    @Volatile
+    private var listenerRegistered = false
+
+    private val lookups = AtomicLong()
+    private val ipcCalls = AtomicLong()
+    private val cacheHits = AtomicLong()
+
+    @JvmStatic
+    fun getActiveSubscriptions(context: Context): List<SubscriptionInfo> =
+        snapshot(context)?.subscriptions ?: emptyList()
+
+    @JvmStatic
+    fun getActiveSubscriptionIds(context: Context): List<Int> =
+        snapshot(context)?.ids ?: emptyList()
+
+    @JvmStatic
+    fun isActiveSubscription(context: Context, subscriptionId: Int): Boolean =
+        snapshot(context)?.byId?.containsKey(subscriptionId) ?: false
+
+    @JvmStatic
+    fun getSubscription(context: Context, subscriptionId: Int): SubscriptionInfo? =
+        snapshot(context)?.byId?.get(subscriptionId)
+
+    /** SIM details as reported to the backend. Returns a new list each call. */
+    @JvmStatic
+    fun getSimInfo(context: Context): List<SimInfoDTO> =
+        snapshot(context)?.let { ArrayList(it.simInfo) } ?: ArrayList()
+
+    /** Drops the cached snapshot; the next lookup queries SubscriptionManager again. */
+    @JvmStatic
+    fun invalidate() {
+        snapshot = null
+    }
+
+    @JvmStatic
+    fun stats(): Stats = Stats(lookups.get(), ipcCalls.get(), cacheHits.get())
+
+    private fun snapshot(context: Context): Snapshot? {
+        lookups.incrementAndGet()
+        snapshot?.let {
+            cacheHits.incrementAndGet()
+            return it
+        }
+        // without the permission nothing is cached, so a later grant is picked up
+        if (!TextBeeUtils.isPermissionGranted(context, Manifest.permission.READ_PHONE_STATE)) return null
+
+        val appContext = context.applicationContext
+        registerListener(appContext)
+        return synchronized(this) {
+            snapshot?.also { cacheHits.incrementAndGet() } ?: try {
+                ipcCalls.incrementAndGet()
+                val list = SubscriptionManager.from(appContext).activeSubscriptionInfoList
+                Snapshot(list?.toList() ?: emptyList()).also { snapshot = it }
+            } catch (e: SecurityException) {
+                Log.e(TAG, "Could not read active subscriptions: ${e.message}")
+                null
+            }
+        }
+    }
+
+    private fun registerListener(context: Context) {
+        if (listenerRegistered) return
+        synchronized(this) {
+            if (listenerRegistered) return
+            listenerRegistered = true
+        }
+        // before API 30 the listener binds to the Looper of the thread that creates it
+        Handler(Looper.getMainLooper()).post {
+            try {
+                val listener = object : SubscriptionManager.OnSubscriptionsChangedListener() {
+                    override fun onSubscriptionsChanged() {
+                        Log.d(TAG, "Subscriptions changed, dropping cached SIM list")
+                        invalidate()
+                    }
+                }
+                val subscriptionManager = SubscriptionManager.from(context)
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    subscriptionManager.addOnSubscriptionsChangedListener(context.mainExecutor, listener)
+                } else {
+                    subscriptionManager.addOnSubscriptionsChangedListener(listener)
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Could not listen for subscription changes: ${e.message}")
+                listenerRegistered = false
+                invalidate()
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.vernu.sms.metrics
+
+/**
+ * Fixed-bucket histogram of latencies in milliseconds. Recording is a bucket
+ * lookup and a few increments, so it can sit on hot paths; percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+class LatencyHistogram {
+    companion object {
+        /** Upper bounds of the buckets in ms; a last, unbounded bucket catches the rest. */
+        @JvmField
+        val BOUNDS_MILLIS = longArrayOf(5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000)
+    }
+
+    data class Snapshot(
+        val count: Long,
+        val failures: Long,
+        val sumMillis: Long,
+        val maxMillis: Long,
+        /** Counts per bucket; index i covers values up to [BOUNDS_MILLIS] `[i]`, the last index the rest. */
+        val buckets: LongArray
+    ) {
+        val meanMillis: Long get() = if (count == 0L) 0 else sumMillis / count
+
+        /** Upper bound of the bucket holding the [quantile] (0..1) value, [maxMillis] for the last one. */
+        fun percentileMillis(quantile: Double): Long {
+            if (count == 0L) return 0
+            val rank = Math.ceil(quantile * count).toLong().coerceIn(1, count)
+            var seen = 0L
+            for (i in buckets.indices) {
+                seen += buckets[i]
+                if (seen >= rank) return if (i < BOUNDS_MILLIS.size) minOf(BOUNDS_MILLIS[i], maxMillis) else maxMillis
+            }
+            return maxMillis
+        }
+    }
+
+    private val buckets = LongArray(BOUNDS_MILLIS.size + 1)
+    private var count = 0L
+    private var failures = 0L
+    private var sumMillis = 0L
+    private var maxMillis = 0L
+
+    @Synchronized
+    fun record(millis: Long, failed: Boolean = false) {
+        val value = millis.coerceAtLeast(0)
+        var i = 0
+        while (i < BOUNDS_MILLIS.size && value > BOUNDS_MILLIS[i]) i++
+        buckets[i]++
+        count++
+        if (failed) failures++
+        sumMillis += value
+        if (value > maxMillis) maxMillis = value
+    }
+
+    @Synchronized
+    fun snapshot(): Snapshot = Snapshot(count, failures, sumMillis, maxMillis, buckets.copyOf())
+}
@@ -0,0 +1,151 @@
+package com.vernu.sms.metrics
+
+/**
+ * Where an outgoing message spends its time on the device. Each message is
+ * tracked by smsId from the push that brought it to its delivery report; every
+ * [Stage] it reaches records the time since the stage before it and since the
+ * device first saw it, so a slow send can be pinned on FCM, the send queue,
+ * the modem or the carrier.
+ *
+ * Only the newest [capacity] messages are tracked, and nothing is persisted: a
+ * message whose process died mid-way starts over at the next stage it reaches.
+ */
+class MessageLifecycle(
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+
+        /** Shared by the FCM service, send worker, status receiver and status uploader. */
+        @JvmField
+        val SHARED = MessageLifecycle()
+
+        private const val RATE_SLOTS = 60
+        private const val RATE_SLOT_MILLIS = 1_000L
+    }
+
+    enum class Stage(val wireName: String) {
+        /** The server handed the push to FCM, as stamped by FCM; the server and device clocks may differ. */
+        PUSHED("pushed"),
+        /** The push was parsed, or the message was fetched in pull mode. */
+        RECEIVED("received"),
+        /** The message was written to the send queue. */
+        ENQUEUED("enqueued"),
+        /** The send worker picked the message; covers worker start, pacing and the send delay. */
+        DISPATCHED("dispatched"),
+        /** SmsManager accepted the message. */
+        SUBMITTED("submitted"),
+        /** The SMS_SENT result came back from the modem. */
+        SENT("sent"),
+        /** The carrier's delivery report came back. */
+        DELIVERED("delivered"),
+        /** A status update reached the server, timed from the status it reports. */
+        UPLOADED("uploaded")
+    }
+
+    data class StageStats(
+        val stage: Stage,
+        /** Messages that reached the stage since the app started. */
+        val count: Long,
+        /** Messages that reached the stage in the last minute. */
+        val lastMinute: Int,
+        /** Time since the stage before it. */
+        val sincePrevious: LatencyHistogram.Snapshot,
+        /** Time since the first stage seen for the message. */
+        val sinceStart: LatencyHistogram.Snapshot
+    )
+
+    private class Tracked(val startedAt: Long, var lastStage: Stage, var lastAt: Long)
+
+    private val stages = Stage.values()
+    private val counts = LongArray(stages.size)
+    private val sincePrevious = Array(stages.size) { LatencyHistogram() }
+    private val sinceStart = Array(stages.size) { LatencyHistogram() }
+    private val rateCounts = Array(stages.size) { IntArray(RATE_SLOTS) }
+    private val rateSeconds = Array(stages.size) { LongArray(RATE_SLOTS) }
+
+    private val entries = object : LinkedHashMap<String, Tracked>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Tracked>?) = size > capacity
+    }
+
+    /**
+     * Records that [smsId] reached [stage] at [atMillis]. A stage at or before
+     * the one last seen restarts the message from there without recording,
+     * as when a throttled message goes back into the queue. [failed] marks the
+     * sample, and a failure or a delivery report ends tracking of the message.
+     */
+    @Synchronized
+    fun mark(smsId: String?, stage: Stage, failed: Boolean = false, atMillis: Long = clock()) {
+        if (smsId.isNullOrEmpty() || stage == Stage.UPLOADED) return
+        countRate(stage, atMillis)
+        val entry = entries[smsId]
+        if (entry == null || stage <= entry.lastStage) {
+            entries[smsId] = Tracked(entry?.startedAt ?: atMillis, stage, atMillis)
+        } else {
+            sincePrevious[stage.ordinal].record(atMillis - entry.lastAt, failed)
+            sinceStart[stage.ordinal].record(atMillis - entry.startedAt, failed)
+            entry.lastStage = stage
+            entry.lastAt = atMillis
+        }
+        if (failed || stage == Stage.DELIVERED) entries.remove(smsId)
+    }
+
+    /** Marks every id in [smsIds], for messages that arrive together. */
+    @Synchronized
+    fun markAll(smsIds: Collection<String>, stage: Stage, atMillis: Long = clock()) {
+        for (smsId in smsIds) mark(smsId, stage, atMillis = atMillis)
+    }
+
+    /** Stops tracking [smsId], e.g. while it waits for its scheduled send time. */
+    @Synchronized
+    fun forget(smsId: String?) {
+        if (smsId != null) entries.remove(smsId)
+    }
+
+    /** Records a status update that reached the server, stamped [statusAtMillis] on the device. */
+    @Synchronized
+    fun markUploaded(statusAtMillis: Long, nowMillis: Long = clock()) {
+        countRate(Stage.UPLOADED, nowMillis)
+        sincePrevious[Stage.UPLOADED.ordinal].record(nowMillis - statusAtMillis)
+    }
+
+    /** Messages currently tracked. */
+    @Synchronized
+    fun tracked(): Int = entries.size
+
+    @Synchronized
+    fun snapshot(nowMillis: Long = clock()): List<StageStats> = stages.map { stage ->
+        StageStats(
+            stage,
+            counts[stage.ordinal],
+            lastMinute(stage, nowMillis),
+            sincePrevious[stage.ordinal].snapshot(),
+            sinceStart[stage.ordinal].snapshot()
+        )
+    }
+
+    private fun countRate(stage: Stage, atMillis: Long) {
+        counts[stage.ordinal]++
+        val second = atMillis / RATE_SLOT_MILLIS
+        val slot = (second % RATE_SLOTS).toInt()
+        val slotCounts = rateCounts[stage.ordinal]
+        val slotSeconds = rateSeconds[stage.ordinal]
+        if (slotSeconds[slot] != second) {
+            slotSeconds[slot] = second
+            slotCounts[slot] = 0
+        }
+        slotCounts[slot]++
+    }
+
+    private fun lastMinute(stage: Stage, nowMillis: Long): Int {
+        val oldest = nowMillis / RATE_SLOT_MILLIS - RATE_SLOTS
+        val slotCounts = rateCounts[stage.ordinal]
+        val slotSeconds = rateSeconds[stage.ordinal]
+        var total = 0
+        for (slot in 0 until RATE_SLOTS) {
+            if (slotSeconds[slot] > oldest) total += slotCounts[slot]
+        }
+        return total
+    }
+}
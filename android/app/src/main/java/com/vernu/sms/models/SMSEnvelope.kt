@@ -0,0 +1,104 @@
+package com.vernu.sms.models
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.vernu.sms.queue.SendJob
+import com.vernu.sms.queue.SendPriority
+import java.io.StringReader
+
+/**
+ * Decoder for the compact multi-message push the backend sends in the
+ * `smsEnvelope` data field instead of one `smsData` [SMSPayload] per
+ * recipient:
+ *
+ *     { "v": 2, "b": smsBatchId, "g": [{ "m": message, "s": simSubscriptionId?, "p": priority?, "t": sendAt?, "r": [[smsId, recipient], ...] }] }
+ *
+ * The JSON is streamed straight into [SendJob]s, so a push with hundreds of
+ * recipients is decoded in one pass without an intermediate object tree.
+ * Newer versions only add fields, which are skipped like any unknown key.
+ */
+object SMSEnvelope {
+    const val DATA_KEY = "smsEnvelope"
+    /** Oldest envelope version this build decodes. */
+    const val VERSION = 2
+
+    /** Jobs carried by [json], in the order the backend packed them. */
+    @JvmStatic
+    fun decode(json: String): List<SendJob> {
+        val jobs = ArrayList<SendJob>()
+        var version: Int? = null
+        var smsBatchId: String? = null
+        var batchIdAfterGroups = false
+        JsonReader(StringReader(json)).use { reader ->
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "v" -> version = reader.nextInt()
+                    "b" -> {
+                        smsBatchId = reader.nextString()
+                        batchIdAfterGroups = jobs.isNotEmpty()
+                    }
+                    "g" -> readGroups(reader, smsBatchId, jobs)
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+        }
+        require((version ?: 0) >= VERSION) { "Unsupported SMS envelope version: $version" }
+        // the backend writes "b" first; only a reordered envelope needs the second pass
+        return if (batchIdAfterGroups) jobs.map { it.copy(smsBatchId = smsBatchId) } else jobs
+    }
+
+    private fun readGroups(reader: JsonReader, smsBatchId: String?, jobs: MutableList<SendJob>) {
+        reader.beginArray()
+        while (reader.hasNext()) {
+            var message = ""
+            var simSubscriptionId: Int? = null
+            var priority: SendPriority? = null
+            var sendAtMillis = 0L
+            val recipients = ArrayList<Pair<String, String>>()
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "m" -> message = reader.nextString()
+                    "s" -> simSubscriptionId = if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull()
+                        null
+                    } else {
+                        reader.nextInt()
+                    }
+                    "p" -> priority = SendPriority.parse(reader.nextString())
+                    "t" -> sendAtMillis = reader.nextLong()
+                    "r" -> {
+                        reader.beginArray()
+                        while (reader.hasNext()) {
+                            reader.beginArray()
+                            val smsId = reader.nextString()
+                            val recipient = reader.nextString()
+                            while (reader.hasNext()) reader.skipValue()
+                            reader.endArray()
+                            recipients.add(smsId to recipient)
+                        }
+                        reader.endArray()
+                    }
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            for ((smsId, recipient) in recipients) {
+                jobs.add(
+                    SendJob(
+                        phone = recipient,
+                        message = message,
+                        smsId = smsId,
+                        smsBatchId = smsBatchId,
+                        simSubscriptionId = simSubscriptionId,
+                        priority = priority,
+                        sendAtMillis = sendAtMillis
+                    )
+                )
+            }
+        }
+        reader.endArray()
+    }
+}
@@ -1,17 +1,45 @@
 package com.vernu.sms.models
 
+import com.vernu.sms.filter.PhoneNumbers
+import com.vernu.sms.filter.RegexSet
+
 class SMSFilterRule @JvmOverloads constructor(
     var pattern: String? = null,
     var matchType: MatchType? = null,
     var filterTarget: FilterTarget = FilterTarget.SENDER,
     @get:JvmName("isCaseSensitive") var caseSensitive: Boolean = false
 ) {
-    enum class MatchType { EXACT, STARTS_WITH, ENDS_WITH, CONTAINS }
+    /**
+     * REGEX is found anywhere in the text (anchor with ^ and $ to match it
+     * whole). PHONE_NUMBER compares numbers after normalization, so
+     * "+1 555 123 4567" also matches "5551234567"; see [PhoneNumbers].
+     */
+    enum class MatchType { EXACT, STARTS_WITH, ENDS_WITH, CONTAINS, REGEX, PHONE_NUMBER }
     enum class FilterTarget { SENDER, MESSAGE, BOTH }
 
+    /** False for a REGEX that does not compile or a PHONE_NUMBER without digits. */
+    fun isValidPattern(): Boolean {
+        val p = pattern ?: return false
+        return when (matchType) {
+            MatchType.REGEX -> RegexSet.isValid(p)
+            MatchType.PHONE_NUMBER -> PhoneNumbers.normalize(p) != null
+            else -> true
+        }
+    }
+
     private fun matchesString(text: String?): Boolean {
         val p = pattern ?: return false
         val t = text ?: return false
+        when (matchType) {
+            MatchType.REGEX -> return try {
+                val options = if (caseSensitive) emptySet() else setOf(RegexOption.IGNORE_CASE)
+                Regex(p, options).containsMatchIn(t)
+            } catch (e: IllegalArgumentException) {
+                false
+            }
+            MatchType.PHONE_NUMBER -> return PhoneNumbers.sameNumber(p, t)
+            else -> {}
+        }
         val pat = if (caseSensitive) p else p.lowercase()
         val txt = if (caseSensitive) t else t.lowercase()
         return when (matchType) {
@@ -19,7 +47,7 @@ class SMSFilterRule @JvmOverloads constructor(
             MatchType.STARTS_WITH -> txt.startsWith(pat)
             MatchType.ENDS_WITH -> txt.endsWith(pat)
             MatchType.CONTAINS -> txt.contains(pat)
-            null -> false
+            else -> false
         }
     }
 
@@ -6,6 +6,10 @@ class SMSPayload {
     var smsId: String? = null
     var smsBatchId: String? = null
     var simSubscriptionId: Int? = null
+    /** high, normal or bulk; absent means normal. */
+    var priority: String? = null
+    /** Epoch millis at which to send; absent or past sends right away. */
+    var sendAt: Long? = null
 
     // Legacy fields — no longer actively used but kept for backward compatibility
     var receivers: Array<String>? = null
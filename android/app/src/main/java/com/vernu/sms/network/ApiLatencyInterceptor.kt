@@ -0,0 +1,48 @@
+package com.vernu.sms.network
+
+import com.vernu.sms.metrics.LatencyHistogram
+import okhttp3.Interceptor
+import okhttp3.Request
+import okhttp3.Response
+import retrofit2.Invocation
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Records how long each API call takes, per endpoint. Retrofit calls are keyed
+ * by the name of the service method (e.g. `updateSMSStatusBulk`), anything else
+ * by method and path with id-like segments collapsed. Calls that fail with an
+ * I/O error or a 5xx response are counted as failures.
+ */
+class ApiLatencyInterceptor : Interceptor {
+    private val histograms = ConcurrentHashMap<String, LatencyHistogram>()
+
+    @Throws(IOException::class)
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val histogram = histograms.getOrPut(endpointOf(request)) { LatencyHistogram() }
+        val start = System.nanoTime()
+        try {
+            val response = chain.proceed(request)
+            histogram.record(elapsedMillis(start), failed = response.code() >= 500)
+            return response
+        } catch (e: IOException) {
+            histogram.record(elapsedMillis(start), failed = true)
+            throw e
+        }
+    }
+
+    fun snapshot(): Map<String, LatencyHistogram.Snapshot> =
+        histograms.mapValues { it.value.snapshot() }.toSortedMap()
+
+    private fun endpointOf(request: Request): String {
+        request.tag(Invocation::class.java)?.let { return it.method().name }
+        val path = request.url().pathSegments().joinToString("/") { segment ->
+            val hexId = segment.length >= 16 && segment.all { it.isDigit() || it in 'a'..'f' }
+            if (hexId || segment.all { it.isDigit() }) ":id" else segment
+        }
+        return "${request.method()} /$path"
+    }
+
+    private fun elapsedMillis(startNanos: Long): Long = (System.nanoTime() - startNanos) / 1_000_000
+}
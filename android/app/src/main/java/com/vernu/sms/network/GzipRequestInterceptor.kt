@@ -0,0 +1,34 @@
+package com.vernu.sms.network
+
+import okhttp3.Interceptor
+import okhttp3.RequestBody
+import okhttp3.Response
+import okio.Buffer
+import okio.GzipSink
+import okio.Okio
+import java.io.IOException
+
+/**
+ * Gzips request bodies of at least [minBytes], which mostly means the batched
+ * status and received-SMS uploads. The backend's body parser inflates
+ * `Content-Encoding: gzip` bodies; small requests are sent as they are.
+ */
+class GzipRequestInterceptor(private val minBytes: Long = 1024) : Interceptor {
+    @Throws(IOException::class)
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val body = request.body()
+        if (body == null || request.header("Content-Encoding") != null || body.contentLength() < minBytes) {
+            return chain.proceed(request)
+        }
+        val compressed = Buffer()
+        Okio.buffer(GzipSink(compressed)).use { body.writeTo(it) }
+        val gzipped = RequestBody.create(body.contentType(), compressed.readByteString())
+        return chain.proceed(
+            request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), gzipped)
+                .build()
+        )
+    }
+}
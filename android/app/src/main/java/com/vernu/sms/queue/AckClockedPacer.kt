@@ -0,0 +1,68 @@
+package com.vernu.sms.queue
+
+/**
+ * Closes the loop between dispatch and the radio. At most [Settings.window]
+ * messages per SIM may be waiting for their SMS_SENT result; once that many
+ * are out, the SIM only sends again when [onSentResult] releases one, so a
+ * SIM sends as fast as its modem confirms and holds back when the modem is
+ * backed up. A message whose result has not come back after
+ * [Settings.timeoutMillis] stops counting, so a lost broadcast cannot stall
+ * the SIM. Within the window, [base] still paces the SIM as configured.
+ */
+class AckClockedPacer(
+    private val base: SendPacer,
+    private val settings: () -> Settings
+) : SendPacer {
+
+    data class Settings(val window: Int, val timeoutMillis: Long)
+
+    /** Dispatch times of the messages still waiting for their result, oldest first. */
+    private val outstanding = HashMap<Int, ArrayDeque<Long>>()
+
+    /** Messages whose result never came back in time, over the life of the pacer. */
+    var timeouts = 0L
+        private set
+
+    @Synchronized
+    override fun delayMillis(simKey: Int, nowMillis: Long): Long {
+        val baseDelay = base.delayMillis(simKey, nowMillis)
+        val sent = outstanding[simKey] ?: return baseDelay
+        val current = settings()
+        expire(sent, nowMillis, current.timeoutMillis)
+        if (sent.size < current.window.coerceAtLeast(1)) return baseDelay
+        return maxOf(baseDelay, sent.first() + current.timeoutMillis - nowMillis)
+    }
+
+    @Synchronized
+    override fun onDispatch(simKey: Int, nowMillis: Long) {
+        base.onDispatch(simKey, nowMillis)
+        outstanding.getOrPut(simKey) { ArrayDeque() }.addLast(nowMillis)
+    }
+
+    /**
+     * Releases a slot of [simKey]. Results are not matched to dispatches: the
+     * oldest slot is the one freed, which is the one closest to timing out.
+     */
+    @Synchronized
+    override fun onSentResult(simKey: Int, nowMillis: Long) {
+        base.onSentResult(simKey, nowMillis)
+        outstanding[simKey]?.removeFirstOrNull()
+    }
+
+    override fun onCongestion(simKey: Int, nowMillis: Long) = base.onCongestion(simKey, nowMillis)
+
+    /** Messages on [simKey] waiting for their SMS_SENT result. */
+    @Synchronized
+    fun outstanding(simKey: Int, nowMillis: Long): Int {
+        val sent = outstanding[simKey] ?: return 0
+        expire(sent, nowMillis, settings().timeoutMillis)
+        return sent.size
+    }
+
+    private fun expire(sent: ArrayDeque<Long>, nowMillis: Long, timeoutMillis: Long) {
+        while (sent.isNotEmpty() && nowMillis - sent.first() >= timeoutMillis) {
+            sent.removeFirst()
+            timeouts++
+        }
+    }
+}
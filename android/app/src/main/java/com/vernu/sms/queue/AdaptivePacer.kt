@@ -0,0 +1,107 @@
+package com.vernu.sms.queue
+
+import kotlin.math.ceil
+
+/**
+ * AIMD layer on top of another pacer. A SIM that has not seen congestion is
+ * paced by [base] alone. When the carrier or the platform rejects a message
+ * with a limit-exceeded or no-service result, [onCongestion] cuts the SIM's
+ * rate to [Settings.decreaseFactor] of what it was actually sending at. Every
+ * [Settings.quietPeriodMillis] without further congestion the rate grows by
+ * [Settings.increasePerMinute], and once it is back at
+ * [Settings.maxRatePerMinute] the adaptive limit is dropped again.
+ */
+class AdaptivePacer(
+    private val base: SendPacer,
+    private val settings: Settings = Settings()
+) : SendPacer {
+
+    data class Settings(
+        val decreaseFactor: Double = 0.5,
+        val increasePerMinute: Double = 2.0,
+        val quietPeriodMillis: Long = 60_000,
+        val minRatePerMinute: Double = 1.0,
+        val maxRatePerMinute: Double = 120.0,
+        /** Congestion reported within this long of a decrease belongs to the same event. */
+        val holdMillis: Long = 10_000
+    )
+
+    private class SimState {
+        val recentSends = ArrayDeque<Long>()
+        var ratePerMinute: Double? = null
+        var lastSendAt = 0L
+        var lastChangeAt = 0L
+        var lastCongestionAt = 0L
+    }
+
+    private val sims = HashMap<Int, SimState>()
+
+    @Synchronized
+    override fun delayMillis(simKey: Int, nowMillis: Long): Long {
+        val baseDelay = base.delayMillis(simKey, nowMillis)
+        val state = sims[simKey] ?: return baseDelay
+        val rate = probe(state, nowMillis) ?: return baseDelay
+        val gap = ceil(MINUTE_MILLIS / rate).toLong()
+        return maxOf(baseDelay, state.lastSendAt + gap - nowMillis)
+    }
+
+    @Synchronized
+    override fun onDispatch(simKey: Int, nowMillis: Long) {
+        base.onDispatch(simKey, nowMillis)
+        val state = sims.getOrPut(simKey) { SimState() }
+        state.lastSendAt = nowMillis
+        state.recentSends.addLast(nowMillis)
+        trim(state, nowMillis)
+    }
+
+    override fun onSentResult(simKey: Int, nowMillis: Long) = base.onSentResult(simKey, nowMillis)
+
+    @Synchronized
+    override fun onCongestion(simKey: Int, nowMillis: Long) {
+        val state = sims.getOrPut(simKey) { SimState() }
+        state.lastCongestionAt = nowMillis
+        val current = state.ratePerMinute
+        if (current != null && nowMillis - state.lastChangeAt < settings.holdMillis) return
+        trim(state, nowMillis)
+        val sendingAt = current ?: state.recentSends.size.toDouble()
+        state.ratePerMinute = (minOf(sendingAt, settings.maxRatePerMinute) * settings.decreaseFactor)
+            .coerceAtLeast(settings.minRatePerMinute)
+        state.lastChangeAt = nowMillis
+    }
+
+    /** Current adaptive rate of [simKey] in messages per minute, or null if it is not backed off. */
+    @Synchronized
+    fun ratePerMinute(simKey: Int, nowMillis: Long): Double? =
+        sims[simKey]?.let { probe(it, nowMillis) }
+
+    /** When a message was last dispatched on [simKey]; 0 if never. */
+    @Synchronized
+    fun lastSendAt(simKey: Int): Long = sims[simKey]?.lastSendAt ?: 0L
+
+    /** When [simKey] last reported congestion; 0 if never. */
+    @Synchronized
+    fun lastCongestionAt(simKey: Int): Long = sims[simKey]?.lastCongestionAt ?: 0L
+
+    /** Applies the additive increase for every quiet period that has passed. */
+    private fun probe(state: SimState, nowMillis: Long): Double? {
+        val rate = state.ratePerMinute ?: return null
+        val periods = (nowMillis - state.lastChangeAt) / settings.quietPeriodMillis
+        if (periods <= 0) return rate
+        val raised = rate + periods * settings.increasePerMinute
+        state.lastChangeAt += periods * settings.quietPeriodMillis
+        state.ratePerMinute = if (raised >= settings.maxRatePerMinute) null else raised
+        return state.ratePerMinute
+    }
+
+    private fun trim(state: SimState, nowMillis: Long) {
+        val sends = state.recentSends
+        while (sends.isNotEmpty() && (nowMillis - sends.first() >= MINUTE_MILLIS || sends.size > MAX_TRACKED_SENDS)) {
+            sends.removeFirst()
+        }
+    }
+
+    private companion object {
+        const val MINUTE_MILLIS = 60_000.0
+        const val MAX_TRACKED_SENDS = 1000
+    }
+}
@@ -0,0 +1,30 @@
+package com.vernu.sms.queue
+
+/**
+ * Spreads jobs that are not pinned to a SIM over every active subscription.
+ * The SIM that may send soonest according to the pacer wins, so a SIM with
+ * more quota left or that is not being throttled takes a larger share. Ties go
+ * to the SIM that failed least recently and then to the one used least
+ * recently, which is plain round-robin when all SIMs are alike. A job pinned
+ * to an active SIM always goes out on it.
+ *
+ * [gate] is the pacer the queue drains with, when it layers more on top of
+ * [pacer], such as an [AckClockedPacer] holding back a SIM with a full window.
+ */
+class BalancedSimSelector(
+    private val activeSims: () -> List<Int>,
+    private val pacer: AdaptivePacer,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val gate: SendPacer = pacer
+) : SimSelector {
+
+    override fun select(job: SendJob): Int {
+        val sims = activeSims()
+        val pinned = job.simSubscriptionId
+        if (pinned != null && pinned in sims) return pinned
+        val now = clock()
+        return sims.minWithOrNull(
+            compareBy<Int>({ gate.delayMillis(it, now) }, { pacer.lastCongestionAt(it) }, { pacer.lastSendAt(it) })
+        ) ?: SimSelector.DEFAULT_SIM
+    }
+}
@@ -0,0 +1,160 @@
+package com.vernu.sms.queue
+
+/**
+ * Aggregates the per-part SMS_SENT / SMS_DELIVERED results of multipart
+ * messages so each message reports one status per phase instead of one per
+ * part. A phase resolves once every part has reported, or when [expire] finds
+ * it older than its timeout, in which case the outcome carries what was known.
+ *
+ * Result codes follow the platform convention: [RESULT_OK] is success,
+ * anything else a failure.
+ */
+class MultipartTracker(
+    private val sentTimeoutMillis: Long,
+    private val deliveryTimeoutMillis: Long,
+    private val maxTracked: Int = 2048
+) {
+    companion object {
+        /** Same value as `android.app.Activity.RESULT_OK`. */
+        const val RESULT_OK = -1
+        private const val PENDING = Int.MIN_VALUE
+    }
+
+    enum class Phase { SENT, DELIVERED }
+
+    data class Outcome(
+        val smsId: String,
+        val smsBatchId: String?,
+        /** PendingIntent request code the message's status intents were created with. */
+        val requestCode: Int,
+        val phase: Phase,
+        val partCount: Int,
+        val okParts: Int,
+        val failedParts: Int,
+        /** Result code of the first part that failed, if any did. */
+        val firstErrorCode: Int?,
+        val timedOut: Boolean
+    ) {
+        val allOk: Boolean get() = okParts == partCount
+        val missingParts: Int get() = partCount - okParts - failedParts
+    }
+
+    private class Message(
+        val smsBatchId: String?,
+        val partCount: Int,
+        val requestCode: Int,
+        val registeredAt: Long
+    ) {
+        val sent = IntArray(partCount) { PENDING }
+        val delivered = IntArray(partCount) { PENDING }
+        var sentResolvedAt = 0L
+        var sentDone = false
+        var deliveredDone = false
+    }
+
+    private val messages = object : LinkedHashMap<String, Message>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Message>?) = size > maxTracked
+    }
+
+    @Synchronized
+    fun register(smsId: String, smsBatchId: String?, partCount: Int, requestCode: Int, nowMillis: Long) {
+        messages[smsId] = Message(smsBatchId, partCount, requestCode, nowMillis)
+    }
+
+    /** Stops tracking [smsId], e.g. because handing it to SmsManager failed. */
+    @Synchronized
+    fun forget(smsId: String) {
+        messages.remove(smsId)
+    }
+
+    @Synchronized
+    fun tracked(): Int = messages.size
+
+    /**
+     * Records the result of part [partIndex]. Returns the aggregated outcome
+     * once the last outstanding part of the phase has reported, null until
+     * then. A message seen for the first time (e.g. after a process restart)
+     * is tracked from here on.
+     */
+    @Synchronized
+    fun onPartResult(
+        smsId: String,
+        smsBatchId: String?,
+        phase: Phase,
+        partIndex: Int,
+        partCount: Int,
+        requestCode: Int,
+        resultCode: Int,
+        nowMillis: Long
+    ): Outcome? {
+        val message = messages.getOrPut(smsId) {
+            Message(smsBatchId, partCount, requestCode, nowMillis).apply {
+                // a delivery report for a message we lost track of: its send phase is over
+                if (phase == Phase.DELIVERED) {
+                    sentDone = true
+                    sentResolvedAt = nowMillis
+                }
+            }
+        }
+        if (partIndex !in 0 until message.partCount) return null
+        val results = if (phase == Phase.SENT) message.sent else message.delivered
+        if (phase == Phase.SENT && message.sentDone || phase == Phase.DELIVERED && message.deliveredDone) return null
+        results[partIndex] = resultCode
+        if (results.any { it == PENDING }) return null
+        return resolve(smsId, message, phase, nowMillis, timedOut = false)
+    }
+
+    /**
+     * Resolves every phase that has been waiting longer than its timeout and
+     * forgets resolved messages once late broadcasts are no longer expected.
+     */
+    @Synchronized
+    fun expire(nowMillis: Long): List<Outcome> {
+        val outcomes = ArrayList<Outcome>()
+        val iterator = messages.entries.iterator()
+        while (iterator.hasNext()) {
+            val (smsId, message) = iterator.next()
+            if (!message.sentDone) {
+                if (nowMillis - message.registeredAt >= sentTimeoutMillis) {
+                    outcomes.add(resolve(smsId, message, Phase.SENT, nowMillis, timedOut = true))
+                }
+            } else if (nowMillis - message.sentResolvedAt >= deliveryTimeoutMillis) {
+                if (!message.deliveredDone) {
+                    val outcome = resolve(smsId, message, Phase.DELIVERED, nowMillis, timedOut = true)
+                    // carriers without delivery reports never answer; that is not a failure
+                    if (outcome.okParts + outcome.failedParts > 0) outcomes.add(outcome)
+                }
+                iterator.remove()
+            }
+        }
+        return outcomes
+    }
+
+    private fun resolve(smsId: String, message: Message, phase: Phase, nowMillis: Long, timedOut: Boolean): Outcome {
+        val results = if (phase == Phase.SENT) message.sent else message.delivered
+        val ok = results.count { it == RESULT_OK }
+        val failed = results.count { it != RESULT_OK && it != PENDING }
+        val outcome = Outcome(
+            smsId = smsId,
+            smsBatchId = message.smsBatchId,
+            requestCode = message.requestCode,
+            phase = phase,
+            partCount = message.partCount,
+            okParts = ok,
+            failedParts = failed,
+            firstErrorCode = results.firstOrNull { it != RESULT_OK && it != PENDING },
+            timedOut = timedOut
+        )
+        // resolved messages stay until [expire] drops them, so late part
+        // broadcasts are ignored instead of starting a new entry
+        if (phase == Phase.SENT) {
+            message.sentDone = true
+            message.sentResolvedAt = nowMillis
+            // no delivery reports to wait for unless every part went out
+            if (!outcome.allOk) message.deliveredDone = true
+        } else {
+            message.deliveredDone = true
+        }
+        return outcome
+    }
+}
@@ -0,0 +1,14 @@
+package com.vernu.sms.queue
+
+import java.io.File
+
+/**
+ * IDs of SMS fetched in pull mode that are already in the send queue but not
+ * yet acknowledged to the backend. Kept on disk so an ack that fails is sent
+ * again later, and so an SMS the backend offers again after its lease expired
+ * is recognised instead of being queued a second time.
+ */
+class PullAckOutbox(
+    file: File,
+    clock: () -> Long = System::currentTimeMillis
+) : UploadBuffer<String>(file, String::class.java, Settings(flushSize = 1, maxAgeMillis = 0), clock, { it })
@@ -0,0 +1,22 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.dtos.SMSDTO
+import java.io.File
+
+/**
+ * On-disk inbox of received SMS waiting to be forwarded to the backend.
+ *
+ * Messages are keyed by fingerprint, so a broadcast delivered twice is only
+ * stored and uploaded once while the first copy is still pending.
+ */
+class ReceivedInbox(
+    file: File,
+    settings: Settings = Settings(),
+    clock: () -> Long = System::currentTimeMillis
+) : UploadBuffer<SMSDTO>(file, SMSDTO::class.java, settings, clock, { keyOf(it) }) {
+
+    private companion object {
+        fun keyOf(sms: SMSDTO): String =
+            sms.fingerprint ?: "${sms.sender}|${sms.receivedAtInMillis}|${sms.message.hashCode()}"
+    }
+}
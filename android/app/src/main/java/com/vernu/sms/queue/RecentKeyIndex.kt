@@ -0,0 +1,125 @@
+package com.vernu.sms.queue
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Keys seen recently, remembered across process death: fingerprints of
+ * received SMS, so a repeated broadcast is dropped, and smsIds already handed
+ * to the radio, so a redelivered push does not send them twice.
+ *
+ * A fixed-size hash table in a memory-mapped file: each slot holds a 64-bit
+ * key hash and when it was seen. A key may sit in any of [PROBE_LENGTH]
+ * consecutive slots, so a lookup reads at most that many slots wherever the
+ * table stands. Entries older than [windowMillis] count as free, and when
+ * every slot of a key's window is taken the oldest one is overwritten, so the
+ * index never grows and never needs a cleanup pass. Writes go to the page
+ * cache, which outlives the process.
+ */
+class RecentKeyIndex @JvmOverloads constructor(
+    file: File,
+    private val windowMillis: Long,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val clock: () -> Long = System::currentTimeMillis
+) : Closeable {
+    private val channel: FileChannel
+    private val table: MappedByteBuffer
+
+    init {
+        require(capacity > 0 && capacity and (capacity - 1) == 0) { "capacity must be a power of two" }
+        file.parentFile?.mkdirs()
+        val raf = RandomAccessFile(file, "rw")
+        channel = raf.channel
+        val size = HEADER_BYTES + capacity.toLong() * SLOT_BYTES
+        val reuse = raf.length() == size && readHeader(raf)
+        if (!reuse) {
+            // missing, torn or laid out for another capacity: start empty
+            raf.setLength(0)
+            raf.setLength(size)
+        }
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+        table.order(ByteOrder.LITTLE_ENDIAN)
+        if (!reuse) {
+            table.putInt(0, MAGIC)
+            table.putInt(4, capacity)
+        }
+    }
+
+    /**
+     * Records [key] as seen now. Returns false if it was already seen within
+     * the window, that is, if this is a duplicate.
+     */
+    @Synchronized
+    fun markSeen(key: String): Boolean {
+        val hash = hashOf(key)
+        val now = clock()
+        val start = (hash xor (hash ushr 32)).toInt() and (capacity - 1)
+        var target = -1
+        var targetSeenAt = Long.MAX_VALUE
+        for (i in 0 until PROBE_LENGTH) {
+            val offset = slotOffset((start + i) and (capacity - 1))
+            val slotHash = table.getLong(offset)
+            val seenAt = table.getLong(offset + 8)
+            val live = slotHash != EMPTY && now - seenAt < windowMillis
+            if (live && slotHash == hash) return false
+            // a free slot wins, otherwise the one seen longest ago
+            val age = if (live) seenAt else Long.MIN_VALUE
+            if (age < targetSeenAt) {
+                target = offset
+                targetSeenAt = age
+            }
+        }
+        table.putLong(target, hash)
+        table.putLong(target + 8, now)
+        return true
+    }
+
+    /** Drops [key], so the next [markSeen] of it is not a duplicate. */
+    @Synchronized
+    fun forget(key: String) {
+        val hash = hashOf(key)
+        val start = (hash xor (hash ushr 32)).toInt() and (capacity - 1)
+        for (i in 0 until PROBE_LENGTH) {
+            val offset = slotOffset((start + i) and (capacity - 1))
+            if (table.getLong(offset) == hash) {
+                table.putLong(offset, EMPTY)
+                table.putLong(offset + 8, 0L)
+            }
+        }
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    private fun readHeader(raf: RandomAccessFile): Boolean {
+        raf.seek(0)
+        return Integer.reverseBytes(raf.readInt()) == MAGIC && Integer.reverseBytes(raf.readInt()) == capacity
+    }
+
+    private fun slotOffset(slot: Int): Int = HEADER_BYTES + slot * SLOT_BYTES
+
+    companion object {
+        /** 32768 slots take 512 KB and hold a day of heavy traffic. */
+        const val DEFAULT_CAPACITY = 1 shl 15
+        const val PROBE_LENGTH = 8
+
+        private const val MAGIC = 0x44445831 // "DDX1"
+        private const val HEADER_BYTES = 16
+        private const val SLOT_BYTES = 16
+        private const val EMPTY = 0L
+
+        /** 64-bit FNV-1a; zero marks an empty slot, so it is never returned. */
+        private fun hashOf(key: String): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (c in key) {
+                hash = (hash xor c.code.toLong()) * 0x100000001b3L
+            }
+            return if (hash == EMPTY) 1L else hash
+        }
+    }
+}
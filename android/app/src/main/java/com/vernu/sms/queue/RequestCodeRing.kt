@@ -0,0 +1,92 @@
+package com.vernu.sms.queue
+
+import java.net.URLEncoder
+
+/**
+ * Hands out PendingIntent request codes for messages in flight. Codes come
+ * from the fixed range `base until base + capacity` and are allocated in ring
+ * order; a code is not given out again while the message holding it is still
+ * waiting for its status broadcasts, so two messages never share (and
+ * overwrite) a PendingIntent the way hashCode()-derived codes could.
+ *
+ * Not every message frees its code: a carrier or SIM without delivery reports
+ * never answers the delivered intent. A code held longer than [maxHoldMillis],
+ * by when no status broadcast is expected any more, counts as free again. If
+ * every code is taken within that time, the slot at the cursor - the oldest
+ * allocation - is reused. A reused code must not make the new message's
+ * intents replace the old one's, so the intents also carry [statusUri], which
+ * names the message itself.
+ */
+class RequestCodeRing(
+    private val base: Int,
+    private val capacity: Int,
+    start: Int = 0,
+    private val maxHoldMillis: Long = Long.MAX_VALUE,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    private val owners = arrayOfNulls<String>(capacity)
+    private val heldSince = LongArray(capacity)
+    private var cursor = Math.floorMod(start, capacity)
+    private var inFlight = 0
+
+    /** Allocations that had to take a slot still in flight. */
+    var evictions = 0L
+        private set
+
+    /** Codes taken back after [maxHoldMillis] without a release. */
+    var expirations = 0L
+        private set
+
+    @Synchronized
+    fun acquire(owner: String): Int {
+        val now = clock()
+        for (i in 0 until capacity) {
+            val slot = (cursor + i) % capacity
+            if (owners[slot] == null) {
+                inFlight++
+                return take(slot, owner, now)
+            }
+            if (now - heldSince[slot] >= maxHoldMillis) {
+                expirations++
+                return take(slot, owner, now)
+            }
+        }
+        evictions++
+        return take(cursor, owner, now)
+    }
+
+    /** Frees [code] if it is still held by [owner]; a stale release is ignored. */
+    @Synchronized
+    fun release(code: Int, owner: String): Boolean {
+        val slot = code - base
+        if (slot !in 0 until capacity || owners[slot] != owner) return false
+        owners[slot] = null
+        inFlight--
+        return true
+    }
+
+    @Synchronized
+    fun ownerOf(code: Int): String? = owners.getOrNull(code - base)
+
+    @Synchronized
+    fun inFlight(): Int = inFlight
+
+    companion object {
+        /**
+         * Data URI of the status intents of one part of [owner]'s message. It
+         * differs between messages even when they hold the same [requestCode],
+         * so a PendingIntent of one message is never updated with another's
+         * extras.
+         */
+        @JvmStatic
+        fun statusUri(requestCode: Int, owner: String, partIndex: Int): String =
+            "textbee://sms-status/$requestCode/${URLEncoder.encode(owner, "UTF-8")}/$partIndex"
+    }
+
+    private fun take(slot: Int, owner: String, now: Long): Int {
+        owners[slot] = owner
+        heldSince[slot] = now
+        cursor = (slot + 1) % capacity
+        return base + slot
+    }
+}
@@ -0,0 +1,73 @@
+package com.vernu.sms.queue
+
+import java.util.TreeMap
+
+/**
+ * Jobs handed to the device ahead of their [SendJob.sendAtMillis], kept on
+ * disk until they are due. Jobs are grouped into buckets of [bucketMillis] by
+ * send time, and the device only needs one wakeup per bucket: at
+ * [nextWakeupAt], the first send time of the earliest bucket, [takeDue] hands
+ * over the whole bucket to the [SendQueue], which holds each job back until
+ * its own send time. A scheduled burst of thousands of messages therefore
+ * costs one alarm, not one per message.
+ *
+ * Persisted in its own [SendJournal]; a job taken but not yet in the send
+ * queue when the process dies is handed over again, and the sent-SMS ledger
+ * drops it if it had already gone out.
+ */
+class ScheduledSends(
+    private val journal: SendJournal,
+    private val bucketMillis: Long,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    private val buckets = TreeMap<Long, MutableList<SendJob>>()
+    private var size = 0
+
+    init {
+        require(bucketMillis > 0) { "bucketMillis must be positive" }
+        journal.replay().forEach { add(it) }
+    }
+
+    @Synchronized
+    fun size(): Int = size
+
+    /** Persists [jobs] with one write. */
+    @Synchronized
+    fun schedule(jobs: List<SendJob>) {
+        if (jobs.isEmpty()) return
+        journal.appendAll(jobs, clock()).forEach { add(it) }
+    }
+
+    /** When the next bucket is due, or null with nothing scheduled. */
+    @Synchronized
+    fun nextWakeupAt(): Long? = buckets.firstEntry()?.value?.minOf { it.sendAtMillis }
+
+    /**
+     * Removes every bucket whose first job is due at [nowMillis] and returns
+     * their jobs in send-time order. Jobs later in a bucket than [nowMillis]
+     * are included; the send queue holds them until they are due.
+     */
+    @Synchronized
+    fun takeDue(nowMillis: Long): List<SendJob> {
+        val due = ArrayList<SendJob>()
+        while (true) {
+            val first = buckets.firstEntry() ?: break
+            if (first.value.minOf { it.sendAtMillis } > nowMillis) break
+            buckets.pollFirstEntry()
+            due.addAll(first.value)
+        }
+        if (due.isEmpty()) return due
+        due.sortWith(compareBy<SendJob>({ it.sendAtMillis }, { it.seq }))
+        for (job in due) journal.ack(job.seq)
+        size -= due.size
+        if (size == 0 || journal.ackCount >= SendQueue.COMPACT_THRESHOLD) {
+            journal.compact(buckets.values.flatten().sortedBy { it.seq })
+        }
+        return due
+    }
+
+    private fun add(job: SendJob) {
+        buckets.getOrPut(Math.floorDiv(job.sendAtMillis, bucketMillis)) { ArrayList() }.add(job)
+        size++
+    }
+}
@@ -0,0 +1,25 @@
+package com.vernu.sms.queue
+
+/**
+ * One outbound SMS (a single recipient) waiting in the device send queue.
+ * [seq] is assigned by [SendJournal] when the job is persisted and identifies
+ * the job from then on. [attempt] counts how often the job was put back after
+ * the carrier rejected it. [priority] is null for a normal job, which is also
+ * what jobs journaled before priorities existed read back as. [sendAtMillis]
+ * is when a scheduled job is due; 0 sends it right away.
+ */
+data class SendJob(
+    val seq: Long = 0,
+    val phone: String,
+    val message: String,
+    val smsId: String,
+    val smsBatchId: String? = null,
+    val simSubscriptionId: Int? = null,
+    val enqueuedAtMillis: Long = 0,
+    val attempt: Int = 0,
+    val priority: SendPriority? = null,
+    val sendAtMillis: Long = 0
+) {
+    val lane: SendPriority
+        get() = priority ?: SendPriority.NORMAL
+}
@@ -0,0 +1,111 @@
+package com.vernu.sms.queue
+
+import com.google.gson.Gson
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * Append-only on-disk log backing [SendQueue].
+ *
+ * Each line is either `E<TAB><job json>` (job enqueued) or `A<TAB><seq>` (job
+ * dispatched). Replaying the file yields the jobs that were enqueued but never
+ * acknowledged. A bulk push is persisted with a single write + fsync no matter
+ * how many recipients it has; acknowledgements are plain appends. The file is
+ * rewritten with only the pending jobs by [compact] once enough acks pile up.
+ *
+ * Not thread-safe on its own; [SendQueue] serialises access.
+ */
+class SendJournal(private val file: File) : Closeable {
+    companion object {
+        private const val ENQUEUE = 'E'
+        private const val ACK = 'A'
+        private val gson = Gson()
+    }
+
+    private var out: FileOutputStream? = null
+    private var nextSeq = 1L
+
+    /** Acks written since the file was last compacted. */
+    var ackCount = 0
+        private set
+
+    /** Reads the journal and returns the pending jobs in enqueue order. */
+    fun replay(): List<SendJob> {
+        val pending = LinkedHashMap<Long, SendJob>()
+        ackCount = 0
+        if (file.exists()) {
+            file.bufferedReader(Charsets.UTF_8).useLines { lines ->
+                for (line in lines) {
+                    if (line.length < 3 || line[1] != '\t') continue
+                    val body = line.substring(2)
+                    try {
+                        when (line[0]) {
+                            ENQUEUE -> gson.fromJson(body, SendJob::class.java)?.let {
+                                pending[it.seq] = it
+                                if (it.seq >= nextSeq) nextSeq = it.seq + 1
+                            }
+                            ACK -> {
+                                pending.remove(body.toLong())
+                                ackCount++
+                            }
+                        }
+                    } catch (e: RuntimeException) {
+                        // torn write at the tail after a crash; the record never committed
+                    }
+                }
+            }
+        }
+        return ArrayList(pending.values)
+    }
+
+    /**
+     * Assigns sequence numbers to [jobs] and persists them with one write.
+     * Returns the jobs as stored.
+     */
+    fun appendAll(jobs: List<SendJob>, nowMillis: Long): List<SendJob> {
+        val stored = ArrayList<SendJob>(jobs.size)
+        val sb = StringBuilder(jobs.size * 128)
+        for (job in jobs) {
+            val s = job.copy(seq = nextSeq++, enqueuedAtMillis = nowMillis)
+            stored.add(s)
+            sb.append(ENQUEUE).append('\t').append(gson.toJson(s)).append('\n')
+        }
+        val stream = stream()
+        stream.write(sb.toString().toByteArray(Charsets.UTF_8))
+        stream.fd.sync()
+        return stored
+    }
+
+    fun ack(seq: Long) {
+        stream().write("$ACK\t$seq\n".toByteArray(Charsets.UTF_8))
+        ackCount++
+    }
+
+    /** Rewrites the journal so it only contains [pending]. */
+    fun compact(pending: Collection<SendJob>) {
+        val tmp = File(file.path + ".tmp")
+        FileOutputStream(tmp).use { tmpOut ->
+            val sb = StringBuilder(pending.size * 128)
+            for (job in pending) {
+                sb.append(ENQUEUE).append('\t').append(gson.toJson(job)).append('\n')
+            }
+            tmpOut.write(sb.toString().toByteArray(Charsets.UTF_8))
+            tmpOut.fd.sync()
+        }
+        close()
+        if (!tmp.renameTo(file)) {
+            file.delete()
+            tmp.renameTo(file)
+        }
+        ackCount = 0
+    }
+
+    override fun close() {
+        out?.close()
+        out = null
+    }
+
+    private fun stream(): FileOutputStream =
+        out ?: FileOutputStream(file, true).also { out = it }
+}
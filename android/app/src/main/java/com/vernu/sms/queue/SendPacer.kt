@@ -0,0 +1,26 @@
+package com.vernu.sms.queue
+
+/**
+ * Decides when the next message may go out on a given SIM. [SendQueue.drain]
+ * asks every SIM that has work for its delay and dispatches on whichever is
+ * free, so SIMs are paced independently of each other.
+ *
+ * SIMs are keyed by subscription id; [SimSelector.DEFAULT_SIM] stands for the
+ * platform default SMS subscription.
+ */
+interface SendPacer {
+    /** Millis until a message may be dispatched on [simKey]; 0 if it may go now. */
+    fun delayMillis(simKey: Int, nowMillis: Long): Long
+
+    /** Records that a message was dispatched on [simKey]. */
+    fun onDispatch(simKey: Int, nowMillis: Long)
+
+    /**
+     * Records that a message dispatched on [simKey] got its SMS_SENT result,
+     * or that it never reached the radio.
+     */
+    fun onSentResult(simKey: Int, nowMillis: Long) {}
+
+    /** Records a limit-exceeded / no-service result for a message sent on [simKey]. */
+    fun onCongestion(simKey: Int, nowMillis: Long) {}
+}
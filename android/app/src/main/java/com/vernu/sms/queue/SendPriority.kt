@@ -0,0 +1,23 @@
+package com.vernu.sms.queue
+
+/**
+ * Lanes of the send queue. Whenever a SIM may send, the job in the highest
+ * lane goes next, so a one-time password pushed behind a large bulk batch is
+ * sent after at most the message already on its way.
+ */
+enum class SendPriority {
+    HIGH,
+    NORMAL,
+    BULK;
+
+    /** How the backend and the heartbeat name the lane. */
+    val wireName: String
+        get() = name.lowercase()
+
+    companion object {
+        /** The lane named [value]; null for a missing or unknown name. */
+        @JvmStatic
+        fun parse(value: String?): SendPriority? =
+            if (value == null) null else values().firstOrNull { it.wireName == value.lowercase() }
+    }
+}
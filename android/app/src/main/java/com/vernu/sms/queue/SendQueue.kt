@@ -0,0 +1,274 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.metrics.LatencyHistogram
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Durable queue of outbound SMS drained by a single long-running worker.
+ *
+ * Enqueueing a batch is one journal write regardless of its size. Jobs are
+ * kept in lanes by the SIM they were requested on and their [SendPriority];
+ * the drain loop looks at the head of every lane, asks the [SendPacer] whether
+ * its SIM may send, and dispatches the job of the highest priority that is
+ * allowed to go, the oldest one among equals. The choice is made again before
+ * every message, so a high-priority job overtakes a bulk batch already being
+ * sent. A scheduled job is not dispatched before its [SendJob.sendAtMillis]. When no SIM is free it waits
+ * for the earliest one instead of sleeping a fixed delay, and a new enqueue
+ * wakes it up. Delivery is at-least-once: a job is acknowledged after it has
+ * been handed to the sink, so a crash in between replays it on the next start.
+ *
+ * Dispatched jobs are remembered until their SMS_SENT result comes back via
+ * [onSentResult], so a job the carrier throttled can be put back on the queue.
+ * Every result is passed on to the pacer and wakes the drain, so a pacer that
+ * waits for results (see [AckClockedPacer]) dispatches the next job at once.
+ */
+class SendQueue(
+    private val journal: SendJournal,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val sleeper: ((Long) -> Unit)? = null
+) {
+    companion object {
+        /** Compact the journal once this many acks have accumulated. */
+        const val COMPACT_THRESHOLD = 512
+
+        /** Times a job is sent before a congestion failure is reported as final. */
+        const val MAX_ATTEMPTS = 5
+
+        /** Longest single wait, so a stop request is noticed promptly. */
+        private const val MAX_WAIT_MILLIS = 1000L
+
+        /** Dispatched jobs kept for their SMS_SENT result; older ones are forgotten. */
+        private const val MAX_IN_FLIGHT = 1024
+    }
+
+    /** A dispatched job and the SIM it went out on. */
+    data class InFlight(val job: SendJob, val simKey: Int)
+
+    /** Depth of one priority lane and how long its jobs waited to be dispatched. */
+    data class LaneStats(
+        val priority: SendPriority,
+        val depth: Int,
+        /** How long the oldest job still queued has been waiting; 0 when empty. */
+        val oldestWaitMillis: Long,
+        /** Enqueue-to-dispatch times of the jobs dispatched since the queue was opened. */
+        val waits: LatencyHistogram.Snapshot
+    )
+
+    private data class LaneKey(val simKey: Int, val priority: SendPriority)
+
+    private val lock = ReentrantLock()
+    private val changed = lock.newCondition()
+    private val lanes = LinkedHashMap<LaneKey, ArrayDeque<SendJob>>()
+    private val depths = IntArray(SendPriority.values().size)
+    private val waits = SendPriority.values().map { LatencyHistogram() }
+    private var size = 0
+    private var draining = false
+    private var generation = 0L
+    private val inFlight = object : LinkedHashMap<String, InFlight>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, InFlight>?) = size > MAX_IN_FLIGHT
+    }
+
+    init {
+        journal.replay().forEach { addToLane(it) }
+    }
+
+    /**
+     * Persists [jobs] and appends them to the queue. Returns true when no drain
+     * is in progress, i.e. the caller has to start one for the jobs to go out.
+     */
+    fun enqueue(jobs: List<SendJob>): Boolean = lock.withLock {
+        if (jobs.isNotEmpty()) {
+            journal.appendAll(jobs, clock()).forEach { addToLane(it) }
+            generation++
+            changed.signalAll()
+        }
+        !draining
+    }
+
+    fun size(): Int = lock.withLock { size }
+
+    fun isDraining(): Boolean = lock.withLock { draining }
+
+    /** One entry per [SendPriority], highest first. */
+    fun laneStats(nowMillis: Long = clock()): List<LaneStats> = lock.withLock {
+        val oldest = LongArray(depths.size) { Long.MAX_VALUE }
+        for ((key, lane) in lanes) {
+            val head = lane.firstOrNull() ?: continue
+            val i = key.priority.ordinal
+            oldest[i] = minOf(oldest[i], head.enqueuedAtMillis)
+        }
+        SendPriority.values().map { priority ->
+            val i = priority.ordinal
+            LaneStats(
+                priority = priority,
+                depth = depths[i],
+                oldestWaitMillis = if (oldest[i] == Long.MAX_VALUE) 0 else (nowMillis - oldest[i]).coerceAtLeast(0),
+                waits = waits[i].snapshot()
+            )
+        }
+    }
+
+    /**
+     * Handles the SMS_SENT result of a dispatched job. On congestion (limit
+     * exceeded / no service) the SIM is backed off in [pacer] and the job goes
+     * back on the queue unless it has used up [maxAttempts]. Returns true if
+     * the job was requeued, in which case its failure must not be reported.
+     * Only the first result per job counts, so every part of a multipart
+     * message reporting the same error backs off and requeues once.
+     * [onRequeue] runs before the job is back on the queue, so whatever marks
+     * it as sent can clear that before the drain picks it up again.
+     */
+    fun onSentResult(
+        smsId: String,
+        congested: Boolean,
+        pacer: SendPacer,
+        maxAttempts: Int = MAX_ATTEMPTS,
+        onRequeue: (SendJob) -> Unit = {}
+    ): Boolean {
+        val dispatched = lock.withLock { inFlight.remove(smsId) } ?: return false
+        val now = clock()
+        pacer.onSentResult(dispatched.simKey, now)
+        lock.withLock {
+            generation++
+            changed.signalAll()
+        }
+        if (!congested) return false
+        pacer.onCongestion(dispatched.simKey, now)
+        if (dispatched.job.attempt + 1 >= maxAttempts) return false
+        onRequeue(dispatched.job)
+        enqueue(listOf(dispatched.job.copy(attempt = dispatched.job.attempt + 1)))
+        return true
+    }
+
+    /**
+     * Dispatches pending jobs until the queue is empty or [shouldStop] returns
+     * true. Only one drain runs at a time; a second call returns 0 immediately.
+     * Returns the number of jobs handed to [sink].
+     */
+    fun drain(
+        sink: SmsSink,
+        selector: SimSelector,
+        pacer: SendPacer,
+        shouldStop: () -> Boolean = { false }
+    ): Int {
+        lock.withLock {
+            if (draining) return 0
+            draining = true
+        }
+        var dispatched = 0
+        try {
+            while (!shouldStop()) {
+                val now = clock()
+                var wait = Long.MAX_VALUE
+                var seen = 0L
+                val heads = ArrayList<SendJob>()
+                lock.withLock {
+                    seen = generation
+                    if (size == 0) {
+                        draining = false
+                        return dispatched
+                    }
+                    for (lane in lanes.values) {
+                        val head = lane.firstOrNull() ?: continue
+                        if (head.sendAtMillis > now) {
+                            wait = minOf(wait, head.sendAtMillis - now)
+                        } else {
+                            heads.add(head)
+                        }
+                    }
+                }
+
+                // the selector may read preferences and the SIM registry, so the
+                // heads are weighed without holding up enqueue and onSentResult;
+                // only this drain takes jobs off the lanes, so they stay queued
+                var job: SendJob? = null
+                var sim = SimSelector.DEFAULT_SIM
+                for (head in heads) {
+                    val headSim = selector.select(head)
+                    val delay = pacer.delayMillis(headSim, now)
+                    if (delay > 0) {
+                        wait = minOf(wait, delay)
+                        continue
+                    }
+                    val current = job
+                    if (current == null || head.lane < current.lane ||
+                        (head.lane == current.lane && head.seq < current.seq)
+                    ) {
+                        job = head
+                        sim = headSim
+                    }
+                }
+
+                val next = job
+                if (next == null) {
+                    await(wait, seen)
+                    continue
+                }
+
+                pacer.onDispatch(sim, now)
+                waits[next.lane.ordinal].record(now - next.enqueuedAtMillis)
+                lock.withLock { inFlight[next.smsId] = InFlight(next, sim) }
+                val handedOff = try {
+                    sink.send(next, sim)
+                } catch (e: RuntimeException) {
+                    // a job that throws would otherwise block the queue forever;
+                    // the sink is responsible for reporting the failure upstream
+                    false
+                }
+                if (!handedOff) {
+                    // no SMS_SENT result will come for it
+                    lock.withLock { inFlight.remove(next.smsId) }
+                    pacer.onSentResult(sim, clock())
+                }
+                complete(next)
+                dispatched++
+            }
+        } finally {
+            lock.withLock { draining = false }
+        }
+        return dispatched
+    }
+
+    /** Waits up to [millis], returning early if jobs were enqueued since [seen]. */
+    private fun await(millis: Long, seen: Long) {
+        val bounded = millis.coerceIn(1, MAX_WAIT_MILLIS)
+        val s = sleeper
+        if (s != null) {
+            s(bounded)
+            return
+        }
+        lock.withLock {
+            if (generation == seen) changed.await(bounded, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun laneKey(job: SendJob) = LaneKey(job.simSubscriptionId ?: SimSelector.DEFAULT_SIM, job.lane)
+
+    private fun addToLane(job: SendJob) {
+        val lane = lanes.getOrPut(laneKey(job)) { ArrayDeque() }
+        // lanes are ordered by send time, so a job due now is not held up behind
+        // a scheduled one; only scheduled jobs are ever stepped over
+        var at = lane.size
+        while (at > 0 && lane[at - 1].sendAtMillis > job.sendAtMillis) at--
+        lane.add(at, job)
+        depths[job.lane.ordinal]++
+        size++
+    }
+
+    private fun complete(job: SendJob) = lock.withLock {
+        val key = laneKey(job)
+        val lane = lanes[key]
+        if (lane != null) {
+            if (lane.firstOrNull() === job) lane.removeFirst() else lane.remove(job)
+            if (lane.isEmpty()) lanes.remove(key)
+            depths[job.lane.ordinal]--
+            size--
+        }
+        journal.ack(job.seq)
+        if (size == 0 || journal.ackCount >= COMPACT_THRESHOLD) {
+            journal.compact(lanes.values.flatten().sortedBy { it.seq })
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.vernu.sms.queue
+
+/** Picks the SIM subscription a job goes out on. */
+fun interface SimSelector {
+    companion object {
+        /** Send through the platform default SMS subscription. */
+        const val DEFAULT_SIM = -1
+    }
+
+    fun select(job: SendJob): Int
+}
@@ -0,0 +1,13 @@
+package com.vernu.sms.queue
+
+/**
+ * Where the send queue hands jobs off to the radio. On the device this wraps
+ * [com.vernu.sms.helpers.SMSHelper]; tests plug in a fake.
+ */
+fun interface SmsSink {
+    /**
+     * Sends [job] on [simSubscriptionId] ([SimSelector.DEFAULT_SIM] for the
+     * default SIM). Returns true if the message was handed to SmsManager.
+     */
+    fun send(job: SendJob, simSubscriptionId: Int): Boolean
+}
@@ -0,0 +1,39 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.dtos.SMSDTO
+import java.io.File
+
+/**
+ * On-disk buffer of SMS status updates waiting to be uploaded.
+ *
+ * Updates are keyed by smsId and a newer update replaces the pending one for
+ * the same message, so a SENT followed by DELIVERED uploads only DELIVERED
+ * (carrying the SENT timestamp along). A final state is never replaced by a
+ * late SENT, and nothing is replaced by a DUPLICATE report.
+ */
+class StatusOutbox(
+    file: File,
+    settings: Settings = Settings(),
+    clock: () -> Long = System::currentTimeMillis
+) : UploadBuffer<SMSDTO>(file, SMSDTO::class.java, settings, clock, { it.smsId }) {
+
+    override fun merge(existing: SMSDTO, incoming: SMSDTO): SMSDTO {
+        val newer = rank(incoming.status) >= rank(existing.status)
+        // copied: the pending update may be in an upload batch right now
+        val winner = gson.fromJson(gson.toJson(if (newer) incoming else existing), SMSDTO::class.java)
+        val loser = if (newer) existing else incoming
+        if (winner.smsBatchId == null) winner.smsBatchId = loser.smsBatchId
+        if (winner.sentAtInMillis == 0L) winner.sentAtInMillis = loser.sentAtInMillis
+        if (winner.deliveredAtInMillis == 0L) winner.deliveredAtInMillis = loser.deliveredAtInMillis
+        return winner
+    }
+
+    private companion object {
+        /** Final states outrank SENT, which outranks DUPLICATE and anything unknown. */
+        fun rank(status: String?): Int = when (status?.uppercase()) {
+            "SENT" -> 1
+            "DELIVERED", "DELIVERY_FAILED", "FAILED" -> 2
+            else -> 0
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.vernu.sms.queue
+
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Per-SIM token bucket. Each SIM may send [Config.burst] messages back to back
+ * and then one message per [Config.intervalMillis]; an interval of 0 disables
+ * throttling. The config is read on every call so setting changes apply to the
+ * running queue.
+ */
+class TokenBucketPacer(private val config: () -> Config) : SendPacer {
+
+    data class Config(val burst: Int, val intervalMillis: Long)
+
+    /** Limiter state of one SIM, as reported in the heartbeat. */
+    data class State(
+        val simKey: Int,
+        val tokens: Double,
+        val burst: Int,
+        val ratePerMinute: Double?,
+        val nextAllowedAtMillis: Long
+    )
+
+    private class Bucket(var tokens: Double, var updatedAt: Long)
+
+    private val buckets = HashMap<Int, Bucket>()
+
+    @Synchronized
+    override fun delayMillis(simKey: Int, nowMillis: Long): Long {
+        val c = config()
+        if (c.intervalMillis <= 0) return 0
+        val bucket = refill(simKey, c, nowMillis)
+        return if (bucket.tokens >= 1.0) 0 else ceil((1.0 - bucket.tokens) * c.intervalMillis).toLong()
+    }
+
+    @Synchronized
+    override fun onDispatch(simKey: Int, nowMillis: Long) {
+        val c = config()
+        val bucket = refill(simKey, c, nowMillis)
+        if (c.intervalMillis > 0) {
+            bucket.tokens = (bucket.tokens - 1.0).coerceAtLeast(0.0)
+        }
+    }
+
+    @Synchronized
+    fun snapshot(nowMillis: Long): List<State> {
+        val c = config()
+        return buckets.keys.sorted().map { simKey ->
+            val bucket = refill(simKey, c, nowMillis)
+            val wait = if (c.intervalMillis <= 0 || bucket.tokens >= 1.0) 0L
+                else ceil((1.0 - bucket.tokens) * c.intervalMillis).toLong()
+            State(
+                simKey = simKey,
+                tokens = bucket.tokens,
+                burst = c.burst,
+                ratePerMinute = if (c.intervalMillis > 0) 60_000.0 / c.intervalMillis else null,
+                nextAllowedAtMillis = nowMillis + wait
+            )
+        }
+    }
+
+    private fun refill(simKey: Int, c: Config, nowMillis: Long): Bucket {
+        val burst = c.burst.coerceAtLeast(1).toDouble()
+        val bucket = buckets.getOrPut(simKey) { Bucket(burst, nowMillis) }
+        if (c.intervalMillis <= 0) {
+            bucket.tokens = burst
+        } else if (nowMillis > bucket.updatedAt) {
+            bucket.tokens += (nowMillis - bucket.updatedAt).toDouble() / c.intervalMillis
+        }
+        bucket.tokens = min(burst, bucket.tokens)
+        if (nowMillis > bucket.updatedAt) bucket.updatedAt = nowMillis
+        return bucket
+    }
+}
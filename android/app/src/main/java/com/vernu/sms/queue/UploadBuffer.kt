@@ -0,0 +1,194 @@
+package com.vernu.sms.queue
+
+import com.google.gson.Gson
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * On-disk buffer of items waiting to be uploaded to the backend in batches.
+ *
+ * Items are keyed; what happens when an item arrives for a key that is still
+ * pending is up to [merge]. The uploader takes batches with [peekBatch] and
+ * removes what the server accepted with [ack]. An item replaced while its batch
+ * was in flight stays pending, so a retry only resends what is still unacked.
+ *
+ * The file is an append-only log of `P<TAB><item json>` (buffered) and
+ * `A<TAB><key>` (uploaded) lines, rewritten with only the pending items once
+ * enough acks pile up.
+ */
+open class UploadBuffer<T : Any>(
+    private val file: File,
+    private val type: Class<T>,
+    private val settings: Settings,
+    private val clock: () -> Long,
+    private val keyOf: (T) -> String?
+) : Closeable {
+
+    data class Settings(
+        /** Pending items that make a flush due immediately. */
+        val flushSize: Int = 50,
+        /** How long the oldest pending item may wait for more to join its batch. */
+        val maxAgeMillis: Long = 15_000,
+        val compactAfterAcks: Int = 200
+    )
+
+    /** A pending item as handed to the uploader. */
+    class Pending<T>(val key: String, val version: Long, val item: T)
+
+    private class Entry<T>(val item: T, val version: Long, val addedAtMillis: Long)
+
+    private val pending = LinkedHashMap<String, Entry<T>>()
+    private var out: FileOutputStream? = null
+    private var loaded = false
+    private var nextVersion = 1L
+    private var ackCount = 0
+
+    /**
+     * Returns what should be pending for a key once [incoming] arrives while
+     * [existing] is still waiting, or null to drop [incoming]. By default the
+     * first item for a key is kept and repeats are dropped.
+     */
+    protected open fun merge(existing: T, incoming: T): T? = null
+
+    /**
+     * Buffers [item]. Returns false if it has no key or was dropped as a repeat
+     * of a pending item.
+     */
+    @Synchronized
+    fun add(item: T): Boolean {
+        val key = keyOf(item) ?: return false
+        load()
+        if (!put(key, item, clock())) return false
+        val line = StringBuilder(256).append(PUT).append('\t').append(gson.toJson(item)).append('\n')
+        stream().write(line.toString().toByteArray(Charsets.UTF_8))
+        return true
+    }
+
+    @Synchronized
+    fun contains(key: String): Boolean {
+        load()
+        return pending.containsKey(key)
+    }
+
+    @Synchronized
+    fun size(): Int {
+        load()
+        return pending.size
+    }
+
+    /**
+     * Milliseconds until the next batch should be uploaded: 0 once
+     * [Settings.flushSize] items are pending or the oldest has waited
+     * [Settings.maxAgeMillis]; null when there is nothing to upload.
+     */
+    @Synchronized
+    fun flushDelayMillis(): Long? {
+        load()
+        val oldest = pending.values.minOfOrNull { it.addedAtMillis } ?: return null
+        if (pending.size >= settings.flushSize) return 0
+        return (oldest + settings.maxAgeMillis - clock()).coerceAtLeast(0)
+    }
+
+    /** Up to [max] pending items, oldest first. */
+    @Synchronized
+    fun peekBatch(max: Int): List<Pending<T>> {
+        load()
+        val batch = ArrayList<Pending<T>>(minOf(max, pending.size))
+        for ((key, entry) in pending) {
+            if (batch.size >= max) break
+            batch.add(Pending(key, entry.version, entry.item))
+        }
+        return batch
+    }
+
+    /** Removes the uploaded items that have not been replaced since [peekBatch]. */
+    @Synchronized
+    fun ack(uploaded: Collection<Pending<T>>) {
+        load()
+        val sb = StringBuilder()
+        for (item in uploaded) {
+            if (pending[item.key]?.version != item.version) continue
+            pending.remove(item.key)
+            sb.append(ACK).append('\t').append(item.key).append('\n')
+            ackCount++
+        }
+        if (sb.isEmpty()) return
+        if (pending.isEmpty() || ackCount >= settings.compactAfterAcks) {
+            compact()
+        } else {
+            stream().write(sb.toString().toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        out?.close()
+        out = null
+    }
+
+    private fun put(key: String, item: T, nowMillis: Long): Boolean {
+        val existing = pending[key]
+        if (existing == null) {
+            pending[key] = Entry(item, nextVersion++, nowMillis)
+            return true
+        }
+        val merged = merge(existing.item, item) ?: return false
+        // the entry keeps its place and age so a chatty key cannot hold its batch back
+        pending[key] = Entry(merged, nextVersion++, existing.addedAtMillis)
+        return true
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+        if (!file.exists()) return
+        val now = clock()
+        file.bufferedReader(Charsets.UTF_8).useLines { lines ->
+            for (line in lines) {
+                if (line.length < 3 || line[1] != '\t') continue
+                val body = line.substring(2)
+                try {
+                    when (line[0]) {
+                        PUT -> gson.fromJson(body, type)?.let { item ->
+                            keyOf(item)?.let { put(it, item, now) }
+                        }
+                        ACK -> {
+                            pending.remove(body)
+                            ackCount++
+                        }
+                    }
+                } catch (e: RuntimeException) {
+                    // torn write at the tail after a crash
+                }
+            }
+        }
+    }
+
+    private fun compact() {
+        val tmp = File(file.path + ".tmp")
+        FileOutputStream(tmp).use { tmpOut ->
+            val sb = StringBuilder(pending.size * 256)
+            for (entry in pending.values) {
+                sb.append(PUT).append('\t').append(gson.toJson(entry.item)).append('\n')
+            }
+            tmpOut.write(sb.toString().toByteArray(Charsets.UTF_8))
+            tmpOut.fd.sync()
+        }
+        close()
+        if (!tmp.renameTo(file)) {
+            file.delete()
+            tmp.renameTo(file)
+        }
+        ackCount = 0
+    }
+
+    private fun stream(): FileOutputStream =
+        out ?: FileOutputStream(file, true).also { out = it }
+
+    protected companion object {
+        const val PUT = 'P'
+        const val ACK = 'A'
+        val gson = Gson()
+    }
+}
@@ -13,7 +13,9 @@ import com.vernu.sms.TextBeeUtils
 import com.vernu.sms.dtos.RegisterDeviceInputDTO
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO
 import com.vernu.sms.helpers.HeartbeatManager
+import com.vernu.sms.helpers.ScheduledSendHelper
 import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.workers.PendingSmsFetchWorker
 import retrofit2.Call
 import retrofit2.Callback
 import retrofit2.Response
@@ -34,6 +36,9 @@ class BootCompletedReceiver : BroadcastReceiver() {
             TextBeeUtils.startStickyNotificationService(context)
         }
 
+        // alarms are cleared on reboot; SMS scheduled before it need theirs back
+        ScheduledSendHelper.arm(context)
+
         val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
             context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
         ) ?: ""
@@ -50,6 +55,8 @@ class BootCompletedReceiver : BroadcastReceiver() {
             if (deviceEnabled) {
                 Log.i(TAG, "Device booted, scheduling heartbeat")
                 HeartbeatManager.scheduleHeartbeat(context)
+                // catch up on SMS whose doorbell push arrived while the device was off
+                PendingSmsFetchWorker.enqueue(context)
             }
         }
     }
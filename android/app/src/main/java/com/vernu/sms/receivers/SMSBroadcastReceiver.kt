@@ -9,15 +9,54 @@ import com.vernu.sms.AppConstants
 import com.vernu.sms.dtos.SMSDTO
 import com.vernu.sms.helpers.SMSFilterHelper
 import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.queue.RecentKeyIndex
 import com.vernu.sms.workers.SMSReceivedWorker
+import java.io.File
+import java.io.IOException
 import java.security.MessageDigest
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 
 class SMSBroadcastReceiver : BroadcastReceiver() {
     companion object {
         private const val TAG = "SMSBroadcastReceiver"
-        private val processedFingerprints = ConcurrentHashMap<String, Long>()
-        private const val CACHE_TTL_MS = 5000L
+        private const val DEDUP_INDEX_FILE = "sms_received_dedup.index"
+
+        /**
+         * Identifies a received SMS by sender, body and receive time. The server
+         * keeps all three, so a message synced back from it gets the same value.
+         */
+        @JvmStatic
+        fun generateFingerprint(sender: String?, message: String, timestamp: Long): String {
+            return try {
+                val data = "${sender ?: ""}|$message|$timestamp"
+                val hashBytes = MessageDigest.getInstance("MD5").digest(data.toByteArray(Charsets.UTF_8))
+                hashBytes.joinToString("") { "%02x".format(it) }
+            } catch (e: Exception) {
+                Log.e(TAG, "Error generating fingerprint: ${e.message}")
+                "${sender ?: ""}_${message}_$timestamp"
+            }
+        }
+
+        @Volatile
+        private var dedupIndex: RecentKeyIndex? = null
+
+        /** Null if the index file cannot be opened; the inbox still drops repeats while they are pending. */
+        private fun getDedupIndex(context: Context): RecentKeyIndex? =
+            dedupIndex ?: synchronized(this) {
+                dedupIndex ?: try {
+                    val windowHours = SharedPreferenceHelper.getSharedPreferenceInt(
+                        context, AppConstants.SHARED_PREFS_RECEIVED_SMS_DEDUP_WINDOW_HOURS_KEY,
+                        AppConstants.DEFAULT_RECEIVED_SMS_DEDUP_WINDOW_HOURS
+                    ).coerceIn(1, 24 * 7)
+                    RecentKeyIndex(
+                        File(context.applicationContext.filesDir, DEDUP_INDEX_FILE),
+                        TimeUnit.HOURS.toMillis(windowHours.toLong())
+                    ).also { dedupIndex = it }
+                } catch (e: IOException) {
+                    Log.e(TAG, "Could not open dedup index: ${e.message}")
+                    null
+                }
+            }
     }
 
     override fun onReceive(context: Context, intent: Intent) {
@@ -64,37 +103,11 @@ class SMSBroadcastReceiver : BroadcastReceiver() {
         val fingerprint = generateFingerprint(dto.sender, dto.message, dto.receivedAtInMillis)
         dto.fingerprint = fingerprint
 
-        val currentTime = System.currentTimeMillis()
-        val lastProcessedTime = processedFingerprints[fingerprint]
-        if (lastProcessedTime != null && (currentTime - lastProcessedTime) < CACHE_TTL_MS) {
-            Log.d(TAG, "Duplicate SMS detected in cache, skipping: $fingerprint")
+        if (getDedupIndex(context)?.markSeen(fingerprint) == false) {
+            Log.d(TAG, "Duplicate SMS detected in dedup index, skipping: $fingerprint")
             return
         }
 
-        processedFingerprints[fingerprint] = currentTime
-        cleanupCache(currentTime)
-
-        SMSReceivedWorker.enqueueWork(context, deviceId, apiKey, dto)
-    }
-
-    private fun generateFingerprint(sender: String?, message: String, timestamp: Long): String {
-        return try {
-            val data = "${sender ?: ""}|$message|$timestamp"
-            val hashBytes = MessageDigest.getInstance("MD5").digest(data.toByteArray(Charsets.UTF_8))
-            hashBytes.joinToString("") { "%02x".format(it) }
-        } catch (e: Exception) {
-            Log.e(TAG, "Error generating fingerprint: ${e.message}")
-            "${sender ?: ""}_${message}_$timestamp"
-        }
-    }
-
-    private fun cleanupCache(currentTime: Long) {
-        if (processedFingerprints.size > 100) {
-            val keysToRemove = processedFingerprints.entries
-                .filter { (currentTime - it.value) > CACHE_TTL_MS }
-                .map { it.key }
-            keysToRemove.forEach { processedFingerprints.remove(it) }
-            Log.d(TAG, "Cleaned up ${keysToRemove.size} expired cache entries")
-        }
+        SMSReceivedWorker.enqueueWork(context, dto)
     }
 }
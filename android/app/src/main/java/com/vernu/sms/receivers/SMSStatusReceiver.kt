@@ -8,8 +8,13 @@ import android.telephony.SmsManager
 import android.util.Log
 import com.vernu.sms.AppConstants
 import com.vernu.sms.dtos.SMSDTO
+import com.vernu.sms.helpers.MultipartStatusHelper
+import com.vernu.sms.helpers.SendContextPool
 import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.MultipartTracker
 import com.vernu.sms.workers.SMSStatusUpdateWorker
+import com.vernu.sms.workers.SmsSendWorker
 import java.lang.reflect.Modifier
 
 class SMSStatusReceiver : BroadcastReceiver() {
@@ -34,105 +39,179 @@ class SMSStatusReceiver : BroadcastReceiver() {
             }
             return null
         }
-    }
-
-    override fun onReceive(context: Context, intent: Intent) {
-        val smsId = intent.getStringExtra("sms_id")
-        val smsBatchId = intent.getStringExtra("sms_batch_id")
 
-        val smsDTO = SMSDTO().apply {
-            this.smsId = smsId
-            this.smsBatchId = smsBatchId
+        /**
+         * Reports the aggregated result of a multipart message, either once all
+         * of its parts have reported or when [MultipartStatusHelper] times it out.
+         */
+        @JvmStatic
+        fun reportMultipartOutcome(context: Context, outcome: MultipartTracker.Outcome) {
+            val smsDTO = SMSDTO().apply {
+                smsId = outcome.smsId
+                smsBatchId = outcome.smsBatchId
+            }
+            val detail = describeParts(outcome)
+            when (outcome.phase) {
+                MultipartTracker.Phase.SENT -> {
+                    val resultCode = if (outcome.allOk) Activity.RESULT_OK
+                        else outcome.firstErrorCode ?: SmsManager.RESULT_ERROR_GENERIC_FAILURE
+                    // resending a partly sent message would deliver its sent parts twice
+                    handleSentStatus(context, -1, resultCode, smsDTO, detail, allowRequeue = outcome.okParts == 0)
+                    if (smsDTO.status != "SENT") SendContextPool.release(outcome.requestCode, outcome.smsId)
+                }
+                MultipartTracker.Phase.DELIVERED -> {
+                    val resultCode = if (outcome.allOk) Activity.RESULT_OK
+                        else outcome.firstErrorCode ?: Activity.RESULT_CANCELED
+                    handleDeliveredStatus(context, resultCode, smsDTO, detail)
+                    SendContextPool.release(outcome.requestCode, outcome.smsId)
+                }
+            }
         }
 
-        when (intent.action) {
-            SMS_SENT -> handleSentStatus(context, intent, resultCode, smsDTO)
-            SMS_DELIVERED -> handleDeliveredStatus(context, resultCode, smsDTO)
+        private fun describeParts(outcome: MultipartTracker.Outcome): String? {
+            if (outcome.allOk) return null
+            val verb = if (outcome.phase == MultipartTracker.Phase.SENT) "sent" else "delivered"
+            return buildString {
+                append("${outcome.okParts} of ${outcome.partCount} parts $verb")
+                if (outcome.failedParts > 0) append(", ${outcome.failedParts} failed")
+                if (outcome.missingParts > 0) append(", ${outcome.missingParts} without a report")
+            }
         }
-    }
 
-    private fun handleSentStatus(context: Context, intent: Intent, resultCode: Int, smsDTO: SMSDTO) {
-        val timestamp = System.currentTimeMillis()
-        when (resultCode) {
-            Activity.RESULT_OK -> {
-                smsDTO.status = "SENT"
-                smsDTO.sentAtInMillis = timestamp
-                Log.d(TAG, "SMS sent successfully - ID: ${smsDTO.smsId}")
-            }
-            SmsManager.RESULT_ERROR_GENERIC_FAILURE -> {
-                val radioCode = intent.getIntExtra("errorCode", -1)
-                var msg = "SMS failed on device. Common causes: no SMS credit on SIM, weak signal, or carrier blocked. Check SIM balance and signal, then try again."
-                if (radioCode != -1) msg += " (code $radioCode)"
-                setFailed(smsDTO, timestamp, resultCode, msg)
-                Log.e(TAG, "SMS failed to send - ID: ${smsDTO.smsId}, Error code: $resultCode, Error: $msg")
+        private fun handleSentStatus(
+            context: Context,
+            radioCode: Int,
+            resultCode: Int,
+            smsDTO: SMSDTO,
+            detail: String? = null,
+            allowRequeue: Boolean = true
+        ) {
+            val feedbackCode = if (allowRequeue) resultCode else SmsManager.RESULT_ERROR_GENERIC_FAILURE
+            if (SmsSendWorker.onSentResult(context, smsDTO.smsId, feedbackCode)) {
+                Log.w(TAG, "SMS throttled by carrier, requeued with backoff - ID: ${smsDTO.smsId}, code: $resultCode")
+                MessageLifecycle.SHARED.mark(smsDTO.smsId, MessageLifecycle.Stage.ENQUEUED)
+                return
             }
-            SmsManager.RESULT_ERROR_RADIO_OFF -> setFailed(smsDTO, timestamp, resultCode,
-                "Mobile radio is off (e.g. airplane mode). Turn off airplane mode and ensure cellular is on.")
-            SmsManager.RESULT_ERROR_NULL_PDU -> setFailed(smsDTO, timestamp, resultCode,
-                "Message could not be sent; invalid format or carrier issue. Try a shorter message or different recipient.")
-            SmsManager.RESULT_ERROR_NO_SERVICE -> setFailed(smsDTO, timestamp, resultCode,
-                "No cellular service. Check signal and try again when you have coverage.")
-            SmsManager.RESULT_ERROR_LIMIT_EXCEEDED -> setFailed(smsDTO, timestamp, resultCode,
-                "Device/carrier send limit reached (too many SMS in a short time). Wait a few minutes or lower the send rate.")
-            SmsManager.RESULT_ERROR_SHORT_CODE_NOT_ALLOWED -> setFailed(smsDTO, timestamp, resultCode,
-                "Short code not allowed on this carrier. Use a full phone number.")
-            SmsManager.RESULT_ERROR_SHORT_CODE_NEVER_ALLOWED -> setFailed(smsDTO, timestamp, resultCode,
-                "Short codes are not supported on this carrier. Use a full phone number.")
-            SmsManager.RESULT_NETWORK_ERROR -> setFailed(smsDTO, timestamp, resultCode,
-                "Network error while sending. Check signal and try again.")
-            else -> {
-                val msg = getResultCodeName(resultCode) ?: "Unknown error (code $resultCode)"
-                setFailed(smsDTO, timestamp, resultCode, msg)
-                Log.e(TAG, "SMS failed to send - ID: ${smsDTO.smsId}, Error: $msg")
+            val timestamp = System.currentTimeMillis()
+            when (resultCode) {
+                Activity.RESULT_OK -> {
+                    smsDTO.status = "SENT"
+                    smsDTO.sentAtInMillis = timestamp
+                    Log.d(TAG, "SMS sent successfully - ID: ${smsDTO.smsId}")
+                }
+                SmsManager.RESULT_ERROR_GENERIC_FAILURE -> {
+                    var msg = "SMS failed on device. Common causes: no SMS credit on SIM, weak signal, or carrier blocked. Check SIM balance and signal, then try again."
+                    if (radioCode != -1) msg += " (code $radioCode)"
+                    setFailed(smsDTO, timestamp, resultCode, msg)
+                    Log.e(TAG, "SMS failed to send - ID: ${smsDTO.smsId}, Error code: $resultCode, Error: $msg")
+                }
+                SmsManager.RESULT_ERROR_RADIO_OFF -> setFailed(smsDTO, timestamp, resultCode,
+                    "Mobile radio is off (e.g. airplane mode). Turn off airplane mode and ensure cellular is on.")
+                SmsManager.RESULT_ERROR_NULL_PDU -> setFailed(smsDTO, timestamp, resultCode,
+                    "Message could not be sent; invalid format or carrier issue. Try a shorter message or different recipient.")
+                SmsManager.RESULT_ERROR_NO_SERVICE -> setFailed(smsDTO, timestamp, resultCode,
+                    "No cellular service. Check signal and try again when you have coverage.")
+                SmsManager.RESULT_ERROR_LIMIT_EXCEEDED -> setFailed(smsDTO, timestamp, resultCode,
+                    "Device/carrier send limit reached (too many SMS in a short time). Wait a few minutes or lower the send rate.")
+                SmsManager.RESULT_ERROR_SHORT_CODE_NOT_ALLOWED -> setFailed(smsDTO, timestamp, resultCode,
+                    "Short code not allowed on this carrier. Use a full phone number.")
+                SmsManager.RESULT_ERROR_SHORT_CODE_NEVER_ALLOWED -> setFailed(smsDTO, timestamp, resultCode,
+                    "Short codes are not supported on this carrier. Use a full phone number.")
+                SmsManager.RESULT_NETWORK_ERROR -> setFailed(smsDTO, timestamp, resultCode,
+                    "Network error while sending. Check signal and try again.")
+                else -> {
+                    val msg = getResultCodeName(resultCode) ?: "Unknown error (code $resultCode)"
+                    setFailed(smsDTO, timestamp, resultCode, msg)
+                    Log.e(TAG, "SMS failed to send - ID: ${smsDTO.smsId}, Error: $msg")
+                }
             }
+            MessageLifecycle.SHARED.mark(smsDTO.smsId, MessageLifecycle.Stage.SENT, failed = smsDTO.status != "SENT")
+            applyPartDetail(smsDTO, detail)
+            updateSMSStatus(context, smsDTO)
         }
-        updateSMSStatus(context, smsDTO)
-    }
 
-    private fun handleDeliveredStatus(context: Context, resultCode: Int, smsDTO: SMSDTO) {
-        val timestamp = System.currentTimeMillis()
-        when (resultCode) {
-            Activity.RESULT_OK -> {
-                smsDTO.status = "DELIVERED"
-                smsDTO.deliveredAtInMillis = timestamp
-                Log.d(TAG, "SMS delivered successfully - ID: ${smsDTO.smsId}")
-            }
-            Activity.RESULT_CANCELED -> {
-                val msg = "Delivery report was canceled (e.g. carrier does not support delivery receipts). Message may still have been delivered."
-                smsDTO.status = "DELIVERY_FAILED"
-                smsDTO.errorCode = resultCode.toString()
-                smsDTO.errorMessage = msg
-                Log.e(TAG, "SMS delivery failed - ID: ${smsDTO.smsId}, Error: $msg")
+        private fun handleDeliveredStatus(context: Context, resultCode: Int, smsDTO: SMSDTO, detail: String? = null) {
+            val timestamp = System.currentTimeMillis()
+            when (resultCode) {
+                Activity.RESULT_OK -> {
+                    smsDTO.status = "DELIVERED"
+                    smsDTO.deliveredAtInMillis = timestamp
+                    Log.d(TAG, "SMS delivered successfully - ID: ${smsDTO.smsId}")
+                }
+                Activity.RESULT_CANCELED -> {
+                    val msg = "Delivery report was canceled (e.g. carrier does not support delivery receipts). Message may still have been delivered."
+                    smsDTO.status = "DELIVERY_FAILED"
+                    smsDTO.errorCode = resultCode.toString()
+                    smsDTO.errorMessage = msg
+                    Log.e(TAG, "SMS delivery failed - ID: ${smsDTO.smsId}, Error: $msg")
+                }
+                else -> {
+                    val msg = getResultCodeName(resultCode) ?: "Unknown delivery error (code $resultCode)"
+                    smsDTO.status = "DELIVERY_FAILED"
+                    smsDTO.errorCode = resultCode.toString()
+                    smsDTO.errorMessage = msg
+                    Log.e(TAG, "SMS delivery failed - ID: ${smsDTO.smsId}, Error: $msg")
+                }
             }
-            else -> {
-                val msg = getResultCodeName(resultCode) ?: "Unknown delivery error (code $resultCode)"
-                smsDTO.status = "DELIVERY_FAILED"
-                smsDTO.errorCode = resultCode.toString()
-                smsDTO.errorMessage = msg
-                Log.e(TAG, "SMS delivery failed - ID: ${smsDTO.smsId}, Error: $msg")
+            MessageLifecycle.SHARED.mark(smsDTO.smsId, MessageLifecycle.Stage.DELIVERED, failed = smsDTO.status != "DELIVERED")
+            applyPartDetail(smsDTO, detail)
+            updateSMSStatus(context, smsDTO)
+        }
+
+        private fun applyPartDetail(smsDTO: SMSDTO, detail: String?) {
+            if (detail != null) smsDTO.errorMessage = "$detail. ${smsDTO.errorMessage ?: ""}".trimEnd()
+        }
+
+        private fun setFailed(smsDTO: SMSDTO, timestamp: Long, resultCode: Int, msg: String) {
+            smsDTO.status = "FAILED"
+            smsDTO.failedAtInMillis = timestamp
+            smsDTO.errorCode = resultCode.toString()
+            smsDTO.errorMessage = msg
+        }
+
+        private fun updateSMSStatus(context: Context, smsDTO: SMSDTO) {
+            val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+                context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+            ) ?: ""
+            val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+                context, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+            ) ?: ""
+            if (deviceId.isEmpty() || apiKey.isEmpty()) {
+                Log.e(TAG, "Device ID or API key not found")
+                return
             }
+            SMSStatusUpdateWorker.enqueueWork(context, smsDTO)
         }
-        updateSMSStatus(context, smsDTO)
     }
 
-    private fun setFailed(smsDTO: SMSDTO, timestamp: Long, resultCode: Int, msg: String) {
-        smsDTO.status = "FAILED"
-        smsDTO.failedAtInMillis = timestamp
-        smsDTO.errorCode = resultCode.toString()
-        smsDTO.errorMessage = msg
-    }
+    override fun onReceive(context: Context, intent: Intent) {
+        val smsId = intent.getStringExtra("sms_id")
+        val smsBatchId = intent.getStringExtra("sms_batch_id")
 
-    private fun updateSMSStatus(context: Context, smsDTO: SMSDTO) {
-        val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
-            context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
-        ) ?: ""
-        val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
-            context, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
-        ) ?: ""
-        if (deviceId.isEmpty() || apiKey.isEmpty()) {
-            Log.e(TAG, "Device ID or API key not found")
+        val smsDTO = SMSDTO().apply {
+            this.smsId = smsId
+            this.smsBatchId = smsBatchId
+        }
+
+        val partCount = intent.getIntExtra(SendContextPool.EXTRA_PART_COUNT, 1)
+        if (partCount > 1 && smsId != null) {
+            val phase = if (intent.action == SMS_SENT) MultipartTracker.Phase.SENT else MultipartTracker.Phase.DELIVERED
+            MultipartStatusHelper.onPartResult(
+                context, smsId, smsBatchId, phase,
+                intent.getIntExtra(SendContextPool.EXTRA_PART_INDEX, 0), partCount,
+                intent.getIntExtra(SendContextPool.EXTRA_REQUEST_CODE, -1), resultCode
+            )?.let { reportMultipartOutcome(context, it) }
             return
         }
-        SMSStatusUpdateWorker.enqueueWork(context, deviceId, apiKey, smsDTO)
+
+        when (intent.action) {
+            SMS_SENT -> handleSentStatus(context, intent.getIntExtra("errorCode", -1), resultCode, smsDTO)
+            SMS_DELIVERED -> handleDeliveredStatus(context, resultCode, smsDTO)
+        }
+
+        // a delivery report is only expected after a successful send
+        if (intent.action == SMS_DELIVERED || smsDTO.status != "SENT") {
+            SendContextPool.release(intent.getIntExtra(SendContextPool.EXTRA_REQUEST_CODE, -1), smsId)
+        }
     }
 }
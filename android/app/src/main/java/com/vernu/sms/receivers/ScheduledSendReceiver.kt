@@ -0,0 +1,25 @@
+package com.vernu.sms.receivers
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import com.vernu.sms.helpers.ScheduledSendHelper
+
+/** Fired by the scheduled-send alarm once the next bucket of scheduled SMS is due. */
+class ScheduledSendReceiver : BroadcastReceiver() {
+    companion object {
+        const val ACTION_SEND_SCHEDULED = "com.vernu.sms.SEND_SCHEDULED"
+    }
+
+    override fun onReceive(context: Context, intent: Intent) {
+        if (intent.action != ACTION_SEND_SCHEDULED) return
+        val pendingResult = goAsync()
+        Thread {
+            try {
+                ScheduledSendHelper.onAlarm(context)
+            } finally {
+                pendingResult.finish()
+            }
+        }.start()
+    }
+}
@@ -21,7 +21,12 @@ import com.vernu.sms.dtos.RegisterDeviceResponseDTO
 import com.vernu.sms.helpers.HeartbeatHelper
 import com.vernu.sms.helpers.HeartbeatManager
 import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.models.SMSEnvelope
 import com.vernu.sms.models.SMSPayload
+import com.vernu.sms.queue.SendJob
+import com.vernu.sms.queue.SendPriority
+import com.vernu.sms.workers.PendingSmsFetchWorker
 import com.vernu.sms.workers.SmsSendWorker
 import retrofit2.Call
 import retrofit2.Callback
@@ -31,6 +36,8 @@ class FCMService : FirebaseMessagingService() {
     companion object {
         private const val TAG = "FirebaseMessagingService"
         private const val DEFAULT_NOTIFICATION_CHANNEL_ID = "N1"
+        private const val PENDING_SMS_MESSAGE_TYPE = "sms_pending"
+        private val gson = Gson()
     }
 
     override fun onMessageReceived(remoteMessage: RemoteMessage) {
@@ -43,10 +50,22 @@ class FCMService : FirebaseMessagingService() {
                 return
             }
 
-            val smsPayload = Gson().fromJson(remoteMessage.data["smsData"], SMSPayload::class.java)
+            if (messageType == PENDING_SMS_MESSAGE_TYPE) {
+                // pull mode doorbell: the SMS are fetched from the backend
+                PendingSmsFetchWorker.enqueue(this)
+                return
+            }
+
+            val envelope = remoteMessage.data[SMSEnvelope.DATA_KEY]
+            if (envelope != null) {
+                sendSMS(SMSEnvelope.decode(envelope), remoteMessage.sentTime)
+                return
+            }
+
+            val smsPayload = gson.fromJson(remoteMessage.data["smsData"], SMSPayload::class.java)
 
             if (remoteMessage.data.isNotEmpty()) {
-                sendSMS(smsPayload)
+                sendSMS(smsPayload, remoteMessage.sentTime)
             }
         } catch (e: Exception) {
             Log.e(TAG, "Error processing FCM message: ${e.message}")
@@ -77,7 +96,17 @@ class FCMService : FirebaseMessagingService() {
         HeartbeatManager.scheduleHeartbeat(this)
     }
 
-    private fun sendSMS(smsPayload: SMSPayload?) {
+    private fun sendSMS(jobs: List<SendJob>, pushedAt: Long) {
+        if (jobs.isEmpty()) {
+            Log.e(TAG, "No recipients found in SMS envelope")
+            return
+        }
+        markReceived(jobs, pushedAt)
+        SmsSendWorker.enqueue(this, jobs)
+        Log.d(TAG, "Enqueued ${jobs.size} SMS from envelope - Batch: ${jobs.first().smsBatchId}")
+    }
+
+    private fun sendSMS(smsPayload: SMSPayload?, pushedAt: Long) {
         if (smsPayload == null) {
             Log.e(TAG, "SMS payload is null")
             return
@@ -89,16 +118,36 @@ class FCMService : FirebaseMessagingService() {
             return
         }
 
-        for (recipient in recipients) {
-            SmsSendWorker.enqueue(
-                this, recipient, smsPayload.message ?: "",
-                smsPayload.smsId, smsPayload.smsBatchId, smsPayload.simSubscriptionId
+        val smsId = smsPayload.smsId
+        if (smsId == null) {
+            Log.e(TAG, "No smsId found in SMS payload")
+            return
+        }
+
+        val jobs = recipients.map { recipient ->
+            SendJob(
+                phone = recipient,
+                message = smsPayload.message ?: "",
+                smsId = smsId,
+                smsBatchId = smsPayload.smsBatchId,
+                simSubscriptionId = smsPayload.simSubscriptionId,
+                priority = SendPriority.parse(smsPayload.priority),
+                sendAtMillis = smsPayload.sendAt ?: 0
             )
         }
+        markReceived(jobs, pushedAt)
+        SmsSendWorker.enqueue(this, jobs)
 
         Log.d(TAG, "Enqueued ${recipients.size} SMS for sending - Batch: ${smsPayload.smsBatchId}")
     }
 
+    private fun markReceived(jobs: List<SendJob>, pushedAt: Long) {
+        val smsIds = jobs.map { it.smsId }.distinct()
+        // FCM stamps the time the server sent the push; 0 when unknown
+        if (pushedAt > 0) MessageLifecycle.SHARED.markAll(smsIds, MessageLifecycle.Stage.PUSHED, pushedAt)
+        MessageLifecycle.SHARED.markAll(smsIds, MessageLifecycle.Stage.RECEIVED)
+    }
+
     override fun onNewToken(token: String) {
         sendRegistrationToServer(token)
     }
@@ -1,18 +1,29 @@
 package com.vernu.sms.services;
 
+import com.vernu.sms.dtos.ReceivedSMSBatchDTO;
+import com.vernu.sms.dtos.ReceivedSMSBatchResponseDTO;
 import com.vernu.sms.dtos.SMSDTO;
 import com.vernu.sms.dtos.SMSForwardResponseDTO;
+import com.vernu.sms.dtos.SMSStatusBatchDTO;
+import com.vernu.sms.dtos.SMSStatusBatchResponseDTO;
 import com.vernu.sms.dtos.RegisterDeviceInputDTO;
 import com.vernu.sms.dtos.RegisterDeviceResponseDTO;
 import com.vernu.sms.dtos.HeartbeatInputDTO;
 import com.vernu.sms.dtos.HeartbeatResponseDTO;
+import com.vernu.sms.dtos.PendingSMSAckDTO;
+import com.vernu.sms.dtos.PendingSMSAckResponseDTO;
+import com.vernu.sms.dtos.PendingSMSResponseDTO;
+import com.vernu.sms.dtos.FilterListsResponseDTO;
+import com.vernu.sms.dtos.FilterListChangesResponseDTO;
 
 import retrofit2.Call;
 import retrofit2.http.Body;
+import retrofit2.http.GET;
 import retrofit2.http.Header;
 import retrofit2.http.PATCH;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
 
 public interface GatewayApiService {
     @POST("gateway/devices")
@@ -24,9 +35,27 @@ public interface GatewayApiService {
     @POST("gateway/devices/{deviceId}/receive-sms")
     Call<SMSForwardResponseDTO> sendReceivedSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSDTO body);
 
+    @POST("gateway/devices/{deviceId}/receive-sms/bulk")
+    Call<ReceivedSMSBatchResponseDTO> sendReceivedSMSBulk(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() ReceivedSMSBatchDTO body);
+
     @PATCH("gateway/devices/{deviceId}/sms-status")
     Call<SMSForwardResponseDTO> updateSMSStatus(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSDTO body);
 
+    @PATCH("gateway/devices/{deviceId}/sms-status/bulk")
+    Call<SMSStatusBatchResponseDTO> updateSMSStatusBulk(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() SMSStatusBatchDTO body);
+
+    @GET("gateway/devices/{deviceId}/pending-sms")
+    Call<PendingSMSResponseDTO> getPendingSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Query("cursor") String cursor, @Query("limit") int limit);
+
+    @POST("gateway/devices/{deviceId}/pending-sms/ack")
+    Call<PendingSMSAckResponseDTO> ackPendingSMS(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() PendingSMSAckDTO body);
+
+    @GET("gateway/devices/{deviceId}/filter-lists")
+    Call<FilterListsResponseDTO> getFilterLists(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey);
+
+    @GET("gateway/devices/{deviceId}/filter-lists/{listId}/changes")
+    Call<FilterListChangesResponseDTO> getFilterListChanges(@Path("deviceId") String deviceId, @Path("listId") String listId, @Header("x-api-key") String apiKey, @Query("since") long since, @Query("cursor") String cursor, @Query("limit") int limit);
+
     @POST("gateway/devices/{deviceId}/heartbeat")
     Call<HeartbeatResponseDTO> heartbeat(@Path("deviceId") String deviceId, @Header("x-api-key") String apiKey, @Body() HeartbeatInputDTO body);
 }
\ No newline at end of file
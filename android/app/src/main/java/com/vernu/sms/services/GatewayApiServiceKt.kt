@@ -44,9 +44,10 @@ interface GatewayApiServiceKt {
     suspend fun getMessages(
         @Path("deviceId") deviceId: String,
         @Header("x-api-key") apiKey: String,
-        @Query("page") page: Int,
         @Query("limit") limit: Int,
-        @Query("type") type: String
+        @Query("type") type: String,
+        @Query("before") before: String? = null,
+        @Query("page") page: Int? = null
     ): Response<MessagesResponse>
 
     @POST("gateway/devices/{deviceId}/send-sms")
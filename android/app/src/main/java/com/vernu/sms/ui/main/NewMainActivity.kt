@@ -29,6 +29,7 @@ import com.vernu.sms.ui.dashboard.DashboardScreen
 import com.vernu.sms.ui.messages.ComposeScreen
 import com.vernu.sms.ui.messages.MessagesScreen
 import com.vernu.sms.ui.onboarding.OnboardingActivity
+import com.vernu.sms.ui.settings.DeliveryMetricsScreen
 import com.vernu.sms.ui.settings.SMSFilterScreen
 import com.vernu.sms.ui.settings.SettingsScreen
 import com.vernu.sms.ui.theme.TextBeeTheme
@@ -64,7 +65,9 @@ class NewMainActivity : ComponentActivity() {
                             AppConstants.SHARED_PREFS_API_KEY_KEY,
                             AppConstants.SHARED_PREFS_GATEWAY_ENABLED_KEY,
                             AppConstants.SHARED_PREFS_DEVICE_NAME_KEY,
-                            AppConstants.SHARED_PREFS_LAST_HEARTBEAT_MS_KEY
+                            AppConstants.SHARED_PREFS_LAST_HEARTBEAT_MS_KEY,
+                            AppConstants.SHARED_PREFS_MESSAGES_SYNCED_UNTIL_MS_KEY,
+                            AppConstants.SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY
                         ).forEach { key ->
                             SharedPreferenceHelper.clearSharedPreference(this, key)
                         }
@@ -89,7 +92,7 @@ private fun MainScaffold(
 ) {
     val backStackEntry by navController.currentBackStackEntryAsState()
     val currentRoute = backStackEntry?.destination?.route
-    val showBottomBar = currentRoute != "compose" && currentRoute != "filters"
+    val showBottomBar = currentRoute != "compose" && currentRoute != "filters" && currentRoute != "metrics"
 
     Scaffold(
         bottomBar = {
@@ -155,6 +158,7 @@ private fun MainScaffold(
                 SettingsScreen(
                     onSwitchToLegacy = onSwitchToLegacy,
                     onNavigateToFilters = { navController.navigate("filters") },
+                    onNavigateToMetrics = { navController.navigate("metrics") },
                     onDisconnect = onDisconnect
                 )
             }
@@ -166,6 +170,9 @@ private fun MainScaffold(
             composable("filters") {
                 SMSFilterScreen(onNavigateBack = { navController.popBackStack() })
             }
+            composable("metrics") {
+                DeliveryMetricsScreen(onNavigateBack = { navController.popBackStack() })
+            }
         }
     }
 }
@@ -0,0 +1,197 @@
+package com.vernu.sms.ui.messages
+
+import android.content.Context
+import android.util.Log
+import androidx.paging.ExperimentalPagingApi
+import androidx.paging.LoadType
+import androidx.paging.PagingState
+import androidx.paging.RemoteMediator
+import com.vernu.sms.ApiManagerKt
+import com.vernu.sms.AppConstants
+import com.vernu.sms.database.local.AppDatabase
+import com.vernu.sms.database.local.Sms
+import com.vernu.sms.dtos.SmsMessage
+import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.receivers.SMSBroadcastReceiver
+import java.io.IOException
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+/**
+ * Keeps the local message store in step with the server for the message list.
+ * A refresh only fetches what the server got since the last sync, newest page
+ * first, stopping at the first message already synced; scrolling past the
+ * oldest local message pulls older server pages in, each continuing from the
+ * cursor the server returned with the page before. The list itself always
+ * reads the local table, so it shows at once and works offline.
+ */
+@OptIn(ExperimentalPagingApi::class)
+class MessagesRemoteMediator(
+    private val context: Context,
+    private val db: AppDatabase
+) : RemoteMediator<Int, Sms>() {
+
+    companion object {
+        private const val TAG = "MessagesRemoteMediator"
+        private const val PAGE_SIZE = 50
+
+        /** A refresh after a long time offline stops here; older pages load as the list scrolls. */
+        private const val MAX_DELTA_PAGES = 10
+
+        /** A list opened again within this time, e.g. for another filter, skips the sync. */
+        private const val RESYNC_AFTER_MS = 60_000L
+
+        private val isoFormat = object : ThreadLocal<SimpleDateFormat>() {
+            override fun initialValue() =
+                SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX", Locale.US).apply { timeZone = TimeZone.getTimeZone("UTC") }
+        }
+
+        @JvmStatic
+        fun parseDate(iso: String?): Date? = try {
+            iso?.let { isoFormat.get()!!.parse(it) }
+        } catch (e: Exception) {
+            null
+        }
+
+        /** The server's copy of an SMS as a local row, keyed the way the device keys its own. */
+        @JvmStatic
+        fun toLocal(message: SmsMessage, syncedAt: Date): Sms? {
+            val createdAt = parseDate(message.createdAt) ?: return null
+            return if (message.type == "RECEIVED") {
+                val receivedAt = parseDate(message.receivedAt)
+                Sms(
+                    serverId = message.id,
+                    fingerprint = receivedAt?.let {
+                        SMSBroadcastReceiver.generateFingerprint(message.sender, message.message ?: "", it.time)
+                    },
+                    message = message.message ?: "",
+                    sender = message.sender,
+                    type = Sms.TYPE_INCOMING,
+                    status = Sms.STATUS_RECEIVED,
+                    requestedAt = createdAt,
+                    receivedAt = receivedAt,
+                    serverAcknowledgedAt = syncedAt,
+                    updatedAt = syncedAt
+                )
+            } else {
+                Sms(
+                    serverId = message.id,
+                    batchId = message.smsBatch,
+                    message = message.message ?: "",
+                    recipient = message.recipient,
+                    type = Sms.TYPE_OUTGOING,
+                    status = message.status?.uppercase(Locale.US) ?: Sms.STATUS_PENDING,
+                    requestedAt = createdAt,
+                    sentAt = parseDate(message.sentAt),
+                    deliveredAt = parseDate(message.deliveredAt),
+                    failedAt = parseDate(message.failedAt),
+                    errorCode = message.errorCode,
+                    errorMessage = message.errorMessage,
+                    serverAcknowledgedAt = syncedAt,
+                    updatedAt = syncedAt
+                )
+            }
+        }
+    }
+
+    /** One server page; [nextCursor] continues with older messages and is null on the last page. */
+    private class Page(val rows: List<Sms>, val nextCursor: String?)
+
+    @Volatile
+    private var lastSyncedAt = 0L
+
+    override suspend fun initialize(): InitializeAction =
+        if (System.currentTimeMillis() - lastSyncedAt < RESYNC_AFTER_MS) InitializeAction.SKIP_INITIAL_REFRESH
+        else InitializeAction.LAUNCH_INITIAL_REFRESH
+
+    override suspend fun load(loadType: LoadType, state: PagingState<Int, Sms>): MediatorResult {
+        val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+            context, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+        ) ?: ""
+        val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+            context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+        ) ?: ""
+        if (apiKey.isEmpty() || deviceId.isEmpty()) return MediatorResult.Success(endOfPaginationReached = true)
+
+        return try {
+            when (loadType) {
+                LoadType.PREPEND -> MediatorResult.Success(endOfPaginationReached = true)
+                LoadType.REFRESH -> syncNewer(deviceId, apiKey)
+                LoadType.APPEND -> syncOlder(deviceId, apiKey)
+            }
+        } catch (e: IOException) {
+            MediatorResult.Error(e)
+        } catch (e: RemoteException) {
+            MediatorResult.Error(e)
+        }
+    }
+
+    /** Fetches the messages created since the last sync. */
+    private suspend fun syncNewer(deviceId: String, apiKey: String): MediatorResult {
+        val syncedUntil = getLong(AppConstants.SHARED_PREFS_MESSAGES_SYNCED_UNTIL_MS_KEY, 0)
+        var newest = syncedUntil
+        var before: String? = null
+        var pages = 0
+        while (true) {
+            val result = fetch(deviceId, apiKey, before)
+            merge(result.rows)
+            pages++
+            result.rows.firstOrNull()?.requestedAt?.time?.let { newest = maxOf(newest, it) }
+            val caughtUp = result.rows.any { (it.requestedAt?.time ?: 0) <= syncedUntil }
+            val lastPage = result.nextCursor == null
+            if (syncedUntil == 0L || caughtUp || lastPage || pages >= MAX_DELTA_PAGES) {
+                when {
+                    lastPage -> setString(AppConstants.SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY, "")
+                    // on a first sync, or when the delta was cut short, older pages continue after this one
+                    syncedUntil == 0L || !caughtUp ->
+                        setString(AppConstants.SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY, result.nextCursor ?: "")
+                }
+                break
+            }
+            before = result.nextCursor
+        }
+        setLong(AppConstants.SHARED_PREFS_MESSAGES_SYNCED_UNTIL_MS_KEY, newest)
+        lastSyncedAt = System.currentTimeMillis()
+        return MediatorResult.Success(endOfPaginationReached = false)
+    }
+
+    /** Fetches the next page of older messages; an empty cursor means all are synced. */
+    private suspend fun syncOlder(deviceId: String, apiKey: String): MediatorResult {
+        // no cursor yet: the first refresh has not finished, and sets one when it does
+        val cursor = SharedPreferenceHelper.getSharedPreferenceString(
+            context, AppConstants.SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY, null
+        ) ?: return MediatorResult.Success(endOfPaginationReached = false)
+        if (cursor.isEmpty()) return MediatorResult.Success(endOfPaginationReached = true)
+        val result = fetch(deviceId, apiKey, cursor)
+        merge(result.rows)
+        setString(AppConstants.SHARED_PREFS_MESSAGES_OLDER_CURSOR_KEY, result.nextCursor ?: "")
+        return MediatorResult.Success(endOfPaginationReached = result.nextCursor == null)
+    }
+
+    private suspend fun fetch(deviceId: String, apiKey: String, before: String?): Page {
+        val response = ApiManagerKt.getApiService().getMessages(deviceId, apiKey, PAGE_SIZE, "all", before)
+        if (!response.isSuccessful) throw RemoteException("Failed to load messages (HTTP ${response.code()})")
+        val body = response.body()
+        val syncedAt = Date()
+        val rows = body?.data.orEmpty().mapNotNull { toLocal(it, syncedAt) }
+        Log.d(TAG, "Synced messages before ${before ?: "now"} - rows: ${rows.size}")
+        return Page(rows, body?.meta?.nextCursor)
+    }
+
+    private suspend fun merge(rows: List<Sms>) = withContext(Dispatchers.IO) { db.smsDao().mergeRemote(rows) }
+
+    private fun getLong(key: String, defValue: Long): Long =
+        SharedPreferenceHelper.getSharedPreferenceString(context, key, null)?.toLongOrNull() ?: defValue
+
+    private fun setLong(key: String, value: Long) =
+        SharedPreferenceHelper.setSharedPreferenceString(context, key, value.toString())
+
+    private fun setString(key: String, value: String) =
+        SharedPreferenceHelper.setSharedPreferenceString(context, key, value)
+
+    private class RemoteException(message: String) : Exception(message)
+}
@@ -4,13 +4,14 @@ import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
-import androidx.compose.foundation.lazy.items
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.ArrowDownward
 import androidx.compose.material.icons.filled.ArrowUpward
+import androidx.compose.material.icons.filled.Close
 import androidx.compose.material.icons.filled.Create
 import androidx.compose.material.icons.filled.Forum
 import androidx.compose.material.icons.filled.Refresh
+import androidx.compose.material.icons.filled.Search
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
 import androidx.compose.ui.Alignment
@@ -20,10 +21,13 @@ import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.lifecycle.viewmodel.compose.viewModel
-import com.vernu.sms.dtos.SmsMessage
+import androidx.paging.LoadState
+import androidx.paging.compose.collectAsLazyPagingItems
+import androidx.paging.compose.itemKey
+import com.vernu.sms.database.local.Sms
 import java.text.SimpleDateFormat
+import java.util.Date
 import java.util.Locale
-import java.util.TimeZone
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
@@ -31,8 +35,12 @@ fun MessagesScreen(
     viewModel: MessagesViewModel = viewModel(),
     onNavigateToCompose: () -> Unit = {}
 ) {
-    val state by viewModel.state.collectAsState()
-    var selectedMessage by remember { mutableStateOf<SmsMessage?>(null) }
+    val filter by viewModel.filter.collectAsState()
+    val query by viewModel.query.collectAsState()
+    val messages = viewModel.messages.collectAsLazyPagingItems()
+    var selectedMessage by remember { mutableStateOf<Sms?>(null) }
+    val refreshState = messages.loadState.refresh
+    val appendState = messages.loadState.append
 
     Scaffold(
         topBar = {
@@ -49,7 +57,7 @@ fun MessagesScreen(
                     }
                 },
                 actions = {
-                    IconButton(onClick = { viewModel.refresh() }) {
+                    IconButton(onClick = { messages.refresh() }) {
                         Icon(Icons.Default.Refresh, contentDescription = "Refresh")
                     }
                 },
@@ -76,6 +84,24 @@ fun MessagesScreen(
                 .fillMaxSize()
                 .padding(padding)
         ) {
+            OutlinedTextField(
+                value = query,
+                onValueChange = { viewModel.setQuery(it) },
+                modifier = Modifier
+                    .fillMaxWidth()
+                    .padding(start = 16.dp, end = 16.dp, top = 8.dp),
+                placeholder = { Text("Search messages or numbers") },
+                leadingIcon = { Icon(Icons.Default.Search, contentDescription = null) },
+                trailingIcon = {
+                    if (query.isNotEmpty()) {
+                        IconButton(onClick = { viewModel.setQuery("") }) {
+                            Icon(Icons.Default.Close, contentDescription = "Clear search")
+                        }
+                    }
+                },
+                singleLine = true
+            )
+
             Row(
                 modifier = Modifier
                     .fillMaxWidth()
@@ -84,15 +110,27 @@ fun MessagesScreen(
             ) {
                 listOf("all" to "All", "sent" to "Sent", "received" to "Received").forEach { (value, label) ->
                     FilterChip(
-                        selected = state.filter == value,
+                        selected = filter == value,
                         onClick = { viewModel.setFilter(value) },
                         label = { Text(label) }
                     )
                 }
             }
 
+            // a sync in flight or failed only shows as a strip; cached messages stay on screen
+            if (refreshState is LoadState.Loading) {
+                LinearProgressIndicator(modifier = Modifier.fillMaxWidth())
+            } else if (refreshState is LoadState.Error && messages.itemCount > 0) {
+                Text(
+                    text = "Offline - showing saved messages",
+                    style = MaterialTheme.typography.labelSmall,
+                    color = MaterialTheme.colorScheme.error,
+                    modifier = Modifier.padding(horizontal = 16.dp)
+                )
+            }
+
             when {
-                state.isLoading -> {
+                messages.itemCount == 0 && refreshState is LoadState.Loading -> {
                     Box(
                         modifier = Modifier.fillMaxSize(),
                         contentAlignment = Alignment.Center
@@ -100,24 +138,24 @@ fun MessagesScreen(
                         CircularProgressIndicator()
                     }
                 }
-                state.error != null -> {
+                messages.itemCount == 0 && refreshState is LoadState.Error -> {
                     Box(
                         modifier = Modifier.fillMaxSize(),
                         contentAlignment = Alignment.Center
                     ) {
                         Column(horizontalAlignment = Alignment.CenterHorizontally) {
                             Text(
-                                text = state.error ?: "Error",
+                                text = "Failed to load messages",
                                 color = MaterialTheme.colorScheme.error
                             )
                             Spacer(modifier = Modifier.height(8.dp))
-                            Button(onClick = { viewModel.refresh() }) {
+                            Button(onClick = { messages.retry() }) {
                                 Text("Retry")
                             }
                         }
                     }
                 }
-                state.messages.isEmpty() -> {
+                messages.itemCount == 0 -> {
                     Box(
                         modifier = Modifier.fillMaxSize(),
                         contentAlignment = Alignment.Center
@@ -131,7 +169,7 @@ fun MessagesScreen(
                             )
                             Spacer(modifier = Modifier.height(8.dp))
                             Text(
-                                text = "No messages yet",
+                                text = if (query.isBlank()) "No messages yet" else "No saved messages match \"${query.trim()}\"",
                                 color = MaterialTheme.colorScheme.onSurfaceVariant
                             )
                         }
@@ -143,14 +181,19 @@ fun MessagesScreen(
                         contentPadding = PaddingValues(horizontal = 16.dp, vertical = 8.dp),
                         verticalArrangement = Arrangement.spacedBy(8.dp)
                     ) {
-                        items(state.messages) { message ->
-                            MessageItem(
-                                message = message,
-                                onClick = { selectedMessage = message }
-                            )
+                        items(
+                            count = messages.itemCount,
+                            key = messages.itemKey { it.id }
+                        ) { index ->
+                            messages[index]?.let { message ->
+                                MessageItem(
+                                    message = message,
+                                    onClick = { selectedMessage = message }
+                                )
+                            }
                         }
 
-                        if (state.currentPage < state.totalPages) {
+                        if (appendState !is LoadState.NotLoading) {
                             item {
                                 Box(
                                     modifier = Modifier
@@ -158,10 +201,10 @@ fun MessagesScreen(
                                         .padding(8.dp),
                                     contentAlignment = Alignment.Center
                                 ) {
-                                    if (state.isLoadingMore) {
+                                    if (appendState is LoadState.Loading) {
                                         CircularProgressIndicator(modifier = Modifier.size(24.dp))
                                     } else {
-                                        OutlinedButton(onClick = { viewModel.loadMore() }) {
+                                        OutlinedButton(onClick = { messages.retry() }) {
                                             Text("Load more")
                                         }
                                     }
@@ -181,8 +224,12 @@ fun MessagesScreen(
     }
 }
 
+private val Sms.isReceived: Boolean get() = type == Sms.TYPE_INCOMING
+
+private val Sms.counterparty: String get() = (if (isReceived) sender else recipient) ?: "Unknown"
+
 @Composable
-private fun MessageItem(message: SmsMessage, onClick: () -> Unit) {
+private fun MessageItem(message: Sms, onClick: () -> Unit) {
     val accentColor = if (message.isReceived) Color(0xFF4CAF50)
                       else MaterialTheme.colorScheme.primary
 
@@ -230,20 +277,20 @@ private fun MessageItem(message: SmsMessage, onClick: () -> Unit) {
                         )
                     }
                     Text(
-                        text = formatRelativeTime(message.createdAt),
+                        text = formatRelativeTime(message.requestedAt),
                         style = MaterialTheme.typography.labelSmall,
                         color = MaterialTheme.colorScheme.onSurfaceVariant
                     )
                 }
                 Spacer(modifier = Modifier.height(4.dp))
                 Text(
-                    text = message.message ?: "",
+                    text = message.message,
                     style = MaterialTheme.typography.bodySmall,
                     color = MaterialTheme.colorScheme.onSurfaceVariant,
                     maxLines = 1,
                     overflow = TextOverflow.Ellipsis
                 )
-                if (!message.isReceived && message.status != null) {
+                if (!message.isReceived) {
                     Spacer(modifier = Modifier.height(4.dp))
                     StatusBadge(status = message.status)
                 }
@@ -258,6 +305,7 @@ private fun StatusBadge(status: String) {
         "delivered" -> MaterialTheme.colorScheme.tertiary to "Delivered"
         "sent" -> MaterialTheme.colorScheme.primary to "Sent"
         "failed" -> MaterialTheme.colorScheme.error to "Failed"
+        "delivery_failed" -> MaterialTheme.colorScheme.error to "Not delivered"
         else -> MaterialTheme.colorScheme.onSurfaceVariant to "Pending"
     }
     Surface(
@@ -275,7 +323,7 @@ private fun StatusBadge(status: String) {
 }
 
 @Composable
-private fun MessageDetailDialog(message: SmsMessage, onDismiss: () -> Unit) {
+private fun MessageDetailDialog(message: Sms, onDismiss: () -> Unit) {
     val accentColor = if (message.isReceived) Color(0xFF4CAF50)
                       else MaterialTheme.colorScheme.primary
 
@@ -305,12 +353,12 @@ private fun MessageDetailDialog(message: SmsMessage, onDismiss: () -> Unit) {
                     fontWeight = FontWeight.SemiBold,
                     color = accentColor
                 )
-                if (!message.isReceived && message.status != null) {
+                if (!message.isReceived) {
                     StatusBadge(status = message.status)
                 }
                 Divider()
                 Text(
-                    text = message.message ?: "",
+                    text = message.message,
                     style = MaterialTheme.typography.bodyMedium
                 )
                 val timestamp = if (message.isReceived) message.receivedAt else message.requestedAt
@@ -329,32 +377,17 @@ private fun MessageDetailDialog(message: SmsMessage, onDismiss: () -> Unit) {
     )
 }
 
-private fun formatRelativeTime(isoDate: String?): String {
-    if (isoDate == null) return ""
-    return try {
-        val sdf = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault())
-        sdf.timeZone = TimeZone.getTimeZone("UTC")
-        val date = sdf.parse(isoDate.take(19)) ?: return ""
-        val diffMs = System.currentTimeMillis() - date.time
-        when {
-            diffMs < 60_000 -> "Just now"
-            diffMs < 3_600_000 -> "${diffMs / 60_000}m ago"
-            diffMs < 86_400_000 -> "${diffMs / 3_600_000}h ago"
-            diffMs < 604_800_000 -> "${diffMs / 86_400_000}d ago"
-            else -> SimpleDateFormat("MMM d", Locale.getDefault()).format(date)
-        }
-    } catch (e: Exception) {
-        ""
+private fun formatRelativeTime(date: Date?): String {
+    if (date == null) return ""
+    val diffMs = System.currentTimeMillis() - date.time
+    return when {
+        diffMs < 60_000 -> "Just now"
+        diffMs < 3_600_000 -> "${diffMs / 60_000}m ago"
+        diffMs < 86_400_000 -> "${diffMs / 3_600_000}h ago"
+        diffMs < 604_800_000 -> "${diffMs / 86_400_000}d ago"
+        else -> SimpleDateFormat("MMM d", Locale.getDefault()).format(date)
     }
 }
 
-private fun formatFullDate(isoDate: String): String {
-    return try {
-        val sdf = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault())
-        sdf.timeZone = TimeZone.getTimeZone("UTC")
-        val date = sdf.parse(isoDate.take(19)) ?: return ""
-        SimpleDateFormat("MMM d, yyyy 'at' h:mm a", Locale.getDefault()).format(date)
-    } catch (e: Exception) {
-        ""
-    }
-}
+private fun formatFullDate(date: Date): String =
+    SimpleDateFormat("MMM d, yyyy 'at' h:mm a", Locale.getDefault()).format(date)
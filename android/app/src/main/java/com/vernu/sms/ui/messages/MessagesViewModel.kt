@@ -3,101 +3,81 @@ package com.vernu.sms.ui.messages
 import android.app.Application
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
-import com.vernu.sms.ApiManagerKt
-import com.vernu.sms.AppConstants
-import com.vernu.sms.dtos.SmsMessage
-import com.vernu.sms.helpers.SharedPreferenceHelper
+import androidx.paging.ExperimentalPagingApi
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import com.vernu.sms.database.local.AppDatabase
+import com.vernu.sms.database.local.Sms
+import com.vernu.sms.database.local.SmsSearch
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.flow.update
-import kotlinx.coroutines.launch
-
-data class MessagesState(
-    val messages: List<SmsMessage> = emptyList(),
-    val isLoading: Boolean = true,
-    val isLoadingMore: Boolean = false,
-    val error: String? = null,
-    val filter: String = "all",
-    val currentPage: Int = 1,
-    val totalPages: Int = 1,
-    val total: Int = 0
-)
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.map
 
+/**
+ * Pages the message list out of the local message store. The server is only
+ * asked for what the store lacks, by [MessagesRemoteMediator]. A search reads
+ * the store's full-text index alone, so it never waits on the network.
+ */
+@OptIn(ExperimentalPagingApi::class, ExperimentalCoroutinesApi::class, FlowPreview::class)
 class MessagesViewModel(app: Application) : AndroidViewModel(app) {
 
-    private val context get() = getApplication<Application>().applicationContext
-
-    private val _state = MutableStateFlow(MessagesState())
-    val state: StateFlow<MessagesState> = _state.asStateFlow()
+    companion object {
+        private const val PAGE_SIZE = 50
 
-    init {
-        fetchMessages(reset = true)
+        /** Typing pause before the results follow the search field. */
+        private const val SEARCH_DEBOUNCE_MS = 150L
     }
 
-    fun setFilter(filter: String) {
-        _state.update { it.copy(filter = filter, currentPage = 1) }
-        fetchMessages(reset = true)
-    }
+    private val db = AppDatabase.getInstance(app)
+    private val mediator = MessagesRemoteMediator(app.applicationContext, db)
 
-    fun refresh() = fetchMessages(reset = true)
+    private val _filter = MutableStateFlow("all")
+    val filter: StateFlow<String> = _filter.asStateFlow()
 
-    fun loadMore() {
-        val s = _state.value
-        if (s.isLoadingMore || s.currentPage >= s.totalPages) return
-        _state.update { it.copy(currentPage = it.currentPage + 1) }
-        fetchMessages(reset = false)
-    }
-
-    private fun fetchMessages(reset: Boolean) {
-        val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
-            context, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
-        ) ?: ""
-        val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
-            context, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
-        ) ?: ""
-        if (apiKey.isEmpty() || deviceId.isEmpty()) {
-            _state.update { it.copy(isLoading = false, error = "Device not connected") }
-            return
-        }
+    private val _query = MutableStateFlow("")
+    val query: StateFlow<String> = _query.asStateFlow()
 
-        val page = if (reset) 1 else _state.value.currentPage
-        val filter = _state.value.filter
+    private val match: Flow<String?> = _query
+        // clearing the search brings the full list back at once
+        .debounce { if (it.isBlank()) 0L else SEARCH_DEBOUNCE_MS }
+        .map { SmsSearch.matchQuery(it) }
+        .distinctUntilChanged()
 
-        viewModelScope.launch {
-            if (reset) {
-                _state.update { it.copy(isLoading = true, error = null) }
-            } else {
-                _state.update { it.copy(isLoadingMore = true) }
+    val messages: Flow<PagingData<Sms>> = combine(_filter, match) { filter, match -> filter to match }
+        .flatMapLatest { (filter, match) ->
+            val type = when (filter) {
+                "sent" -> Sms.TYPE_OUTGOING
+                "received" -> Sms.TYPE_INCOMING
+                else -> null
             }
-            try {
-                val response = ApiManagerKt.getApiService()
-                    .getMessages(deviceId, apiKey, page, 20, filter)
-                if (response.isSuccessful) {
-                    val body = response.body()
-                    val newMessages = body?.data ?: emptyList()
-                    val meta = body?.meta
-                    _state.update {
-                        it.copy(
-                            messages = if (reset) newMessages else it.messages + newMessages,
-                            isLoading = false,
-                            isLoadingMore = false,
-                            error = null,
-                            currentPage = page,
-                            totalPages = meta?.totalPages ?: 1,
-                            total = meta?.total ?: 0
-                        )
-                    }
-                } else {
-                    _state.update {
-                        it.copy(isLoading = false, isLoadingMore = false, error = "Failed to load messages")
-                    }
-                }
-            } catch (e: Exception) {
-                _state.update {
-                    it.copy(isLoading = false, isLoadingMore = false, error = "Network error")
-                }
+            val config = PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)
+            if (match == null) {
+                Pager(config, remoteMediator = mediator) {
+                    if (type == null) db.smsDao().pagingSource() else db.smsDao().pagingSource(type)
+                }.flow
+            } else {
+                Pager(config) {
+                    if (type == null) db.smsDao().search(match) else db.smsDao().search(match, type)
+                }.flow
             }
         }
+        .cachedIn(viewModelScope)
+
+    fun setFilter(filter: String) {
+        _filter.value = filter
+    }
+
+    fun setQuery(query: String) {
+        _query.value = query
     }
 }
@@ -0,0 +1,138 @@
+package com.vernu.sms.ui.settings
+
+import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.lazy.LazyColumn
+import androidx.compose.foundation.lazy.items
+import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.filled.ArrowBack
+import androidx.compose.material3.*
+import androidx.compose.runtime.*
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.text.font.FontFamily
+import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.unit.dp
+import androidx.lifecycle.viewmodel.compose.viewModel
+import com.vernu.sms.metrics.LatencyHistogram
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.SendQueue
+
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+fun DeliveryMetricsScreen(
+    onNavigateBack: () -> Unit,
+    viewModel: DeliveryMetricsViewModel = viewModel()
+) {
+    val state by viewModel.state.collectAsState()
+
+    Scaffold(
+        topBar = {
+            TopAppBar(
+                title = { Text("Delivery Metrics", fontWeight = FontWeight.SemiBold) },
+                navigationIcon = {
+                    IconButton(onClick = onNavigateBack) {
+                        Icon(Icons.Default.ArrowBack, contentDescription = "Back")
+                    }
+                },
+                colors = TopAppBarDefaults.topAppBarColors(
+                    containerColor = MaterialTheme.colorScheme.surface
+                )
+            )
+        }
+    ) { padding ->
+        LazyColumn(
+            modifier = Modifier
+                .fillMaxSize()
+                .padding(padding),
+            contentPadding = PaddingValues(16.dp),
+            verticalArrangement = Arrangement.spacedBy(8.dp)
+        ) {
+            item {
+                Text(
+                    "Time each message spent reaching a stage since the stage before it, " +
+                        "since the app started. ${state.trackedMessages} messages in flight.",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+            }
+            items(state.stages, key = { it.stage.name }) { stats ->
+                StageCard(stats)
+            }
+            item {
+                Text(
+                    "SEND QUEUE",
+                    style = MaterialTheme.typography.labelSmall,
+                    color = MaterialTheme.colorScheme.primary,
+                    modifier = Modifier.padding(top = 12.dp)
+                )
+            }
+            items(state.lanes, key = { it.priority.name }) { lane ->
+                LaneRow(lane)
+            }
+        }
+    }
+}
+
+@Composable
+private fun StageCard(stats: MessageLifecycle.StageStats) {
+    Card(
+        modifier = Modifier.fillMaxWidth(),
+        colors = CardDefaults.cardColors(containerColor = MaterialTheme.colorScheme.surface),
+        elevation = CardDefaults.cardElevation(defaultElevation = 1.dp)
+    ) {
+        Column(modifier = Modifier.padding(12.dp)) {
+            Row(verticalAlignment = Alignment.CenterVertically) {
+                Text(
+                    stats.stage.wireName.replaceFirstChar { it.uppercase() },
+                    style = MaterialTheme.typography.titleSmall,
+                    modifier = Modifier.weight(1f)
+                )
+                Text(
+                    "${stats.count} total · ${stats.lastMinute}/min",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+            }
+            MetricLine("step", stats.sincePrevious)
+            if (stats.sinceStart.count > 0) MetricLine("total", stats.sinceStart)
+        }
+    }
+}
+
+@Composable
+private fun MetricLine(label: String, latency: LatencyHistogram.Snapshot) {
+    val text = if (latency.count == 0L) "$label  no samples" else buildString {
+        append("$label  p50 ${formatMillis(latency.percentileMillis(0.5))}")
+        append("  p95 ${formatMillis(latency.percentileMillis(0.95))}")
+        append("  max ${formatMillis(latency.maxMillis)}")
+        if (latency.failures > 0) append("  failed ${latency.failures}")
+    }
+    Text(
+        text,
+        style = MaterialTheme.typography.bodySmall.copy(fontFamily = FontFamily.Monospace),
+        color = MaterialTheme.colorScheme.onSurfaceVariant
+    )
+}
+
+@Composable
+private fun LaneRow(lane: SendQueue.LaneStats) {
+    Row(modifier = Modifier.fillMaxWidth(), verticalAlignment = Alignment.CenterVertically) {
+        Text(
+            lane.priority.wireName.replaceFirstChar { it.uppercase() },
+            style = MaterialTheme.typography.bodyMedium,
+            modifier = Modifier.weight(1f)
+        )
+        Text(
+            "${lane.depth} queued · oldest ${formatMillis(lane.oldestWaitMillis)} · " +
+                "wait p95 ${formatMillis(lane.waits.percentileMillis(0.95))}",
+            style = MaterialTheme.typography.bodySmall.copy(fontFamily = FontFamily.Monospace),
+            color = MaterialTheme.colorScheme.onSurfaceVariant
+        )
+    }
+}
+
+private fun formatMillis(millis: Long): String = when {
+    millis < 1_000 -> "${millis}ms"
+    millis < 60_000 -> String.format("%.1fs", millis / 1_000.0)
+    else -> "${millis / 60_000}m${(millis % 60_000) / 1_000}s"
+}
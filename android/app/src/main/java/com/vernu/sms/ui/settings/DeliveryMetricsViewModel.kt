@@ -0,0 +1,50 @@
+package com.vernu.sms.ui.settings
+
+import android.app.Application
+import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.viewModelScope
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.SendQueue
+import com.vernu.sms.workers.SmsSendWorker
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+
+data class DeliveryMetricsState(
+    val trackedMessages: Int = 0,
+    val stages: List<MessageLifecycle.StageStats> = emptyList(),
+    val lanes: List<SendQueue.LaneStats> = emptyList()
+)
+
+class DeliveryMetricsViewModel(app: Application) : AndroidViewModel(app) {
+
+    companion object {
+        private const val REFRESH_INTERVAL_MS = 1_000L
+    }
+
+    private val _state = MutableStateFlow(DeliveryMetricsState())
+    val state: StateFlow<DeliveryMetricsState> = _state.asStateFlow()
+
+    init {
+        // the first read may open the send queue journal
+        viewModelScope.launch(Dispatchers.IO) {
+            while (true) {
+                refresh()
+                delay(REFRESH_INTERVAL_MS)
+            }
+        }
+    }
+
+    private fun refresh() {
+        val now = System.currentTimeMillis()
+        val lifecycle = MessageLifecycle.SHARED
+        _state.value = DeliveryMetricsState(
+            trackedMessages = lifecycle.tracked(),
+            stages = lifecycle.snapshot(now),
+            lanes = SmsSendWorker.getQueue(getApplication()).laneStats(now)
+        )
+    }
+}
@@ -243,6 +243,8 @@ private fun FilterRuleDialog(
     var caseSensitive by remember(rule) { mutableStateOf(rule?.caseSensitive ?: false) }
     var matchTypeExpanded by remember { mutableStateOf(false) }
     var filterTargetExpanded by remember { mutableStateOf(false) }
+    val patternValid = pattern.isBlank() ||
+        SMSFilterRule(pattern.trim(), matchType, filterTarget, caseSensitive).isValidPattern()
 
     AlertDialog(
         onDismissRequest = onDismiss,
@@ -254,6 +256,15 @@ private fun FilterRuleDialog(
                     onValueChange = { pattern = it },
                     label = { Text("Pattern") },
                     singleLine = true,
+                    isError = !patternValid,
+                    supportingText = if (patternValid) null else {
+                        {
+                            Text(
+                                if (matchType == SMSFilterRule.MatchType.REGEX) "Invalid regular expression"
+                                else "Enter a phone number"
+                            )
+                        }
+                    },
                     modifier = Modifier.fillMaxWidth()
                 )
 
@@ -344,7 +355,7 @@ private fun FilterRuleDialog(
                 onClick = {
                     onConfirm(SMSFilterRule(pattern.trim(), matchType, filterTarget, caseSensitive))
                 },
-                enabled = pattern.isNotBlank()
+                enabled = pattern.isNotBlank() && patternValid
             ) { Text("Save") }
         },
         dismissButton = {
@@ -28,6 +28,7 @@ import com.vernu.sms.BuildConfig
 fun SettingsScreen(
     onSwitchToLegacy: () -> Unit,
     onNavigateToFilters: () -> Unit,
+    onNavigateToMetrics: () -> Unit,
     onDisconnect: () -> Unit,
     viewModel: SettingsViewModel = viewModel()
 ) {
@@ -148,6 +149,13 @@ fun SettingsScreen(
                     color = MaterialTheme.colorScheme.onSurfaceVariant,
                     modifier = Modifier.padding(start = 56.dp, end = 16.dp, bottom = 8.dp)
                 )
+                SettingsSwitchRow(
+                    icon = Icons.Default.SwapHoriz,
+                    title = "Balance Across SIMs",
+                    subtitle = "Spread messages over all SIMs unless a request pins one",
+                    checked = state.isSimBalancingEnabled,
+                    onCheckedChange = { viewModel.setSimBalancing(it) }
+                )
             }
 
             SettingsSectionHeader("SMS")
@@ -195,6 +203,17 @@ fun SettingsScreen(
                 onCheckedChange = { viewModel.setStickyNotification(it) }
             )
 
+            SettingsRow(
+                icon = Icons.Default.Speed,
+                title = "Delivery Metrics",
+                subtitle = "Where outgoing SMS spend their time",
+                onClick = onNavigateToMetrics,
+                trailing = {
+                    Icon(Icons.Default.ChevronRight, contentDescription = null,
+                        tint = MaterialTheme.colorScheme.onSurfaceVariant)
+                }
+            )
+
             SettingsRow(
                 icon = Icons.Default.Info,
                 title = "App Version",
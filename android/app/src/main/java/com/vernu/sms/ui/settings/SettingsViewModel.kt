@@ -30,6 +30,7 @@ data class SettingsState(
     val isStickyNotificationEnabled: Boolean = false,
     val smsSendDelaySeconds: Int = AppConstants.DEFAULT_SMS_SEND_DELAY_SECONDS,
     val preferredSimSubscriptionId: Int = -1,
+    val isSimBalancingEnabled: Boolean = false,
     val availableSims: List<SimOption> = emptyList(),
     val appVersionName: String = BuildConfig.VERSION_NAME,
     val appVersionCode: Int = BuildConfig.VERSION_CODE,
@@ -74,6 +75,9 @@ class SettingsViewModel(app: Application) : AndroidViewModel(app) {
         val preferredSim = SharedPreferenceHelper.getSharedPreferenceInt(
             context, AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, -1
         )
+        val simStrategy = SharedPreferenceHelper.getSharedPreferenceString(
+            context, AppConstants.SHARED_PREFS_SIM_STRATEGY_KEY, AppConstants.SIM_STRATEGY_PREFERRED
+        )
 
         val sims = try {
             TextBeeUtils.getAvailableSimSlots(context).map { info ->
@@ -96,6 +100,7 @@ class SettingsViewModel(app: Application) : AndroidViewModel(app) {
                 isStickyNotificationEnabled = isSticky,
                 smsSendDelaySeconds = smsDelay,
                 preferredSimSubscriptionId = preferredSim,
+                isSimBalancingEnabled = simStrategy == AppConstants.SIM_STRATEGY_BALANCED,
                 availableSims = sims
             )
         }
@@ -168,6 +173,14 @@ class SettingsViewModel(app: Application) : AndroidViewModel(app) {
         _state.update { it.copy(preferredSimSubscriptionId = subscriptionId) }
     }
 
+    fun setSimBalancing(enabled: Boolean) {
+        SharedPreferenceHelper.setSharedPreferenceString(
+            context, AppConstants.SHARED_PREFS_SIM_STRATEGY_KEY,
+            if (enabled) AppConstants.SIM_STRATEGY_BALANCED else AppConstants.SIM_STRATEGY_PREFERRED
+        )
+        _state.update { it.copy(isSimBalancingEnabled = enabled) }
+    }
+
     fun saveDeviceName(name: String) {
         val deviceId = _state.value.deviceId
         val apiKey = _state.value.apiKey
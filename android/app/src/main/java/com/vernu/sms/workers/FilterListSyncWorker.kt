@@ -0,0 +1,140 @@
+package com.vernu.sms.workers
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import com.vernu.sms.ApiManager
+import com.vernu.sms.AppConstants
+import com.vernu.sms.dtos.FilterListChangesResponseDTO
+import com.vernu.sms.filter.SharedRuleStore
+import com.vernu.sms.helpers.SMSFilterHelper
+import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.models.SMSFilterRule
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Brings the account's shared filter lists on this device up to date. For
+ * each list whose version moved, only the entries added or removed since the
+ * version held are fetched, a page at a time, and applied to the stored copy
+ * and the active filter.
+ */
+class FilterListSyncWorker(context: Context, workerParams: WorkerParameters) : Worker(context, workerParams) {
+    companion object {
+        private const val TAG = "FilterListSyncWorker"
+        private const val MAX_RETRIES = 5
+        private const val PAGE_SIZE = 5000
+        private const val SYNC_WORK_NAME = "filter_list_sync"
+
+        /** Makes sure a sync runs once the network is available. */
+        @JvmStatic
+        fun enqueue(context: Context) {
+            val constraints = Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build()
+
+            val workRequest = OneTimeWorkRequest.Builder(FilterListSyncWorker::class.java)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(SYNC_WORK_NAME, ExistingWorkPolicy.KEEP, workRequest)
+        }
+    }
+
+    override fun doWork(): Result {
+        val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+            applicationContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+        ) ?: ""
+        val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+            applicationContext, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+        ) ?: ""
+        if (deviceId.isEmpty() || apiKey.isEmpty()) {
+            Log.e(TAG, "Device ID or API key not found, skipping filter list sync")
+            return Result.success()
+        }
+
+        return try {
+            if (sync(deviceId, apiKey)) Result.success() else retryOrFail()
+        } catch (e: IOException) {
+            Log.e(TAG, "Filter list sync failed: ${e.message}")
+            retryOrFail()
+        }
+    }
+
+    /** False if the backend could not be reached and the sync should be retried. */
+    private fun sync(deviceId: String, apiKey: String): Boolean {
+        val response = ApiManager.getApiService().getFilterLists(deviceId, apiKey).execute()
+        if (response.code() == 404) {
+            // backend without shared filter lists
+            return true
+        }
+        if (!response.isSuccessful) {
+            Log.e(TAG, "Failed to fetch filter lists. Response code: ${response.code()}")
+            return false
+        }
+        val remote = response.body()?.data.orEmpty().filter { !it.id.isNullOrEmpty() }
+        val held = SMSFilterHelper.getSharedRules(applicationContext).versions()
+
+        val remoteIds = remote.mapTo(HashSet()) { it.id!! }
+        for (listId in held.keys - remoteIds) {
+            SMSFilterHelper.removeSharedList(applicationContext, listId)
+            Log.d(TAG, "Removed shared filter list $listId")
+        }
+
+        for (list in remote) {
+            if (isStopped) return true
+            SMSFilterHelper.setSharedListMode(applicationContext, list.id!!, list.mode == "ALLOW_LIST")
+            val since = held[list.id] ?: 0L
+            if (since >= list.version) continue
+            if (!syncList(deviceId, apiKey, list.id!!, since)) return false
+        }
+        return true
+    }
+
+    private fun syncList(deviceId: String, apiKey: String, listId: String, since: Long): Boolean {
+        var version = since
+        var cursor: String? = null
+        var applied = 0
+        do {
+            val response = ApiManager.getApiService()
+                .getFilterListChanges(deviceId, listId, apiKey, since, cursor, PAGE_SIZE).execute()
+            if (response.code() == 404) {
+                // deleted meanwhile; the next sync drops it
+                return true
+            }
+            val page = response.body()?.data
+            if (!response.isSuccessful || page == null) {
+                Log.e(TAG, "Failed to fetch filter list changes. Response code: ${response.code()}")
+                return false
+            }
+            cursor = page.nextCursor
+            val lastVersion = page.entries.lastOrNull()?.version ?: version
+            // a change spread over several pages is only complete on the last of them,
+            // so a sync cut short resumes from the version before it; the last page
+            // brings the list up to the committed version the backend served up to
+            version = maxOf(version, if (cursor == null) maxOf(lastVersion, page.listVersion) else lastVersion - 1)
+            SMSFilterHelper.applySharedListChanges(applicationContext, listId, page.entries.map(::toChange), version)
+            applied += page.entries.size
+        } while (cursor != null && !isStopped)
+        Log.d(TAG, "Shared filter list $listId synced to version $version, $applied changes")
+        return true
+    }
+
+    private fun toChange(entry: FilterListChangesResponseDTO.Entry): SharedRuleStore.Change {
+        val matchType = SMSFilterRule.MatchType.values().firstOrNull { it.name == entry.matchType }
+        val target = SMSFilterRule.FilterTarget.values().firstOrNull { it.name == entry.filterTarget }
+            ?: SMSFilterRule.FilterTarget.SENDER
+        // match types this build does not know are left out, like removed entries
+        val rule = if (entry.deleted || matchType == null || entry.pattern == null) {
+            null
+        } else {
+            SMSFilterRule(entry.pattern, matchType, target, entry.caseSensitive)
+        }
+        return SharedRuleStore.Change(entry.id ?: "", rule)
+    }
+
+    private fun retryOrFail(): Result =
+        if (runAttemptCount >= MAX_RETRIES) Result.failure() else Result.retry()
+}
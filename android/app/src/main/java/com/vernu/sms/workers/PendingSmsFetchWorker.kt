@@ -0,0 +1,168 @@
+package com.vernu.sms.workers
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import com.vernu.sms.ApiManager
+import com.vernu.sms.AppConstants
+import com.vernu.sms.dtos.PendingSMSAckDTO
+import com.vernu.sms.dtos.PendingSMSResponseDTO
+import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.PullAckOutbox
+import com.vernu.sms.queue.SendJob
+import com.vernu.sms.queue.SendPriority
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pull mode: fetches the SMS waiting for this device page by page after a
+ * doorbell push, a boot, or a heartbeat reporting pending SMS. Fetched SMS are
+ * put in the send queue and then acknowledged through the on-disk
+ * [PullAckOutbox]; the backend offers whatever is left unacknowledged again
+ * once its lease expires.
+ */
+class PendingSmsFetchWorker(context: Context, workerParams: WorkerParameters) : Worker(context, workerParams) {
+    companion object {
+        private const val TAG = "PendingSmsFetchWorker"
+        private const val MAX_RETRIES = 5
+        private const val PAGE_SIZE = 500
+        private const val ACK_BATCH_SIZE = 1000
+        private const val FETCH_WORK_NAME = "pending_sms_fetch"
+        private const val ACK_OUTBOX_FILE = "pending_sms_acks.journal"
+
+        @Volatile
+        private var ackOutbox: PullAckOutbox? = null
+
+        @Volatile
+        private var fetchRunning = false
+
+        @JvmStatic
+        fun getAckOutbox(context: Context): PullAckOutbox =
+            ackOutbox ?: synchronized(this) {
+                ackOutbox ?: PullAckOutbox(
+                    File(context.applicationContext.filesDir, ACK_OUTBOX_FILE)
+                ).also { ackOutbox = it }
+            }
+
+        /** Makes sure a fetch runs once the network is available. */
+        @JvmStatic
+        fun enqueue(context: Context) {
+            // a waiting fetch will see the new SMS; one that is paging may already be past them
+            val policy = if (fetchRunning) ExistingWorkPolicy.APPEND_OR_REPLACE else ExistingWorkPolicy.KEEP
+
+            val constraints = Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build()
+
+            val workRequest = OneTimeWorkRequest.Builder(PendingSmsFetchWorker::class.java)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
+                .build()
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(FETCH_WORK_NAME, policy, workRequest)
+        }
+    }
+
+    override fun doWork(): Result {
+        fetchRunning = true
+        try {
+            val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+            ) ?: ""
+            val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+            ) ?: ""
+            if (deviceId.isEmpty() || apiKey.isEmpty()) {
+                Log.e(TAG, "Device ID or API key not found, skipping pending SMS fetch")
+                return Result.success()
+            }
+
+            val acks = getAckOutbox(applicationContext)
+            if (!flushAcks(acks, deviceId, apiKey)) return retryOrFail()
+
+            var cursor: String? = null
+            var queued = 0
+            while (!isStopped) {
+                val page = fetchPage(deviceId, apiKey, cursor) ?: return retryOrFail()
+                val jobs = page.items.mapNotNull { item -> toJob(item, acks) }
+                MessageLifecycle.SHARED.markAll(jobs.map { it.smsId }.distinct(), MessageLifecycle.Stage.RECEIVED)
+                SmsSendWorker.enqueue(applicationContext, jobs)
+                page.items.forEach { item -> item.smsId?.let { acks.add(it) } }
+                queued += jobs.size
+                if (!flushAcks(acks, deviceId, apiKey)) return retryOrFail()
+                cursor = page.nextCursor ?: break
+            }
+            Log.d(TAG, "Pending SMS fetched - queued: $queued")
+            return Result.success()
+        } finally {
+            fetchRunning = false
+        }
+    }
+
+    /** The next page, an empty one if the server has no pull mode, or null on failure. */
+    private fun fetchPage(deviceId: String, apiKey: String, cursor: String?): PendingSMSResponseDTO.Data? =
+        try {
+            val response = ApiManager.getApiService().getPendingSMS(deviceId, apiKey, cursor, PAGE_SIZE).execute()
+            when {
+                response.isSuccessful -> response.body()?.data ?: PendingSMSResponseDTO.Data()
+                response.code() == 404 -> {
+                    Log.w(TAG, "Server does not support fetching pending SMS")
+                    PendingSMSResponseDTO.Data()
+                }
+                else -> {
+                    Log.e(TAG, "Failed to fetch pending SMS. Response code: ${response.code()}")
+                    null
+                }
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "API call failed: ${e.message}")
+            null
+        }
+
+    /** Null for malformed items and for SMS queued on an earlier fetch whose ack is still outstanding. */
+    private fun toJob(item: PendingSMSResponseDTO.Item, acks: PullAckOutbox): SendJob? {
+        val smsId = item.smsId ?: return null
+        val recipient = item.recipient ?: return null
+        if (acks.contains(smsId)) return null
+        return SendJob(
+            phone = recipient,
+            message = item.message ?: "",
+            smsId = smsId,
+            smsBatchId = item.smsBatchId,
+            simSubscriptionId = item.simSubscriptionId,
+            priority = SendPriority.parse(item.priority),
+            sendAtMillis = item.sendAt ?: 0
+        )
+    }
+
+    private fun flushAcks(acks: PullAckOutbox, deviceId: String, apiKey: String): Boolean {
+        while (!isStopped) {
+            val batch = acks.peekBatch(ACK_BATCH_SIZE)
+            if (batch.isEmpty()) return true
+            val body = PendingSMSAckDTO().apply { smsIds = batch.map { it.item } }
+            try {
+                val response = ApiManager.getApiService().ackPendingSMS(deviceId, apiKey, body).execute()
+                if (!response.isSuccessful) {
+                    Log.e(TAG, "Failed to acknowledge fetched SMS. Response code: ${response.code()}")
+                    return false
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "API call failed: ${e.message}")
+                return false
+            }
+            acks.ack(batch)
+        }
+        return false
+    }
+
+    private fun retryOrFail(): Result {
+        if (runAttemptCount >= MAX_RETRIES) {
+            Log.e(TAG, "Maximum retry count reached for pending SMS fetch")
+            return Result.failure()
+        }
+        return Result.retry()
+    }
+}
@@ -5,28 +5,86 @@ import android.util.Log
 import androidx.work.*
 import com.google.gson.Gson
 import com.vernu.sms.ApiManager
+import com.vernu.sms.AppConstants
+import com.vernu.sms.dtos.ReceivedSMSBatchDTO
 import com.vernu.sms.dtos.SMSDTO
-import com.vernu.sms.dtos.SMSForwardResponseDTO
+import com.vernu.sms.helpers.MessageStore
+import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.queue.ReceivedInbox
+import com.vernu.sms.queue.UploadBuffer
+import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 
+/**
+ * Forwards received SMS from the on-disk [ReceivedInbox] to the backend. A
+ * burst of incoming messages is uploaded in batches to the bulk receive
+ * endpoint by one flush worker; only the messages the server did not accept
+ * are sent again on retry.
+ */
 class SMSReceivedWorker(context: Context, workerParams: WorkerParameters) : Worker(context, workerParams) {
     companion object {
         private const val TAG = "SMSReceivedWorker"
         private const val MAX_RETRIES = 5
+        private const val FLUSH_WORK_NAME = "sms_received_inbox_flush"
+        private const val INBOX_FILE = "sms_received_inbox.journal"
+        /** Received SMS are often OTPs: wait just long enough for a burst to share a request. */
+        private const val MAX_BATCH_WAIT_MILLIS = 1_000L
 
+        // Input keys used by builds that enqueued one work request per received
+        // SMS. Requests persisted by those builds are moved into the inbox.
         const val KEY_DEVICE_ID = "device_id"
         const val KEY_API_KEY = "api_key"
         const val KEY_SMS_DTO = "sms_dto"
         const val KEY_RETRY_COUNT = "retry_count"
 
-        fun enqueueWork(context: Context, deviceId: String, apiKey: String, smsDTO: SMSDTO) {
-            val inputData = Data.Builder()
-                .putString(KEY_DEVICE_ID, deviceId)
-                .putString(KEY_API_KEY, apiKey)
-                .putString(KEY_SMS_DTO, Gson().toJson(smsDTO))
-                .putInt(KEY_RETRY_COUNT, 0)
-                .build()
+        @Volatile
+        private var inbox: ReceivedInbox? = null
+
+        @Volatile
+        private var flushRunning = false
+
+        /** When the flush scheduled last will run; Long.MAX_VALUE if none is waiting. */
+        private var scheduledFlushAt = Long.MAX_VALUE
+
+        @JvmStatic
+        fun getInbox(context: Context): ReceivedInbox =
+            inbox ?: synchronized(this) {
+                inbox ?: ReceivedInbox(
+                    File(context.applicationContext.filesDir, INBOX_FILE),
+                    UploadBuffer.Settings(flushSize = batchSize(context), maxAgeMillis = MAX_BATCH_WAIT_MILLIS)
+                ).also { inbox = it }
+            }
+
+        /** Stores a received SMS and makes sure an upload is scheduled for it. */
+        fun enqueueWork(context: Context, smsDTO: SMSDTO) {
+            // stored first, so the inbox never holds an SMS the message store is missing;
+            // a repeated broadcast is skipped by the store as well
+            MessageStore.recordReceived(context, smsDTO)
+            if (!getInbox(context).add(smsDTO)) {
+                Log.d(TAG, "Received SMS already in inbox, skipping: ${smsDTO.fingerprint}")
+                return
+            }
+            scheduleFlush(context)
+            Log.d(TAG, "Received SMS from: ${smsDTO.sender} stored in inbox with fingerprint: ${smsDTO.fingerprint}")
+        }
+
+        private fun batchSize(context: Context): Int =
+            SharedPreferenceHelper.getSharedPreferenceInt(
+                context.applicationContext, AppConstants.SHARED_PREFS_RECEIVED_SMS_BATCH_SIZE_KEY,
+                AppConstants.DEFAULT_RECEIVED_SMS_BATCH_SIZE
+            ).coerceIn(1, 500)
+
+        private fun scheduleFlush(context: Context) {
+            val delay = getInbox(context).flushDelayMillis() ?: return
+            val runAt = System.currentTimeMillis() + delay
+            val policy = synchronized(this) {
+                // an earlier flush already covers this message
+                if (scheduledFlushAt <= runAt) return
+                scheduledFlushAt = runAt
+                // never cancel a flush that is uploading; queue behind it instead
+                if (flushRunning) ExistingWorkPolicy.APPEND_OR_REPLACE else ExistingWorkPolicy.REPLACE
+            }
 
             val constraints = Constraints.Builder()
                 .setRequiredNetworkType(NetworkType.CONNECTED)
@@ -34,57 +92,112 @@ class SMSReceivedWorker(context: Context, workerParams: WorkerParameters) : Work
 
             val workRequest = OneTimeWorkRequest.Builder(SMSReceivedWorker::class.java)
                 .setConstraints(constraints)
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
                 .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
-                .setInputData(inputData)
                 .addTag("sms_received")
                 .build()
 
-            val fp = smsDTO.fingerprint
-            val uniqueWorkName = if (!fp.isNullOrEmpty()) {
-                "sms_received_$fp"
-            } else {
-                Log.w(TAG, "Fingerprint not available, using timestamp for work name")
-                "sms_received_${System.currentTimeMillis()}"
-            }
-
             WorkManager.getInstance(context)
-                .beginUniqueWork(uniqueWorkName, ExistingWorkPolicy.KEEP, workRequest)
-                .enqueue()
-
-            Log.d(TAG, "Work enqueued for received SMS from: ${smsDTO.sender} with fingerprint: $uniqueWorkName")
+                .enqueueUniqueWork(FLUSH_WORK_NAME, policy, workRequest)
         }
     }
 
     override fun doWork(): Result {
-        val deviceId = inputData.getString(KEY_DEVICE_ID)
-        val apiKey = inputData.getString(KEY_API_KEY)
-        val smsDtoJson = inputData.getString(KEY_SMS_DTO)
-        val retryCount = inputData.getInt(KEY_RETRY_COUNT, 0)
-
-        if (deviceId == null || apiKey == null || smsDtoJson == null) {
-            Log.e(TAG, "Missing required parameters")
-            return Result.failure()
+        val inbox = getInbox(applicationContext)
+        synchronized(SMSReceivedWorker) {
+            flushRunning = true
+            scheduledFlushAt = Long.MAX_VALUE
         }
+        try {
+            migrateLegacyInput(inbox)
 
-        if (retryCount >= MAX_RETRIES) {
-            Log.e(TAG, "Maximum retry count reached for received SMS")
-            return Result.failure()
-        }
+            val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+            ) ?: ""
+            val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+            ) ?: ""
+            if (deviceId.isEmpty() || apiKey.isEmpty()) {
+                Log.e(TAG, "Device ID or API key not found, keeping ${inbox.size()} received SMS")
+                return Result.success()
+            }
 
-        val smsDTO = Gson().fromJson(smsDtoJson, SMSDTO::class.java)
+            val batchSize = batchSize(applicationContext)
+            var uploaded = 0
+            while (!isStopped) {
+                val batch = inbox.peekBatch(batchSize)
+                if (batch.isEmpty()) break
+                val accepted = upload(inbox, batch, deviceId, apiKey)
+                uploaded += accepted
+                if (accepted < batch.size) {
+                    if (runAttemptCount >= MAX_RETRIES) {
+                        Log.e(TAG, "Maximum retry count reached, ${inbox.size()} received SMS stay in inbox")
+                        return Result.failure()
+                    }
+                    return Result.retry()
+                }
+            }
+            Log.d(TAG, "Received SMS inbox flushed - uploaded: $uploaded, remaining: ${inbox.size()}")
+        } finally {
+            synchronized(SMSReceivedWorker) { flushRunning = false }
+        }
+        // pick up anything received after the last batch was taken
+        if (!isStopped) scheduleFlush(applicationContext)
+        return Result.success()
+    }
 
+    /** Uploads [batch] and acks what the server accepted. Returns how many were acked. */
+    private fun upload(inbox: ReceivedInbox, batch: List<UploadBuffer.Pending<SMSDTO>>, deviceId: String, apiKey: String): Int {
+        val body = ReceivedSMSBatchDTO().apply { messages = batch.map { it.item } }
         return try {
-            val response = ApiManager.getApiService().sendReceivedSMS(deviceId, apiKey, smsDTO).execute()
-            if (response.isSuccessful) {
-                Log.d(TAG, "Received SMS sent to server successfully")
-                Result.success()
-            } else {
-                Log.e(TAG, "Failed to send received SMS to server. Response code: ${response.code()}")
-                Result.retry()
+            val response = ApiManager.getApiService().sendReceivedSMSBulk(deviceId, apiKey, body).execute()
+            when {
+                response.isSuccessful -> {
+                    val results = response.body()?.data?.results
+                    val accepted = if (results == null || results.size != batch.size) {
+                        batch
+                    } else {
+                        batch.filterIndexed { i, _ ->
+                            val result = results[i]
+                            if (!result.success) Log.w(TAG, "Received SMS not accepted - ${batch[i].key}: ${result.error}")
+                            // invalid messages would be rejected again, so they are dropped too
+                            result.success || !result.retryable
+                        }
+                    }
+                    inbox.ack(accepted)
+                    MessageStore.acknowledgeIncoming(applicationContext, accepted.mapNotNull { it.item.fingerprint })
+                    accepted.size
+                }
+                response.code() == 404 -> uploadOneByOne(inbox, batch, deviceId, apiKey)
+                else -> {
+                    Log.e(TAG, "Failed to send received SMS batch to server. Response code: ${response.code()}")
+                    0
+                }
             }
         } catch (e: IOException) {
             Log.e(TAG, "API call failed: ${e.message}")
-            Result.retry()
+            0
         }
     }
+
+    /** Fallback for servers without the bulk endpoint. */
+    private fun uploadOneByOne(inbox: ReceivedInbox, batch: List<UploadBuffer.Pending<SMSDTO>>, deviceId: String, apiKey: String): Int {
+        var accepted = 0
+        for (item in batch) {
+            val response = ApiManager.getApiService().sendReceivedSMS(deviceId, apiKey, item.item).execute()
+            if (!response.isSuccessful && (response.code() >= 500 || response.code() == 429)) {
+                Log.e(TAG, "Failed to send received SMS to server. Response code: ${response.code()}")
+                break
+            }
+            inbox.ack(listOf(item))
+            item.item.fingerprint?.let { MessageStore.acknowledgeIncoming(applicationContext, listOf(it)) }
+            accepted++
+        }
+        return accepted
+    }
+
+    private fun migrateLegacyInput(inbox: ReceivedInbox) {
+        val smsDtoJson = inputData.getString(KEY_SMS_DTO) ?: return
+        Gson().fromJson(smsDtoJson, SMSDTO::class.java)?.let { inbox.add(it) }
+    }
 }
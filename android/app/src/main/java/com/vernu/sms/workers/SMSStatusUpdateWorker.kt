@@ -5,28 +5,75 @@ import android.util.Log
 import androidx.work.*
 import com.google.gson.Gson
 import com.vernu.sms.ApiManager
+import com.vernu.sms.AppConstants
 import com.vernu.sms.dtos.SMSDTO
-import com.vernu.sms.dtos.SMSForwardResponseDTO
+import com.vernu.sms.dtos.SMSStatusBatchDTO
+import com.vernu.sms.helpers.MessageStore
+import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.StatusOutbox
+import com.vernu.sms.queue.UploadBuffer
+import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 
+/**
+ * Uploads SMS status updates from the on-disk [StatusOutbox]. Updates are
+ * buffered by [enqueueWork] and sent in batches to the bulk status endpoint once
+ * enough have piled up or the oldest has waited long enough; one flush worker
+ * drains the whole outbox.
+ */
 class SMSStatusUpdateWorker(context: Context, workerParams: WorkerParameters) : Worker(context, workerParams) {
     companion object {
         private const val TAG = "SMSStatusUpdateWorker"
         private const val MAX_RETRIES = 5
+        private const val BATCH_SIZE = 100
+        private const val FLUSH_WORK_NAME = "sms_status_outbox_flush"
+        private const val OUTBOX_FILE = "sms_status_outbox.journal"
 
+        // Input keys used by builds that enqueued one work request per status
+        // update. Requests persisted by those builds are moved into the outbox.
         const val KEY_DEVICE_ID = "device_id"
         const val KEY_API_KEY = "api_key"
         const val KEY_SMS_DTO = "sms_dto"
         const val KEY_RETRY_COUNT = "retry_count"
 
-        fun enqueueWork(context: Context, deviceId: String, apiKey: String, smsDTO: SMSDTO) {
-            val inputData = Data.Builder()
-                .putString(KEY_DEVICE_ID, deviceId)
-                .putString(KEY_API_KEY, apiKey)
-                .putString(KEY_SMS_DTO, Gson().toJson(smsDTO))
-                .putInt(KEY_RETRY_COUNT, 0)
-                .build()
+        @Volatile
+        private var outbox: StatusOutbox? = null
+
+        @Volatile
+        private var flushRunning = false
+
+        /** When the flush scheduled last will run; Long.MAX_VALUE if none is waiting. */
+        private var scheduledFlushAt = Long.MAX_VALUE
+
+        @JvmStatic
+        fun getOutbox(context: Context): StatusOutbox =
+            outbox ?: synchronized(this) {
+                outbox ?: StatusOutbox(File(context.applicationContext.filesDir, OUTBOX_FILE)).also { outbox = it }
+            }
+
+        /** Buffers a status update and makes sure a flush is scheduled for it. */
+        fun enqueueWork(context: Context, smsDTO: SMSDTO) {
+            if (!getOutbox(context).add(smsDTO)) {
+                Log.e(TAG, "Dropping status update without SMS ID")
+                return
+            }
+            MessageStore.recordStatus(context, smsDTO)
+            scheduleFlush(context)
+            Log.d(TAG, "Status update buffered - ID: ${smsDTO.smsId}, Status: ${smsDTO.status}")
+        }
+
+        private fun scheduleFlush(context: Context) {
+            val delay = getOutbox(context).flushDelayMillis() ?: return
+            val runAt = System.currentTimeMillis() + delay
+            val policy = synchronized(this) {
+                // an earlier flush already covers this update
+                if (scheduledFlushAt <= runAt) return
+                scheduledFlushAt = runAt
+                // never cancel a flush that is uploading; queue behind it instead
+                if (flushRunning) ExistingWorkPolicy.APPEND_OR_REPLACE else ExistingWorkPolicy.REPLACE
+            }
 
             val constraints = Constraints.Builder()
                 .setRequiredNetworkType(NetworkType.CONNECTED)
@@ -34,49 +81,109 @@ class SMSStatusUpdateWorker(context: Context, workerParams: WorkerParameters) :
 
             val workRequest = OneTimeWorkRequest.Builder(SMSStatusUpdateWorker::class.java)
                 .setConstraints(constraints)
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
                 .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
-                .setInputData(inputData)
                 .build()
 
-            val uniqueWorkName = "sms_status_${smsDTO.status}_${System.currentTimeMillis()}"
             WorkManager.getInstance(context)
-                .beginUniqueWork(uniqueWorkName, ExistingWorkPolicy.REPLACE, workRequest)
-                .enqueue()
-
-            Log.d(TAG, "Work enqueued for SMS status update - ID: ${smsDTO.smsId}")
+                .enqueueUniqueWork(FLUSH_WORK_NAME, policy, workRequest)
         }
     }
 
     override fun doWork(): Result {
-        val deviceId = inputData.getString(KEY_DEVICE_ID)
-        val apiKey = inputData.getString(KEY_API_KEY)
-        val smsDtoJson = inputData.getString(KEY_SMS_DTO)
-        val retryCount = inputData.getInt(KEY_RETRY_COUNT, 0)
-
-        if (deviceId == null || apiKey == null || smsDtoJson == null) {
-            Log.e(TAG, "Missing required parameters")
-            return Result.failure()
+        val outbox = getOutbox(applicationContext)
+        synchronized(SMSStatusUpdateWorker) {
+            flushRunning = true
+            scheduledFlushAt = Long.MAX_VALUE
         }
+        try {
+            migrateLegacyInput(outbox)
 
-        if (retryCount >= MAX_RETRIES) {
-            Log.e(TAG, "Maximum retry count reached for SMS status update")
-            return Result.failure()
-        }
+            val deviceId = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_DEVICE_ID_KEY, ""
+            ) ?: ""
+            val apiKey = SharedPreferenceHelper.getSharedPreferenceString(
+                applicationContext, AppConstants.SHARED_PREFS_API_KEY_KEY, ""
+            ) ?: ""
+            if (deviceId.isEmpty() || apiKey.isEmpty()) {
+                Log.e(TAG, "Device ID or API key not found, keeping ${outbox.size()} status updates")
+                return Result.success()
+            }
 
-        val smsDTO = Gson().fromJson(smsDtoJson, SMSDTO::class.java)
+            var uploaded = 0
+            while (!isStopped) {
+                val batch = outbox.peekBatch(BATCH_SIZE)
+                if (batch.isEmpty()) break
+                if (!upload(outbox, batch, deviceId, apiKey)) {
+                    if (runAttemptCount >= MAX_RETRIES) {
+                        Log.e(TAG, "Maximum retry count reached, ${outbox.size()} status updates stay buffered")
+                        return Result.failure()
+                    }
+                    return Result.retry()
+                }
+                uploaded += batch.size
+            }
+            Log.d(TAG, "Status outbox flushed - uploaded: $uploaded, remaining: ${outbox.size()}")
+        } finally {
+            synchronized(SMSStatusUpdateWorker) { flushRunning = false }
+        }
+        // pick up anything added after the last batch was taken
+        if (!isStopped) scheduleFlush(applicationContext)
+        return Result.success()
+    }
 
+    private fun upload(outbox: StatusOutbox, batch: List<UploadBuffer.Pending<SMSDTO>>, deviceId: String, apiKey: String): Boolean {
+        val body = SMSStatusBatchDTO().apply { updates = batch.map { it.item } }
         return try {
-            val response = ApiManager.getApiService().updateSMSStatus(deviceId, apiKey, smsDTO).execute()
-            if (response.isSuccessful) {
-                Log.d(TAG, "SMS status updated successfully - ID: ${smsDTO.smsId}, Status: ${smsDTO.status}")
-                Result.success()
-            } else {
-                Log.e(TAG, "Failed to update SMS status. Response code: ${response.code()}")
-                Result.retry()
+            val response = ApiManager.getApiService().updateSMSStatusBulk(deviceId, apiKey, body).execute()
+            when {
+                response.isSuccessful -> {
+                    // updates the server rejected (e.g. unknown SMS) would be rejected again
+                    response.body()?.data?.results?.filter { !it.success }?.forEach {
+                        Log.w(TAG, "Status update rejected - ID: ${it.smsId}, error: ${it.error}")
+                    }
+                    outbox.ack(batch)
+                    markUploaded(batch)
+                    true
+                }
+                response.code() == 404 -> uploadOneByOne(outbox, batch, deviceId, apiKey)
+                else -> {
+                    Log.e(TAG, "Failed to upload status batch. Response code: ${response.code()}")
+                    false
+                }
             }
         } catch (e: IOException) {
             Log.e(TAG, "API call failed: ${e.message}")
-            Result.retry()
+            false
         }
     }
+
+    /** Fallback for servers without the bulk endpoint. */
+    private fun uploadOneByOne(outbox: StatusOutbox, batch: List<UploadBuffer.Pending<SMSDTO>>, deviceId: String, apiKey: String): Boolean {
+        for (item in batch) {
+            val response = ApiManager.getApiService().updateSMSStatus(deviceId, apiKey, item.item).execute()
+            if (!response.isSuccessful && (response.code() >= 500 || response.code() == 429)) {
+                Log.e(TAG, "Failed to update SMS status. Response code: ${response.code()}")
+                return false
+            }
+            outbox.ack(listOf(item))
+            markUploaded(listOf(item))
+        }
+        return true
+    }
+
+    private fun markUploaded(batch: List<UploadBuffer.Pending<SMSDTO>>) {
+        MessageStore.acknowledgeOutgoing(applicationContext, batch.mapNotNull { it.item.smsId })
+        val now = System.currentTimeMillis()
+        for (pending in batch) {
+            val sms = pending.item
+            val statusAt = maxOf(sms.sentAtInMillis, sms.deliveredAtInMillis, sms.failedAtInMillis)
+            if (statusAt > 0) MessageLifecycle.SHARED.markUploaded(statusAt, now)
+        }
+    }
+
+    private fun migrateLegacyInput(outbox: StatusOutbox) {
+        val smsDtoJson = inputData.getString(KEY_SMS_DTO) ?: return
+        Gson().fromJson(smsDtoJson, SMSDTO::class.java)?.let { outbox.add(it) }
+    }
 }
@@ -1,88 +1,276 @@
 package com.vernu.sms.workers
 
+import android.app.NotificationChannel
+import android.app.NotificationManager
 import android.content.Context
+import android.content.pm.ServiceInfo
+import android.os.Build
+import android.telephony.SmsManager
 import android.util.Log
+import androidx.core.app.NotificationCompat
 import androidx.work.*
 import com.vernu.sms.AppConstants
+import com.vernu.sms.R
 import com.vernu.sms.TextBeeUtils
+import com.vernu.sms.helpers.MessageStore
 import com.vernu.sms.helpers.SMSHelper
+import com.vernu.sms.helpers.ScheduledSendHelper
 import com.vernu.sms.helpers.SharedPreferenceHelper
+import com.vernu.sms.helpers.SimRegistry
+import com.vernu.sms.metrics.MessageLifecycle
+import com.vernu.sms.queue.AckClockedPacer
+import com.vernu.sms.queue.AdaptivePacer
+import com.vernu.sms.queue.BalancedSimSelector
+import com.vernu.sms.queue.SendJob
+import com.vernu.sms.queue.SendJournal
+import com.vernu.sms.queue.SendQueue
+import com.vernu.sms.queue.SimSelector
+import com.vernu.sms.queue.SmsSink
+import com.vernu.sms.queue.TokenBucketPacer
+import java.io.File
 
+/**
+ * Single long-running worker that drains the on-disk [SendQueue]. Callers add
+ * jobs with [enqueue]; a worker is only scheduled when no drain is already
+ * running, so a bulk push costs one journal write and at most one work request.
+ */
 class SmsSendWorker(context: Context, workerParams: WorkerParameters) : Worker(context, workerParams) {
     companion object {
         private const val TAG = "SmsSendWorker"
         private const val QUEUE_NAME = "sms_send_queue"
+        private const val JOURNAL_FILE = "sms_send_queue.journal"
+        private const val NOTIFICATION_CHANNEL_ID = "smsSendQueueChannel"
+        private const val NOTIFICATION_ID = 2
 
+        // Input keys used by builds that enqueued one work request per recipient.
+        // Requests persisted by those builds are migrated into the journal on run.
         const val KEY_PHONE = "phone"
         const val KEY_MESSAGE = "message"
         const val KEY_SMS_ID = "sms_id"
         const val KEY_SMS_BATCH_ID = "sms_batch_id"
         const val KEY_SIM_SUBSCRIPTION_ID = "sim_subscription_id"
 
-        fun enqueue(
-            context: Context, phone: String, message: String,
-            smsId: String?, smsBatchId: String?, simSubscriptionId: Int?
-        ) {
-            val inputData = Data.Builder()
-                .putString(KEY_PHONE, phone)
-                .putString(KEY_MESSAGE, message)
-                .putString(KEY_SMS_ID, smsId)
-                .putString(KEY_SMS_BATCH_ID, smsBatchId)
-                .putInt(KEY_SIM_SUBSCRIPTION_ID, simSubscriptionId ?: -1)
-                .build()
-
-            val workRequest = OneTimeWorkRequest.Builder(SmsSendWorker::class.java)
-                .setInputData(inputData)
-                .build()
+        @Volatile
+        private var queue: SendQueue? = null
 
+        @Volatile
+        private var rateLimiter: TokenBucketPacer? = null
+
+        @Volatile
+        private var pacer: AdaptivePacer? = null
+
+        @Volatile
+        private var sendWindow: AckClockedPacer? = null
+
+        @JvmStatic
+        fun getQueue(context: Context): SendQueue =
+            queue ?: synchronized(this) {
+                queue ?: SendQueue(
+                    SendJournal(File(context.applicationContext.filesDir, JOURNAL_FILE))
+                ).also { queue = it }
+            }
+
+        /**
+         * Per-SIM rate limiter shared by every drain in this process. Burst and
+         * interval come from the send burst / send delay settings.
+         */
+        @JvmStatic
+        fun getRateLimiter(context: Context): TokenBucketPacer =
+            rateLimiter ?: synchronized(this) {
+                val appContext = context.applicationContext
+                rateLimiter ?: TokenBucketPacer {
+                    TokenBucketPacer.Config(
+                        burst = SharedPreferenceHelper.getSharedPreferenceInt(
+                            appContext, AppConstants.SHARED_PREFS_SMS_SEND_BURST_KEY,
+                            AppConstants.DEFAULT_SMS_SEND_BURST
+                        ).coerceIn(1, 100),
+                        intervalMillis = SharedPreferenceHelper.getSharedPreferenceInt(
+                            appContext, AppConstants.SHARED_PREFS_SMS_SEND_DELAY_SECONDS_KEY,
+                            AppConstants.DEFAULT_SMS_SEND_DELAY_SECONDS
+                        ).coerceIn(0, 3600) * 1000L
+                    )
+                }.also { rateLimiter = it }
+            }
+
+        /** The configured rate limit plus backoff on carrier congestion. */
+        @JvmStatic
+        fun getPacer(context: Context): AdaptivePacer =
+            pacer ?: synchronized(this) {
+                pacer ?: AdaptivePacer(getRateLimiter(context)).also { pacer = it }
+            }
+
+        /**
+         * What the queue drains with: [getPacer], plus a limit on the messages
+         * per SIM still waiting for their SMS_SENT result, so each result
+         * releases the next send. Window and timeout come from settings.
+         */
+        @JvmStatic
+        fun getSendWindow(context: Context): AckClockedPacer =
+            sendWindow ?: synchronized(this) {
+                val appContext = context.applicationContext
+                sendWindow ?: AckClockedPacer(getPacer(context)) {
+                    AckClockedPacer.Settings(
+                        window = SharedPreferenceHelper.getSharedPreferenceInt(
+                            appContext, AppConstants.SHARED_PREFS_SMS_SEND_WINDOW_KEY,
+                            AppConstants.DEFAULT_SMS_SEND_WINDOW
+                        ).coerceIn(1, 32),
+                        timeoutMillis = SharedPreferenceHelper.getSharedPreferenceInt(
+                            appContext, AppConstants.SHARED_PREFS_SMS_SENT_TIMEOUT_SECONDS_KEY,
+                            AppConstants.DEFAULT_SMS_SENT_TIMEOUT_SECONDS
+                        ).coerceIn(1, 600) * 1000L
+                    )
+                }.also { sendWindow = it }
+            }
+
+        /**
+         * Feeds the SMS_SENT result of a queued message back into the queue.
+         * Returns true if the message was put back for another attempt after a
+         * limit-exceeded or no-service error; the caller then skips reporting it
+         * as failed.
+         */
+        @JvmStatic
+        fun onSentResult(context: Context, smsId: String?, resultCode: Int): Boolean {
+            if (smsId == null) return false
+            val congested = resultCode == SmsManager.RESULT_ERROR_LIMIT_EXCEEDED ||
+                resultCode == SmsManager.RESULT_ERROR_NO_SERVICE
+            val sendQueue = getQueue(context)
+            // the throttled send never reached the recipient, so the resend is not a duplicate
+            val requeued = sendQueue.onSentResult(smsId, congested, getSendWindow(context)) {
+                SMSHelper.forgetSent(context, it.smsId)
+            }
+            if (!requeued) return false
+            if (!sendQueue.isDraining()) scheduleDrain(context)
+            return true
+        }
+
+        @JvmStatic
+        fun enqueue(context: Context, jobs: List<SendJob>) {
+            if (jobs.isEmpty()) return
+            // stored before the journal and scheduled sends take them, so neither
+            // holds a job the message store is missing
+            MessageStore.recordOutgoing(context, jobs)
+            // jobs due after the bucket in progress wait for their alarm, off the queue
+            val now = System.currentTimeMillis()
+            val (later, due) = jobs.partition { ScheduledSendHelper.isScheduled(it, now) }
+            ScheduledSendHelper.schedule(context, later)
+            // a scheduled message is timed again once its alarm puts it in the queue
+            later.forEach { MessageLifecycle.SHARED.forget(it.smsId) }
+            if (due.isEmpty()) return
+            val sendQueue = getQueue(context)
+            if (sendQueue.enqueue(due)) {
+                scheduleDrain(context)
+            }
+            MessageLifecycle.SHARED.markAll(due.map { it.smsId }.distinct(), MessageLifecycle.Stage.ENQUEUED)
+            Log.d(TAG, "Enqueued ${due.size} SMS for sending (pending: ${sendQueue.size()})")
+        }
+
+        private fun scheduleDrain(context: Context) {
+            val workRequest = OneTimeWorkRequest.Builder(SmsSendWorker::class.java).build()
             WorkManager.getInstance(context)
-                .beginUniqueWork(QUEUE_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, workRequest)
-                .enqueue()
+                .enqueueUniqueWork(QUEUE_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, workRequest)
+        }
+    }
+
+    private val balancedSelector = BalancedSimSelector(
+        { SimRegistry.getActiveSubscriptionIds(applicationContext) }, getPacer(applicationContext),
+        gate = getSendWindow(applicationContext)
+    )
 
-            Log.d(TAG, "SMS enqueued for sending - ID: $smsId, Phone: $phone")
+    private val selector = SimSelector { job ->
+        val strategy = SharedPreferenceHelper.getSharedPreferenceString(
+            applicationContext, AppConstants.SHARED_PREFS_SIM_STRATEGY_KEY, AppConstants.SIM_STRATEGY_PREFERRED
+        )
+        if (strategy == AppConstants.SIM_STRATEGY_BALANCED) {
+            balancedSelector.select(job)
+        } else {
+            resolveSim(applicationContext, job.simSubscriptionId ?: -1) ?: SimSelector.DEFAULT_SIM
+        }
+    }
+
+    private val sink = SmsSink { job, simSubscriptionId ->
+        MessageLifecycle.SHARED.mark(job.smsId, MessageLifecycle.Stage.DISPATCHED)
+        if (simSubscriptionId != SimSelector.DEFAULT_SIM) {
+            SMSHelper.sendSMSFromSpecificSim(
+                job.phone, job.message, simSubscriptionId, job.smsId, job.smsBatchId ?: "", applicationContext
+            )
+        } else {
+            SMSHelper.sendSMS(job.phone, job.message, job.smsId, job.smsBatchId ?: "", applicationContext)
         }
     }
 
     override fun doWork(): Result {
-        val phone = inputData.getString(KEY_PHONE)
+        val context = applicationContext
+        val sendQueue = getQueue(context)
+        migrateLegacyInput(sendQueue)
+
+        if (sendQueue.size() == 0) return Result.success()
+        promoteToForeground()
+
+        // if the drain is cut short WorkManager reschedules this worker; anything
+        // enqueued after the drain went idle has already scheduled a follow-up run
+        val dispatched = sendQueue.drain(sink, selector, getSendWindow(context)) { isStopped }
+        Log.d(TAG, "Send queue drain finished - dispatched: $dispatched, remaining: ${sendQueue.size()}")
+
+        return Result.success()
+    }
+
+    private fun migrateLegacyInput(sendQueue: SendQueue) {
+        val phone = inputData.getString(KEY_PHONE) ?: return
         val message = inputData.getString(KEY_MESSAGE)
         val smsId = inputData.getString(KEY_SMS_ID)
-        val smsBatchId = inputData.getString(KEY_SMS_BATCH_ID)
+        if (message == null || smsId == null) {
+            Log.e(TAG, "Missing required parameters in legacy send request")
+            return
+        }
         val simSubscriptionId = inputData.getInt(KEY_SIM_SUBSCRIPTION_ID, -1)
+        sendQueue.enqueue(
+            listOf(
+                SendJob(
+                    phone = phone,
+                    message = message,
+                    smsId = smsId,
+                    smsBatchId = inputData.getString(KEY_SMS_BATCH_ID),
+                    simSubscriptionId = simSubscriptionId.takeIf { it != -1 }
+                )
+            )
+        )
+    }
 
-        if (phone == null || message == null || smsId == null) {
-            Log.e(TAG, "Missing required parameters")
-            return Result.failure()
+    private fun promoteToForeground() {
+        try {
+            setForegroundAsync(createForegroundInfo()).get()
+        } catch (e: Exception) {
+            // not allowed from the background on API 31+ without an FCM priority grant;
+            // the drain still runs, WorkManager just may stop it earlier
+            Log.w(TAG, "Could not run send queue in foreground: ${e.message}")
         }
+    }
 
+    private fun createForegroundInfo(): ForegroundInfo {
         val context = applicationContext
-        val resolvedSim = resolveSim(context, simSubscriptionId)
-
-        if (resolvedSim != null) {
-            SMSHelper.sendSMSFromSpecificSim(phone, message, resolvedSim, smsId, smsBatchId ?: "", context)
-        } else {
-            SMSHelper.sendSMS(phone, message, smsId, smsBatchId ?: "", context)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            val notificationManager = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+            notificationManager.createNotificationChannel(
+                NotificationChannel(
+                    NOTIFICATION_CHANNEL_ID, "SMS send queue", NotificationManager.IMPORTANCE_LOW
+                ).apply { setShowBadge(false) }
+            )
         }
-
-        val delaySeconds = SharedPreferenceHelper.getSharedPreferenceInt(
-            context, AppConstants.SHARED_PREFS_SMS_SEND_DELAY_SECONDS_KEY,
-            AppConstants.DEFAULT_SMS_SEND_DELAY_SECONDS
-        ).coerceIn(0, 3600)
-
-        if (delaySeconds > 0) {
-            try {
-                Thread.sleep(delaySeconds * 1000L)
-            } catch (e: InterruptedException) {
-                Thread.currentThread().interrupt()
-            }
+        val notification = NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID)
+            .setContentTitle("TextBee")
+            .setContentText("Sending queued SMS")
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setOngoing(true)
+            .build()
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ForegroundInfo(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_REMOTE_MESSAGING)
+        } else {
+            ForegroundInfo(NOTIFICATION_ID, notification)
         }
-
-        return Result.success()
     }
 
     private fun resolveSim(context: Context, backendSimId: Int): Int? {
         if (backendSimId != -1 && TextBeeUtils.isValidSubscriptionId(context, backendSimId)) {
-            Log.d(TAG, "Using backend-provided SIM subscription ID: $backendSimId")
             return backendSimId
         }
 
@@ -90,7 +278,6 @@ class SmsSendWorker(context: Context, workerParams: WorkerParameters) : Worker(c
             context, AppConstants.SHARED_PREFS_PREFERRED_SIM_KEY, -1
         )
         if (preferredSim != -1 && TextBeeUtils.isValidSubscriptionId(context, preferredSim)) {
-            Log.d(TAG, "Using app-preferred SIM subscription ID: $preferredSim")
             return preferredSim
         }
 
@@ -0,0 +1,26 @@
+package com.vernu.sms.database.local
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class SmsSearchTest {
+    @Test
+    fun everyWordBecomesARequiredPrefix() {
+        assertEquals("lunch* tom*", SmsSearch.matchQuery("  Lunch tom"))
+        assertEquals("1* 555* 0100*", SmsSearch.matchQuery("+1 (555) 0100"))
+        assertEquals("café* привет*", SmsSearch.matchQuery("Café, Привет"))
+    }
+
+    @Test
+    fun operatorsAndQuotesAreSearchedAsText() {
+        assertEquals("a* or* b*", SmsSearch.matchQuery("a OR b"))
+        assertEquals("not* near* x*", SmsSearch.matchQuery("\"NOT\" NEAR -x*"))
+    }
+
+    @Test
+    fun nothingSearchableGivesNoQuery() {
+        assertNull(SmsSearch.matchQuery(""))
+        assertNull(SmsSearch.matchQuery(" +-*\" "))
+    }
+}
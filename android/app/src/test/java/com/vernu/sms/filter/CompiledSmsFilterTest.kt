@@ -0,0 +1,165 @@
+package com.vernu.sms.filter
+
+import com.vernu.sms.models.SMSFilterRule
+import com.vernu.sms.models.SMSFilterRule.FilterTarget
+import com.vernu.sms.models.SMSFilterRule.MatchType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class CompiledSmsFilterTest {
+    @Test
+    fun matchesEachMatchTypeAndTarget() {
+        val filter = CompiledSmsFilter.compile(
+            listOf(
+                SMSFilterRule("+15550001", MatchType.EXACT),
+                SMSFilterRule("BANK", MatchType.STARTS_WITH),
+                SMSFilterRule("-promo", MatchType.ENDS_WITH, FilterTarget.BOTH),
+                SMSFilterRule("Unsubscribe", MatchType.CONTAINS, FilterTarget.MESSAGE, caseSensitive = true)
+            )
+        )
+
+        assertTrue(filter.matchesAny("+15550001", null))
+        assertFalse(filter.matchesAny("+155500012", null))
+        assertTrue(filter.matchesAny("bankofx", null))
+        assertTrue(filter.matchesAny("x", "Deals-PROMO"))
+        assertTrue(filter.matchesAny("x", "Reply to Unsubscribe now"))
+        assertFalse(filter.matchesAny("x", "reply to unsubscribe now"))
+        // a MESSAGE rule never looks at the sender
+        assertFalse(filter.matchesAny("Unsubscribe", null))
+    }
+
+    @Test
+    fun phoneNumberRulesMatchEveryNotationOfTheNumber() {
+        val filter = CompiledSmsFilter.compile(listOf(SMSFilterRule("+1 (555) 123-4567", MatchType.PHONE_NUMBER)))
+
+        assertTrue(filter.matchesAny("+15551234567", null))
+        assertTrue(filter.matchesAny("5551234567", null))
+        assertTrue(filter.matchesAny("0015551234567", null))
+        assertTrue(filter.matchesAny("555-123-4567", null))
+        // same national digits under another country code
+        assertFalse(filter.matchesAny("+445551234567", null))
+        assertFalse(filter.matchesAny("1234567x", null))
+        assertFalse(filter.matchesAny("BANK", null))
+    }
+
+    @Test
+    fun regexRulesAreFoundAnywhereAndHonourCase() {
+        val filter = CompiledSmsFilter.compile(
+            listOf(
+                SMSFilterRule("code[: ]+\\d{6}", MatchType.REGEX, FilterTarget.MESSAGE),
+                SMSFilterRule("^VX-", MatchType.REGEX, FilterTarget.SENDER, caseSensitive = true),
+                SMSFilterRule("(unclosed", MatchType.REGEX, FilterTarget.BOTH)
+            )
+        )
+
+        assertEquals(2, filter.ruleCount)
+        assertTrue(filter.matchesAny("x", "Your CODE: 123456"))
+        assertFalse(filter.matchesAny("x", "Your code: 12345"))
+        assertTrue(filter.matchesAny("VX-BANK", null))
+        assertFalse(filter.matchesAny("vx-bank", null))
+    }
+
+    @Test
+    fun pathologicalRegexIsCutOffAndThenAbandoned() {
+        // backtracking the nested repetition check does not catch; `(a|aa)+$` would
+        // be another on ART, but the JDK matcher memoizes that loop
+        val patterns = listOf(".*.*.*.*.*x", "\\d*\\d*\\d*x")
+        val abandoned = mutableListOf<String>()
+        val filter = CompiledSmsFilter.compile(
+            patterns.map { SMSFilterRule(it, MatchType.REGEX, FilterTarget.MESSAGE) },
+            regexTimeoutMillis = 50
+        ) { abandoned.add(it) }
+        val text = "a".repeat(200) + "1".repeat(200) + "!"
+
+        assertEquals(patterns.size, filter.ruleCount)
+        val start = System.nanoTime()
+        repeat(5) { assertFalse(filter.matchesAny("x", text)) }
+        val millis = (System.nanoTime() - start) / 1_000_000
+
+        assertEquals(patterns, abandoned)
+        assertTrue("took ${millis}ms", millis < 2_000)
+    }
+
+    @Test
+    fun nestedRepetitionIsRefused() {
+        for (regex in listOf("(a+)+b", "(.*,){10}x", "^(\\w+\\s?)*$", "((a)+)+", "(?:x|(y*))+")) {
+            assertTrue(regex, RegexSet.hasNestedRepetition(regex))
+        }
+        for (regex in listOf("(ab)+", "(\\d{3}-)+", "code[: ]+\\d{6}", "^(?:foo|bar)+$", "[(]+", "\\(a+\\)+", "(a+)?")) {
+            assertFalse(regex, RegexSet.hasNestedRepetition(regex))
+        }
+        assertFalse(SMSFilterRule("(a+)+b", MatchType.REGEX).isValidPattern())
+    }
+
+    @Test
+    fun agreesWithRuleByRuleMatching() {
+        val random = Random(42)
+        val alphabet = "abAB01+"
+        fun text(maxLength: Int) = (0 until random.nextInt(maxLength + 1))
+            .map { alphabet[random.nextInt(alphabet.length)] }.joinToString("")
+
+        repeat(200) {
+            val rules = (0 until random.nextInt(1, 12)).map {
+                SMSFilterRule(
+                    pattern = if (random.nextInt(20) == 0) null else text(4),
+                    matchType = if (random.nextInt(20) == 0) null else MatchType.values().random(random),
+                    filterTarget = FilterTarget.values().random(random),
+                    caseSensitive = random.nextBoolean()
+                )
+            }
+            val filter = CompiledSmsFilter.compile(rules)
+            repeat(50) {
+                val sender = if (random.nextInt(10) == 0) null else text(8)
+                val message = if (random.nextInt(10) == 0) null else text(12)
+                assertEquals(
+                    "rules=${rules.map { "${it.pattern}/${it.matchType}/${it.filterTarget}/${it.caseSensitive}" }} " +
+                        "sender=$sender message=$message",
+                    rules.any { it.matches(sender, message) },
+                    filter.matchesAny(sender, message)
+                )
+            }
+        }
+    }
+
+    @Test
+    fun incrementalUpdatesAgreeWithRuleByRuleMatching() {
+        val random = Random(7)
+        val alphabet = "abAB01+"
+        fun text(maxLength: Int) = (0 until random.nextInt(maxLength + 1))
+            .map { alphabet[random.nextInt(alphabet.length)] }.joinToString("")
+        fun rule() = SMSFilterRule(
+            pattern = text(3),
+            matchType = MatchType.values().random(random),
+            filterTarget = FilterTarget.values().random(random),
+            caseSensitive = random.nextBoolean()
+        )
+
+        repeat(50) {
+            val rules = MutableList(random.nextInt(8)) { rule() }
+            val filter = CompiledSmsFilter.compile(rules)
+            repeat(20) {
+                // removing a rule that is also present twice must keep the other copy
+                val removed = rules.shuffled(random).take(random.nextInt(rules.size + 1))
+                val added = List(random.nextInt(4)) { if (random.nextBoolean() && rules.isNotEmpty()) rules.random(random) else rule() }
+                removed.forEach { rules.remove(it) }
+                rules.addAll(added)
+                filter.update(added, removed)
+
+                repeat(20) {
+                    val sender = text(8)
+                    val message = text(12)
+                    assertEquals(
+                        "rules=${rules.map { "${it.pattern}/${it.matchType}/${it.filterTarget}/${it.caseSensitive}" }} " +
+                            "sender=$sender message=$message",
+                        rules.any { it.matches(sender, message) },
+                        filter.matchesAny(sender, message)
+                    )
+                }
+            }
+            assertEquals(CompiledSmsFilter.compile(rules).ruleCount, filter.ruleCount)
+        }
+    }
+}
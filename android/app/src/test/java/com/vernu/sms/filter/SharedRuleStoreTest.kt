@@ -0,0 +1,128 @@
+package com.vernu.sms.filter
+
+import com.vernu.sms.models.SMSFilterRule
+import com.vernu.sms.models.SMSFilterRule.FilterTarget
+import com.vernu.sms.models.SMSFilterRule.MatchType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SharedRuleStoreTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun store() = SharedRuleStore(tmp.root.resolve("lists"))
+
+    private fun id(n: Int) = "64b0000000000000%08x".format(n)
+
+    private fun add(n: Int, pattern: String = "spam$n") =
+        SharedRuleStore.Change(id(n), SMSFilterRule(pattern, MatchType.CONTAINS, FilterTarget.MESSAGE))
+
+    private fun removal(n: Int) = SharedRuleStore.Change(id(n), null)
+
+    @Test
+    fun deltasSurviveARestartAndRepeatedPagesAreSkipped() {
+        val store = store()
+        store.apply("list1", listOf(add(1), add(2), add(3, "+1 555 123 4567")), 1)
+        val delta = store.apply("list1", listOf(add(3, "+1 555 123 4567"), removal(1), removal(9)), 2)
+
+        // entry 3 was already held and entry 9 never was
+        assertEquals(0, delta.added.size)
+        assertEquals(listOf("spam1"), delta.removed.map { it.pattern })
+
+        val reopened = store()
+        assertEquals(mapOf("list1" to 2L), reopened.versions())
+        assertEquals(setOf("spam2", "+1 555 123 4567"), reopened.rules().map { it.pattern }.toSet())
+        assertEquals(MatchType.CONTAINS, reopened.rules().first().matchType)
+        assertEquals(FilterTarget.MESSAGE, reopened.rules().first().filterTarget)
+        assertEquals(2, reopened.ruleCount)
+    }
+
+    @Test
+    fun aTornTailLosesOnlyTheChangeBeingWritten() {
+        store().apply("list1", listOf(add(1), add(2)), 1)
+        val file = tmp.root.resolve("lists/list1.rules")
+        val complete = file.length()
+        store().apply("list1", listOf(add(3)), 2)
+        file.writeBytes(file.readBytes().copyOf(file.length().toInt() - 3))
+
+        val reopened = store()
+        assertEquals(mapOf("list1" to 1L), reopened.versions())
+        assertEquals(2, reopened.ruleCount)
+        assertEquals(complete, file.length())
+
+        // the next change is appended where the complete ones end
+        reopened.apply("list1", listOf(add(3)), 2)
+        assertEquals(3, store().ruleCount)
+    }
+
+    @Test
+    fun removalsAreCompactedAway() {
+        val store = store()
+        for (version in 1L..30L) {
+            val base = version.toInt() * 100
+            store.apply("list1", (0 until 100).map { add(base + it) }, version)
+            if (version > 1) store.apply("list1", (0 until 100).map { removal(base - 100 + it) }, version)
+        }
+        val file = tmp.root.resolve("lists/list1.rules")
+
+        assertEquals(100, store.ruleCount)
+        // 100 live entries, where the log of every change would hold 5900 records
+        assertTrue("${file.length()} bytes", file.length() < 100 * 30 * 20)
+        assertEquals(100, store().ruleCount)
+        assertEquals(mapOf("list1" to 30L), store().versions())
+    }
+
+    @Test
+    fun removedListsAreForgotten() {
+        val store = store()
+        store.apply("list1", listOf(add(1)), 1)
+        store.apply("list2", listOf(add(2)), 4)
+
+        assertEquals(listOf("spam1"), store.remove("list1").map { it.pattern })
+        assertEquals(mapOf("list2" to 4L), store().versions())
+    }
+
+    @Test
+    fun listModesSurviveARestart() {
+        val store = store()
+        store.apply("list1", listOf(add(1)), 1)
+        store.apply("list2", listOf(add(2)), 1)
+
+        assertTrue(store.setAllowList("list2", true))
+        assertFalse(store.setAllowList("list2", true))
+        // a list with no entries yet changes no matcher
+        assertFalse(store.setAllowList("list3", true))
+        assertTrue(store.apply("list2", listOf(add(3)), 2).allowList)
+        assertFalse(store.apply("list1", listOf(add(4)), 2).allowList)
+
+        val reopened = store()
+        assertEquals(setOf("spam1", "spam4"), reopened.rules(allowList = false).map { it.pattern }.toSet())
+        assertEquals(setOf("spam2", "spam3"), reopened.rules(allowList = true).map { it.pattern }.toSet())
+        assertTrue(reopened.isAllowList("list3"))
+        assertEquals(mapOf("list1" to 2L, "list2" to 2L, "list3" to 0L), reopened.versions())
+
+        assertTrue(reopened.setAllowList("list2", false))
+        assertEquals(4, store().rules(allowList = false).size)
+    }
+
+    @Test
+    fun appliedDeltasKeepACompiledFilterInStep() {
+        val store = store()
+        val filter = CompiledSmsFilter.compile(emptyList())
+        fun apply(changes: List<SharedRuleStore.Change>, version: Long) {
+            val delta = store.apply("list1", changes, version)
+            filter.update(delta.added, delta.removed)
+        }
+
+        apply(listOf(add(1, "win"), add(2, "prize")), 1)
+        assertTrue(filter.matchesAny("x", "you WIN"))
+        apply(listOf(removal(1)), 2)
+        assertFalse(filter.matchesAny("x", "you WIN"))
+        assertTrue(filter.matchesAny("x", "a prize"))
+        assertEquals(filter.ruleCount, CompiledSmsFilter.compile(store().rules()).ruleCount)
+    }
+}
@@ -0,0 +1,29 @@
+package com.vernu.sms.metrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LatencyHistogramTest {
+    @Test
+    fun percentilesReportBucketUpperBounds() {
+        val histogram = LatencyHistogram()
+        repeat(90) { histogram.record(40) }
+        repeat(9) { histogram.record(400) }
+        histogram.record(45_000, failed = true)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(100L, snapshot.count)
+        assertEquals(1L, snapshot.failures)
+        assertEquals(50L, snapshot.percentileMillis(0.5))
+        assertEquals(50L, snapshot.percentileMillis(0.9))
+        assertEquals(500L, snapshot.percentileMillis(0.99))
+        assertEquals(45_000L, snapshot.percentileMillis(1.0))
+    }
+
+    @Test
+    fun valuesBeyondTheLastBoundUseTheMaximum() {
+        val histogram = LatencyHistogram()
+        histogram.record(120_000)
+        assertEquals(120_000L, histogram.snapshot().percentileMillis(0.5))
+    }
+}
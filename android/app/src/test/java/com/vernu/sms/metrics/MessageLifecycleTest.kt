@@ -0,0 +1,97 @@
+package com.vernu.sms.metrics
+
+import com.vernu.sms.metrics.MessageLifecycle.Stage
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class MessageLifecycleTest {
+    private var now = 1_000_000L
+    private val lifecycle = MessageLifecycle(capacity = 16) { now }
+
+    private fun stats(stage: Stage) = lifecycle.snapshot().first { it.stage == stage }
+
+    @Test
+    fun eachStageIsTimedFromTheOneBeforeIt() {
+        lifecycle.mark("sms1", Stage.PUSHED, atMillis = now - 400)
+        lifecycle.mark("sms1", Stage.RECEIVED)
+        now += 20
+        lifecycle.mark("sms1", Stage.ENQUEUED)
+        now += 2_000
+        lifecycle.mark("sms1", Stage.DISPATCHED)
+        now += 30
+        lifecycle.mark("sms1", Stage.SUBMITTED)
+        now += 3_000
+        lifecycle.mark("sms1", Stage.SENT)
+
+        assertEquals(400L, stats(Stage.RECEIVED).sincePrevious.maxMillis)
+        assertEquals(2_000L, stats(Stage.DISPATCHED).sincePrevious.maxMillis)
+        assertEquals(3_000L, stats(Stage.SENT).sincePrevious.maxMillis)
+        assertEquals(5_450L, stats(Stage.SENT).sinceStart.maxMillis)
+        assertEquals(1, lifecycle.tracked())
+
+        now += 10_000
+        lifecycle.mark("sms1", Stage.DELIVERED)
+        assertEquals(10_000L, stats(Stage.DELIVERED).sincePrevious.maxMillis)
+        assertEquals(0, lifecycle.tracked())
+    }
+
+    @Test
+    fun aRequeuedMessageIsTimedAgainFromTheQueue() {
+        lifecycle.mark("sms1", Stage.ENQUEUED)
+        now += 100
+        lifecycle.mark("sms1", Stage.DISPATCHED)
+        // throttled by the carrier and put back
+        now += 500
+        lifecycle.mark("sms1", Stage.ENQUEUED)
+        now += 60_000
+        lifecycle.mark("sms1", Stage.DISPATCHED)
+
+        val dispatched = stats(Stage.DISPATCHED)
+        assertEquals(2L, dispatched.sincePrevious.count)
+        assertEquals(60_000L, dispatched.sincePrevious.maxMillis)
+        assertEquals(60_600L, dispatched.sinceStart.maxMillis)
+        assertEquals(2L, stats(Stage.ENQUEUED).count)
+    }
+
+    @Test
+    fun failuresEndTracking() {
+        lifecycle.mark("sms1", Stage.DISPATCHED)
+        lifecycle.mark("sms1", Stage.SUBMITTED, failed = true)
+
+        assertEquals(1L, stats(Stage.SUBMITTED).sincePrevious.failures)
+        assertEquals(0, lifecycle.tracked())
+    }
+
+    @Test
+    fun onlyTheNewestMessagesAreTracked() {
+        for (i in 0 until 100) lifecycle.mark("sms$i", Stage.ENQUEUED)
+        assertEquals(16, lifecycle.tracked())
+
+        // the oldest message was dropped, so its dispatch starts it over unrecorded
+        lifecycle.mark("sms0", Stage.DISPATCHED)
+        lifecycle.mark("sms99", Stage.DISPATCHED)
+        assertEquals(1L, stats(Stage.DISPATCHED).sincePrevious.count)
+    }
+
+    @Test
+    fun lastMinuteCountsSlideWithTheClock() {
+        lifecycle.markAll(listOf("a", "b", "c"), Stage.RECEIVED)
+        now += 30_000
+        lifecycle.mark("d", Stage.RECEIVED)
+        assertEquals(4, stats(Stage.RECEIVED).lastMinute)
+
+        now += 45_000
+        assertEquals(1, stats(Stage.RECEIVED).lastMinute)
+        assertEquals(4L, stats(Stage.RECEIVED).count)
+    }
+
+    @Test
+    fun uploadsAreTimedFromTheStatusTheyCarry() {
+        lifecycle.markUploaded(now - 1_500)
+        lifecycle.markUploaded(now - 200)
+
+        val uploaded = stats(Stage.UPLOADED)
+        assertEquals(2L, uploaded.sincePrevious.count)
+        assertEquals(1_500L, uploaded.sincePrevious.maxMillis)
+    }
+}
@@ -0,0 +1,54 @@
+package com.vernu.sms.models
+
+import com.vernu.sms.queue.SendPriority
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class SMSEnvelopeTest {
+    @Test
+    fun decodesEveryRecipientOfEveryGroup() {
+        val json = """{"v":2,"b":"batch1","g":[""" +
+            """{"m":"hi","r":[["s1","+1"],["s2","+2"]]},""" +
+            """{"m":"bye","s":7,"r":[["s3","+3"]]}]}"""
+
+        val jobs = SMSEnvelope.decode(json)
+
+        assertEquals(listOf("s1", "s2", "s3"), jobs.map { it.smsId })
+        assertEquals(listOf("+1", "+2", "+3"), jobs.map { it.phone })
+        assertEquals(listOf("hi", "hi", "bye"), jobs.map { it.message })
+        assertNull(jobs[0].simSubscriptionId)
+        assertEquals(7, jobs[2].simSubscriptionId)
+        jobs.forEach { assertEquals("batch1", it.smsBatchId) }
+    }
+
+    @Test
+    fun batchIdMayFollowTheGroups() {
+        val jobs = SMSEnvelope.decode("""{"g":[{"m":"hi","r":[["s1","+1"]]}],"x":1,"b":"batch1","v":2}""")
+        assertEquals("batch1", jobs.single().smsBatchId)
+    }
+
+    @Test
+    fun groupsCarryTheirPriority() {
+        val jobs = SMSEnvelope.decode("""{"v":2,"b":"b","g":[{"m":"otp","p":"high","r":[["s1","+1"]]},{"m":"ad","r":[["s2","+2"]]}]}""")
+        assertEquals(listOf(SendPriority.HIGH, null), jobs.map { it.priority })
+        assertEquals(SendPriority.NORMAL, jobs[1].lane)
+    }
+
+    @Test
+    fun newerVersionsAreDecodedWithoutTheirNewFields() {
+        val jobs = SMSEnvelope.decode("""{"v":3,"b":"batch1","z":{"k":[1]},"g":[{"m":"hi","q":"x","r":[["s1","+1",9]]}]}""")
+        assertEquals(listOf("s1"), jobs.map { it.smsId })
+        assertEquals("+1", jobs.single().phone)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsOlderVersions() {
+        SMSEnvelope.decode("""{"v":1,"b":"batch1","g":[]}""")
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsAnEnvelopeWithoutAVersion() {
+        SMSEnvelope.decode("""{"b":"batch1","g":[]}""")
+    }
+}
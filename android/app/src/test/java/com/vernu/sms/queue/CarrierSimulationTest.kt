@@ -0,0 +1,121 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * Runs a large batch through the send queue against a simulated carrier, on a
+ * virtual clock, to compare the fixed-delay pacing with the adaptive pacer.
+ */
+class CarrierSimulationTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    /**
+     * Carrier that accepts at most [limit] messages per SIM in any sliding
+     * [windowMillis] and answers the rest with RESULT_ERROR_LIMIT_EXCEEDED.
+     */
+    private class FakeCarrier(private val limit: Int, private val windowMillis: Long) {
+        private val accepted = HashMap<Int, ArrayDeque<Long>>()
+
+        fun submit(sim: Int, nowMillis: Long): Boolean {
+            val window = accepted.getOrPut(sim) { ArrayDeque() }
+            while (window.isNotEmpty() && nowMillis - window.first() >= windowMillis) window.removeFirst()
+            if (window.size >= limit) return false
+            window.addLast(nowMillis)
+            return true
+        }
+    }
+
+    private class Outcome(val delivered: Int, val failed: Int, val completionMillis: Long)
+
+    private val batchSize = 300
+    private val configuredDelayMillis = 1000L
+    private val carrier get() = FakeCarrier(limit = 20, windowMillis = 60_000)
+
+    private fun jobs() = (1..batchSize).map {
+        SendJob(phone = "+1555${it.toString().padStart(7, '0')}", message = "hello $it", smsId = "sms$it")
+    }
+
+    private fun configured() = TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = configuredDelayMillis) }
+
+    /** Every rejection is final, as before the adaptive pacer. */
+    private fun runFixedDelay(): Outcome {
+        var now = 0L
+        val carrier = carrier
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        queue.enqueue(jobs())
+        var delivered = 0
+        var failed = 0
+        var last = 0L
+        queue.drain(SmsSink { _, sim ->
+            if (carrier.submit(sim, now)) delivered++ else failed++
+            last = now
+            true
+        }, SimSelector { SimSelector.DEFAULT_SIM }, configured())
+        return Outcome(delivered, failed, last)
+    }
+
+    /** Rejections are fed back through [SendQueue.onSentResult]. */
+    private fun runAdaptive(): Outcome {
+        var now = 0L
+        val carrier = carrier
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        val pacer = AdaptivePacer(configured())
+        queue.enqueue(jobs())
+        var delivered = 0
+        var failed = 0
+        var last = 0L
+        queue.drain(SmsSink { job, sim ->
+            if (carrier.submit(sim, now)) {
+                delivered++
+                queue.onSentResult(job.smsId, false, pacer)
+            } else if (!queue.onSentResult(job.smsId, true, pacer)) {
+                failed++
+            }
+            last = now
+            true
+        }, SimSelector { SimSelector.DEFAULT_SIM }, pacer)
+        return Outcome(delivered, failed, last)
+    }
+
+    @Test
+    fun adaptivePacingCompletesBatchThatFixedDelayBurnsThrough() {
+        val fixed = runFixedDelay()
+        val adaptive = runAdaptive()
+
+        // at 1 message/s the carrier takes 20 in each minute and rejects the rest for good
+        assertEquals(batchSize, fixed.delivered + fixed.failed)
+        assertEquals(20 * 5, fixed.delivered)
+        assertTrue(fixed.completionMillis < batchSize * configuredDelayMillis)
+
+        // adaptive pacing settles below the carrier limit and retries what was rejected
+        assertEquals(batchSize, adaptive.delivered + adaptive.failed)
+        assertEquals(0, adaptive.failed)
+        // the carrier cannot take the batch faster than 20 a minute, and the
+        // pacer should not need more than twice that
+        val carrierMinimumMillis = (batchSize / 20 - 1) * 60_000L
+        assertTrue("${adaptive.completionMillis}ms", adaptive.completionMillis >= carrierMinimumMillis)
+        assertTrue("${adaptive.completionMillis}ms", adaptive.completionMillis <= 2 * carrierMinimumMillis)
+    }
+
+    @Test
+    fun rateRecoversAfterQuietPeriods() {
+        val settings = AdaptivePacer.Settings(increasePerMinute = 10.0, quietPeriodMillis = 60_000, maxRatePerMinute = 60.0)
+        val pacer = AdaptivePacer(configured(), settings)
+        for (t in 0L until 60_000L step 1000L) pacer.onDispatch(1, t)
+        pacer.onCongestion(1, 59_500)
+        assertEquals(30.0, pacer.ratePerMinute(1, 59_500)!!, 0.01)
+        assertEquals(1000L, pacer.delayMillis(1, 60_000))
+
+        // a second error from the same burst does not halve the rate again
+        pacer.onCongestion(1, 61_000)
+        assertEquals(30.0, pacer.ratePerMinute(1, 61_000)!!, 0.01)
+
+        assertEquals(50.0, pacer.ratePerMinute(1, 180_000)!!, 0.01)
+        assertEquals(null, pacer.ratePerMinute(1, 240_000))
+    }
+}
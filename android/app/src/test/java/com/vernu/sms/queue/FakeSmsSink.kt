@@ -0,0 +1,14 @@
+package com.vernu.sms.queue
+
+/** In-memory stand-in for SmsManager: records every job it is handed. */
+class FakeSmsSink(private val failWhen: (SendJob) -> Boolean = { false }) : SmsSink {
+    val sent = mutableListOf<SendJob>()
+    val sims = mutableListOf<Int>()
+
+    override fun send(job: SendJob, simSubscriptionId: Int): Boolean {
+        if (failWhen(job)) throw IllegalStateException("radio failure for ${job.smsId}")
+        sent.add(job)
+        sims.add(simSubscriptionId)
+        return true
+    }
+}
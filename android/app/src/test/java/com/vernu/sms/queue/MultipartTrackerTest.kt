@@ -0,0 +1,67 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.queue.MultipartTracker.Companion.RESULT_OK
+import com.vernu.sms.queue.MultipartTracker.Phase
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MultipartTrackerTest {
+    private val limitExceeded = 5
+
+    @Test
+    fun reportsOnceWhenAllPartsAreIn() {
+        val tracker = MultipartTracker(sentTimeoutMillis = 1000, deliveryTimeoutMillis = 5000)
+        tracker.register("sms1", "b1", 3, 42, 0)
+        assertNull(tracker.onPartResult("sms1", "b1", Phase.SENT, 0, 3, 42, RESULT_OK, 10))
+        assertNull(tracker.onPartResult("sms1", "b1", Phase.SENT, 0, 3, 42, RESULT_OK, 11))
+        assertNull(tracker.onPartResult("sms1", "b1", Phase.SENT, 2, 3, 42, RESULT_OK, 12))
+        val sent = tracker.onPartResult("sms1", "b1", Phase.SENT, 1, 3, 42, RESULT_OK, 13)
+        assertNotNull(sent)
+        assertTrue(sent!!.allOk)
+        assertEquals(42, sent.requestCode)
+
+        for (part in 0 until 2) assertNull(tracker.onPartResult("sms1", "b1", Phase.DELIVERED, part, 3, 42, RESULT_OK, 20))
+        val delivered = tracker.onPartResult("sms1", "b1", Phase.DELIVERED, 2, 3, 42, RESULT_OK, 21)
+        assertEquals(Phase.DELIVERED, delivered!!.phase)
+        assertTrue(delivered.allOk)
+    }
+
+    @Test
+    fun partialFailureIsVisible() {
+        val tracker = MultipartTracker(sentTimeoutMillis = 1000, deliveryTimeoutMillis = 5000)
+        tracker.register("sms1", null, 2, 1, 0)
+        tracker.onPartResult("sms1", null, Phase.SENT, 0, 2, 1, RESULT_OK, 1)
+        val outcome = tracker.onPartResult("sms1", null, Phase.SENT, 1, 2, 1, limitExceeded, 2)!!
+        assertEquals(1, outcome.okParts)
+        assertEquals(1, outcome.failedParts)
+        assertEquals(limitExceeded, outcome.firstErrorCode)
+        // no delivery phase is awaited for a message that did not fully go out
+        assertTrue(tracker.expire(10_000).isEmpty())
+    }
+
+    @Test
+    fun timeoutResolvesMissingParts() {
+        val tracker = MultipartTracker(sentTimeoutMillis = 1000, deliveryTimeoutMillis = 5000)
+        tracker.register("sms1", null, 3, 1, 0)
+        tracker.onPartResult("sms1", null, Phase.SENT, 0, 3, 1, RESULT_OK, 1)
+        assertTrue(tracker.expire(999).isEmpty())
+        val outcome = tracker.expire(1000).single()
+        assertTrue(outcome.timedOut)
+        assertEquals(2, outcome.missingParts)
+        // a late part does not produce a second outcome
+        assertNull(tracker.onPartResult("sms1", null, Phase.SENT, 1, 3, 1, RESULT_OK, 1001))
+    }
+
+    @Test
+    fun silentCarrierDeliveryTimeoutIsNotReported() {
+        val tracker = MultipartTracker(sentTimeoutMillis = 1000, deliveryTimeoutMillis = 5000)
+        tracker.register("sms1", null, 2, 1, 0)
+        tracker.onPartResult("sms1", null, Phase.SENT, 0, 2, 1, RESULT_OK, 1)
+        tracker.onPartResult("sms1", null, Phase.SENT, 1, 2, 1, RESULT_OK, 2)
+        assertTrue(tracker.expire(6000).isEmpty())
+        assertEquals(0, tracker.tracked())
+    }
+}
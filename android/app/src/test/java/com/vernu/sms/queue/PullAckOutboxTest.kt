@@ -0,0 +1,30 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class PullAckOutboxTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun outbox() = PullAckOutbox(tmp.root.resolve("acks"))
+
+    @Test
+    fun unacknowledgedIdsSurviveARestart() {
+        val outbox = outbox()
+        outbox.add("sms1")
+        outbox.add("sms2")
+        outbox.ack(outbox.peekBatch(1))
+        outbox.close()
+
+        // sms2 is offered again after its lease expired; it is already queued
+        val reopened = outbox()
+        assertFalse(reopened.contains("sms1"))
+        assertTrue(reopened.contains("sms2"))
+        assertEquals(listOf("sms2"), reopened.peekBatch(10).map { it.item })
+    }
+}
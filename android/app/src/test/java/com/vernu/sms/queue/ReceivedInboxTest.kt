@@ -0,0 +1,44 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.dtos.SMSDTO
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class ReceivedInboxTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private fun inbox() = ReceivedInbox(tmp.root.resolve("inbox"))
+
+    private fun sms(i: Int) = SMSDTO().apply {
+        sender = "+1555000$i"
+        message = "code $i"
+        receivedAtInMillis = 1000L + i
+        fingerprint = "fp$i"
+    }
+
+    @Test
+    fun repeatedBroadcastIsStoredOnce() {
+        val inbox = inbox()
+        assertTrue(inbox.add(sms(1)))
+        assertFalse(inbox.add(sms(1)))
+        assertEquals(1, inbox.size())
+    }
+
+    @Test
+    fun retryOnlyResendsUnacknowledgedItems() {
+        val inbox = inbox()
+        for (i in 1..5) inbox.add(sms(i))
+        val batch = inbox.peekBatch(3)
+        // the server accepted the first and third message of the batch
+        inbox.ack(listOf(batch[0], batch[2]))
+        inbox.close()
+
+        val reopened = inbox()
+        assertEquals(listOf("fp2", "fp4", "fp5"), reopened.peekBatch(10).map { it.key })
+    }
+}
@@ -0,0 +1,70 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class RecentKeyIndexTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private var now = 1_000_000L
+
+    private fun index(capacity: Int = 64) =
+        RecentKeyIndex(tmp.root.resolve("dedup.index"), windowMillis = 60_000, capacity = capacity) { now }
+
+    @Test
+    fun duplicatesAreRecognisedAfterARestart() {
+        val index = index()
+        assertTrue(index.markSeen("fp1"))
+        assertFalse(index.markSeen("fp1"))
+        index.close()
+
+        // the process was killed and the broadcast is delivered again
+        val reopened = index()
+        assertFalse(reopened.markSeen("fp1"))
+        assertTrue(reopened.markSeen("fp2"))
+    }
+
+    @Test
+    fun aForgottenKeyIsNewAgain() {
+        val index = index()
+        index.markSeen("sms1")
+        index.markSeen("sms2")
+        index.forget("sms1")
+
+        assertTrue(index.markSeen("sms1"))
+        assertFalse(index.markSeen("sms2"))
+    }
+
+    @Test
+    fun entriesExpireAfterTheWindow() {
+        val index = index()
+        index.markSeen("fp1")
+        now += 59_999
+        assertFalse(index.markSeen("fp1"))
+        now += 60_000
+        assertTrue(index.markSeen("fp1"))
+    }
+
+    @Test
+    fun aFullTableForgetsTheOldestEntries() {
+        val index = index(capacity = 16)
+        for (i in 0 until 1000) {
+            now++
+            assertTrue(index.markSeen("fp$i"))
+        }
+        // the most recent keys are still held, and the file did not grow
+        assertFalse(index.markSeen("fp999"))
+        assertEquals(16L + 16 * 16, tmp.root.resolve("dedup.index").length())
+    }
+
+    @Test
+    fun aFileForAnotherCapacityIsStartedOver() {
+        index(capacity = 64).markSeen("fp1")
+        assertTrue(index(capacity = 128).markSeen("fp1"))
+    }
+}
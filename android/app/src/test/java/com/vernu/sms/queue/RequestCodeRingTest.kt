@@ -0,0 +1,78 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RequestCodeRingTest {
+    @Test
+    fun collidingSmsIdsGetDistinctCodes() {
+        // "Aa" and "BB" share a hashCode, so the old (smsId + "_sent").hashCode() codes collided
+        assertEquals(("Aa" + "_sent").hashCode(), ("BB" + "_sent").hashCode())
+        val ring = RequestCodeRing(base = 100, capacity = 8)
+        assertNotEquals(ring.acquire("Aa"), ring.acquire("BB"))
+    }
+
+    @Test
+    fun codesInFlightAreNotReused() {
+        val ring = RequestCodeRing(base = 100, capacity = 3)
+        val a = ring.acquire("a")
+        val b = ring.acquire("b")
+        val c = ring.acquire("c")
+        assertTrue(ring.release(b, "b"))
+        assertEquals(b, ring.acquire("d"))
+        assertEquals(setOf(100, 101, 102), setOf(a, b, c))
+        assertEquals(0L, ring.evictions)
+    }
+
+    @Test
+    fun staleReleaseIsIgnoredAndFullRingEvictsOldest() {
+        val ring = RequestCodeRing(base = 0, capacity = 2)
+        val a = ring.acquire("a")
+        ring.acquire("b")
+        assertEquals(a, ring.acquire("c"))
+        assertEquals(1L, ring.evictions)
+        assertFalse(ring.release(a, "a"))
+        assertEquals("c", ring.ownerOf(a))
+        assertEquals(2, ring.inFlight())
+    }
+
+    @Test
+    fun anExhaustedRingNeverGivesTwoMessagesTheSameStatusIntent() {
+        val ring = RequestCodeRing(base = 0, capacity = 2)
+        val held = listOf("a", "b").map { it to ring.acquire(it) }
+        // a bulk send outruns the ring: "c" and "d" share codes with messages still in flight
+        val shared = listOf("c", "d").map { it to ring.acquire(it) }
+
+        assertEquals(held.map { it.second }, shared.map { it.second })
+        assertEquals(2L, ring.evictions)
+        val uris = (held + shared).flatMap { (owner, code) ->
+            (0 until 2).map { part -> RequestCodeRing.statusUri(code, owner, part) }
+        }
+        assertEquals(uris.size, uris.toSet().size)
+        // ids that only differ once encoded stay apart too
+        assertNotEquals(RequestCodeRing.statusUri(0, "a/1", 0), RequestCodeRing.statusUri(0, "a", 1))
+    }
+
+    @Test
+    fun codesNeverReleasedAreFreeAgainAfterTheHoldLimit() {
+        var now = 0L
+        val ring = RequestCodeRing(base = 0, capacity = 2, maxHoldMillis = 1000) { now }
+        // single-part sends on a SIM without delivery reports never release
+        val a = ring.acquire("a")
+        now = 500
+        val b = ring.acquire("b")
+
+        now = 1000
+        assertEquals(a, ring.acquire("c"))
+        assertEquals(0L, ring.evictions)
+        assertEquals(1L, ring.expirations)
+        // b is still within its hold, so a full ring evicts
+        ring.acquire("d")
+        assertEquals(1L, ring.evictions)
+        assertEquals(2, ring.inFlight())
+        assertFalse(ring.release(b, "b"))
+    }
+}
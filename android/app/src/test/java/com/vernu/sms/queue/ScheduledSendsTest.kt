@@ -0,0 +1,76 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class ScheduledSendsTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val bucket = 60_000L
+
+    private fun job(id: String, sendAt: Long) =
+        SendJob(phone = "+15550001", message = "hi", smsId = id, sendAtMillis = sendAt)
+
+    @Test
+    fun aScheduledBurstNeedsOneWakeupPerBucket() {
+        val scheduled = ScheduledSends(SendJournal(tmp.newFile()), bucket) { 0L }
+        // 3000 messages spread over 10:00:05 to 10:02:35, in three one-minute buckets
+        val start = 36_000_000L
+        scheduled.schedule((0 until 3000).map { job("sms$it", start + 5_000 + it * 50L) })
+
+        val wakeups = mutableListOf<Long>()
+        var released = 0
+        while (true) {
+            val at = scheduled.nextWakeupAt() ?: break
+            wakeups.add(at)
+            val due = scheduled.takeDue(at)
+            assertEquals(due.sortedBy { it.sendAtMillis }, due)
+            released += due.size
+        }
+        assertEquals(listOf(start + 5_000, start + 60_000, start + 120_000), wakeups)
+        assertEquals(3000, released)
+    }
+
+    @Test
+    fun nothingIsReleasedEarly() {
+        val scheduled = ScheduledSends(SendJournal(tmp.newFile()), bucket) { 0L }
+        scheduled.schedule(listOf(job("a", 120_000), job("b", 130_000), job("c", 200_000)))
+
+        assertEquals(0, scheduled.takeDue(119_999).size)
+        assertEquals(listOf("a", "b"), scheduled.takeDue(120_000).map { it.smsId })
+        assertEquals(200_000L, scheduled.nextWakeupAt())
+    }
+
+    @Test
+    fun scheduledJobsSurviveARestart() {
+        val file = tmp.newFile()
+        val first = ScheduledSends(SendJournal(file), bucket) { 0L }
+        first.schedule(listOf(job("a", 120_000), job("b", 300_000)))
+        first.takeDue(120_000)
+
+        val restarted = ScheduledSends(SendJournal(file), bucket) { 0L }
+        assertEquals(1, restarted.size())
+        assertEquals(listOf("b"), restarted.takeDue(300_000).map { it.smsId })
+        assertNull(restarted.nextWakeupAt())
+        assertEquals(0L, file.length())
+    }
+
+    @Test
+    fun theSendQueueHoldsAJobUntilItsSendTime() {
+        var now = 100_000L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        queue.enqueue(listOf(job("later", 130_000), job("now", 0)))
+        val sentAt = mutableListOf<Pair<String, Long>>()
+
+        queue.drain(SmsSink { job, _ -> sentAt.add(job.smsId to now); true }, SimSelector { SimSelector.DEFAULT_SIM },
+            TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = 0) })
+        // the job due now is not held up behind the scheduled one
+        assertEquals(listOf("now" to 100_000L, "later" to 130_000L), sentAt)
+        assertTrue(queue.size() == 0)
+    }
+}
@@ -0,0 +1,293 @@
+package com.vernu.sms.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class SendQueueTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val noDelay = object : SendPacer {
+        override fun delayMillis(simKey: Int, nowMillis: Long) = 0L
+        override fun onDispatch(simKey: Int, nowMillis: Long) {}
+    }
+
+    private val pinned = SimSelector { it.simSubscriptionId ?: SimSelector.DEFAULT_SIM }
+
+    private fun jobs(n: Int, batch: String = "b1") = (1..n).map {
+        SendJob(phone = "+1555000$it", message = "hello $it", smsId = "sms$it", smsBatchId = batch)
+    }
+
+    @Test
+    fun drainsInEnqueueOrder() {
+        val queue = SendQueue(SendJournal(tmp.newFile()))
+        assertTrue(queue.enqueue(jobs(5)))
+
+        val sink = FakeSmsSink()
+        assertEquals(5, queue.drain(sink, pinned, noDelay))
+        assertEquals(listOf("sms1", "sms2", "sms3", "sms4", "sms5"), sink.sent.map { it.smsId })
+        assertEquals(0, queue.size())
+    }
+
+    @Test
+    fun pendingJobsSurviveRestart() {
+        val file = tmp.newFile()
+        val first = SendQueue(SendJournal(file))
+        first.enqueue(jobs(4))
+        val firstSink = FakeSmsSink()
+        first.drain(firstSink, pinned, noDelay) { firstSink.sent.size >= 2 }
+
+        val restarted = SendQueue(SendJournal(file))
+        val sink = FakeSmsSink()
+        restarted.drain(sink, pinned, noDelay)
+        assertEquals(listOf("sms3", "sms4"), sink.sent.map { it.smsId })
+    }
+
+    @Test
+    fun tornTailRecordIsIgnored() {
+        val file = tmp.newFile()
+        SendQueue(SendJournal(file)).enqueue(jobs(2))
+        file.appendText("E\t{\"seq\":3,\"phone\":\"+1")
+
+        val sink = FakeSmsSink()
+        SendQueue(SendJournal(file)).drain(sink, pinned, noDelay)
+        assertEquals(2, sink.sent.size)
+    }
+
+    @Test
+    fun throwingSinkDoesNotBlockQueue() {
+        val queue = SendQueue(SendJournal(tmp.newFile()))
+        queue.enqueue(jobs(3))
+        val sink = FakeSmsSink { it.smsId == "sms2" }
+        assertEquals(3, queue.drain(sink, pinned, noDelay))
+        assertEquals(listOf("sms1", "sms3"), sink.sent.map { it.smsId })
+    }
+
+    @Test
+    fun enqueueDuringDrainDoesNotAskForSecondDrainer() {
+        val queue = SendQueue(SendJournal(tmp.newFile()))
+        queue.enqueue(jobs(1))
+        var askedForDrainer = true
+        val sink = SmsSink { job, _ ->
+            if (job.smsId == "sms1") askedForDrainer = queue.enqueue(jobs(1, "b2").map { j -> j.copy(smsId = "late") })
+            true
+        }
+        assertEquals(2, queue.drain(sink, pinned, noDelay))
+        assertFalse(askedForDrainer)
+        assertTrue(queue.enqueue(emptyList()))
+    }
+
+    @Test
+    fun theSelectorRunsWithoutHoldingUpEnqueue() {
+        val queue = SendQueue(SendJournal(tmp.newFile()))
+        queue.enqueue(jobs(1))
+        var enqueuedMeanwhile = false
+        // stands in for a selector that blocks on preferences or the SIM registry
+        val slowSelector = SimSelector { job ->
+            if (job.smsId == "sms1") {
+                val other = Thread { queue.enqueue(jobs(1, "b2").map { it.copy(smsId = "late") }) }
+                other.start()
+                other.join(2_000)
+                enqueuedMeanwhile = !other.isAlive
+            }
+            SimSelector.DEFAULT_SIM
+        }
+        val sink = FakeSmsSink()
+        assertEquals(2, queue.drain(sink, slowSelector, noDelay))
+        assertTrue(enqueuedMeanwhile)
+    }
+
+    @Test
+    fun journalIsCompactedOnceEmpty() {
+        val file = tmp.newFile()
+        val queue = SendQueue(SendJournal(file))
+        queue.enqueue(jobs(50))
+        queue.drain(FakeSmsSink(), pinned, noDelay)
+        assertEquals(0L, file.length())
+        assertFalse(File(file.path + ".tmp").exists())
+    }
+
+    @Test
+    fun tokenBucketAllowsBurstThenPacesPerInterval() {
+        val pacer = TokenBucketPacer { TokenBucketPacer.Config(burst = 2, intervalMillis = 1000) }
+        assertEquals(0L, pacer.delayMillis(1, 0))
+        pacer.onDispatch(1, 0)
+        pacer.onDispatch(1, 0)
+        assertEquals(1000L, pacer.delayMillis(1, 0))
+        assertEquals(400L, pacer.delayMillis(1, 600))
+        assertEquals(0L, pacer.delayMillis(1, 1000))
+        assertEquals(0L, pacer.delayMillis(2, 0))
+    }
+
+    @Test
+    fun simsArePacedIndependently() {
+        var now = 0L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        queue.enqueue(jobs(3).map { it.copy(simSubscriptionId = 1) } +
+            jobs(3).map { it.copy(smsId = "b${it.smsId}", simSubscriptionId = 2) })
+        val pacer = TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = 5000) }
+        val sink = FakeSmsSink()
+        val sentAt = mutableListOf<Long>()
+        val recording = SmsSink { job, sim -> sentAt.add(now); sink.send(job, sim) }
+
+        assertEquals(6, queue.drain(recording, pinned, pacer))
+        // both SIMs go out together every interval instead of one after another
+        assertEquals(listOf(0L, 0L, 5000L, 5000L, 10000L, 10000L), sentAt)
+        assertEquals(listOf(1, 2, 1, 2, 1, 2), sink.sims)
+    }
+
+    @Test
+    fun balancedSelectorSpreadsUnpinnedJobsAndHonoursPinnedSim() {
+        var now = 1000L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        val pacer = AdaptivePacer(TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = 1000) })
+        val selector = BalancedSimSelector({ listOf(7, 8) }, pacer, { now })
+        queue.enqueue(jobs(4) + jobs(2, "pinned").map { it.copy(smsId = "p${it.smsId}", simSubscriptionId = 8) })
+        val sink = FakeSmsSink()
+
+        assertEquals(6, queue.drain(sink, selector, pacer))
+        val sentOn = sink.sent.map { it.smsId }.zip(sink.sims)
+        assertTrue(sentOn.filter { it.first.startsWith("p") }.all { it.second == 8 })
+        assertEquals(setOf(7, 8), sentOn.filterNot { it.first.startsWith("p") }.map { it.second }.toSet())
+        // six messages at one per second per SIM, instead of six seconds on one SIM
+        assertTrue(now - 1000L < 5000L)
+    }
+
+    @Test
+    fun balancedSelectorAvoidsRecentlyThrottledSim() {
+        val pacer = AdaptivePacer(TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = 0) })
+        val selector = BalancedSimSelector({ listOf(7, 8) }, pacer, { 5000L })
+        pacer.onDispatch(8, 1000)
+        pacer.onCongestion(7, 2000)
+        assertEquals(8, selector.select(jobs(1).first()))
+    }
+
+    @Test
+    fun sentResultsClockTheNextDispatch() {
+        var now = 0L
+        val confirmAt = ArrayDeque<Pair<Long, String>>()
+        lateinit var queue: SendQueue
+        val window = AckClockedPacer(noDelay) { AckClockedPacer.Settings(window = 2, timeoutMillis = 30_000) }
+        // a modem that confirms one message every 300ms, in order
+        queue = SendQueue(SendJournal(tmp.newFile()), { now }) { millis ->
+            val next = confirmAt.firstOrNull()
+            now = if (next != null) minOf(now + millis, next.first) else now + millis
+            while (confirmAt.isNotEmpty() && confirmAt.first().first <= now) {
+                queue.onSentResult(confirmAt.removeFirst().second, false, window)
+            }
+        }
+        queue.enqueue(jobs(20))
+        val sentAt = mutableListOf<Long>()
+        val sink = SmsSink { job, _ ->
+            sentAt.add(now)
+            confirmAt.addLast(maxOf(now, confirmAt.lastOrNull()?.first ?: 0L) + 300 to job.smsId)
+            true
+        }
+
+        assertEquals(20, queue.drain(sink, pinned, window))
+        // two go out at once, then each confirmation releases the next
+        assertEquals(listOf(0L, 0L, 300L, 600L, 900L), sentAt.take(5))
+        assertEquals(5400L, sentAt.last())
+        assertEquals(0L, window.timeouts)
+    }
+
+    @Test
+    fun aMissingSentResultHoldsTheWindowOnlyUntilTheTimeout() {
+        var now = 0L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        val window = AckClockedPacer(noDelay) { AckClockedPacer.Settings(window = 1, timeoutMillis = 5000) }
+        queue.enqueue(jobs(3))
+        val sentAt = mutableListOf<Long>()
+
+        assertEquals(3, queue.drain(SmsSink { _, _ -> sentAt.add(now); true }, pinned, window))
+        assertEquals(listOf(0L, 5000L, 10000L), sentAt)
+        assertEquals(2L, window.timeouts)
+        assertEquals(1, window.outstanding(SimSelector.DEFAULT_SIM, now))
+    }
+
+    @Test
+    fun aJobThatNeverReachedTheRadioFreesItsSlot() {
+        var now = 0L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        val window = AckClockedPacer(noDelay) { AckClockedPacer.Settings(window = 1, timeoutMillis = 5000) }
+        queue.enqueue(jobs(3))
+
+        assertEquals(3, queue.drain(SmsSink { _, _ -> false }, pinned, window))
+        assertEquals(0L, now)
+        assertEquals(0, window.outstanding(SimSelector.DEFAULT_SIM, now))
+    }
+
+    @Test
+    fun aThrottledSendGoesOutAgainPastTheSentLedger() {
+        val queue = SendQueue(SendJournal(tmp.newFile()))
+        val ledger = RecentKeyIndex(tmp.root.resolve("sent.index"), windowMillis = 3_600_000)
+        val sink = FakeSmsSink()
+        var duplicates = 0
+        // as SMSHelper does: an smsId already in the ledger is dropped
+        val guarded = SmsSink { job, sim ->
+            if (!ledger.markSeen(job.smsId)) {
+                duplicates++
+                false
+            } else {
+                sink.send(job, sim)
+            }
+        }
+        queue.enqueue(jobs(1))
+        queue.drain(guarded, pinned, noDelay)
+
+        // the carrier answers with RESULT_ERROR_LIMIT_EXCEEDED
+        assertTrue(queue.onSentResult("sms1", congested = true, pacer = noDelay) { ledger.forget(it.smsId) })
+        queue.drain(guarded, pinned, noDelay)
+        assertFalse(queue.onSentResult("sms1", congested = false, pacer = noDelay))
+
+        assertEquals(listOf("sms1", "sms1"), sink.sent.map { it.smsId })
+        assertEquals(listOf(0, 1), sink.sent.map { it.attempt })
+        assertEquals(0, duplicates)
+        // a redelivered push after the successful resend is still caught
+        queue.enqueue(jobs(1))
+        queue.drain(guarded, pinned, noDelay)
+        assertEquals(1, duplicates)
+    }
+
+    @Test
+    fun highPriorityJobsOvertakeABulkBatchBetweenMessages() {
+        var now = 0L
+        val queue = SendQueue(SendJournal(tmp.newFile()), { now }, { now += it })
+        val pacer = TokenBucketPacer { TokenBucketPacer.Config(burst = 1, intervalMillis = 5000) }
+        queue.enqueue(jobs(100, "bulk").map { it.copy(smsId = "bulk${it.smsId}", priority = SendPriority.BULK) })
+        val sink = FakeSmsSink()
+        val recording = SmsSink { job, sim ->
+            // the OTP arrives while the bulk batch is going out
+            if (sink.sent.size == 3) queue.enqueue(listOf(jobs(1).single().copy(smsId = "otp", priority = SendPriority.HIGH)))
+            sink.send(job, sim)
+        }
+
+        queue.drain(recording, pinned, pacer) { sink.sent.size >= 6 }
+        assertEquals("otp", sink.sent[4].smsId)
+        assertEquals(listOf("bulksms1", "bulksms2", "bulksms3", "bulksms4"), sink.sent.take(4).map { it.smsId })
+
+        val lanes = queue.laneStats(now).associateBy { it.priority }
+        assertEquals(0, lanes.getValue(SendPriority.HIGH).depth)
+        assertEquals(1L, lanes.getValue(SendPriority.HIGH).waits.count)
+        assertEquals(5000L, lanes.getValue(SendPriority.HIGH).waits.maxMillis)
+        assertEquals(95, lanes.getValue(SendPriority.BULK).depth)
+        assertEquals(now, lanes.getValue(SendPriority.BULK).oldestWaitMillis)
+    }
+
+    @Test
+    fun priorityIsKeptAcrossARestart() {
+        val file = tmp.newFile()
+        SendQueue(SendJournal(file)).enqueue(
+            jobs(2).map { it.copy(priority = SendPriority.BULK) } + jobs(1).map { it.copy(smsId = "otp", priority = SendPriority.HIGH) }
+        )
+
+        val sink = FakeSmsSink()
+        SendQueue(SendJournal(file)).drain(sink, pinned, noDelay)
+        assertEquals(listOf("otp", "sms1", "sms2"), sink.sent.map { it.smsId })
+    }
+}
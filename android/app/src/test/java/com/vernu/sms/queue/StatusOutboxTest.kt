@@ -0,0 +1,94 @@
+package com.vernu.sms.queue
+
+import com.vernu.sms.dtos.SMSDTO
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class StatusOutboxTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private var now = 0L
+
+    private fun outbox(settings: UploadBuffer.Settings = UploadBuffer.Settings(flushSize = 3, maxAgeMillis = 1000)) =
+        StatusOutbox(tmp.root.resolve("outbox"), settings) { now }
+
+    private fun update(smsId: String, status: String, at: Long) = SMSDTO().apply {
+        this.smsId = smsId
+        smsBatchId = "batch"
+        this.status = status
+        when (status) {
+            "SENT" -> sentAtInMillis = at
+            "DELIVERED" -> deliveredAtInMillis = at
+            else -> failedAtInMillis = at
+        }
+    }
+
+    @Test
+    fun collapsesSupersededStates() {
+        val outbox = outbox()
+        outbox.add(update("sms1", "SENT", 10))
+        outbox.add(update("sms1", "DELIVERED", 20))
+        // a SENT broadcast arriving late does not undo delivery
+        outbox.add(update("sms1", "SENT", 30))
+
+        val pending = outbox.peekBatch(10).single().item
+        assertEquals("DELIVERED", pending.status)
+        assertEquals(10L, pending.sentAtInMillis)
+        assertEquals(20L, pending.deliveredAtInMillis)
+    }
+
+    @Test
+    fun duplicateReportsNeverReplaceTheSend() {
+        val outbox = outbox()
+        outbox.add(update("sms1", "SENT", 10))
+        // a redelivered push for sms1 was dropped by the sent ledger
+        outbox.add(SMSDTO().apply { smsId = "sms1"; status = "DUPLICATE" })
+
+        val pending = outbox.peekBatch(10).single().item
+        assertEquals("SENT", pending.status)
+        assertEquals(10L, pending.sentAtInMillis)
+    }
+
+    @Test
+    fun flushesBySizeOrAge() {
+        val outbox = outbox()
+        assertNull(outbox.flushDelayMillis())
+        outbox.add(update("sms1", "SENT", 0))
+        now = 400
+        assertEquals(600L, outbox.flushDelayMillis())
+        outbox.add(update("sms2", "SENT", 400))
+        outbox.add(update("sms3", "SENT", 400))
+        assertEquals(0L, outbox.flushDelayMillis())
+    }
+
+    @Test
+    fun ackKeepsUpdatesThatArrivedDuringUpload() {
+        val outbox = outbox()
+        outbox.add(update("sms1", "SENT", 1))
+        outbox.add(update("sms2", "SENT", 1))
+        val batch = outbox.peekBatch(10)
+        outbox.add(update("sms2", "DELIVERED", 2))
+        outbox.ack(batch)
+
+        assertEquals("DELIVERED", outbox.peekBatch(10).single().item.status)
+    }
+
+    @Test
+    fun pendingUpdatesSurviveRestart() {
+        val first = outbox()
+        for (i in 1..5) first.add(update("sms$i", "SENT", i.toLong()))
+        first.add(update("sms1", "FAILED", 9))
+        first.ack(first.peekBatch(2))
+        first.close()
+
+        val reopened = outbox()
+        assertEquals(listOf("sms3", "sms4", "sms5"), reopened.peekBatch(10).map { it.key })
+        reopened.ack(reopened.peekBatch(10))
+        reopened.close()
+        assertEquals(0, outbox().size())
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Compares page/limit (skip) and cursor paging of a device's message history,
+ * as GET /gateway/devices/:id/messages runs them, over a seeded local MongoDB.
+ *
+ *   MONGO_URI=mongodb://localhost:27017/textbee-bench pnpm bench:messages
+ *
+ * The first run seeds BENCH_MESSAGES (default 1,000,000) messages for one
+ * device plus as many for a second device, so that the index has to tell them
+ * apart; later runs reuse them. Use a throwaway database: the sms collection's
+ * indexes are synced to the schema.
+ */
+import mongoose, { Types } from 'mongoose'
+import { SMS, SMSSchema } from '../src/gateway/schemas/sms.schema'
+import { SMSType } from '../src/gateway/sms-type.enum'
+import {
+  MESSAGE_HISTORY_SORT,
+  formatMessageCursor,
+  messagesBefore,
+  parseMessageCursor,
+} from '../src/gateway/message-cursor'
+
+const MONGO_URI = process.env.MONGO_URI || 'mongodb://localhost:27017/textbee-bench'
+const MESSAGES = parseInt(process.env.BENCH_MESSAGES || '1000000', 10)
+const LIMIT = 50
+const PAGES = [1, 10, 100, 500, 2000, 10000]
+const RUNS = 7
+const SEED_BATCH = 10_000
+
+const BENCH_DEVICE = new Types.ObjectId('0000000000000000000000be')
+const OTHER_DEVICE = new Types.ObjectId('0000000000000000000000ff')
+
+async function seed(model: mongoose.Model<any>) {
+  const existing = await model.countDocuments({ device: BENCH_DEVICE })
+  if (existing >= MESSAGES) {
+    console.log(`Reusing ${existing} seeded messages`)
+    return
+  }
+  await model.deleteMany({ device: { $in: [BENCH_DEVICE, OTHER_DEVICE] } })
+  const start = Date.now() - MESSAGES * 1000
+  for (const device of [BENCH_DEVICE, OTHER_DEVICE]) {
+    for (let offset = 0; offset < MESSAGES; offset += SEED_BATCH) {
+      const batch = []
+      for (let i = offset; i < Math.min(offset + SEED_BATCH, MESSAGES); i++) {
+        const received = i % 4 === 0
+        // every 10th pair shares a createdAt, as a bulk send does
+        const createdAt = new Date(start + (i - (i % 10 === 1 ? 1 : 0)) * 1000)
+        batch.push({
+          device,
+          message: `Benchmark message ${i}`,
+          type: received ? SMSType.RECEIVED : SMSType.SENT,
+          [received ? 'sender' : 'recipient']: `+1555${String(i % 10_000).padStart(7, '0')}`,
+          status: received ? 'received' : 'delivered',
+          createdAt,
+          updatedAt: createdAt,
+        })
+      }
+      await model.collection.insertMany(batch, { ordered: false })
+      process.stdout.write(`\rSeeding ${device === BENCH_DEVICE ? 'bench' : 'other'} device: ${offset + batch.length}/${MESSAGES}`)
+    }
+    process.stdout.write('\n')
+  }
+}
+
+async function time(run: () => Promise<unknown>): Promise<number> {
+  const samples = []
+  for (let i = 0; i < RUNS; i++) {
+    const started = process.hrtime.bigint()
+    await run()
+    samples.push(Number(process.hrtime.bigint() - started) / 1e6)
+  }
+  samples.sort((a, b) => a - b)
+  return samples[Math.floor(samples.length / 2)]
+}
+
+async function examined(query: mongoose.Query<any, any>): Promise<string> {
+  const plan: any = await query.explain('executionStats')
+  const stats = plan.executionStats ?? plan[0]?.executionStats
+  return `${stats.totalKeysExamined}/${stats.totalDocsExamined}`
+}
+
+async function main() {
+  await mongoose.connect(MONGO_URI)
+  const model = mongoose.model(SMS.name, SMSSchema)
+  await seed(model)
+  await model.syncIndexes()
+
+  for (const type of [undefined, SMSType.RECEIVED]) {
+    const query: any = { device: BENCH_DEVICE }
+    if (type) {
+      query.type = type
+    }
+    console.log(`\nFilter: ${type ?? 'all'}, limit ${LIMIT}, median of ${RUNS} runs`)
+    console.log('page'.padStart(6), 'skip ms'.padStart(10), 'cursor ms'.padStart(10), '  keys/docs examined (skip | cursor)')
+
+    for (const page of PAGES) {
+      const skip = (page - 1) * LIMIT
+      // the cursor a client holds after reading the page before this one
+      const previous = skip > 0
+        ? await model.findOne(query, { createdAt: 1 }, { sort: MESSAGE_HISTORY_SORT, skip: skip - 1 }).lean()
+        : null
+      if (skip > 0 && !previous) {
+        break
+      }
+      const cursor = previous ? parseMessageCursor(formatMessageCursor(previous as any)) : null
+      const skipQuery = () => model.find(query, null, { sort: MESSAGE_HISTORY_SORT, limit: LIMIT + 1, skip }).lean()
+      const cursorQuery = () => model.find(
+        cursor ? { ...query, $and: [messagesBefore(cursor)] } : query,
+        null,
+        { sort: MESSAGE_HISTORY_SORT, limit: LIMIT + 1 },
+      ).lean()
+
+      const [skipped, seeked] = await Promise.all([skipQuery(), cursorQuery()])
+      if (JSON.stringify(skipped) !== JSON.stringify(seeked)) {
+        throw new Error(`Cursor page ${page} differs from skip page`)
+      }
+      const skipMs = await time(skipQuery)
+      const cursorMs = await time(cursorQuery)
+      console.log(
+        String(page).padStart(6),
+        skipMs.toFixed(2).padStart(10),
+        cursorMs.toFixed(2).padStart(10),
+        `  ${await examined(skipQuery())} | ${await examined(cursorQuery())}`,
+      )
+    }
+  }
+
+  await mongoose.disconnect()
+}
+
+main().catch(async (error) => {
+  console.error(error)
+  await mongoose.disconnect()
+  process.exit(1)
+})
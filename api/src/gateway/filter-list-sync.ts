@@ -0,0 +1,65 @@
+import { Types } from 'mongoose'
+
+/**
+ * Delta sync of shared filter lists. Devices keep each list locally together
+ * with the highest entry version they have applied, and page through the
+ * entries changed after it in (version, _id) order. A device without the list
+ * starts from version 0 and gets the live entries only.
+ */
+
+export const FILTER_LIST_SYNC_DEFAULT_PAGE_SIZE = 5000
+export const FILTER_LIST_SYNC_MAX_PAGE_SIZE = 10000
+
+/** Entries added or removed by one request, which is one version of the list. */
+export const FILTER_LIST_MAX_CHANGE_SIZE = 10000
+
+export const FILTER_LIST_MAX_ENTRIES = 200000
+
+export const FILTER_LIST_MAX_PATTERN_LENGTH = 512
+
+/** How long a change may take to write before another one can start. */
+export const FILTER_LIST_WRITE_LEASE_MS = 60 * 1000
+
+export function encodeFilterListCursor(entry: {
+  version: number
+  _id?: Types.ObjectId | string
+}): string {
+  return `${entry.version}_${entry._id}`
+}
+
+/** Returns undefined for a cursor this module did not produce. */
+export function decodeFilterListCursor(
+  cursor: string,
+): { version: number; id: Types.ObjectId } | undefined {
+  const [version, id] = String(cursor).split('_')
+  if (!/^\d+$/.test(version ?? '') || !Types.ObjectId.isValid(id ?? '')) {
+    return undefined
+  }
+  return { version: Number(version), id: new Types.ObjectId(id) }
+}
+
+/**
+ * Entries of the list a device at version `since` has not seen yet, up to the
+ * committed version `upTo`; a change still being written is left for the
+ * next sync.
+ */
+export function filterListChangesFilter(
+  filterListId: Types.ObjectId | string,
+  since: number,
+  upTo: number,
+  after?: { version: number; id: Types.ObjectId },
+): Record<string, any> {
+  return {
+    filterList: filterListId,
+    // removals only matter to a device that has the entries
+    ...(since > 0
+      ? { version: { $gt: since, $lte: upTo } }
+      : { version: { $lte: upTo }, deleted: false }),
+    ...(after && {
+      $or: [
+        { version: { $gt: after.version } },
+        { version: after.version, _id: { $gt: after.id } },
+      ],
+    }),
+  }
+}
@@ -0,0 +1,139 @@
+import {
+  Body,
+  Controller,
+  Delete,
+  Get,
+  HttpCode,
+  HttpStatus,
+  Param,
+  Post,
+  Request,
+  UseGuards,
+} from '@nestjs/common'
+import {
+  ApiBearerAuth,
+  ApiOperation,
+  ApiQuery,
+  ApiTags,
+} from '@nestjs/swagger'
+import { AuthGuard } from '../auth/guards/auth.guard'
+import { CanModifyDevice } from './guards/can-modify-device.guard'
+import { FilterListService } from './filter-list.service'
+import {
+  AddFilterListEntriesDTO,
+  CreateFilterListDTO,
+  RemoveFilterListEntriesDTO,
+} from './filter-list.dto'
+
+@ApiTags('gateway')
+@ApiBearerAuth()
+@Controller('gateway')
+export class FilterListController {
+  constructor(private readonly filterListService: FilterListService) {}
+
+  @ApiOperation({ summary: 'List shared SMS filter lists' })
+  @UseGuards(AuthGuard)
+  @Get('/filter-lists')
+  async getFilterLists(@Request() req) {
+    const data = await this.filterListService.getFilterListsForUser(req.user)
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Create a shared SMS filter list' })
+  @UseGuards(AuthGuard)
+  @Post('/filter-lists')
+  async createFilterList(@Body() input: CreateFilterListDTO, @Request() req) {
+    const data = await this.filterListService.createFilterList(req.user, input)
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Delete a shared SMS filter list' })
+  @UseGuards(AuthGuard)
+  @Delete('/filter-lists/:listId')
+  async deleteFilterList(@Param('listId') listId: string, @Request() req) {
+    const data = await this.filterListService.deleteFilterList(req.user, listId)
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'List the entries of a shared SMS filter list' })
+  @ApiQuery({ name: 'cursor', required: false, type: String, description: 'nextCursor of the previous page' })
+  @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Number of items per page (default: 5000, max: 10000)' })
+  @UseGuards(AuthGuard)
+  @Get('/filter-lists/:listId/entries')
+  async getFilterListEntries(@Param('listId') listId: string, @Request() req) {
+    const cursor = req.query.cursor || undefined
+    const limit = req.query.limit ? parseInt(req.query.limit, 10) : undefined
+    const data = await this.filterListService.getFilterListEntries(
+      req.user,
+      listId,
+      cursor,
+      limit,
+    )
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Add entries to a shared SMS filter list' })
+  @UseGuards(AuthGuard)
+  @Post('/filter-lists/:listId/entries')
+  async addFilterListEntries(
+    @Param('listId') listId: string,
+    @Body() input: AddFilterListEntriesDTO,
+    @Request() req,
+  ) {
+    const data = await this.filterListService.addFilterListEntries(
+      req.user,
+      listId,
+      input,
+    )
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Remove entries from a shared SMS filter list' })
+  @UseGuards(AuthGuard)
+  @HttpCode(HttpStatus.OK)
+  @Post('/filter-lists/:listId/entries/remove')
+  async removeFilterListEntries(
+    @Param('listId') listId: string,
+    @Body() input: RemoveFilterListEntriesDTO,
+    @Request() req,
+  ) {
+    const data = await this.filterListService.removeFilterListEntries(
+      req.user,
+      listId,
+      input,
+    )
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Shared SMS filter lists a device should hold, with their versions' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @Get('/devices/:id/filter-lists')
+  async getDeviceFilterLists(@Param('id') deviceId: string) {
+    const data = await this.filterListService.getFilterListsForDevice(deviceId)
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Entries of a shared SMS filter list changed since a version' })
+  @ApiQuery({ name: 'since', required: false, type: Number, description: 'Highest entry version the device has applied (default: 0, the whole list)' })
+  @ApiQuery({ name: 'cursor', required: false, type: String, description: 'nextCursor of the previous page' })
+  @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Number of items per page (default: 5000, max: 10000)' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @Get('/devices/:id/filter-lists/:listId/changes')
+  async getDeviceFilterListChanges(
+    @Param('id') deviceId: string,
+    @Param('listId') listId: string,
+    @Request() req,
+  ) {
+    const since = req.query.since ? parseInt(req.query.since, 10) : undefined
+    const cursor = req.query.cursor || undefined
+    const limit = req.query.limit ? parseInt(req.query.limit, 10) : undefined
+    const data = await this.filterListService.getFilterListChangesForDevice(
+      deviceId,
+      listId,
+      since,
+      cursor,
+      limit,
+    )
+    return { data }
+  }
+}
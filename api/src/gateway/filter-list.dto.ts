@@ -0,0 +1,67 @@
+import { ApiProperty } from '@nestjs/swagger'
+import { FilterListMode, FilterMatchType, FilterTarget } from './filter-rule.enum'
+
+export class CreateFilterListDTO {
+  @ApiProperty({
+    type: String,
+    required: true,
+    description: 'Name of the list',
+  })
+  name: string
+
+  @ApiProperty({
+    enum: FilterListMode,
+    required: false,
+    description:
+      'Whether devices drop the messages the list matches or the ones it does not (default: BLOCK_LIST)',
+  })
+  mode?: FilterListMode
+}
+
+export class FilterListEntryInputDTO {
+  @ApiProperty({
+    type: String,
+    required: true,
+    description: 'The pattern to match',
+  })
+  pattern: string
+
+  @ApiProperty({
+    enum: FilterMatchType,
+    required: true,
+    description: 'How the pattern is matched',
+  })
+  matchType: FilterMatchType
+
+  @ApiProperty({
+    enum: FilterTarget,
+    required: false,
+    description: 'What the pattern is matched against (default: SENDER)',
+  })
+  filterTarget?: FilterTarget
+
+  @ApiProperty({
+    type: Boolean,
+    required: false,
+    description: 'Whether matching is case sensitive (default: false)',
+  })
+  caseSensitive?: boolean
+}
+
+export class AddFilterListEntriesDTO {
+  @ApiProperty({
+    type: [FilterListEntryInputDTO],
+    required: true,
+    description: 'Entries to add, at most 10000 per request',
+  })
+  entries: FilterListEntryInputDTO[]
+}
+
+export class RemoveFilterListEntriesDTO {
+  @ApiProperty({
+    type: [String],
+    required: true,
+    description: 'IDs of the entries to remove, at most 10000 per request',
+  })
+  entryIds: string[]
+}
@@ -0,0 +1,324 @@
+import { Test, TestingModule } from '@nestjs/testing'
+import { getModelToken } from '@nestjs/mongoose'
+import { HttpException } from '@nestjs/common'
+import { Types } from 'mongoose'
+import { FilterListService } from './filter-list.service'
+import { Device } from './schemas/device.schema'
+import { FilterList } from './schemas/filter-list.schema'
+import { FilterListEntry } from './schemas/filter-list-entry.schema'
+import { FilterListMode, FilterMatchType, FilterTarget } from './filter-rule.enum'
+import {
+  decodeFilterListCursor,
+  encodeFilterListCursor,
+  filterListChangesFilter,
+} from './filter-list-sync'
+
+describe('FilterListService', () => {
+  let service: FilterListService
+
+  const userId = new Types.ObjectId()
+  const listId = new Types.ObjectId()
+  const deviceId = String(new Types.ObjectId())
+  const mockUser = { _id: userId }
+  const mockList = { _id: listId, user: userId, version: 4, entryCount: 2 }
+
+  const mockFilterListModel = {
+    find: jest.fn(),
+    findOne: jest.fn(),
+    findOneAndUpdate: jest.fn(),
+    updateOne: jest.fn(),
+    exists: jest.fn(),
+    deleteOne: jest.fn(),
+    create: jest.fn(),
+  }
+
+  const mockFilterListEntryModel = {
+    find: jest.fn(),
+    insertMany: jest.fn(),
+    updateMany: jest.fn(),
+    deleteMany: jest.fn(),
+  }
+
+  const mockDeviceModel = {
+    findById: jest.fn(),
+  }
+
+  const query = (result: any) => {
+    const chain: any = {}
+    for (const method of ['sort', 'limit', 'select']) {
+      chain[method] = jest.fn().mockReturnValue(chain)
+    }
+    chain.exec = jest.fn().mockResolvedValue(result)
+    return chain
+  }
+
+  beforeEach(async () => {
+    const module: TestingModule = await Test.createTestingModule({
+      providers: [
+        FilterListService,
+        {
+          provide: getModelToken(FilterList.name),
+          useValue: mockFilterListModel,
+        },
+        {
+          provide: getModelToken(FilterListEntry.name),
+          useValue: mockFilterListEntryModel,
+        },
+        {
+          provide: getModelToken(Device.name),
+          useValue: mockDeviceModel,
+        },
+      ],
+    }).compile()
+
+    service = module.get<FilterListService>(FilterListService)
+
+    jest.clearAllMocks()
+    mockFilterListModel.findOne.mockResolvedValue(mockList)
+    mockFilterListModel.findOneAndUpdate.mockResolvedValue({
+      ...mockList,
+      version: 5,
+    })
+    mockFilterListModel.updateOne.mockResolvedValue({ matchedCount: 1 })
+    mockDeviceModel.findById.mockResolvedValue({ _id: deviceId, user: userId })
+  })
+
+  it('should be defined', () => {
+    expect(service).toBeDefined()
+  })
+
+  describe('filter list mode', () => {
+    it('should create block lists unless asked for an allow list', async () => {
+      await service.createFilterList(mockUser, { name: 'Spam' })
+      await service.createFilterList(mockUser, {
+        name: 'Contacts',
+        mode: FilterListMode.ALLOW_LIST,
+      })
+
+      expect(mockFilterListModel.create.mock.calls.map(([doc]) => doc.mode)).toEqual([
+        FilterListMode.BLOCK_LIST,
+        FilterListMode.ALLOW_LIST,
+      ])
+      await expect(
+        service.createFilterList(mockUser, { name: 'x', mode: 'MAYBE' as any }),
+      ).rejects.toThrow(HttpException)
+    })
+
+    it('should tell devices the mode of each list', async () => {
+      mockFilterListModel.find.mockReturnValue(
+        query([
+          { ...mockList, name: 'Old' },
+          { ...mockList, name: 'Contacts', mode: FilterListMode.ALLOW_LIST },
+        ]),
+      )
+
+      const lists = await service.getFilterListsForDevice(deviceId)
+
+      expect(lists.map((list) => list.mode)).toEqual([
+        FilterListMode.BLOCK_LIST,
+        FilterListMode.ALLOW_LIST,
+      ])
+    })
+  })
+
+  describe('addFilterListEntries', () => {
+    it('should store all entries under one new list version', async () => {
+      mockFilterListEntryModel.insertMany.mockImplementation(async (docs) =>
+        docs.map((doc) => ({ ...doc, _id: new Types.ObjectId() })),
+      )
+
+      const result = await service.addFilterListEntries(mockUser, String(listId), {
+        entries: [
+          { pattern: 'SPAM', matchType: FilterMatchType.CONTAINS },
+          {
+            pattern: '+15551234567',
+            matchType: FilterMatchType.PHONE_NUMBER,
+            filterTarget: FilterTarget.SENDER,
+            caseSensitive: true,
+          },
+        ],
+      })
+
+      expect(mockFilterListModel.findOneAndUpdate).toHaveBeenCalledTimes(1)
+      const docs = mockFilterListEntryModel.insertMany.mock.calls[0][0]
+      expect(docs.map((doc) => doc.version)).toEqual([5, 5])
+      expect(docs[0].filterTarget).toBe(FilterTarget.SENDER)
+      expect(docs[0].caseSensitive).toBe(false)
+      expect(mockFilterListModel.updateOne).toHaveBeenCalledWith(
+        { _id: listId, version: 5 },
+        {
+          $set: { committedVersion: 5 },
+          $unset: { writeLeaseUntil: 1 },
+          $inc: { entryCount: 2 },
+        },
+      )
+      expect(result.version).toBe(5)
+      expect(result.entryIds).toHaveLength(2)
+    })
+
+    it('should not start a change while another one is being written', async () => {
+      mockFilterListModel.findOneAndUpdate.mockResolvedValue(null)
+      mockFilterListModel.exists.mockResolvedValue({ _id: listId })
+
+      await expect(
+        service.addFilterListEntries(mockUser, String(listId), {
+          entries: [{ pattern: 'x', matchType: FilterMatchType.EXACT }],
+        }),
+      ).rejects.toMatchObject({ status: 409 })
+      expect(mockFilterListEntryModel.insertMany).not.toHaveBeenCalled()
+    })
+
+    it('should move a change whose lease ran out to a new version', async () => {
+      mockFilterListEntryModel.insertMany.mockImplementation(async (docs) =>
+        docs.map((doc) => ({ ...doc, _id: new Types.ObjectId() })),
+      )
+      mockFilterListModel.findOneAndUpdate
+        .mockResolvedValueOnce({ ...mockList, version: 5 })
+        .mockResolvedValueOnce({ ...mockList, version: 7 })
+      mockFilterListModel.updateOne.mockResolvedValueOnce({ matchedCount: 0 })
+
+      const result = await service.addFilterListEntries(mockUser, String(listId), {
+        entries: [{ pattern: 'x', matchType: FilterMatchType.EXACT }],
+      })
+
+      expect(mockFilterListEntryModel.updateMany).toHaveBeenCalledWith(
+        { filterList: listId, version: 5 },
+        { $set: { version: 7 } },
+      )
+      expect(mockFilterListModel.updateOne).toHaveBeenCalledWith(
+        { _id: listId, version: 7 },
+        {
+          $set: { committedVersion: 7 },
+          $unset: { writeLeaseUntil: 1 },
+          $inc: { entryCount: 1 },
+        },
+      )
+      expect(result.version).toBe(7)
+    })
+
+    it('should reject invalid entries without changing the list', async () => {
+      await expect(
+        service.addFilterListEntries(mockUser, String(listId), {
+          entries: [
+            { pattern: 'ok', matchType: FilterMatchType.EXACT },
+            { pattern: 'bad', matchType: 'FUZZY' as any },
+          ],
+        }),
+      ).rejects.toThrow(HttpException)
+      expect(mockFilterListModel.findOneAndUpdate).not.toHaveBeenCalled()
+      expect(mockFilterListEntryModel.insertMany).not.toHaveBeenCalled()
+    })
+
+    it('should return not found for another user\'s list', async () => {
+      mockFilterListModel.findOne.mockResolvedValue(null)
+
+      await expect(
+        service.addFilterListEntries(mockUser, String(listId), {
+          entries: [{ pattern: 'x', matchType: FilterMatchType.EXACT }],
+        }),
+      ).rejects.toThrow(HttpException)
+      expect(mockFilterListModel.findOne).toHaveBeenCalledWith({
+        _id: String(listId),
+        user: userId,
+      })
+    })
+  })
+
+  describe('removeFilterListEntries', () => {
+    it('should turn the entries into tombstones at the new version', async () => {
+      const entryId = String(new Types.ObjectId())
+      mockFilterListEntryModel.updateMany.mockResolvedValue({ modifiedCount: 1 })
+
+      const result = await service.removeFilterListEntries(mockUser, String(listId), {
+        entryIds: [entryId],
+      })
+
+      expect(mockFilterListEntryModel.updateMany).toHaveBeenCalledWith(
+        { _id: { $in: [entryId] }, filterList: listId, deleted: false },
+        { $set: { deleted: true, version: 5 } },
+      )
+      expect(mockFilterListModel.updateOne).toHaveBeenCalledWith(
+        { _id: listId, version: 5 },
+        {
+          $set: { committedVersion: 5 },
+          $unset: { writeLeaseUntil: 1 },
+          $inc: { entryCount: -1 },
+        },
+      )
+      expect(result).toEqual({ version: 5, removedCount: 1 })
+    })
+  })
+
+  describe('getFilterListChangesForDevice', () => {
+    it('should page through changes since the device version', async () => {
+      const entries = [
+        { _id: new Types.ObjectId(), pattern: 'a', matchType: 'EXACT', filterTarget: 'SENDER', caseSensitive: false, version: 3, deleted: true },
+        { _id: new Types.ObjectId(), pattern: 'b', matchType: 'EXACT', filterTarget: 'SENDER', caseSensitive: false, version: 4, deleted: false },
+      ]
+      const findQuery = query(entries)
+      mockFilterListEntryModel.find.mockReturnValue(findQuery)
+
+      const result = await service.getFilterListChangesForDevice(
+        deviceId,
+        String(listId),
+        2,
+        undefined,
+        2,
+      )
+
+      expect(mockFilterListEntryModel.find).toHaveBeenCalledWith({
+        filterList: listId,
+        version: { $gt: 2, $lte: 4 },
+      })
+      expect(findQuery.sort).toHaveBeenCalledWith({ version: 1, _id: 1 })
+      expect(result.listVersion).toBe(4)
+      expect(result.entries.map((entry) => entry.deleted)).toEqual([true, false])
+      expect(result.nextCursor).toBe(encodeFilterListCursor(entries[1]))
+    })
+
+    it('should send only live entries to a device without the list', async () => {
+      mockFilterListEntryModel.find.mockReturnValue(query([]))
+
+      const result = await service.getFilterListChangesForDevice(deviceId, String(listId))
+
+      expect(mockFilterListEntryModel.find).toHaveBeenCalledWith({
+        filterList: listId,
+        version: { $lte: 4 },
+        deleted: false,
+      })
+      expect(result.nextCursor).toBeNull()
+    })
+
+    it('should not serve a change that is still being written', async () => {
+      mockFilterListModel.findOne.mockResolvedValue({ ...mockList, version: 6, committedVersion: 5 })
+      mockFilterListEntryModel.find.mockReturnValue(query([]))
+
+      const result = await service.getFilterListChangesForDevice(deviceId, String(listId), 4)
+
+      expect(mockFilterListEntryModel.find).toHaveBeenCalledWith({
+        filterList: listId,
+        version: { $gt: 4, $lte: 5 },
+      })
+      expect(result.listVersion).toBe(5)
+    })
+
+    it('should reject a malformed cursor', async () => {
+      await expect(
+        service.getFilterListChangesForDevice(deviceId, String(listId), 0, 'nope'),
+      ).rejects.toThrow(HttpException)
+    })
+  })
+
+  describe('filter list cursor', () => {
+    it('should continue after the last (version, _id) of the page', () => {
+      const id = new Types.ObjectId()
+      const after = decodeFilterListCursor(encodeFilterListCursor({ version: 7, _id: id }))
+
+      expect(after).toEqual({ version: 7, id })
+      expect(filterListChangesFilter(listId, 5, 9, after).$or).toEqual([
+        { version: { $gt: 7 } },
+        { version: 7, _id: { $gt: id } },
+      ])
+    })
+  })
+})
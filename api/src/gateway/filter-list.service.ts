@@ -0,0 +1,375 @@
+import { HttpException, HttpStatus, Injectable } from '@nestjs/common'
+import { InjectModel } from '@nestjs/mongoose'
+import { Model, Types } from 'mongoose'
+import { Device, DeviceDocument } from './schemas/device.schema'
+import { FilterList, FilterListDocument } from './schemas/filter-list.schema'
+import {
+  FilterListEntry,
+  FilterListEntryDocument,
+} from './schemas/filter-list-entry.schema'
+import { FilterListMode, FilterMatchType, FilterTarget } from './filter-rule.enum'
+import {
+  AddFilterListEntriesDTO,
+  CreateFilterListDTO,
+  RemoveFilterListEntriesDTO,
+} from './filter-list.dto'
+import {
+  decodeFilterListCursor,
+  encodeFilterListCursor,
+  filterListChangesFilter,
+  FILTER_LIST_MAX_CHANGE_SIZE,
+  FILTER_LIST_WRITE_LEASE_MS,
+  FILTER_LIST_MAX_ENTRIES,
+  FILTER_LIST_MAX_PATTERN_LENGTH,
+  FILTER_LIST_SYNC_DEFAULT_PAGE_SIZE,
+  FILTER_LIST_SYNC_MAX_PAGE_SIZE,
+} from './filter-list-sync'
+
+@Injectable()
+export class FilterListService {
+  constructor(
+    @InjectModel(FilterList.name)
+    private filterListModel: Model<FilterListDocument>,
+    @InjectModel(FilterListEntry.name)
+    private filterListEntryModel: Model<FilterListEntryDocument>,
+    @InjectModel(Device.name) private deviceModel: Model<DeviceDocument>,
+  ) {}
+
+  async getFilterListsForUser(user: any) {
+    return await this.filterListModel
+      .find({ user: user._id })
+      .sort({ createdAt: -1 })
+  }
+
+  async createFilterList(user: any, input: CreateFilterListDTO) {
+    const name = typeof input?.name === 'string' ? input.name.trim() : ''
+    if (!name) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid name',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    const mode = input.mode ?? FilterListMode.BLOCK_LIST
+    if (!Object.values(FilterListMode).includes(mode)) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid mode',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    return await this.filterListModel.create({ user: user._id, name, mode })
+  }
+
+  async deleteFilterList(user: any, listId: string) {
+    const list = await this.findListOfUser(user._id, listId)
+    // devices drop lists that no longer appear in their index
+    await this.filterListEntryModel.deleteMany({ filterList: list._id })
+    await this.filterListModel.deleteOne({ _id: list._id })
+    return { success: true }
+  }
+
+  /** Live entries of the list, paged the same way devices sync it. */
+  async getFilterListEntries(
+    user: any,
+    listId: string,
+    cursor?: string,
+    limit = FILTER_LIST_SYNC_DEFAULT_PAGE_SIZE,
+  ) {
+    const list = await this.findListOfUser(user._id, listId)
+    return await this.pageChanges(list, 0, cursor, limit)
+  }
+
+  async addFilterListEntries(
+    user: any,
+    listId: string,
+    input: AddFilterListEntriesDTO,
+  ) {
+    const entries = input?.entries
+    if (
+      !Array.isArray(entries) ||
+      entries.length === 0 ||
+      entries.length > FILTER_LIST_MAX_CHANGE_SIZE
+    ) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `Invalid entries, expected 1 to ${FILTER_LIST_MAX_CHANGE_SIZE} entries`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    const invalidIndex = entries.findIndex(
+      (entry) =>
+        typeof entry?.pattern !== 'string' ||
+        entry.pattern.length === 0 ||
+        entry.pattern.length > FILTER_LIST_MAX_PATTERN_LENGTH ||
+        !Object.values(FilterMatchType).includes(entry.matchType) ||
+        (entry.filterTarget != null &&
+          !Object.values(FilterTarget).includes(entry.filterTarget)),
+    )
+    if (invalidIndex !== -1) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `Invalid entry at index ${invalidIndex}`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const existing = await this.findListOfUser(user._id, listId)
+    if (existing.entryCount + entries.length > FILTER_LIST_MAX_ENTRIES) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `A filter list holds at most ${FILTER_LIST_MAX_ENTRIES} entries`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const version = await this.beginChange(existing._id)
+    const inserted = await this.filterListEntryModel.insertMany(
+      entries.map((entry) => ({
+        filterList: existing._id,
+        pattern: entry.pattern,
+        matchType: entry.matchType,
+        filterTarget: entry.filterTarget ?? FilterTarget.SENDER,
+        caseSensitive: entry.caseSensitive === true,
+        version,
+      })),
+    )
+    const committed = await this.commitChange(existing._id, version, inserted.length)
+
+    return {
+      version: committed,
+      entryIds: inserted.map((entry) => String(entry._id)),
+    }
+  }
+
+  async removeFilterListEntries(
+    user: any,
+    listId: string,
+    input: RemoveFilterListEntriesDTO,
+  ) {
+    const entryIds = input?.entryIds
+    if (
+      !Array.isArray(entryIds) ||
+      entryIds.length === 0 ||
+      entryIds.length > FILTER_LIST_MAX_CHANGE_SIZE ||
+      !entryIds.every((id) => Types.ObjectId.isValid(id))
+    ) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `Invalid entryIds, expected 1 to ${FILTER_LIST_MAX_CHANGE_SIZE} entry IDs`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const list = await this.findListOfUser(user._id, listId)
+    const version = await this.beginChange(list._id)
+    // the entries stay as tombstones so devices at an older version remove them too
+    const result = await this.filterListEntryModel.updateMany(
+      { _id: { $in: entryIds }, filterList: list._id, deleted: false },
+      { $set: { deleted: true, version } },
+    )
+    const committed = await this.commitChange(list._id, version, -result.modifiedCount)
+
+    return { version: committed, removedCount: result.modifiedCount }
+  }
+
+  /** The lists a device should hold, to compare with the versions it has. */
+  async getFilterListsForDevice(deviceId: string) {
+    const device = await this.findDevice(deviceId)
+    const lists = await this.filterListModel
+      .find({ user: device.user })
+      .select('name mode version committedVersion entryCount')
+      .exec()
+    return lists.map((list) => ({
+      id: String(list._id),
+      name: list.name,
+      // lists created before modes existed are block lists
+      mode: list.mode ?? FilterListMode.BLOCK_LIST,
+      version: committedVersion(list),
+      entryCount: list.entryCount,
+    }))
+  }
+
+  /**
+   * Entries changed after version `since`, a page at a time, up to the
+   * committed list version. Once the device has the last page it holds the
+   * list at `listVersion` of that page and passes it as its next `since`.
+   */
+  async getFilterListChangesForDevice(
+    deviceId: string,
+    listId: string,
+    since = 0,
+    cursor?: string,
+    limit = FILTER_LIST_SYNC_DEFAULT_PAGE_SIZE,
+  ) {
+    const device = await this.findDevice(deviceId)
+    const list = await this.findListOfUser(device.user, listId)
+    const sinceVersion = Math.max(0, Math.floor(Number(since)) || 0)
+    return await this.pageChanges(list, sinceVersion, cursor, limit)
+  }
+
+  private async pageChanges(
+    list: FilterListDocument,
+    since: number,
+    cursor: string | undefined,
+    limit: number,
+  ) {
+    const after = cursor ? decodeFilterListCursor(cursor) : undefined
+    if (cursor && !after) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid cursor',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const pageSize = Math.min(
+      Math.max(1, Math.floor(Number(limit)) || FILTER_LIST_SYNC_DEFAULT_PAGE_SIZE),
+      FILTER_LIST_SYNC_MAX_PAGE_SIZE,
+    )
+    const listVersion = committedVersion(list)
+    const entries = await this.filterListEntryModel
+      .find(filterListChangesFilter(list._id, since, listVersion, after))
+      .sort({ version: 1, _id: 1 })
+      .limit(pageSize)
+      .select('pattern matchType filterTarget caseSensitive version deleted')
+      .exec()
+
+    return {
+      listVersion,
+      entries: entries.map((entry) => ({
+        id: String(entry._id),
+        pattern: entry.pattern,
+        matchType: entry.matchType,
+        filterTarget: entry.filterTarget,
+        caseSensitive: entry.caseSensitive,
+        version: entry.version,
+        deleted: entry.deleted,
+      })),
+      nextCursor:
+        entries.length === pageSize
+          ? encodeFilterListCursor(entries[entries.length - 1])
+          : null,
+    }
+  }
+
+  /**
+   * Takes the list's write lease and the version of the change about to be
+   * written. Changes to one list are written one at a time, so every version
+   * up to the one committed last is complete.
+   */
+  private async beginChange(listId: Types.ObjectId): Promise<number> {
+    const now = new Date()
+    const list = await this.filterListModel.findOneAndUpdate(
+      {
+        _id: listId,
+        $or: [
+          { writeLeaseUntil: { $exists: false } },
+          { writeLeaseUntil: null },
+          { writeLeaseUntil: { $lte: now } },
+        ],
+      },
+      {
+        $inc: { version: 1 },
+        $set: {
+          writeLeaseUntil: new Date(now.getTime() + FILTER_LIST_WRITE_LEASE_MS),
+        },
+      },
+      { returnDocument: 'after' },
+    )
+    if (!list) {
+      const exists = await this.filterListModel.exists({ _id: listId })
+      throw new HttpException(
+        {
+          success: false,
+          error: exists
+            ? 'Filter list is being changed, try again shortly'
+            : 'Filter list not found',
+        },
+        exists ? HttpStatus.CONFLICT : HttpStatus.NOT_FOUND,
+      )
+    }
+    return list.version
+  }
+
+  /**
+   * Publishes `version` to devices, releases the lease and returns the
+   * version the change was committed at. A writer whose lease ran out while
+   * another change was written moves its entries to a new version, since
+   * devices may already hold the version it reserved.
+   */
+  private async commitChange(
+    listId: Types.ObjectId,
+    version: number,
+    entryCountChange: number,
+  ): Promise<number> {
+    const result = await this.filterListModel.updateOne(
+      { _id: listId, version },
+      {
+        $set: { committedVersion: version },
+        $unset: { writeLeaseUntil: 1 },
+        $inc: { entryCount: entryCountChange },
+      },
+    )
+    if (result.matchedCount === 0) {
+      const next = await this.beginChange(listId)
+      await this.filterListEntryModel.updateMany(
+        { filterList: listId, version },
+        { $set: { version: next } },
+      )
+      return await this.commitChange(listId, next, entryCountChange)
+    }
+    return version
+  }
+
+  private async findListOfUser(
+    userId: any,
+    listId: string,
+  ): Promise<FilterListDocument> {
+    const list = Types.ObjectId.isValid(listId)
+      ? await this.filterListModel.findOne({ _id: listId, user: userId })
+      : null
+    if (!list) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Filter list not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+    return list
+  }
+
+  private async findDevice(deviceId: string): Promise<DeviceDocument> {
+    const device = await this.deviceModel.findById(deviceId)
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+    return device
+  }
+}
+
+function committedVersion(list: { version: number; committedVersion?: number }) {
+  return list.committedVersion ?? list.version
+}
@@ -0,0 +1,22 @@
+// mirror SMSFilterRule.MatchType and FilterTarget in the Android app
+export enum FilterMatchType {
+  EXACT = 'EXACT',
+  STARTS_WITH = 'STARTS_WITH',
+  ENDS_WITH = 'ENDS_WITH',
+  CONTAINS = 'CONTAINS',
+  REGEX = 'REGEX',
+  PHONE_NUMBER = 'PHONE_NUMBER',
+}
+
+export enum FilterTarget {
+  SENDER = 'SENDER',
+  MESSAGE = 'MESSAGE',
+  BOTH = 'BOTH',
+}
+
+// mirror SMSFilterHelper.FilterMode; a shared list is matched in its own mode,
+// apart from the device's rules
+export enum FilterListMode {
+  ALLOW_LIST = 'ALLOW_LIST',
+  BLOCK_LIST = 'BLOCK_LIST',
+}
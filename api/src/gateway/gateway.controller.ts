@@ -21,13 +21,16 @@ import {
 import { AuthGuard } from '../auth/guards/auth.guard'
 import {
   ReceivedSMSDTO,
+  ReceivedSMSBulkDTO,
   RegisterDeviceInputDTO,
   RetrieveSMSResponseDTO,
   SendBulkSMSInputDTO,
   SendSMSInputDTO,
   UpdateSMSStatusDTO,
+  UpdateSMSStatusBulkDTO,
   HeartbeatInputDTO,
   HeartbeatResponseDTO,
+  AckPendingSMSDTO,
 } from './gateway.dto'
 import { GatewayService } from './gateway.service'
 import { CanModifyDevice } from './guards/can-modify-device.guard'
@@ -126,6 +129,18 @@ export class GatewayController {
     return { data }
   }
 
+  @ApiOperation({ summary: 'Received SMS from a device, in bulk' })
+  @HttpCode(HttpStatus.OK)
+  @Post('/devices/:id/receive-sms/bulk')
+  @UseGuards(AuthGuard, CanModifyDevice)
+  async receiveSMSBulk(
+    @Param('id') deviceId: string,
+    @Body() dto: ReceivedSMSBulkDTO,
+  ) {
+    const data = await this.gatewayService.receiveSMSBulk(deviceId, dto)
+    return { data }
+  }
+
   @ApiOperation({ summary: 'Get received SMS from a device' })
   @ApiResponse({ status: 200, type: RetrieveSMSResponseDTO })
   @ApiQuery({ name: 'page', required: false, type: Number, description: 'Page number (default: 1)' })
@@ -150,6 +165,8 @@ export class GatewayController {
   @ApiQuery({ name: 'page', required: false, type: Number, description: 'Page number (default: 1)' })
   @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Number of items per page (default: 50, max: 100)' })
   @ApiQuery({ name: 'type', required: false, type: String, description: 'Filter by message type: all, sent, or received (default: all)' })
+  @ApiQuery({ name: 'search', required: false, type: String, description: 'Match the message body, sender or recipient' })
+  @ApiQuery({ name: 'before', required: false, type: String, description: 'Cursor from meta.nextCursor of the previous page; takes the place of page' })
   @UseGuards(AuthGuard, CanModifyDevice)
   @Get('/devices/:id/messages')
   async getMessages(
@@ -161,8 +178,9 @@ export class GatewayController {
     const limit = req.query.limit ? Math.min(parseInt(req.query.limit, 10), 100) : 50;
     const type = req.query.type || '';
     const search = req.query.search || '';
+    const before = req.query.before || '';
 
-    const result = await this.gatewayService.getMessages(deviceId, type, page, limit, search);
+    const result = await this.gatewayService.getMessages(deviceId, type, page, limit, search, before);
     return result;
   }
 
@@ -178,6 +196,42 @@ export class GatewayController {
     return { data };
   }
 
+  @ApiOperation({ summary: 'Update the status of multiple SMS at once' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @HttpCode(HttpStatus.OK)
+  @Patch('/devices/:id/sms-status/bulk')
+  async updateSMSStatusBulk(
+    @Param('id') deviceId: string,
+    @Body() dto: UpdateSMSStatusBulkDTO,
+  ) {
+    const data = await this.gatewayService.updateSMSStatusBulk(deviceId, dto);
+    return { data };
+  }
+
+  @ApiOperation({ summary: 'Fetch and lease SMS waiting to be sent by a device' })
+  @ApiQuery({ name: 'cursor', required: false, type: String, description: 'nextCursor of the previous page' })
+  @ApiQuery({ name: 'limit', required: false, type: Number, description: 'Number of items per page (default: 500, max: 1000)' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @Get('/devices/:id/pending-sms')
+  async getPendingSMS(@Param('id') deviceId: string, @Request() req) {
+    const cursor = req.query.cursor || undefined
+    const limit = req.query.limit ? parseInt(req.query.limit, 10) : undefined
+    const data = await this.gatewayService.getPendingSMS(deviceId, cursor, limit)
+    return { data }
+  }
+
+  @ApiOperation({ summary: 'Acknowledge fetched SMS as queued on the device' })
+  @UseGuards(AuthGuard, CanModifyDevice)
+  @HttpCode(HttpStatus.OK)
+  @Post('/devices/:id/pending-sms/ack')
+  async ackPendingSMS(
+    @Param('id') deviceId: string,
+    @Body() dto: AckPendingSMSDTO,
+  ) {
+    const data = await this.gatewayService.ackPendingSMS(deviceId, dto)
+    return { data }
+  }
+
   @ApiOperation({ summary: 'Get a single SMS by ID' })
   @UseGuards(AuthGuard, CanModifyDevice)
   @Get('/devices/:id/sms/:smsId')
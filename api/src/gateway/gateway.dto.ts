@@ -40,6 +40,155 @@ export class SimInfoCollectionDTO {
   sims: SimInfoDTO[]
 }
 
+export class SendRateLimitDTO {
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SIM subscription ID, -1 for the default SIM',
+  })
+  simSubscriptionId: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'Messages that can currently be sent without waiting',
+  })
+  tokens: number
+
+  @ApiProperty({ type: Number, required: true })
+  burst: number
+
+  @ApiProperty({
+    type: Number,
+    required: false,
+    description: 'Sustained send rate, absent when throttling is disabled',
+  })
+  ratePerMinute?: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'Epoch millis at which the next message may be sent',
+  })
+  nextAllowedAtMillis: number
+
+  @ApiProperty({
+    type: Number,
+    required: false,
+    description:
+      'Reduced send rate after carrier throttling, absent when not backed off',
+  })
+  adaptiveRatePerMinute?: number
+}
+
+export class SendQueueLaneDTO {
+  @ApiProperty({ type: String, required: true, enum: ['high', 'normal', 'bulk'] })
+  priority: string
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SMS waiting in this lane of the device send queue',
+  })
+  depth: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'How long the oldest SMS in the lane has been waiting',
+  })
+  oldestWaitMillis: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SMS dispatched from the lane since the app started',
+  })
+  dispatchedCount: number
+
+  @ApiProperty({ type: Number, required: true })
+  waitP50Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  waitP95Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  waitMaxMillis: number
+}
+
+export class LifecycleStageDTO {
+  @ApiProperty({
+    type: String,
+    required: true,
+    enum: [
+      'pushed',
+      'received',
+      'enqueued',
+      'dispatched',
+      'submitted',
+      'sent',
+      'delivered',
+      'uploaded',
+    ],
+  })
+  stage: string
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SMS that reached the stage since the app started',
+  })
+  count: number
+
+  @ApiProperty({ type: Number, required: true })
+  failures: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SMS that reached the stage in the last minute',
+  })
+  lastMinuteCount: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'Median time from the previous stage',
+  })
+  p50Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  p95Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  p99Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  maxMillis: number
+
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'Median time from the first stage the device saw',
+  })
+  sinceStartP50Millis: number
+
+  @ApiProperty({ type: Number, required: true })
+  sinceStartP95Millis: number
+}
+
+export class DeviceMetricsDTO {
+  @ApiProperty({
+    type: Number,
+    required: true,
+    description: 'SMS the device is still timing',
+  })
+  trackedMessages: number
+
+  @ApiProperty({ type: [LifecycleStageDTO], required: true })
+  lifecycleStages: LifecycleStageDTO[]
+}
+
 export class RegisterDeviceInputDTO {
   @ApiProperty({ type: Boolean })
   enabled?: boolean
@@ -107,7 +256,17 @@ export class SMSData {
   @ApiProperty({
     type: String,
     required: false,
-    description: 'Optional ISO 8601 date string to schedule SMS for future delivery (e.g., "2024-01-15T10:30:00Z"). Must be a future date.',
+    enum: ['high', 'normal', 'bulk'],
+    default: 'normal',
+    description:
+      'Send priority on the device. High priority SMS (e.g. one-time passwords) are sent before queued normal and bulk SMS',
+  })
+  priority?: string
+
+  @ApiProperty({
+    type: String,
+    required: false,
+    description: 'Optional ISO 8601 date string to schedule SMS for future delivery (e.g., "2024-01-15T10:30:00Z"). Must be a future date. Devices on recent app versions are handed the SMS right away and send it at that time themselves.',
     example: '2024-01-15T10:30:00Z',
   })
   scheduledAt?: string
@@ -185,6 +344,15 @@ export class ReceivedSMSDTO {
   receivedAtInMillis?: number
 }
 
+export class ReceivedSMSBulkDTO {
+  @ApiProperty({
+    type: [ReceivedSMSDTO],
+    required: true,
+    description: 'Received messages to store, at most 500 per request',
+  })
+  messages: ReceivedSMSDTO[]
+}
+
 export class DeviceDTO {
   @ApiProperty({ type: String })
   _id: string
@@ -259,10 +427,10 @@ export class RetrieveSMSDTO {
 export class PaginationMetaDTO {
   @ApiProperty({
     type: Number,
-    required: true,
-    description: 'Current page number',
+    required: false,
+    description: 'Current page number; omitted when paging by cursor',
   })
-  page: number;
+  page?: number;
 
   @ApiProperty({
     type: Number,
@@ -273,17 +441,31 @@ export class PaginationMetaDTO {
 
   @ApiProperty({
     type: Number,
-    required: true,
-    description: 'Total number of items',
+    required: false,
+    description: 'Total number of items; omitted when paging by cursor',
   })
-  total: number;
+  total?: number;
 
   @ApiProperty({
     type: Number,
-    required: true,
-    description: 'Total number of pages',
+    required: false,
+    description: 'Total number of pages; omitted when paging by cursor',
   })
-  totalPages: number;
+  totalPages?: number;
+
+  @ApiProperty({
+    type: Boolean,
+    required: false,
+    description: 'Whether older items follow this page',
+  })
+  hasMore?: boolean;
+
+  @ApiProperty({
+    type: String,
+    required: false,
+    description: 'Pass as `before` to fetch the next page; null on the last page',
+  })
+  nextCursor?: string | null;
 }
 
 export class RetrieveSMSResponseDTO {
@@ -320,8 +502,9 @@ export class UpdateSMSStatusDTO {
   @ApiProperty({
     type: String,
     required: true,
-    description: 'The status of the SMS (sent, delivered, failed)',
-    enum: ['sent', 'delivered', 'failed'],
+    description:
+      'The status of the SMS (sent, delivered, failed). duplicate reports a send instruction the device dropped because the SMS was already sent; it does not change the status',
+    enum: ['sent', 'delivered', 'failed', 'duplicate'],
   })
   status: string
 
@@ -361,6 +544,24 @@ export class UpdateSMSStatusDTO {
   errorMessage?: string
 }
 
+export class UpdateSMSStatusBulkDTO {
+  @ApiProperty({
+    type: [UpdateSMSStatusDTO],
+    required: true,
+    description: 'Status updates to apply, at most 500 per request',
+  })
+  updates: UpdateSMSStatusDTO[]
+}
+
+export class AckPendingSMSDTO {
+  @ApiProperty({
+    type: [String],
+    required: true,
+    description: 'IDs of fetched SMS the device has queued for sending, at most 1000 per request',
+  })
+  smsIds: string[]
+}
+
 export class HeartbeatInputDTO {
   @ApiProperty({
     type: String,
@@ -477,6 +678,27 @@ export class HeartbeatInputDTO {
 
   @ApiProperty({ type: SimInfoCollectionDTO, required: false })
   simInfo?: SimInfoCollectionDTO
+
+  @ApiProperty({
+    type: [SendRateLimitDTO],
+    required: false,
+    description: 'Per-SIM send rate limiter state',
+  })
+  sendRateLimits?: SendRateLimitDTO[]
+
+  @ApiProperty({
+    type: [SendQueueLaneDTO],
+    required: false,
+    description: 'Per-priority send queue depth and wait times',
+  })
+  sendQueueLanes?: SendQueueLaneDTO[]
+
+  @ApiProperty({
+    type: DeviceMetricsDTO,
+    required: false,
+    description: 'Per-stage latencies of outgoing SMS on the device',
+  })
+  metrics?: DeviceMetricsDTO
 }
 
 export class HeartbeatResponseDTO {
@@ -507,4 +729,11 @@ export class HeartbeatResponseDTO {
     description: 'Device name (if updated)',
   })
   name?: string
+
+  @ApiProperty({
+    type: Boolean,
+    required: false,
+    description: 'Whether SMS are waiting for the device to fetch them',
+  })
+  hasPendingSms?: boolean
 }
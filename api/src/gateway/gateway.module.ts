@@ -4,10 +4,17 @@ import { Device, DeviceSchema } from './schemas/device.schema'
 import { DeviceTombstone, DeviceTombstoneSchema } from './schemas/device-tombstone.schema'
 import { GatewayController } from './gateway.controller'
 import { GatewayService } from './gateway.service'
+import { FilterListController } from './filter-list.controller'
+import { FilterListService } from './filter-list.service'
 import { AuthModule } from '../auth/auth.module'
 import { UsersModule } from '../users/users.module'
 import { SMS, SMSSchema } from './schemas/sms.schema'
 import { SMSBatch, SMSBatchSchema } from './schemas/sms-batch.schema'
+import { FilterList, FilterListSchema } from './schemas/filter-list.schema'
+import {
+  FilterListEntry,
+  FilterListEntrySchema,
+} from './schemas/filter-list-entry.schema'
 import { WebhookModule } from 'src/webhook/webhook.module'
 import { BillingModule } from 'src/billing/billing.module'
 import { BullModule } from '@nestjs/bull'
@@ -36,6 +43,14 @@ import { HeartbeatCheckTask } from './tasks/heartbeat-check.task'
         name: SMSBatch.name,
         schema: SMSBatchSchema,
       },
+      {
+        name: FilterList.name,
+        schema: FilterListSchema,
+      },
+      {
+        name: FilterListEntry.name,
+        schema: FilterListEntrySchema,
+      },
     ]),
     BullModule.registerQueueAsync({
       name: 'sms',
@@ -63,8 +78,8 @@ import { HeartbeatCheckTask } from './tasks/heartbeat-check.task'
     forwardRef(() => BillingModule),
     ConfigModule,
   ],
-  controllers: [GatewayController],
-  providers: [GatewayService, SmsQueueService, SmsQueueProcessor, SmsStatusUpdateTask, HeartbeatCheckTask],
+  controllers: [GatewayController, FilterListController],
+  providers: [GatewayService, FilterListService, SmsQueueService, SmsQueueProcessor, SmsStatusUpdateTask, HeartbeatCheckTask],
   exports: [MongooseModule, GatewayService, SmsQueueService],
 })
 export class GatewayModule {}
@@ -10,7 +10,7 @@ import { AuthService } from '../auth/auth.service'
 import { WebhookService } from '../webhook/webhook.service'
 import { BillingService } from '../billing/billing.service'
 import { SmsQueueService } from './queue/sms-queue.service'
-import { Model } from 'mongoose'
+import { Model, Types } from 'mongoose'
 import { ConfigModule } from '@nestjs/config'
 import { HttpException, HttpStatus } from '@nestjs/common'
 import * as firebaseAdmin from 'firebase-admin'
@@ -55,10 +55,13 @@ describe('GatewayService', () => {
     findOne: jest.fn(),
     updateMany: jest.fn(),
     countDocuments: jest.fn(),
+    findByIdAndUpdate: jest.fn(),
+    distinct: jest.fn(),
   }
 
   const mockSmsBatchModel = {
     create: jest.fn(),
+    findById: jest.fn(),
     findByIdAndUpdate: jest.fn(),
   }
 
@@ -466,6 +469,29 @@ describe('GatewayService', () => {
       ).rejects.toThrow(HttpException)
     })
 
+    it('should store and push a high priority', async () => {
+      await service.sendSMS(mockDeviceId, { ...mockSmsInput, priority: 'HIGH' })
+
+      expect(mockSmsModel.create).toHaveBeenCalledWith(
+        expect.objectContaining({ priority: 'high' }),
+      )
+      const push = (firebaseAdmin.messaging().sendEach as jest.Mock).mock.calls[0][0][0]
+      expect(JSON.parse(push.data.smsData).priority).toBe('high')
+    })
+
+    it('should leave normal priority out of the SMS', async () => {
+      await service.sendSMS(mockDeviceId, { ...mockSmsInput, priority: 'normal' })
+
+      expect(mockSmsModel.create.mock.calls[0][0]).not.toHaveProperty('priority')
+    })
+
+    it('should reject an unknown priority before creating anything', async () => {
+      await expect(
+        service.sendSMS(mockDeviceId, { ...mockSmsInput, priority: 'urgent' }),
+      ).rejects.toThrow(HttpException)
+      expect(mockSmsBatchModel.create).not.toHaveBeenCalled()
+    })
+
     it('should queue SMS if queue is enabled', async () => {
       mockSmsQueueService.isQueueEnabled.mockReturnValue(true)
       mockSmsQueueService.addSendSmsJob.mockResolvedValue(true)
@@ -645,6 +671,286 @@ describe('GatewayService', () => {
     })
   })
 
+  describe('receiveSMSBulk', () => {
+    const mockDeviceId = 'device123'
+    const mockDevice = { _id: mockDeviceId, user: 'user123' }
+    const message = (i: number) => ({
+      message: `code ${i}`,
+      sender: '+123456789',
+      receivedAtInMillis: 1000 + i,
+    })
+
+    beforeEach(() => {
+      mockDeviceModel.findById.mockResolvedValue(mockDevice)
+      mockSmsModel.findOne.mockResolvedValue(null)
+      mockSmsModel.create.mockImplementation((data) =>
+        Promise.resolve({ _id: `sms-${data.message}`, ...data }),
+      )
+      mockDeviceModel.findByIdAndUpdate.mockImplementation(() => ({
+        exec: jest.fn().mockResolvedValue(true),
+      }))
+      mockBillingService.canPerformAction.mockResolvedValue(true)
+      mockWebhookService.deliverNotification.mockResolvedValue(true)
+    })
+
+    it('should store valid messages and report a result for each item', async () => {
+      const result = await service.receiveSMSBulk(mockDeviceId, {
+        messages: [message(1), { ...message(2), message: '' }, message(3)],
+      })
+
+      expect(mockBillingService.canPerformAction).toHaveBeenCalledWith(
+        mockDevice.user,
+        'receive_sms',
+        2,
+      )
+      expect(result.results).toEqual([
+        { success: true, smsId: 'sms-code 1' },
+        { success: false, retryable: false, error: 'Invalid received SMS data' },
+        { success: true, smsId: 'sms-code 3' },
+      ])
+      expect(mockDeviceModel.findByIdAndUpdate).toHaveBeenCalledTimes(1)
+      expect(mockDeviceModel.findByIdAndUpdate).toHaveBeenCalledWith(mockDeviceId, {
+        $inc: { receivedSMSCount: 2 },
+      })
+    })
+
+    it('should mark items that failed to store as retryable', async () => {
+      mockSmsModel.create.mockRejectedValueOnce(new Error('write conflict'))
+
+      const result = await service.receiveSMSBulk(mockDeviceId, {
+        messages: [message(1), message(2)],
+      })
+
+      expect(result.results[0]).toMatchObject({ success: false, retryable: true })
+      expect(result.results[1]).toMatchObject({ success: true })
+    })
+  })
+
+  describe('updateSMSStatusBulk', () => {
+    const mockDeviceId = '64b000000000000000000001'
+    const mockDevice = { _id: mockDeviceId, user: 'user123' }
+    const smsId1 = '64b000000000000000000011'
+    const smsId2 = '64b000000000000000000012'
+    const otherSmsId = '64b000000000000000000013'
+    const batchId = '64b000000000000000000021'
+    const smsDoc = (id: string, device = mockDeviceId) => ({
+      _id: { toString: () => id },
+      device: { toString: () => device },
+    })
+
+    beforeEach(() => {
+      mockDeviceModel.findById.mockResolvedValue(mockDevice)
+      mockSmsModel.find.mockResolvedValue([
+        smsDoc(smsId1),
+        smsDoc(smsId2),
+        smsDoc(otherSmsId, 'someOtherDevice'),
+      ])
+      mockSmsModel.findByIdAndUpdate.mockImplementation((id, update) =>
+        Promise.resolve({ _id: id, ...update.$set }),
+      )
+      mockSmsModel.distinct.mockResolvedValue(['delivered'])
+      mockSmsBatchModel.findById.mockResolvedValue({ _id: batchId })
+      mockSmsBatchModel.findByIdAndUpdate.mockResolvedValue(true)
+    })
+
+    it('should apply every update with one lookup and report per-item results', async () => {
+      const result = await service.updateSMSStatusBulk(mockDeviceId, {
+        updates: [
+          { smsId: smsId1, smsBatchId: batchId, status: 'DELIVERED', sentAtInMillis: 1000, deliveredAtInMillis: 2000 },
+          { smsId: smsId2, smsBatchId: batchId, status: 'DELIVERED', deliveredAtInMillis: 2000 },
+          { smsId: otherSmsId, smsBatchId: batchId, status: 'SENT' },
+          { smsId: 'missing', smsBatchId: batchId, status: 'SENT' },
+        ],
+      })
+
+      expect(mockSmsModel.find).toHaveBeenCalledTimes(1)
+      expect(mockSmsModel.findByIdAndUpdate).toHaveBeenCalledTimes(2)
+      expect(result.results.map((r) => r.success)).toEqual([true, true, false, false])
+      // the batch status is evaluated once for the whole request
+      expect(mockSmsModel.distinct).toHaveBeenCalledTimes(1)
+      expect(mockSmsBatchModel.findByIdAndUpdate).toHaveBeenCalledWith(batchId, {
+        $set: { status: 'completed' },
+      })
+    })
+
+    it('should record and notify the send of a collapsed sent + delivered update', async () => {
+      await service.updateSMSStatusBulk(mockDeviceId, {
+        updates: [
+          { smsId: smsId1, smsBatchId: batchId, status: 'DELIVERED', sentAtInMillis: 1000, deliveredAtInMillis: 2000 },
+        ],
+      })
+
+      const update = mockSmsModel.findByIdAndUpdate.mock.calls[0][1].$set
+      expect(update.sentAt).toEqual(new Date(1000))
+      expect(update.deliveredAt).toEqual(new Date(2000))
+      const events = mockWebhookService.deliverNotification.mock.calls.map((c) => c[0].event)
+      expect(events).toEqual([WebhookEvent.MESSAGE_SENT, WebhookEvent.MESSAGE_DELIVERED])
+    })
+
+    it('should count a duplicate report without changing the status', async () => {
+      await service.updateSMSStatusBulk(mockDeviceId, {
+        updates: [{ smsId: smsId1, status: 'DUPLICATE' }],
+      })
+
+      const update = mockSmsModel.findByIdAndUpdate.mock.calls[0][1]
+      expect(update.$inc).toEqual({ duplicateDispatchCount: 1 })
+      expect(update.$set.status).toBeUndefined()
+      expect(mockWebhookService.deliverNotification).not.toHaveBeenCalled()
+    })
+
+    it('should reject an empty request', async () => {
+      await expect(
+        service.updateSMSStatusBulk(mockDeviceId, { updates: [] }),
+      ).rejects.toThrow(HttpException)
+    })
+  })
+
+  describe('pending SMS (pull mode)', () => {
+    const mockDeviceId = '64b000000000000000000001'
+    const mockDevice = { _id: mockDeviceId, user: 'user123', appVersionCode: 19 }
+    const smsId1 = '64b000000000000000000011'
+    const smsId2 = '64b000000000000000000012'
+    const batchId = '64b000000000000000000021'
+    const query = (result: any) => {
+      const chain: any = {}
+      for (const method of ['sort', 'limit', 'select']) {
+        chain[method] = jest.fn().mockReturnValue(chain)
+      }
+      chain.exec = jest.fn().mockResolvedValue(result)
+      return chain
+    }
+
+    beforeEach(() => {
+      mockDeviceModel.findById.mockResolvedValue(mockDevice)
+      mockDeviceModel.findByIdAndUpdate.mockImplementation(() => ({
+        exec: jest.fn().mockResolvedValue(true),
+      }))
+      mockSmsModel.updateMany.mockResolvedValue({ modifiedCount: 2 })
+    })
+
+    it('should lease a page and return a cursor when it is full', async () => {
+      const leased = [
+        { _id: smsId1, smsBatch: batchId, recipient: '+1', message: 'hi' },
+        { _id: smsId2, smsBatch: batchId, recipient: '+2', message: 'hi', simSubscriptionId: 3 },
+      ]
+      mockSmsModel.find
+        .mockReturnValueOnce(query([{ _id: smsId1 }, { _id: smsId2 }]))
+        .mockReturnValueOnce(query(leased))
+
+      const result = await service.getPendingSMS(mockDeviceId, undefined, 2)
+
+      const leaseUpdate = mockSmsModel.updateMany.mock.calls[0][1].$set
+      expect(leaseUpdate.leaseId).toBeDefined()
+      expect(leaseUpdate.leaseExpiresAt.getTime()).toBeGreaterThan(Date.now())
+      expect(mockSmsModel.find.mock.calls[1][0].leaseId).toBe(leaseUpdate.leaseId)
+      expect(result.items).toEqual([
+        { smsId: smsId1, smsBatchId: batchId, recipient: '+1', message: 'hi' },
+        { smsId: smsId2, smsBatchId: batchId, recipient: '+2', message: 'hi', simSubscriptionId: 3 },
+      ])
+      expect(result.nextCursor).toBe(smsId2)
+    })
+
+    it('should end paging when nothing is pending', async () => {
+      mockSmsModel.find.mockReturnValueOnce(query([]))
+
+      const result = await service.getPendingSMS(mockDeviceId)
+
+      expect(mockSmsModel.updateMany).not.toHaveBeenCalled()
+      expect(result.items).toEqual([])
+      expect(result.nextCursor).toBeNull()
+    })
+
+    it('should reject an invalid cursor', async () => {
+      await expect(
+        service.getPendingSMS(mockDeviceId, 'not-an-id'),
+      ).rejects.toThrow(HttpException)
+    })
+
+    it('should mark acknowledged SMS dispatched and count them once', async () => {
+      mockSmsModel.find.mockReturnValueOnce(
+        query([
+          { _id: smsId1, smsBatch: batchId },
+          { _id: smsId2, smsBatch: batchId },
+        ]),
+      )
+      mockSmsModel.updateMany.mockResolvedValue({ modifiedCount: 2 })
+      mockSmsBatchModel.findByIdAndUpdate.mockResolvedValueOnce({
+        successCount: 2,
+        recipientCount: 2,
+      })
+
+      const result = await service.ackPendingSMS(mockDeviceId, {
+        smsIds: [smsId1, smsId2, 'invalid'],
+      })
+
+      expect(result).toEqual({ success: true, acknowledgedCount: 2 })
+      expect(mockSmsModel.find.mock.calls[0][0]).toMatchObject({
+        dispatchedAt: { $exists: false },
+      })
+      expect(mockSmsModel.find.mock.calls[0][0].status).toBeUndefined()
+      expect(mockSmsModel.updateMany.mock.calls[0][0].dispatchedAt).toEqual({ $exists: false })
+      expect(mockSmsModel.updateMany.mock.calls[1]).toEqual([
+        { _id: { $in: [smsId1, smsId2] }, status: 'pending' },
+        { $set: { status: 'dispatched' } },
+      ])
+      expect(mockDeviceModel.findByIdAndUpdate).toHaveBeenCalledWith(mockDeviceId, {
+        $inc: { sentSMSCount: 2 },
+      })
+      expect(mockSmsBatchModel.findByIdAndUpdate).toHaveBeenCalledWith(batchId, {
+        $set: { status: 'completed' },
+      })
+    })
+
+    it('should count an SMS whose status arrived before its ack', async () => {
+      mockSmsModel.find.mockReturnValueOnce(
+        query([{ _id: smsId1, smsBatch: batchId }]),
+      )
+      // the status upload already moved it to 'delivered'
+      mockSmsModel.updateMany
+        .mockResolvedValueOnce({ modifiedCount: 1 })
+        .mockResolvedValueOnce({ modifiedCount: 0 })
+      mockSmsBatchModel.findByIdAndUpdate.mockResolvedValueOnce({
+        successCount: 1,
+        recipientCount: 3,
+      })
+
+      const result = await service.ackPendingSMS(mockDeviceId, { smsIds: [smsId1] })
+
+      expect(result.acknowledgedCount).toBe(1)
+      expect(mockDeviceModel.findByIdAndUpdate).toHaveBeenCalledWith(mockDeviceId, {
+        $inc: { sentSMSCount: 1 },
+      })
+      expect(mockSmsBatchModel.findByIdAndUpdate).toHaveBeenCalledWith(
+        batchId,
+        { $inc: { successCount: 1 } },
+        { returnDocument: 'after' },
+      )
+    })
+
+    it('should count an SMS once when two acks race', async () => {
+      mockSmsModel.find.mockReturnValueOnce(
+        query([{ _id: smsId1, smsBatch: batchId }]),
+      )
+      // the other ack stamped dispatchedAt between the lookup and the update
+      mockSmsModel.updateMany.mockResolvedValue({ modifiedCount: 0 })
+
+      const result = await service.ackPendingSMS(mockDeviceId, { smsIds: [smsId1] })
+
+      expect(result.acknowledgedCount).toBe(0)
+      expect(mockDeviceModel.findByIdAndUpdate).not.toHaveBeenCalled()
+      expect(mockSmsBatchModel.findByIdAndUpdate).not.toHaveBeenCalled()
+    })
+
+    it('should ignore repeated acknowledgements', async () => {
+      mockSmsModel.find.mockReturnValueOnce(query([]))
+
+      const result = await service.ackPendingSMS(mockDeviceId, { smsIds: [smsId1] })
+
+      expect(result.acknowledgedCount).toBe(0)
+      expect(mockSmsModel.updateMany).not.toHaveBeenCalled()
+    })
+  })
+
   describe('getReceivedSMS', () => {
     const mockDeviceId = 'device123'
     const mockDevice = {
@@ -756,14 +1062,64 @@ describe('GatewayService', () => {
         },
         null,
         {
-          sort: { createdAt: -1 },
-          limit: 10,
+          sort: { createdAt: -1, _id: -1 },
+          limit: 11,
           skip: 0,
         },
       )
       expect(result).toHaveProperty('data', mockSmsData)
       expect(result).toHaveProperty('meta')
       expect(result.meta).toHaveProperty('total', 2)
+      expect(result.meta).toHaveProperty('hasMore', false)
+      expect(result.meta).toHaveProperty('nextCursor', null)
+    })
+
+    it('should page by cursor without skipping or counting', async () => {
+      const cursorId = '65e1c0ffee0000000000beef'
+      const cursorAt = new Date('2025-03-01T12:00:00.000Z')
+      const older = Array.from({ length: 3 }, (_, i) => ({
+        _id: new Types.ObjectId(),
+        message: `Hello ${i}`,
+        createdAt: new Date(cursorAt.getTime() - (i + 1) * 1000),
+      }))
+      mockSmsModel.find.mockReturnValue({
+        populate: jest.fn().mockReturnValue({
+          lean: jest.fn().mockResolvedValue([...older]),
+        }),
+      })
+
+      const result = await service.getMessages(
+        mockDeviceId, 'sent', 1, 2, '', `${cursorAt.toISOString()},${cursorId}`,
+      )
+
+      const [query, , options] = mockSmsModel.find.mock.calls.at(-1)
+      expect(query).toEqual({
+        device: mockDevice._id,
+        type: SMSType.SENT,
+        $and: [
+          {
+            $or: [
+              { createdAt: { $lt: cursorAt } },
+              { createdAt: cursorAt, _id: { $lt: new Types.ObjectId(cursorId) } },
+            ],
+          },
+        ],
+      })
+      expect(options).toEqual({ sort: { createdAt: -1, _id: -1 }, limit: 3, skip: 0 })
+      expect(mockSmsModel.countDocuments).not.toHaveBeenCalled()
+      expect(result.data).toEqual(older.slice(0, 2))
+      expect(result.meta).toEqual({
+        limit: 2,
+        hasMore: true,
+        nextCursor: `${older[1].createdAt.toISOString()},${older[1]._id}`,
+      })
+    })
+
+    it('should reject a malformed cursor', async () => {
+      await expect(
+        service.getMessages(mockDeviceId, '', 1, 10, '', 'page-2'),
+      ).rejects.toThrow(HttpException)
+      expect(mockSmsModel.find).not.toHaveBeenCalled()
     })
 
     it('should get sent messages with pagination', async () => {
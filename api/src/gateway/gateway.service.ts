@@ -6,18 +6,22 @@ import * as firebaseAdmin from 'firebase-admin'
 import { DeviceTombstone, DeviceTombstoneDocument } from './schemas/device-tombstone.schema'
 import {
   ReceivedSMSDTO,
+  ReceivedSMSBulkDTO,
   RegisterDeviceInputDTO,
   RetrieveSMSDTO,
   SendBulkSMSInputDTO,
   SendSMSInputDTO,
   UpdateSMSStatusDTO,
+  UpdateSMSStatusBulkDTO,
   HeartbeatInputDTO,
   HeartbeatResponseDTO,
+  AckPendingSMSDTO,
 } from './gateway.dto'
 import { User } from '../users/schemas/user.schema'
 import { AuthService } from '../auth/auth.service'
 import { SMS } from './schemas/sms.schema'
 import { SMSType } from './sms-type.enum'
+import { SMSPriority } from './sms-priority.enum'
 import { SMSBatch } from './schemas/sms-batch.schema'
 import { BatchResponse, Message } from 'firebase-admin/messaging'
 import { WebhookEvent } from '../webhook/webhook-event.enum'
@@ -25,6 +29,28 @@ import { WebhookService } from '../webhook/webhook.service'
 import { BillingService } from '../billing/billing.service'
 import { SmsQueueService } from './queue/sms-queue.service'
 import { escapeRegExp } from '../common/escape-regexp'
+import {
+  SmsSendInstruction,
+  packSmsEnvelopes,
+  smsIdsOfFcmMessage,
+  supportsSmsEnvelope,
+} from './sms-envelope'
+import {
+  SMS_PULL_DEFAULT_PAGE_SIZE,
+  SMS_PULL_DOORBELL_TYPE,
+  SMS_PULL_LEASE_MS,
+  SMS_PULL_MAX_ACK_SIZE,
+  SMS_PULL_MAX_PAGE_SIZE,
+  pullableSmsFilter,
+  supportsSmsPull,
+} from './sms-pull'
+import { scheduleSms } from './sms-scheduling'
+import {
+  MESSAGE_HISTORY_SORT,
+  formatMessageCursor,
+  messagesBefore,
+  parseMessageCursor,
+} from './message-cursor'
 
 @Injectable()
 export class GatewayService {
@@ -231,6 +257,25 @@ export class GatewayService {
     return { success: true }
   }
 
+  // Normal priority is left out of what is stored and pushed, so SMS sent
+  // without a priority look the same as before priorities existed
+  private resolveSmsPriority(priority?: string): SMSPriority | undefined {
+    if (priority === undefined || priority === null) {
+      return undefined
+    }
+    const normalized = String(priority).toLowerCase()
+    if (!Object.values(SMSPriority).includes(normalized as SMSPriority)) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `Invalid priority. Must be one of: ${Object.values(SMSPriority).join(', ')}`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    return normalized === SMSPriority.NORMAL ? undefined : (normalized as SMSPriority)
+  }
+
   private calculateDelayFromScheduledAt(scheduledAt?: string): number | undefined {
     if (!scheduledAt) {
       return undefined
@@ -316,8 +361,14 @@ export class GatewayService {
       )
     }
 
-    // Calculate delay from scheduledAt if provided
-    const delayMs = this.calculateDelayFromScheduledAt(smsData.scheduledAt)
+    const priority = this.resolveSmsPriority(smsData.priority)
+
+    // Calculate delay from scheduledAt if provided; devices that schedule
+    // SMS themselves get them now, with sendAt, instead of a delayed push
+    const { sendAt, delayMs } = scheduleSms(
+      device,
+      this.calculateDelayFromScheduledAt(smsData.scheduledAt),
+    )
 
     // Validate that scheduling requires queue to be enabled
     if (delayMs !== undefined && !this.smsQueueService.isQueueEnabled()) {
@@ -360,7 +411,7 @@ export class GatewayService {
       )
     }
 
-    const fcmMessages: Message[] = []
+    const instructions: SmsSendInstruction[] = []
 
     for (let recipient of recipients) {
       recipient = recipient.replace(/\s+/g, "")
@@ -376,34 +427,28 @@ export class GatewayService {
         ...(smsData.simSubscriptionId !== undefined && {
           simSubscriptionId: smsData.simSubscriptionId,
         }),
+        ...(priority && { priority }),
+        ...(sendAt !== undefined && { sendAt: new Date(sendAt) }),
       })
-      const updatedSMSData = {
-        smsId: sms._id,
-        smsBatchId: smsBatch._id,
+      instructions.push({
+        smsId: String(sms._id),
+        recipient,
         message,
-        recipients: [recipient],
         ...(smsData.simSubscriptionId !== undefined && {
           simSubscriptionId: smsData.simSubscriptionId,
         }),
-
-        // Legacy fields to be removed in the future
-        smsBody: message,
-        receivers: [recipient],
-      }
-      const stringifiedSMSData = JSON.stringify(updatedSMSData)
-
-      const fcmMessage: Message = {
-        data: {
-          smsData: stringifiedSMSData,
-        },
-        token: device.fcmToken,
-        android: {
-          priority: 'high',
-        },
-      }
-      fcmMessages.push(fcmMessage)
+        ...(priority && { priority }),
+        ...(sendAt !== undefined && { sendAt }),
+      })
     }
 
+    const fcmMessages = await this.buildFcmMessages(
+      device,
+      smsBatch._id,
+      instructions,
+      delayMs,
+    )
+
     // Check if we should use the queue
     if (this.smsQueueService.isQueueEnabled()) {
       try {
@@ -467,7 +512,7 @@ export class GatewayService {
 
       this.deviceModel
         .findByIdAndUpdate(deviceId, {
-          $inc: { sentSMSCount: response.successCount },
+          $inc: { sentSMSCount: this.countDispatchedSms(fcmMessages, response) },
         })
         .exec()
         .catch((e) => {
@@ -532,6 +577,9 @@ export class GatewayService {
       )
     }
 
+    // rejects an invalid priority before anything is stored
+    const priorities = body.messages.map((m) => this.resolveSmsPriority(m?.priority))
+
     await this.billingService.canPerformAction(
       device.user.toString(),
       'bulk_send_sms',
@@ -572,11 +620,14 @@ export class GatewayService {
       recipient: string
       message: string
       simSubscriptionId?: number
+      priority?: SMSPriority
+      sendAt?: number
       delayMs?: number
     }> = []
 
-    for (const smsData of messages) {
+    for (const [index, smsData] of messages.entries()) {
       const message = smsData.message
+      const priority = priorities[index]
       const recipients = smsData.recipients
 
       if (!message) {
@@ -588,7 +639,10 @@ export class GatewayService {
       }
 
       // Calculate delay for this message's scheduledAt
-      const delayMs = this.calculateDelayFromScheduledAt(smsData.scheduledAt)
+      const { sendAt, delayMs } = scheduleSms(
+        device,
+        this.calculateDelayFromScheduledAt(smsData.scheduledAt),
+      )
 
       for (let recipient of recipients) {
         recipient = recipient.replace(/\s+/g, "")
@@ -604,6 +658,8 @@ export class GatewayService {
           ...(smsData.simSubscriptionId !== undefined && {
             simSubscriptionId: smsData.simSubscriptionId,
           }),
+          ...(priority && { priority }),
+          ...(sendAt !== undefined && { sendAt: new Date(sendAt) }),
         })
         smsToFcmMetadata.push({
           recipient,
@@ -611,6 +667,8 @@ export class GatewayService {
           ...(smsData.simSubscriptionId !== undefined && {
             simSubscriptionId: smsData.simSubscriptionId,
           }),
+          priority,
+          sendAt,
           delayMs,
         })
       }
@@ -644,34 +702,35 @@ export class GatewayService {
       )
     }
 
+    // Instructions grouped by delay (undefined delay means immediate)
+    const instructionsByDelay = new Map<number | undefined, SmsSendInstruction[]>()
     for (let i = 0; i < insertedSmsDocs.length; i++) {
       const sms = insertedSmsDocs[i]
       const metadata = smsToFcmMetadata[i]
-      const updatedSMSData = {
-        smsId: sms._id,
-        smsBatchId: smsBatch._id,
+      if (!instructionsByDelay.has(metadata.delayMs)) {
+        instructionsByDelay.set(metadata.delayMs, [])
+      }
+      instructionsByDelay.get(metadata.delayMs)!.push({
+        smsId: String(sms._id),
+        recipient: metadata.recipient,
         message: metadata.message,
-        recipients: [metadata.recipient],
         ...(metadata.simSubscriptionId !== undefined && {
           simSubscriptionId: metadata.simSubscriptionId,
         }),
-
-        // Legacy fields to be removed in the future
-        smsBody: metadata.message,
-        receivers: [metadata.recipient],
-      }
-      const stringifiedSMSData = JSON.stringify(updatedSMSData)
-
-      const fcmMessage: Message = {
-        data: {
-          smsData: stringifiedSMSData,
-        },
-        token: device.fcmToken,
-        android: {
-          priority: 'high',
-        },
+        ...(metadata.priority && { priority: metadata.priority }),
+        ...(metadata.sendAt !== undefined && { sendAt: metadata.sendAt }),
+      })
+    }
+    for (const [delayMs, instructions] of instructionsByDelay.entries()) {
+      const batchMessages = await this.buildFcmMessages(
+        device,
+        smsBatch._id,
+        instructions,
+        delayMs,
+      )
+      for (const message of batchMessages) {
+        fcmMessagesWithDelays.push({ message, delayMs })
       }
-      fcmMessagesWithDelays.push({ message: fcmMessage, delayMs: metadata.delayMs })
     }
 
     // Check if we should use the queue
@@ -745,7 +804,7 @@ export class GatewayService {
 
         this.deviceModel
           .findByIdAndUpdate(deviceId, {
-            $inc: { sentSMSCount: response.successCount },
+            $inc: { sentSMSCount: this.countDispatchedSms(batch, response) },
           })
           .exec()
           .catch((e) => {
@@ -793,24 +852,273 @@ export class GatewayService {
     return response
   }
 
-  async receiveSMS(deviceId: string, dto: ReceivedSMSDTO): Promise<any> {
+  // One push per recipient for devices that only understand the legacy
+  // smsData payload, as few smsEnvelope pushes as fit otherwise. Devices that
+  // support pull mode get a single doorbell instead of several envelopes and
+  // fetch the SMS themselves once they are due.
+  private async buildFcmMessages(
+    device: DeviceDocument,
+    smsBatchId: any,
+    instructions: SmsSendInstruction[],
+    delayMs?: number,
+  ): Promise<Message[]> {
+    const toMessage = (data: Record<string, string>): Message => ({
+      data,
+      token: device.fcmToken,
+      android: {
+        priority: 'high',
+      },
+    })
+    const legacyMessage = (instruction: SmsSendInstruction): Message =>
+      toMessage({
+        smsData: JSON.stringify({
+          smsId: instruction.smsId,
+          smsBatchId,
+          message: instruction.message,
+          recipients: [instruction.recipient],
+          ...(instruction.simSubscriptionId !== undefined && {
+            simSubscriptionId: instruction.simSubscriptionId,
+          }),
+          ...(instruction.priority && { priority: instruction.priority }),
+          ...(instruction.sendAt !== undefined && { sendAt: instruction.sendAt }),
+
+          // Legacy fields to be removed in the future
+          smsBody: instruction.message,
+          receivers: [instruction.recipient],
+        }),
+      })
+
+    if (!supportsSmsEnvelope(device)) {
+      return instructions.map(legacyMessage)
+    }
+    const { envelopes, oversized } = packSmsEnvelopes(
+      String(smsBatchId),
+      instructions,
+    )
+    if (envelopes.length + oversized.length > 1 && supportsSmsPull(device)) {
+      await this.smsModel.updateMany(
+        { _id: { $in: instructions.map((i) => i.smsId) } as any },
+        { $set: { pullableAt: new Date(Date.now() + (delayMs ?? 0)) } },
+      )
+      return [
+        toMessage({
+          type: SMS_PULL_DOORBELL_TYPE,
+          smsBatchId: String(smsBatchId),
+        }),
+      ]
+    }
+    return [
+      ...envelopes.map((smsEnvelope) => toMessage({ smsEnvelope })),
+      ...oversized.map(legacyMessage),
+    ]
+  }
+
+  // Number of SMS handed to FCM successfully; an envelope carries several
+  private countDispatchedSms(fcmMessages: Message[], response: BatchResponse): number {
+    if (response.responses?.length !== fcmMessages.length) {
+      return response.successCount
+    }
+    return response.responses.reduce(
+      (count, result, i) =>
+        result.success ? count + smsIdsOfFcmMessage(fcmMessages[i]).length : count,
+      0,
+    )
+  }
+
+  // Leases the next page of SMS waiting for the device to fetch them. Pages
+  // are ordered by _id; `cursor` is the nextCursor of the previous page.
+  async getPendingSMS(
+    deviceId: string,
+    cursor?: string,
+    limit = SMS_PULL_DEFAULT_PAGE_SIZE,
+  ): Promise<any> {
     const device = await this.deviceModel.findById(deviceId)
 
     if (!device) {
       throw new HttpException(
         {
           success: false,
-          error: 'Device does not exist',
+          error: 'Device not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+
+    if (cursor && !Types.ObjectId.isValid(cursor)) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid cursor',
         },
         HttpStatus.BAD_REQUEST,
       )
     }
 
+    const pageSize = Math.min(
+      Math.max(1, Math.floor(Number(limit)) || SMS_PULL_DEFAULT_PAGE_SIZE),
+      SMS_PULL_MAX_PAGE_SIZE,
+    )
+    const now = new Date()
+    const filter = pullableSmsFilter(device._id, now)
+    const candidates = await this.smsModel
+      .find({
+        ...filter,
+        ...(cursor && { _id: { $gt: new Types.ObjectId(cursor) } }),
+      })
+      .sort({ _id: 1 })
+      .limit(pageSize)
+      .select('_id')
+      .exec()
+
+    const leaseId = new Types.ObjectId().toString()
+    const leaseExpiresAt = new Date(now.getTime() + SMS_PULL_LEASE_MS)
+    let leased: any[] = []
+    if (candidates.length > 0) {
+      // only SMS still unleased are taken, so a concurrent fetch cannot get them too
+      const candidateIds = candidates.map((sms) => sms._id)
+      await this.smsModel.updateMany(
+        { ...filter, _id: { $in: candidateIds } },
+        { $set: { leaseId, leaseExpiresAt } },
+      )
+      leased = await this.smsModel
+        .find({ _id: { $in: candidateIds }, leaseId })
+        .sort({ _id: 1 })
+        .exec()
+    }
+
+    return {
+      items: leased.map((sms) => ({
+        smsId: String(sms._id),
+        smsBatchId: sms.smsBatch ? String(sms.smsBatch) : undefined,
+        recipient: sms.recipient,
+        message: sms.message,
+        ...(sms.simSubscriptionId != null && {
+          simSubscriptionId: sms.simSubscriptionId,
+        }),
+        ...(sms.priority && { priority: sms.priority }),
+        ...(sms.sendAt && { sendAt: new Date(sms.sendAt).getTime() }),
+      })),
+      nextCursor:
+        candidates.length === pageSize
+          ? String(candidates[candidates.length - 1]._id)
+          : null,
+      leaseExpiresAt,
+    }
+  }
+
+  // Marks fetched SMS as dispatched once the device has queued them and counts
+  // them as sent. Repeated acks are ignored, so the device can safely resend them.
+  async ackPendingSMS(deviceId: string, dto: AckPendingSMSDTO): Promise<any> {
+    const smsIds = dto?.smsIds
+
     if (
-      (!dto.receivedAt && !dto.receivedAtInMillis) ||
-      !dto.sender ||
-      !dto.message
+      !Array.isArray(smsIds) ||
+      smsIds.length === 0 ||
+      smsIds.length > SMS_PULL_MAX_ACK_SIZE
     ) {
+      throw new HttpException(
+        {
+          success: false,
+          error: `smsIds must contain between 1 and ${SMS_PULL_MAX_ACK_SIZE} IDs`,
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const device = await this.deviceModel.findById(deviceId)
+
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+
+    // a status the device uploaded before its ack may have moved the SMS past
+    // 'pending' already; it is still counted once, here
+    const unacked = await this.smsModel
+      .find({
+        _id: { $in: smsIds.filter((id) => Types.ObjectId.isValid(id)) },
+        device: device._id,
+        type: SMSType.SENT,
+        pullableAt: { $exists: true },
+        dispatchedAt: { $exists: false },
+      })
+      .select('_id smsBatch')
+      .exec()
+
+    if (unacked.length === 0) {
+      return { success: true, acknowledgedCount: 0 }
+    }
+
+    const idsByBatch = new Map<string, Types.ObjectId[]>()
+    for (const sms of unacked) {
+      const batchId = sms.smsBatch ? String(sms.smsBatch) : ''
+      idsByBatch.set(batchId, [...(idsByBatch.get(batchId) ?? []), sms._id])
+    }
+
+    const dispatchedAt = new Date()
+    let acknowledgedCount = 0
+    for (const [batchId, ids] of idsByBatch.entries()) {
+      // the guard lets only one of two racing acks count an SMS
+      const { modifiedCount } = await this.smsModel.updateMany(
+        { _id: { $in: ids }, dispatchedAt: { $exists: false } },
+        {
+          $set: { dispatchedAt },
+          $unset: { leaseId: '', leaseExpiresAt: '' },
+        },
+      )
+      await this.smsModel.updateMany(
+        { _id: { $in: ids }, status: 'pending' },
+        { $set: { status: 'dispatched' } },
+      )
+      acknowledgedCount += modifiedCount
+
+      if (!batchId || modifiedCount === 0) continue
+      const smsBatch = await this.smsBatchModel.findByIdAndUpdate(
+        batchId,
+        { $inc: { successCount: modifiedCount } },
+        { returnDocument: 'after' },
+      )
+      if (smsBatch && smsBatch.successCount >= smsBatch.recipientCount) {
+        await this.smsBatchModel.findByIdAndUpdate(batchId, {
+          $set: { status: 'completed' },
+        })
+      }
+    }
+
+    if (acknowledgedCount > 0) {
+      this.deviceModel
+        .findByIdAndUpdate(device._id, {
+          $inc: { sentSMSCount: acknowledgedCount },
+        })
+        .exec()
+        .catch((e) => {
+          console.log('Failed to update sentSMSCount')
+          console.log(e)
+        })
+    }
+
+    return { success: true, acknowledgedCount }
+  }
+
+  async receiveSMS(deviceId: string, dto: ReceivedSMSDTO): Promise<any> {
+    const device = await this.deviceModel.findById(deviceId)
+
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device does not exist',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    if (!this.isValidReceivedSMS(dto)) {
       console.error(`receiveSMS: Invalid received SMS data (sender: ${dto.sender}, message: ${dto.message}) (receivedAt: ${dto.receivedAt}, receivedAtInMillis: ${dto.receivedAtInMillis})`)
       throw new HttpException(
         {
@@ -827,9 +1135,113 @@ export class GatewayService {
       1,
     )
 
+    const { sms, created } = await this.saveReceivedSMS(device, dto)
+    if (created) {
+      this.incrementReceivedSMSCount(deviceId, 1)
+    }
+
+    return sms
+  }
+
+  async receiveSMSBulk(
+    deviceId: string,
+    dto: ReceivedSMSBulkDTO,
+  ): Promise<any> {
+    const messages = dto.messages
+    if (!Array.isArray(messages) || messages.length === 0) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid messages: at least one received SMS is required',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    if (messages.length > 500) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Too many messages: at most 500 per request',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const device = await this.deviceModel.findById(deviceId)
+
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device does not exist',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const validCount = messages.filter((m) => this.isValidReceivedSMS(m)).length
+    if (validCount > 0) {
+      await this.billingService.canPerformAction(
+        device.user.toString(),
+        'receive_sms',
+        validCount,
+      )
+    }
+
+    // results line up with the request; items that are not retryable must not be sent again
+    const results = []
+    let createdCount = 0
+    for (const message of messages) {
+      if (!this.isValidReceivedSMS(message)) {
+        results.push({
+          success: false,
+          retryable: false,
+          error: 'Invalid received SMS data',
+        })
+        continue
+      }
+      try {
+        const { sms, created } = await this.saveReceivedSMS(device, message)
+        if (created) {
+          createdCount++
+        }
+        results.push({ success: true, smsId: sms._id })
+      } catch (error) {
+        console.error(`receiveSMSBulk: Failed to store SMS from ${message.sender}:`, error)
+        results.push({
+          success: false,
+          retryable: true,
+          error: 'Failed to store received SMS',
+        })
+      }
+    }
+
+    if (createdCount > 0) {
+      this.incrementReceivedSMSCount(deviceId, createdCount)
+    }
+
+    return {
+      success: true,
+      results,
+    }
+  }
+
+  private isValidReceivedSMS(dto: ReceivedSMSDTO): boolean {
+    return !(
+      !dto ||
+      (!dto.receivedAt && !dto.receivedAtInMillis) ||
+      !dto.sender ||
+      !dto.message
+    )
+  }
+
+  private async saveReceivedSMS(
+    device: DeviceDocument,
+    dto: ReceivedSMSDTO,
+  ): Promise<{ sms: any; created: boolean }> {
     const receivedAt = dto.receivedAtInMillis
       ? new Date(dto.receivedAtInMillis)
-      : dto.receivedAt
+      : new Date(dto.receivedAt)
 
     // Deduplication: Check for existing SMS with same device, sender, message, and receivedAt (within ±5 seconds tolerance)
     const toleranceMs = 5000 // 5 seconds
@@ -849,9 +1261,9 @@ export class GatewayService {
 
     if (existingSMS) {
       console.log(
-        `Duplicate SMS detected for device ${deviceId}, sender ${dto.sender}, returning existing record: ${existingSMS._id}`,
+        `Duplicate SMS detected for device ${device._id}, sender ${dto.sender}, returning existing record: ${existingSMS._id}`,
       )
-      return existingSMS
+      return { sms: existingSMS, created: false }
     }
 
     const sms = await this.smsModel.create({
@@ -864,16 +1276,6 @@ export class GatewayService {
       receivedAt,
     })
 
-    this.deviceModel
-      .findByIdAndUpdate(deviceId, {
-        $inc: { receivedSMSCount: 1 },
-      })
-      .exec()
-      .catch((e) => {
-        console.log('Failed to update receivedSMSCount')
-        console.log(e)
-      })
-
     this.webhookService
       .deliverNotification({
         sms,
@@ -884,7 +1286,19 @@ export class GatewayService {
         console.log(e)
       })
 
-    return sms
+    return { sms, created: true }
+  }
+
+  private incrementReceivedSMSCount(deviceId: string, count: number) {
+    this.deviceModel
+      .findByIdAndUpdate(deviceId, {
+        $inc: { receivedSMSCount: count },
+      })
+      .exec()
+      .catch((e) => {
+        console.log('Failed to update receivedSMSCount')
+        console.log(e)
+      })
   }
 
   async getReceivedSMS(
@@ -953,6 +1367,7 @@ export class GatewayService {
     page = 1,
     limit = 50,
     search = '',
+    before = '',
   ): Promise<{ data: any[]; meta: any }> {
     const device = await this.deviceModel.findById(deviceId)
 
@@ -966,8 +1381,19 @@ export class GatewayService {
       )
     }
 
-    // Calculate skip value for pagination
-    const skip = (page - 1) * limit
+    // A `before` cursor seeks past the previous page; without one the page
+    // number is skipped to, which costs more the deeper it goes
+    const cursor = before ? parseMessageCursor(before) : null
+    if (before && !cursor) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid cursor',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    const skip = cursor ? 0 : (page - 1) * limit
 
     // Build query based on type filter
     const query: any = { device: device._id }
@@ -991,15 +1417,13 @@ export class GatewayService {
       ]
     }
 
-    // Get total count for pagination metadata
-    const total = await this.smsModel.countDocuments(query)
-
     // @ts-ignore
     const data = await this.smsModel
-      .find(query, null, {
-        // Sort by the most recent timestamp (receivedAt for received, sentAt for sent)
-        sort: { createdAt: -1 },
-        limit: limit,
+      .find(cursor ? { ...query, $and: [messagesBefore(cursor)] } : query, null, {
+        // Newest first; _id breaks ties so that pages never overlap
+        sort: MESSAGE_HISTORY_SORT,
+        // one extra tells whether another page follows
+        limit: limit + 1,
         skip: skip,
       })
       .populate({
@@ -1008,6 +1432,27 @@ export class GatewayService {
       })
       .lean() // Use lean() to return plain JavaScript objects instead of Mongoose documents
 
+    const hasMore = data.length > limit
+    if (hasMore) {
+      data.pop()
+    }
+    const nextCursor = hasMore ? formatMessageCursor(data[data.length - 1]) : null
+
+    if (cursor) {
+      // counting every match would cost what the cursor saves
+      return {
+        meta: {
+          limit,
+          hasMore,
+          nextCursor,
+        },
+        data,
+      }
+    }
+
+    // Get total count for pagination metadata
+    const total = await this.smsModel.countDocuments(query)
+
     // Calculate pagination metadata
     const totalPages = Math.ceil(total / limit)
 
@@ -1017,6 +1462,8 @@ export class GatewayService {
         limit,
         total,
         totalPages,
+        hasMore,
+        nextCursor,
       },
       data,
     }
@@ -1059,8 +1506,119 @@ export class GatewayService {
       );
     }
     
+    await this.applySMSStatusUpdate(device, sms, dto);
+    
+    if (dto.smsBatchId) {
+      await this.updateSmsBatchStatus(dto.smsBatchId);
+    }
+    
+    return {
+      success: true,
+      message: 'SMS status updated successfully',
+    };
+  }
+
+  async updateSMSStatusBulk(
+    deviceId: string,
+    dto: UpdateSMSStatusBulkDTO,
+  ): Promise<any> {
+    const updates = dto.updates
+    if (!Array.isArray(updates) || updates.length === 0) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Invalid updates: at least one status update is required',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+    if (updates.length > 500) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Too many updates: at most 500 per request',
+        },
+        HttpStatus.BAD_REQUEST,
+      )
+    }
+
+    const device = await this.deviceModel.findById(deviceId)
+    if (!device) {
+      throw new HttpException(
+        {
+          success: false,
+          error: 'Device not found',
+        },
+        HttpStatus.NOT_FOUND,
+      )
+    }
+
+    // one query for every SMS in the request instead of one per update
+    const smsIds = updates
+      .map((update) => update?.smsId)
+      .filter((smsId) => smsId && Types.ObjectId.isValid(smsId))
+    const smsList = await this.smsModel.find({ _id: { $in: smsIds } })
+    const smsById = new Map(smsList.map((sms) => [sms._id.toString(), sms]))
+
+    const results = []
+    const batchIds = new Set<string>()
+    for (const update of updates) {
+      const sms = update?.smsId ? smsById.get(update.smsId) : undefined
+      if (!sms || !update.status) {
+        results.push({ smsId: update?.smsId, success: false, error: 'SMS not found' })
+        continue
+      }
+      if (sms.device.toString() !== deviceId) {
+        results.push({
+          smsId: update.smsId,
+          success: false,
+          error: 'SMS does not belong to this device',
+        })
+        continue
+      }
+      try {
+        await this.applySMSStatusUpdate(device, sms, update)
+        if (update.smsBatchId) {
+          batchIds.add(update.smsBatchId)
+        }
+        results.push({ smsId: update.smsId, success: true })
+      } catch (error) {
+        console.error(`updateSMSStatusBulk: Failed to update SMS ${update.smsId}:`, error)
+        results.push({ smsId: update.smsId, success: false, error: 'Update failed' })
+      }
+    }
+
+    // each batch is checked once, after all of its messages in this request are applied
+    for (const smsBatchId of batchIds) {
+      await this.updateSmsBatchStatus(smsBatchId)
+    }
+
+    return {
+      success: true,
+      results,
+    }
+  }
+
+  private async applySMSStatusUpdate(
+    device: DeviceDocument,
+    sms: any,
+    dto: UpdateSMSStatusDTO,
+  ) {
     // Normalize status to lowercase for comparison
     const normalizedStatus = dto.status.toLowerCase();
+
+    // the device dropped a redelivered send instruction; the SMS keeps the
+    // status of the send that went out
+    if (normalizedStatus === 'duplicate') {
+      return await this.smsModel.findByIdAndUpdate(
+        sms._id,
+        {
+          $inc: { duplicateDispatchCount: 1 },
+          $set: { lastDuplicateDispatchAt: new Date() },
+        },
+        { new: true },
+      )
+    }
     
     const updateData: any = {
       status: normalizedStatus, // Store normalized status
@@ -1077,33 +1635,30 @@ export class GatewayService {
       updateData.errorMessage = dto.errorMessage || 'Unknown error';
     }
     
-    // Update the SMS
-const updatedSms = await this.smsModel.findByIdAndUpdate(
-  dto.smsId,
-  { $set: updateData },
-  { new: true } 
-);
-    
-    // Check if all SMS in batch have the same status, then update batch status
-    if (dto.smsBatchId) {
-      const smsBatch = await this.smsBatchModel.findById(dto.smsBatchId);
-      if (smsBatch) {
-        const allSmsInBatch = await this.smsModel.find({ smsBatch: dto.smsBatchId });
-        
-        // Check if all SMS in batch have the same status (case insensitive)
-        const allHaveSameStatus = allSmsInBatch.every(sms => sms.status.toLowerCase() === normalizedStatus);
-        
-        if (allHaveSameStatus) {
-          const smsBatchStatus = normalizedStatus === 'failed' ? 'failed' : 'completed';
-          await this.smsBatchModel.findByIdAndUpdate(dto.smsBatchId, { 
-            $set: { status: smsBatchStatus } 
-          });
-        }
-      }
+    // Batched uploads collapse sent + delivered into one update that carries
+    // both timestamps; record the send and notify about it as well
+    const collapsedSend =
+      normalizedStatus !== 'sent' && !!dto.sentAtInMillis && !sms.sentAt
+    if (collapsedSend) {
+      updateData.sentAt = new Date(dto.sentAtInMillis);
     }
     
+    // Update the SMS
+    const updatedSms = await this.smsModel.findByIdAndUpdate(
+      sms._id,
+      { $set: updateData },
+      { new: true } 
+    );
+    
     // Trigger webhook event for SMS status update
     try {
+       if (collapsedSend && normalizedStatus === 'delivered') {
+         this.webhookService.deliverNotification({
+           sms: updatedSms,
+           user: device.user,
+           event: WebhookEvent.MESSAGE_SENT,
+         });
+       }
        let event: WebhookEvent
        switch (normalizedStatus) {
           case 'sent':
@@ -1130,10 +1685,25 @@ const updatedSms = await this.smsModel.findByIdAndUpdate(
       console.error('Failed to trigger webhook event:', error);
     }
     
-    return {
-      success: true,
-      message: 'SMS status updated successfully',
-    };
+    return updatedSms
+  }
+
+  // Marks the batch completed or failed once all of its SMS share the same status
+  private async updateSmsBatchStatus(smsBatchId: string) {
+    const smsBatch = await this.smsBatchModel.findById(smsBatchId);
+    if (!smsBatch) {
+      return
+    }
+    const statuses = await this.smsModel.distinct('status', { smsBatch: smsBatchId });
+    const normalizedStatuses = new Set(statuses.map((status) => `${status}`.toLowerCase()));
+    
+    if (normalizedStatuses.size === 1) {
+      const [status] = normalizedStatuses
+      const smsBatchStatus = status === 'failed' ? 'failed' : 'completed';
+      await this.smsBatchModel.findByIdAndUpdate(smsBatchId, { 
+        $set: { status: smsBatchStatus } 
+      });
+    }
   }
 
   async getStatsForUser(user: User) {
@@ -1321,6 +1891,30 @@ const updatedSms = await this.smsModel.findByIdAndUpdate(
       }
     }
 
+    // Update sendRateLimitInfo if provided
+    if (input.sendRateLimits !== undefined) {
+      updateData.sendRateLimitInfo = {
+        limits: input.sendRateLimits,
+        lastUpdated: now,
+      }
+    }
+
+    // Update sendQueueInfo if provided
+    if (input.sendQueueLanes !== undefined) {
+      updateData.sendQueueInfo = {
+        lanes: input.sendQueueLanes,
+        lastUpdated: now,
+      }
+    }
+
+    // Update metricsInfo if provided
+    if (input.metrics !== undefined) {
+      updateData.metricsInfo = {
+        ...input.metrics,
+        lastUpdated: now,
+      }
+    }
+
     // Update device with all changes
     await this.deviceModel.findByIdAndUpdate(deviceId, {
       $set: updateData,
@@ -1329,11 +1923,17 @@ const updatedSms = await this.smsModel.findByIdAndUpdate(
     // Fetch updated device to get current name
     const updatedDevice = await this.deviceModel.findById(deviceId)
 
+    // lets the device catch up on SMS whose doorbell push it missed
+    const hasPendingSms = supportsSmsPull(device)
+      ? (await this.smsModel.exists(pullableSmsFilter(device._id, now))) != null
+      : undefined
+
     return {
       success: true,
       fcmTokenUpdated,
       lastHeartbeat: now,
       name: updatedDevice?.name,
+      ...(hasPendingSms !== undefined && { hasPendingSms }),
     }
   }
 }
@@ -0,0 +1,39 @@
+import { Types } from 'mongoose'
+import {
+  formatMessageCursor,
+  messagesBefore,
+  parseMessageCursor,
+} from './message-cursor'
+
+describe('message-cursor', () => {
+  const createdAt = new Date('2025-03-01T12:34:56.789Z')
+  const id = new Types.ObjectId('65e1c0ffee0000000000beef')
+
+  it('round-trips the last message of a page', () => {
+    const cursor = parseMessageCursor(formatMessageCursor({ createdAt, _id: id }))
+    expect(cursor.createdAt.getTime()).toBe(createdAt.getTime())
+    expect(cursor.id.equals(id)).toBe(true)
+  })
+
+  it('rejects values it did not issue', () => {
+    expect(parseMessageCursor('')).toBeNull()
+    expect(parseMessageCursor(undefined)).toBeNull()
+    expect(parseMessageCursor('2')).toBeNull()
+    expect(parseMessageCursor(`not-a-date,${id}`)).toBeNull()
+    expect(parseMessageCursor(`${createdAt.toISOString()},{"$gt":""}`)).toBeNull()
+  })
+
+  it('has no cursor for a message without its keys', () => {
+    expect(formatMessageCursor({ _id: id })).toBeNull()
+    expect(formatMessageCursor(undefined)).toBeNull()
+  })
+
+  it('continues strictly after the cursor, breaking createdAt ties by _id', () => {
+    expect(messagesBefore({ createdAt, id })).toEqual({
+      $or: [
+        { createdAt: { $lt: createdAt } },
+        { createdAt, _id: { $lt: id } },
+      ],
+    })
+  })
+})
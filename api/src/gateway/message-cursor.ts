@@ -0,0 +1,51 @@
+import { Types } from 'mongoose'
+
+/**
+ * Keyset cursor for a device's message history, which is listed newest first
+ * by `createdAt`, ties broken by `_id`. A cursor names the last message of a
+ * page as `<createdAt ISO>,<_id>`; the next page is everything strictly before
+ * it, found by a seek on the `{ device, createdAt, _id }` index. Unlike
+ * skip/limit, page 500 costs the same as page 1, and messages arriving while
+ * the user scrolls do not shift later pages.
+ */
+export interface MessageCursor {
+  createdAt: Date
+  id: Types.ObjectId
+}
+
+export const MESSAGE_HISTORY_SORT = { createdAt: -1, _id: -1 } as const
+
+/** Parses a `before` query value; null if it is not a cursor this API issued. */
+export function parseMessageCursor(raw: string): MessageCursor | null {
+  const separator = raw?.lastIndexOf(',') ?? -1
+  if (separator <= 0) {
+    return null
+  }
+  const createdAt = new Date(raw.slice(0, separator))
+  const id = raw.slice(separator + 1)
+  if (isNaN(createdAt.getTime()) || !/^[0-9a-fA-F]{24}$/.test(id)) {
+    return null
+  }
+  return { createdAt, id: new Types.ObjectId(id) }
+}
+
+/** The cursor that continues after `message`, the last of a page. */
+export function formatMessageCursor(message: {
+  createdAt?: Date
+  _id?: Types.ObjectId | string
+}): string | null {
+  if (!message?.createdAt || !message._id) {
+    return null
+  }
+  return `${new Date(message.createdAt).toISOString()},${message._id}`
+}
+
+/** Query condition for the messages listed after `cursor`. */
+export function messagesBefore(cursor: MessageCursor): Record<string, any> {
+  return {
+    $or: [
+      { createdAt: { $lt: cursor.createdAt } },
+      { createdAt: cursor.createdAt, _id: { $lt: cursor.id } },
+    ],
+  }
+}
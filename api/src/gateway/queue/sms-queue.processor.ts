@@ -9,6 +9,7 @@ import { SMSBatch } from '../schemas/sms-batch.schema'
 import { WebhookService } from 'src/webhook/webhook.service'
 import { WebhookEvent } from 'src/webhook/webhook-event.enum'
 import { Logger } from '@nestjs/common'
+import { smsIdsOfFcmMessage } from '../sms-envelope'
 
 function getFcmErrorCode(error: { code?: string; message?: string } | null): string {
   if (!error?.code) return 'FCM_DELIVERY_FAILED'
@@ -98,14 +99,16 @@ export class SmsQueueProcessor {
       for (let i = 0; i < response.responses.length; i++) {
         if (!response.responses[i].success) {
           try {
-            const smsData = JSON.parse(fcmMessages[i].data.smsData)
+            // an envelope push carries several SMS; all of them failed with it
             const fcmError = response.responses[i].error
-            failedSmsIds.push(String(smsData.smsId))
-            failedUpdates.push({
-              smsId: String(smsData.smsId),
-              errorCode: getFcmErrorCode(fcmError ?? undefined),
-              errorMessage: getFcmErrorMessage(fcmError ?? undefined),
-            })
+            for (const smsId of smsIdsOfFcmMessage(fcmMessages[i])) {
+              failedSmsIds.push(smsId)
+              failedUpdates.push({
+                smsId,
+                errorCode: getFcmErrorCode(fcmError ?? undefined),
+                errorMessage: getFcmErrorMessage(fcmError ?? undefined),
+              })
+            }
           } catch (parseError) {
             this.logger.error(
               `Failed to mark SMS as failed for FCM message index ${i}`,
@@ -121,8 +124,7 @@ export class SmsQueueProcessor {
       for (let i = 0; i < response.responses.length; i++) {
         if (response.responses[i].success) {
           try {
-            const smsData = JSON.parse(fcmMessages[i].data.smsData)
-            dispatchedSmsIds.push(String(smsData.smsId))
+            dispatchedSmsIds.push(...smsIdsOfFcmMessage(fcmMessages[i]))
           } catch (parseError) {
             this.logger.error(
               `Failed to mark SMS as dispatched for FCM message index ${i}`,
@@ -178,10 +180,16 @@ export class SmsQueueProcessor {
         }
       }
 
+      // a pull-mode doorbell carries no SMS; they are counted when the device
+      // acknowledges fetching them
+      if (dispatchedSmsIds.length === 0 && failedSmsIds.length === 0) {
+        return response
+      }
+
       // Update device SMS count
       await this.deviceModel
         .findByIdAndUpdate(deviceId, {
-          $inc: { sentSMSCount: response.successCount },
+          $inc: { sentSMSCount: dispatchedSmsIds.length },
         })
         .exec()
 
@@ -190,8 +198,8 @@ export class SmsQueueProcessor {
         smsBatchId,
         {
           $inc: {
-            successCount: response.successCount,
-            failureCount: response.failureCount,
+            successCount: dispatchedSmsIds.length,
+            failureCount: failedSmsIds.length,
           },
         },
         { returnDocument: 'after' },
@@ -215,8 +223,7 @@ export class SmsQueueProcessor {
       const failedSmsIds: string[] = []
       for (const fcmMessage of fcmMessages) {
         try {
-          const smsData = JSON.parse(fcmMessage.data.smsData)
-          failedSmsIds.push(String(smsData.smsId))
+          failedSmsIds.push(...smsIdsOfFcmMessage(fcmMessage))
         } catch (parseError) {
           this.logger.error(
             'Failed to mark SMS as failed after FCM error',
@@ -263,24 +270,26 @@ export class SmsQueueProcessor {
         }
       }
 
-      const smsBatch = await this.smsBatchModel.findByIdAndUpdate(
-        smsBatchId,
-        {
-          $inc: {
-            failureCount: fcmMessages.length,
+      if (failedSmsIds.length > 0) {
+        const smsBatch = await this.smsBatchModel.findByIdAndUpdate(
+          smsBatchId,
+          {
+            $inc: {
+              failureCount: failedSmsIds.length,
+            },
           },
-        },
-        { returnDocument: 'after' },
-      )
+          { returnDocument: 'after' },
+        )
 
-      const newStatus =
-        smsBatch.failureCount === smsBatch.recipientCount
-          ? 'failed'
-          : 'partial_success'
+        const newStatus =
+          smsBatch.failureCount === smsBatch.recipientCount
+            ? 'failed'
+            : 'partial_success'
 
-      await this.smsBatchModel.findByIdAndUpdate(smsBatchId, {
-        $set: { status: newStatus },
-      })
+        await this.smsBatchModel.findByIdAndUpdate(smsBatchId, {
+          $set: { status: newStatus },
+        })
+      }
 
       throw error
     }
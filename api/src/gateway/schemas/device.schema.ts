@@ -203,6 +203,99 @@ export class Device {
       subscriptionType?: string
     }>
   }
+
+  @Prop({
+    type: {
+      lastUpdated: Date,
+      limits: [
+        {
+          simSubscriptionId: Number,
+          tokens: Number,
+          burst: Number,
+          ratePerMinute: Number,
+          nextAllowedAtMillis: Number,
+          adaptiveRatePerMinute: Number,
+        },
+      ],
+    },
+  })
+  sendRateLimitInfo: {
+    lastUpdated?: Date
+    limits?: Array<{
+      simSubscriptionId: number
+      tokens: number
+      burst: number
+      ratePerMinute?: number
+      nextAllowedAtMillis: number
+      adaptiveRatePerMinute?: number
+    }>
+  }
+
+  @Prop({
+    type: {
+      lastUpdated: Date,
+      lanes: [
+        {
+          priority: String,
+          depth: Number,
+          oldestWaitMillis: Number,
+          dispatchedCount: Number,
+          waitP50Millis: Number,
+          waitP95Millis: Number,
+          waitMaxMillis: Number,
+        },
+      ],
+    },
+  })
+  sendQueueInfo: {
+    lastUpdated?: Date
+    lanes?: Array<{
+      priority: string
+      depth: number
+      oldestWaitMillis: number
+      dispatchedCount: number
+      waitP50Millis: number
+      waitP95Millis: number
+      waitMaxMillis: number
+    }>
+  }
+
+  @Prop({
+    type: {
+      lastUpdated: Date,
+      trackedMessages: Number,
+      lifecycleStages: [
+        {
+          stage: String,
+          count: Number,
+          failures: Number,
+          lastMinuteCount: Number,
+          p50Millis: Number,
+          p95Millis: Number,
+          p99Millis: Number,
+          maxMillis: Number,
+          sinceStartP50Millis: Number,
+          sinceStartP95Millis: Number,
+        },
+      ],
+    },
+  })
+  metricsInfo: {
+    lastUpdated?: Date
+    trackedMessages?: number
+    lifecycleStages?: Array<{
+      stage: string
+      count: number
+      failures: number
+      lastMinuteCount: number
+      p50Millis: number
+      p95Millis: number
+      p99Millis: number
+      maxMillis: number
+      sinceStartP50Millis: number
+      sinceStartP95Millis: number
+    }>
+  }
 }
 
 export const DeviceSchema = SchemaFactory.createForClass(Device)
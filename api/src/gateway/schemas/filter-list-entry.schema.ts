@@ -0,0 +1,41 @@
+import { Prop, Schema, SchemaFactory } from '@nestjs/mongoose'
+import { Document, Types } from 'mongoose'
+import { FilterList } from './filter-list.schema'
+import { FilterMatchType, FilterTarget } from '../filter-rule.enum'
+
+export type FilterListEntryDocument = FilterListEntry & Document
+
+@Schema({ timestamps: true })
+export class FilterListEntry {
+  _id?: Types.ObjectId
+
+  @Prop({ type: Types.ObjectId, ref: FilterList.name, required: true })
+  filterList: FilterList | Types.ObjectId
+
+  @Prop({ type: String, required: true })
+  pattern: string
+
+  @Prop({ type: String, required: true, enum: Object.values(FilterMatchType) })
+  matchType: FilterMatchType
+
+  @Prop({ type: String, default: FilterTarget.SENDER, enum: Object.values(FilterTarget) })
+  filterTarget: FilterTarget
+
+  @Prop({ type: Boolean, default: false })
+  caseSensitive: boolean
+
+  // list version of the change that added or removed this entry
+  @Prop({ type: Number, required: true })
+  version: number
+
+  // removed entries are kept so devices holding an older version learn about
+  // the removal
+  @Prop({ type: Boolean, default: false })
+  deleted: boolean
+}
+
+export const FilterListEntrySchema =
+  SchemaFactory.createForClass(FilterListEntry)
+
+// delta sync pages through (version, _id) of one list
+FilterListEntrySchema.index({ filterList: 1, version: 1, _id: 1 })
@@ -0,0 +1,51 @@
+import { Prop, Schema, SchemaFactory } from '@nestjs/mongoose'
+import { Document, Types } from 'mongoose'
+import { User } from '../../users/schemas/user.schema'
+import { FilterListMode } from '../filter-rule.enum'
+
+export type FilterListDocument = FilterList & Document
+
+/**
+ * An account-level list of SMS filter rules shared by all of the user's
+ * devices. `version` is bumped once per change to the list; each entry records
+ * the version that last changed it, so devices fetch only what changed since
+ * the version they hold. Changes are written one at a time under a short
+ * lease, and `committedVersion` is the last change whose entries are all
+ * written: devices are served nothing newer, so a version they hold is
+ * always complete. A block list rejects the messages it matches and an
+ * allow list rejects the ones it does not, whatever mode a device's own rules
+ * are in.
+ */
+@Schema({ timestamps: true })
+export class FilterList {
+  _id?: Types.ObjectId
+
+  @Prop({ type: Types.ObjectId, ref: User.name, required: true, index: true })
+  user: User | Types.ObjectId
+
+  @Prop({ type: String, required: true })
+  name: string
+
+  @Prop({
+    type: String,
+    enum: Object.values(FilterListMode),
+    default: FilterListMode.BLOCK_LIST,
+  })
+  mode: FilterListMode
+
+  @Prop({ type: Number, default: 0 })
+  version: number
+
+  // lists written before committedVersion existed are complete up to `version`
+  @Prop({ type: Number })
+  committedVersion?: number
+
+  // set while a change is being written; a lease past this time is abandoned
+  @Prop({ type: Date })
+  writeLeaseUntil?: Date
+
+  @Prop({ type: Number, default: 0 })
+  entryCount: number
+}
+
+export const FilterListSchema = SchemaFactory.createForClass(FilterList)
@@ -79,6 +79,31 @@ export class SMS {
   @Prop({ type: Number, required: false })
   simSubscriptionId?: number
 
+  // high or bulk; absent for normal priority
+  @Prop({ type: String, required: false })
+  priority?: string
+
+  // when the device is to send a scheduled SMS it was handed ahead of time
+  @Prop({ type: Date, required: false })
+  sendAt?: Date
+
+  // send instructions for this SMS the device dropped as already sent
+  @Prop({ type: Number, required: false })
+  duplicateDispatchCount?: number
+
+  @Prop({ type: Date, required: false })
+  lastDuplicateDispatchAt?: Date
+
+  // pull mode: when the device may fetch this SMS, and who holds it until when
+  @Prop({ type: Date, required: false })
+  pullableAt?: Date
+
+  @Prop({ type: String, required: false })
+  leaseId?: string
+
+  @Prop({ type: Date, required: false })
+  leaseExpiresAt?: Date
+
   // misc metadata for debugging
   @Prop({ type: Object })
   metadata: Record<string, any>
@@ -89,3 +114,10 @@ export const SMSSchema = SchemaFactory.createForClass(SMS)
 
 SMSSchema.index({ device: 1, type: 1, receivedAt: -1 })
 SMSSchema.index({ user: 1, createdAt: -1, type: 1 })
+// device message history, newest first, paged by a createdAt/_id cursor
+SMSSchema.index({ device: 1, createdAt: -1, _id: -1 })
+SMSSchema.index({ device: 1, type: 1, createdAt: -1, _id: -1 })
+SMSSchema.index(
+  { device: 1, status: 1, _id: 1 },
+  { partialFilterExpression: { pullableAt: { $exists: true } } },
+)
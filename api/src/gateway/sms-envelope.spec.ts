@@ -0,0 +1,92 @@
+import {
+  SMS_ENVELOPE_MAX_BYTES,
+  SMS_ENVELOPE_MIN_APP_VERSION_CODE,
+  packSmsEnvelopes,
+  smsIdsOfFcmMessage,
+  supportsSmsEnvelope,
+} from './sms-envelope'
+
+describe('sms-envelope', () => {
+  const instructions = (count: number, message = 'Your code is 123456') =>
+    Array.from({ length: count }, (_, i) => ({
+      smsId: `64b0000000000000000${String(i).padStart(5, '0')}`,
+      recipient: `+1415555${String(i).padStart(4, '0')}`,
+      message,
+    }))
+
+  it('sends the shared message body once per envelope', () => {
+    const { envelopes, oversized } = packSmsEnvelopes('batch1', instructions(3))
+
+    expect(oversized).toEqual([])
+    expect(envelopes).toHaveLength(1)
+    const envelope = JSON.parse(envelopes[0])
+    expect(envelope.v).toBe(2)
+    expect(envelope.b).toBe('batch1')
+    expect(envelope.g).toHaveLength(1)
+    expect(envelope.g[0].m).toBe('Your code is 123456')
+    expect(envelope.g[0].r).toHaveLength(3)
+  })
+
+  it('keeps recipients of different priorities in separate groups', () => {
+    const [first, second, third] = instructions(3)
+    const { envelopes } = packSmsEnvelopes('batch1', [
+      { ...first, priority: 'high' },
+      { ...second, priority: 'high' },
+      third,
+    ])
+
+    const groups = JSON.parse(envelopes[0]).g
+    expect(groups.map((group) => group.p)).toEqual(['high', undefined])
+    expect(groups.map((group) => group.r.length)).toEqual([2, 1])
+  })
+
+  it('splits a large batch into envelopes that fit the FCM limit', () => {
+    const all = instructions(500)
+    const { envelopes } = packSmsEnvelopes('batch1', all)
+
+    expect(envelopes.length).toBeGreaterThan(1)
+    expect(envelopes.length).toBeLessThan(20)
+    for (const envelope of envelopes) {
+      expect(Buffer.byteLength(envelope, 'utf8')).toBeLessThanOrEqual(SMS_ENVELOPE_MAX_BYTES)
+    }
+    const carried = envelopes.flatMap((envelope) =>
+      smsIdsOfFcmMessage({ data: { smsEnvelope: envelope }, token: 't' }),
+    )
+    expect(carried).toEqual(all.map((i) => i.smsId))
+  })
+
+  it('keeps recipients with different SIMs or bodies in separate groups', () => {
+    const { envelopes } = packSmsEnvelopes('batch1', [
+      { smsId: 'a', recipient: '+1', message: 'hi' },
+      { smsId: 'b', recipient: '+2', message: 'hi', simSubscriptionId: 3 },
+      { smsId: 'c', recipient: '+3', message: 'bye' },
+    ])
+
+    const groups = JSON.parse(envelopes[0]).g
+    expect(groups.map((g) => [g.m, g.s])).toEqual([
+      ['hi', undefined],
+      ['hi', 3],
+      ['bye', undefined],
+    ])
+  })
+
+  it('hands back instructions too large for an envelope', () => {
+    const { envelopes, oversized } = packSmsEnvelopes('batch1', [
+      { smsId: 'a', recipient: '+1', message: 'x'.repeat(SMS_ENVELOPE_MAX_BYTES) },
+    ])
+
+    expect(envelopes).toEqual([])
+    expect(oversized.map((i) => i.smsId)).toEqual(['a'])
+  })
+
+  it('reads the smsId of a legacy push', () => {
+    const smsData = JSON.stringify({ smsId: 'sms1', recipients: ['+1'] })
+    expect(smsIdsOfFcmMessage({ data: { smsData }, token: 't' })).toEqual(['sms1'])
+  })
+
+  it('only targets app builds that decode envelopes', () => {
+    expect(supportsSmsEnvelope({})).toBe(false)
+    expect(supportsSmsEnvelope({ appVersionCode: SMS_ENVELOPE_MIN_APP_VERSION_CODE - 1 })).toBe(false)
+    expect(supportsSmsEnvelope({ appVersionCode: SMS_ENVELOPE_MIN_APP_VERSION_CODE })).toBe(true)
+  })
+})
@@ -0,0 +1,139 @@
+import { Message } from 'firebase-admin/messaging'
+
+/**
+ * Compact multi-message FCM payload. One push carries many send
+ * instructions: recipients that share a message body, SIM, priority and
+ * send time are grouped so the body is sent once, and each recipient only
+ * adds its smsId.
+ *
+ * Wire format of the `smsEnvelope` data field:
+ *   { v: 2, b: smsBatchId, g: [{ m: message, s?: simSubscriptionId, p?: priority, t?: sendAt, r: [[smsId, recipient], ...] }] }
+ *
+ * `p` is left out for normal priority and `t` (epoch millis) for SMS to send
+ * right away; builds that predate them ignore them.
+ *
+ * Devices that cannot decode it keep getting one legacy `smsData` push per
+ * recipient.
+ */
+export const SMS_ENVELOPE_VERSION = 2
+
+/** First app build that decodes `smsEnvelope` pushes. */
+export const SMS_ENVELOPE_MIN_APP_VERSION_CODE = 19
+
+/**
+ * FCM rejects data payloads over 4096 bytes; keep headroom for the key name
+ * and anything FCM adds.
+ */
+export const SMS_ENVELOPE_MAX_BYTES = 3584
+
+export interface SmsSendInstruction {
+  smsId: string
+  recipient: string
+  message: string
+  simSubscriptionId?: number
+  priority?: string
+  sendAt?: number
+}
+
+interface EnvelopeGroup {
+  m: string
+  s?: number
+  p?: string
+  t?: number
+  r: Array<[string, string]>
+}
+
+export function supportsSmsEnvelope(device: { appVersionCode?: number }): boolean {
+  return (device?.appVersionCode ?? 0) >= SMS_ENVELOPE_MIN_APP_VERSION_CODE
+}
+
+/**
+ * Packs the instructions into as few envelopes as fit the FCM size limit,
+ * keeping the request order within each group. An instruction too large to fit
+ * an envelope on its own is returned in `oversized` for the caller to send the
+ * legacy way.
+ */
+export function packSmsEnvelopes(
+  smsBatchId: string,
+  instructions: SmsSendInstruction[],
+  maxBytes = SMS_ENVELOPE_MAX_BYTES,
+): { envelopes: string[]; oversized: SmsSendInstruction[] } {
+  const envelopes: string[] = []
+  const oversized: SmsSendInstruction[] = []
+
+  const header = `{"v":${SMS_ENVELOPE_VERSION},"b":${JSON.stringify(smsBatchId)},"g":[`
+  let groups: EnvelopeGroup[] = []
+  let current: EnvelopeGroup | undefined
+  let size = byteLength(header) + 2
+
+  const flush = () => {
+    if (groups.length > 0) {
+      envelopes.push(
+        JSON.stringify({ v: SMS_ENVELOPE_VERSION, b: smsBatchId, g: groups }),
+      )
+    }
+    groups = []
+    current = undefined
+    size = byteLength(header) + 2
+  }
+
+  for (const instruction of instructions) {
+    const entry: [string, string] = [instruction.smsId, instruction.recipient]
+    const entryBytes = byteLength(JSON.stringify(entry)) + 1
+    const sameGroup =
+      current &&
+      current.m === instruction.message &&
+      current.s === instruction.simSubscriptionId &&
+      current.p === instruction.priority &&
+      current.t === instruction.sendAt
+
+    if (sameGroup && size + entryBytes <= maxBytes) {
+      current.r.push(entry)
+      size += entryBytes
+      continue
+    }
+
+    const group: EnvelopeGroup = {
+      m: instruction.message,
+      ...(instruction.simSubscriptionId !== undefined && {
+        s: instruction.simSubscriptionId,
+      }),
+      ...(instruction.priority !== undefined && { p: instruction.priority }),
+      ...(instruction.sendAt !== undefined && { t: instruction.sendAt }),
+      r: [entry],
+    }
+    const groupBytes = byteLength(JSON.stringify(group)) + 1
+    if (size + groupBytes > maxBytes) {
+      flush()
+      if (size + groupBytes > maxBytes) {
+        oversized.push(instruction)
+        continue
+      }
+    }
+    groups.push(group)
+    current = group
+    size += groupBytes
+  }
+  flush()
+
+  return { envelopes, oversized }
+}
+
+/** The smsIds an FCM message carries, for either payload format. */
+export function smsIdsOfFcmMessage(message: Message): string[] {
+  const data = (message as any)?.data ?? {}
+  if (data.smsEnvelope) {
+    const envelope = JSON.parse(data.smsEnvelope)
+    return (envelope.g ?? []).flatMap((group: EnvelopeGroup) =>
+      (group.r ?? []).map(([smsId]) => String(smsId)),
+    )
+  }
+  if (data.smsData) {
+    return [String(JSON.parse(data.smsData).smsId)]
+  }
+  return []
+}
+
+function byteLength(value: string): number {
+  return Buffer.byteLength(value, 'utf8')
+}
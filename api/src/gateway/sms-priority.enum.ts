@@ -0,0 +1,5 @@
+export enum SMSPriority {
+  HIGH = 'high',
+  NORMAL = 'normal',
+  BULK = 'bulk',
+}
@@ -0,0 +1,41 @@
+import { Types } from 'mongoose'
+import { SMSType } from './sms-type.enum'
+
+/**
+ * Pull mode: instead of carrying send instructions, the push is a tiny
+ * doorbell and the device pages the pending SMS from the backend. Each page
+ * leases its SMS to the device; the device acknowledges them once they are
+ * queued for sending, and anything left unacknowledged is offered again after
+ * the lease expires.
+ */
+
+/** First app build that answers the doorbell by fetching pending SMS. */
+export const SMS_PULL_MIN_APP_VERSION_CODE = 19
+
+/** `type` of the doorbell push's data payload. */
+export const SMS_PULL_DOORBELL_TYPE = 'sms_pending'
+
+/** How long fetched SMS stay reserved for the device before they are offered again. */
+export const SMS_PULL_LEASE_MS = 5 * 60 * 1000
+
+export const SMS_PULL_DEFAULT_PAGE_SIZE = 500
+export const SMS_PULL_MAX_PAGE_SIZE = 1000
+export const SMS_PULL_MAX_ACK_SIZE = 1000
+
+export function supportsSmsPull(device: { appVersionCode?: number }): boolean {
+  return (device?.appVersionCode ?? 0) >= SMS_PULL_MIN_APP_VERSION_CODE
+}
+
+/** SMS the device may fetch now: released for pulling and not leased. */
+export function pullableSmsFilter(
+  deviceId: Types.ObjectId | string,
+  now: Date,
+): Record<string, any> {
+  return {
+    device: deviceId,
+    type: SMSType.SENT,
+    status: 'pending',
+    pullableAt: { $lte: now },
+    $or: [{ leaseExpiresAt: null }, { leaseExpiresAt: { $lte: now } }],
+  }
+}
@@ -0,0 +1,27 @@
+import {
+  DEVICE_SCHEDULING_MAX_AHEAD_MS,
+  DEVICE_SCHEDULING_MIN_APP_VERSION_CODE,
+  scheduleSms,
+} from './sms-scheduling'
+
+describe('sms-scheduling', () => {
+  const now = 1_700_000_000_000
+  const device = { appVersionCode: DEVICE_SCHEDULING_MIN_APP_VERSION_CODE }
+
+  it('hands a scheduled SMS to a capable device with its send time', () => {
+    expect(scheduleSms(device, 60_000, now)).toEqual({ sendAt: now + 60_000 })
+  })
+
+  it('delays the push for older builds', () => {
+    expect(scheduleSms({ appVersionCode: 18 }, 60_000, now)).toEqual({ delayMs: 60_000 })
+  })
+
+  it('keeps SMS scheduled far ahead in the server queue', () => {
+    const delayMs = DEVICE_SCHEDULING_MAX_AHEAD_MS + 1
+    expect(scheduleSms(device, delayMs, now)).toEqual({ delayMs })
+  })
+
+  it('leaves SMS to send now alone', () => {
+    expect(scheduleSms(device, undefined, now)).toEqual({ delayMs: undefined })
+  })
+})
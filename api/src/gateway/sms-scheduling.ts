@@ -0,0 +1,36 @@
+/**
+ * On-device scheduling: an SMS with a future `scheduledAt` is pushed to the
+ * device right away with its `sendAt` (epoch millis) instead of being held in
+ * the server queue until it is due. The device keeps it and sends it on time
+ * from a local alarm, so a scheduled campaign does not depend on the server
+ * queue or FCM latency when it fires.
+ */
+
+/** First app build that holds SMS with a future sendAt and sends them itself. */
+export const DEVICE_SCHEDULING_MIN_APP_VERSION_CODE = 19
+
+/** SMS scheduled further ahead wait in the server queue, as for older builds. */
+export const DEVICE_SCHEDULING_MAX_AHEAD_MS = 7 * 24 * 60 * 60 * 1000
+
+export function supportsDeviceScheduling(device: { appVersionCode?: number }): boolean {
+  return (device?.appVersionCode ?? 0) >= DEVICE_SCHEDULING_MIN_APP_VERSION_CODE
+}
+
+/**
+ * How an SMS due in `delayMs` is scheduled: by the device when it can, with
+ * `sendAt` set and no server delay, otherwise by delaying the push.
+ */
+export function scheduleSms(
+  device: { appVersionCode?: number },
+  delayMs: number | undefined,
+  now = Date.now(),
+): { sendAt?: number; delayMs?: number } {
+  if (
+    delayMs === undefined ||
+    !supportsDeviceScheduling(device) ||
+    delayMs > DEVICE_SCHEDULING_MAX_AHEAD_MS
+  ) {
+    return { delayMs }
+  }
+  return { sendAt: now + delayMs }
+}